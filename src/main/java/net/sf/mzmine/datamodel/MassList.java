@@ -35,4 +35,28 @@ public interface MassList {
   @Nonnull
   public DataPoint[] getDataPoints();
 
+  /**
+   * @return Number of detected masses in this mass list
+   */
+  public default int getNumberOfDataPoints() {
+    return getDataPoints().length;
+  }
+
+  /**
+   * Copies the m/z and intensity values of this mass list, in the order of getDataPoints(), into
+   * the given arrays. Both arrays must have at least getNumberOfDataPoints() elements. Unlike
+   * getDataPoints(), implementations should not create any DataPoint instances, so the arrays can
+   * be reused by the caller for consecutive mass lists.
+   *
+   * @return Number of data points copied into the arrays
+   */
+  public default int getDataPoints(@Nonnull double mzValues[], @Nonnull double intensityValues[]) {
+    DataPoint dataPoints[] = getDataPoints();
+    for (int i = 0; i < dataPoints.length; i++) {
+      mzValues[i] = dataPoints[i].getMZ();
+      intensityValues[i] = dataPoints[i].getIntensity();
+    }
+    return dataPoints.length;
+  }
+
 }
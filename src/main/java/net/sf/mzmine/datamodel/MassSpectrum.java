@@ -95,4 +95,55 @@ public interface MassSpectrum {
   @Nonnull
   public DataPoint[] getDataPointsOverIntensity(double intensity);
 
+  /**
+   * Copies the m/z and intensity values of this spectrum, sorted in m/z order, into the given
+   * arrays. Both arrays must have at least getNumberOfDataPoints() elements. Unlike
+   * getDataPoints(), implementations should not create any DataPoint instances, so the arrays can
+   * be reused by the caller for consecutive spectra.
+   *
+   * This method may need to read data from disk, therefore it may be quite slow.
+   *
+   * @return Number of data points copied into the arrays
+   */
+  public default int getDataPoints(@Nonnull double mzValues[], @Nonnull double intensityValues[]) {
+    DataPoint dataPoints[] = getDataPoints();
+    for (int i = 0; i < dataPoints.length; i++) {
+      mzValues[i] = dataPoints[i].getMZ();
+      intensityValues[i] = dataPoints[i].getIntensity();
+    }
+    return dataPoints.length;
+  }
+
+  /**
+   * Returns m/z values of this spectrum sorted in ascending order.
+   *
+   * This method may need to read data from disk, therefore it may be quite slow. Use
+   * getDataPoints(double[], double[]) if both m/z and intensity values are needed.
+   *
+   * @return m/z values of this spectrum
+   */
+  @Nonnull
+  public default double[] getMzValues() {
+    final int numOfDataPoints = getNumberOfDataPoints();
+    double mzValues[] = new double[numOfDataPoints];
+    getDataPoints(mzValues, new double[numOfDataPoints]);
+    return mzValues;
+  }
+
+  /**
+   * Returns intensity values of this spectrum, in the order of getMzValues().
+   *
+   * This method may need to read data from disk, therefore it may be quite slow. Use
+   * getDataPoints(double[], double[]) if both m/z and intensity values are needed.
+   *
+   * @return intensity values of this spectrum
+   */
+  @Nonnull
+  public default double[] getIntensityValues() {
+    final int numOfDataPoints = getNumberOfDataPoints();
+    double intensityValues[] = new double[numOfDataPoints];
+    getDataPoints(new double[numOfDataPoints], intensityValues);
+    return intensityValues;
+  }
+
 }
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.datamodel.impl;
+
+import java.util.Arrays;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import com.google.common.collect.Range;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.IsotopePattern;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.util.PeakUtils;
+
+/**
+ * Feature of a ColumnarPeakList, which reads and writes its values in the columns of the feature
+ * matrix, including the scan numbers and data points of the added feature. Instances are created
+ * on first use by the row, see ColumnarPeakListRow, two instances of the same cell are equal.
+ */
+class ColumnarFeature implements Feature {
+
+  private final FeatureMatrix matrix;
+  private final int row, fileIndex;
+  private final FeatureMatrix.Chunk chunk;
+  private final int offset;
+
+  ColumnarFeature(FeatureMatrix matrix, int row, int fileIndex) {
+    this.matrix = matrix;
+    this.row = row;
+    this.fileIndex = fileIndex;
+    this.chunk = matrix.getChunk(row);
+    this.offset = matrix.getOffset(row, fileIndex);
+  }
+
+  @Override
+  public @Nonnull FeatureStatus getFeatureStatus() {
+    return FeatureStatus.values()[chunk.status[offset] - 1];
+  }
+
+  @Override
+  public double getMZ() {
+    return chunk.mz[offset];
+  }
+
+  @Override
+  public double getRT() {
+    return chunk.rt[offset];
+  }
+
+  @Override
+  public double getHeight() {
+    return chunk.height[offset];
+  }
+
+  @Override
+  public double getArea() {
+    return chunk.area[offset];
+  }
+
+  @Override
+  public @Nonnull RawDataFile getDataFile() {
+    return matrix.getFile(fileIndex);
+  }
+
+  @Override
+  public @Nonnull int[] getScanNumbers() {
+    final int scanNumbers[] = chunk.scanNumbers[offset];
+    return (scanNumbers == null) ? new int[0] : scanNumbers;
+  }
+
+  @Override
+  public int getRepresentativeScanNumber() {
+    return chunk.representativeScan[offset];
+  }
+
+  @Override
+  public @Nullable DataPoint getDataPoint(int scanNumber) {
+    final int scanNumbers[] = chunk.scanNumbers[offset];
+    final double dataPointMZ[] = chunk.dataPointMZ[offset];
+    final double dataPointIntensity[] = chunk.dataPointIntensity[offset];
+    if ((scanNumbers == null) || (dataPointMZ == null) || (dataPointIntensity == null))
+      return null;
+
+    // The scan numbers of features are usually sorted, otherwise search all of them
+    int index = Arrays.binarySearch(scanNumbers, scanNumber);
+    if (index < 0) {
+      for (index = scanNumbers.length - 1; index >= 0; index--) {
+        if (scanNumbers[index] == scanNumber)
+          break;
+      }
+    }
+    if ((index < 0) || Double.isNaN(dataPointMZ[index]))
+      return null;
+    return new SimpleDataPoint(dataPointMZ[index], dataPointIntensity[index]);
+  }
+
+  @Override
+  public @Nonnull Range<Double> getRawDataPointsRTRange() {
+    return Range.closed(chunk.rtMin[offset], chunk.rtMax[offset]);
+  }
+
+  @Override
+  public @Nonnull Range<Double> getRawDataPointsMZRange() {
+    return Range.closed(chunk.mzMin[offset], chunk.mzMax[offset]);
+  }
+
+  @Override
+  public @Nonnull Range<Double> getRawDataPointsIntensityRange() {
+    return Range.closed(chunk.intensityMin[offset], chunk.intensityMax[offset]);
+  }
+
+  @Override
+  public int getMostIntenseFragmentScanNumber() {
+    return chunk.fragmentScan[offset];
+  }
+
+  @Override
+  public int[] getAllMS2FragmentScanNumbers() {
+    final FeatureMatrix.Extras extras = matrix.getExtras(row, fileIndex, false);
+    if ((extras == null) || (extras.allMS2FragmentScanNumbers == null))
+      return new int[0];
+    return extras.allMS2FragmentScanNumbers;
+  }
+
+  @Override
+  public void setFragmentScanNumber(int fragmentScanNumber) {
+    chunk.fragmentScan[offset] = fragmentScanNumber;
+  }
+
+  @Override
+  public void setAllMS2FragmentScanNumbers(int[] allMS2FragmentScanNumbers) {
+    matrix.getExtras(row, fileIndex, true).allMS2FragmentScanNumbers = allMS2FragmentScanNumbers;
+    // also set best scan by TIC, as SimpleFeature does
+    int best = -1;
+    double tic = 0;
+    if (allMS2FragmentScanNumbers != null) {
+      for (int i : allMS2FragmentScanNumbers) {
+        if (tic < getDataFile().getScan(i).getTIC())
+          best = i;
+      }
+    }
+    setFragmentScanNumber(best);
+  }
+
+  @Override
+  public @Nullable IsotopePattern getIsotopePattern() {
+    final FeatureMatrix.Extras extras = matrix.getExtras(row, fileIndex, false);
+    return (extras == null) ? null : extras.isotopePattern;
+  }
+
+  @Override
+  public void setIsotopePattern(@Nonnull IsotopePattern isotopePattern) {
+    matrix.getExtras(row, fileIndex, true).isotopePattern = isotopePattern;
+  }
+
+  @Override
+  public int getCharge() {
+    return chunk.charge[offset];
+  }
+
+  @Override
+  public void setCharge(int charge) {
+    chunk.charge[offset] = charge;
+  }
+
+  @Override
+  public Double getFWHM() {
+    return FeatureMatrix.fromColumn(chunk.fwhm[offset]);
+  }
+
+  @Override
+  public Double getTailingFactor() {
+    return FeatureMatrix.fromColumn(chunk.tailingFactor[offset]);
+  }
+
+  @Override
+  public Double getAsymmetryFactor() {
+    return FeatureMatrix.fromColumn(chunk.asymmetryFactor[offset]);
+  }
+
+  @Override
+  public void setFWHM(Double fwhm) {
+    chunk.fwhm[offset] = FeatureMatrix.toColumn(fwhm);
+  }
+
+  @Override
+  public void setTailingFactor(Double tf) {
+    chunk.tailingFactor[offset] = FeatureMatrix.toColumn(tf);
+  }
+
+  @Override
+  public void setAsymmetryFactor(Double af) {
+    chunk.asymmetryFactor[offset] = FeatureMatrix.toColumn(af);
+  }
+
+  @Override
+  public void outputChromToFile() {
+
+  }
+
+  @Override
+  public void setPeakInformation(SimplePeakInformation peakInfoIn) {
+    matrix.getExtras(row, fileIndex, true).peakInformation = peakInfoIn;
+  }
+
+  @Override
+  public SimplePeakInformation getPeakInformation() {
+    final FeatureMatrix.Extras extras = matrix.getExtras(row, fileIndex, false);
+    return (extras == null) ? null : extras.peakInformation;
+  }
+
+  @Override
+  public @Nullable Integer getParentChromatogramRowID() {
+    final FeatureMatrix.Extras extras = matrix.getExtras(row, fileIndex, false);
+    return (extras == null) ? null : extras.parentChromatogramRowID;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof ColumnarFeature))
+      return false;
+    final ColumnarFeature feature = (ColumnarFeature) o;
+    return (feature.matrix == matrix) && (feature.row == row) && (feature.fileIndex == fileIndex);
+  }
+
+  @Override
+  public int hashCode() {
+    return row * 31 + fileIndex;
+  }
+
+  @Override
+  public String toString() {
+    return PeakUtils.peakToString(this);
+  }
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.datamodel.impl;
+
+import net.sf.mzmine.datamodel.RawDataFile;
+
+/**
+ * Feature list which keeps the values of its features in primitive columns, with one cell per row
+ * and raw data file, instead of one feature object per cell. Intended for aligned feature lists of
+ * many raw data files. The features of the rows created by createRow() are stored in the columns,
+ * see ColumnarPeakListRow. Rows of other types can be added as well, they keep their features.
+ */
+public class ColumnarPeakList extends SimplePeakList {
+
+  private final FeatureMatrix matrix;
+
+  public ColumnarPeakList(String name, RawDataFile[] dataFiles) {
+    super(name, dataFiles);
+    matrix = new FeatureMatrix(dataFiles);
+  }
+
+  /**
+   * Creates a new empty row whose features are stored in the columns of this feature list. The
+   * row still needs to be added by addRow().
+   */
+  public ColumnarPeakListRow createRow(int id) {
+    return new ColumnarPeakListRow(id, matrix, matrix.addRow());
+  }
+
+}
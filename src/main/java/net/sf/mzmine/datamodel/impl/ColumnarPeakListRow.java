@@ -0,0 +1,262 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.datamodel.impl;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.RawDataFile;
+
+/**
+ * Row of a ColumnarPeakList. The values of the features are copied to the columns of the feature
+ * matrix of the feature list, the added feature objects are not kept. The features returned by
+ * the row read their values from the columns, see ColumnarFeature. They are created on first use
+ * and then kept by the row.
+ *
+ * The average values are calculated on first use after the features have changed, so adding the
+ * features of n raw data files takes O(n) instead of O(n^2) time.
+ */
+public class ColumnarPeakListRow extends SimplePeakListRow {
+
+  private final FeatureMatrix matrix;
+  private final int row;
+
+  // Features of the columns by file index, created on first use
+  private volatile ColumnarFeature features[];
+
+  private double averageRT, averageMZ, averageHeight, averageArea;
+  private int rowCharge;
+  private double maxDataPointIntensity = 0;
+
+  // Set when the features have changed since the average values were calculated
+  private volatile boolean averageValuesOutdated = true;
+
+  ColumnarPeakListRow(int myID, FeatureMatrix matrix, int row) {
+    super(myID, false);
+    this.matrix = matrix;
+    this.row = row;
+  }
+
+  @Override
+  public Feature[] getPeaks() {
+    final FeatureMatrix.Chunk chunk = matrix.getChunk(row);
+    final List<Feature> peaks = new ArrayList<>();
+    for (int f = 0; f < matrix.getNumberOfFiles(); f++) {
+      if (chunk.status[matrix.getOffset(row, f)] != FeatureMatrix.EMPTY)
+        peaks.add(getColumnarFeature(f));
+    }
+    return peaks.toArray(new Feature[0]);
+  }
+
+  @Override
+  public RawDataFile[] getRawDataFiles() {
+    final FeatureMatrix.Chunk chunk = matrix.getChunk(row);
+    final List<RawDataFile> files = new ArrayList<>();
+    for (int f = 0; f < matrix.getNumberOfFiles(); f++) {
+      if (chunk.status[matrix.getOffset(row, f)] != FeatureMatrix.EMPTY)
+        files.add(matrix.getFile(f));
+    }
+    return files.toArray(new RawDataFile[0]);
+  }
+
+  @Override
+  public Feature getPeak(RawDataFile rawData) {
+    final int fileIndex = matrix.getFileIndex(rawData);
+    if ((fileIndex < 0) || !hasPeak(fileIndex))
+      return null;
+    return getColumnarFeature(fileIndex);
+  }
+
+  private ColumnarFeature getColumnarFeature(int fileIndex) {
+    ColumnarFeature rowFeatures[] = features;
+    if (rowFeatures == null) {
+      synchronized (this) {
+        if (features == null)
+          features = new ColumnarFeature[matrix.getNumberOfFiles()];
+        rowFeatures = features;
+      }
+    }
+    ColumnarFeature feature = rowFeatures[fileIndex];
+    if (feature == null) {
+      feature = new ColumnarFeature(matrix, row, fileIndex);
+      rowFeatures[fileIndex] = feature;
+    }
+    return feature;
+  }
+
+  @Override
+  public synchronized void addPeak(RawDataFile rawData, Feature peak) {
+    if (peak == null)
+      throw new IllegalArgumentException("Cannot add null feature to a feature list row");
+
+    final int fileIndex = matrix.getFileIndex(rawData);
+    if (fileIndex < 0)
+      throw new IllegalArgumentException(
+          "Raw data file " + rawData + " is not part of the feature list of row " + getID());
+
+    matrix.setFeature(row, fileIndex, peak);
+
+    if (peak.getRawDataPointsIntensityRange().upperEndpoint() > maxDataPointIntensity)
+      maxDataPointIntensity = peak.getRawDataPointsIntensityRange().upperEndpoint();
+    featuresChanged();
+  }
+
+  @Override
+  public synchronized void removePeak(RawDataFile file) {
+    final int fileIndex = matrix.getFileIndex(file);
+    if (fileIndex < 0)
+      return;
+    matrix.removeFeature(row, fileIndex);
+    featuresChanged();
+  }
+
+  @Override
+  public int getNumberOfPeaks() {
+    int numOfPeaks = 0;
+    for (int f = 0; f < matrix.getNumberOfFiles(); f++) {
+      if (hasPeak(f))
+        numOfPeaks++;
+    }
+    return numOfPeaks;
+  }
+
+  @Override
+  public boolean hasPeak(Feature peak) {
+    if (!(peak instanceof ColumnarFeature))
+      return false;
+    final int fileIndex = matrix.getFileIndex(peak.getDataFile());
+    return (fileIndex >= 0) && hasPeak(fileIndex) && peak.equals(getColumnarFeature(fileIndex));
+  }
+
+  @Override
+  public boolean hasPeak(RawDataFile file) {
+    final int fileIndex = matrix.getFileIndex(file);
+    return (fileIndex >= 0) && hasPeak(fileIndex);
+  }
+
+  private boolean hasPeak(int fileIndex) {
+    return matrix.getChunk(row).status[matrix.getOffset(row, fileIndex)] != FeatureMatrix.EMPTY;
+  }
+
+  @Override
+  public double getAverageMZ() {
+    calculateAverageValues();
+    return averageMZ;
+  }
+
+  @Override
+  public double getAverageRT() {
+    calculateAverageValues();
+    return averageRT;
+  }
+
+  @Override
+  public double getAverageHeight() {
+    calculateAverageValues();
+    return averageHeight;
+  }
+
+  @Override
+  public double getAverageArea() {
+    calculateAverageValues();
+    return averageArea;
+  }
+
+  @Override
+  public int getRowCharge() {
+    calculateAverageValues();
+    return rowCharge;
+  }
+
+  @Override
+  public synchronized void setAverageMZ(double mz) {
+    calculateAverageValues();
+    this.averageMZ = mz;
+    averageValuesChanged();
+  }
+
+  @Override
+  public synchronized void setAverageRT(double rt) {
+    calculateAverageValues();
+    this.averageRT = rt;
+    averageValuesChanged();
+  }
+
+  @Override
+  public double getDataPointMaxIntensity() {
+    return maxDataPointIntensity;
+  }
+
+  @Override
+  public void update() {
+    featuresChanged();
+  }
+
+  private void featuresChanged() {
+    averageValuesOutdated = true;
+    averageValuesChanged();
+  }
+
+  /**
+   * Calculates the average values from the columns, as SimplePeakListRow does
+   */
+  private void calculateAverageValues() {
+
+    if (!averageValuesOutdated)
+      return;
+
+    synchronized (this) {
+      if (!averageValuesOutdated)
+        return;
+
+      final FeatureMatrix.Chunk chunk = matrix.getChunk(row);
+      double rtSum = 0, mzSum = 0, heightSum = 0, areaSum = 0;
+      int numOfPeaks = 0, charge = 0;
+      Set<Integer> chargeArr = new HashSet<Integer>();
+      for (int f = 0; f < matrix.getNumberOfFiles(); f++) {
+        final int offset = matrix.getOffset(row, f);
+        if (chunk.status[offset] == FeatureMatrix.EMPTY)
+          continue;
+        rtSum += chunk.rt[offset];
+        mzSum += chunk.mz[offset];
+        heightSum += chunk.height[offset];
+        areaSum += chunk.area[offset];
+        if (chunk.charge[offset] > 0) {
+          chargeArr.add(chunk.charge[offset]);
+          charge = chunk.charge[offset];
+        }
+        numOfPeaks++;
+      }
+      averageRT = rtSum / numOfPeaks;
+      averageMZ = mzSum / numOfPeaks;
+      averageHeight = heightSum / numOfPeaks;
+      averageArea = areaSum / numOfPeaks;
+      if (chargeArr.size() < 2) {
+        rowCharge = charge;
+      } else {
+        rowCharge = 0;
+      }
+      averageValuesOutdated = false;
+    }
+
+  }
+
+}
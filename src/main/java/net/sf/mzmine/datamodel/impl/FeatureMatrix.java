@@ -0,0 +1,240 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.datamodel.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.IsotopePattern;
+import net.sf.mzmine.datamodel.RawDataFile;
+
+/**
+ * Values of the features of a ColumnarPeakList, in primitive columns with one cell per row and raw
+ * data file. The rows are allocated in chunks, so adding rows never copies the existing columns.
+ * The data points of each cell are kept as primitive arrays of scan numbers, m/z values and
+ * intensities. Values which are rarely set (isotope patterns, peak information, MS2 scans) are kept
+ * in a map by cell.
+ */
+class FeatureMatrix {
+
+  private static final int CHUNK_SHIFT = 10;
+  private static final int CHUNK_ROWS = 1 << CHUNK_SHIFT;
+
+  // Status of empty cells, other cells keep the ordinal of their FeatureStatus + 1
+  static final byte EMPTY = 0;
+
+  private final RawDataFile dataFiles[];
+  private final Map<RawDataFile, Integer> fileIndexes = new HashMap<>();
+
+  private volatile Chunk chunks[] = new Chunk[16];
+  private int numOfRows = 0;
+
+  private final Map<Long, Extras> extras = new ConcurrentHashMap<>();
+
+  FeatureMatrix(RawDataFile dataFiles[]) {
+    this.dataFiles = dataFiles.clone();
+    for (int i = 0; i < dataFiles.length; i++)
+      fileIndexes.put(dataFiles[i], i);
+  }
+
+  /**
+   * Columns of CHUNK_ROWS rows, the cell of each row and file is at getOffset()
+   */
+  static class Chunk {
+
+    final byte status[];
+    final double mz[], rt[], height[], area[];
+    final double rtMin[], rtMax[], mzMin[], mzMax[], intensityMin[], intensityMax[];
+    final double fwhm[], tailingFactor[], asymmetryFactor[];
+    final int representativeScan[], fragmentScan[], charge[];
+
+    // Data points of each cell, scans without a data point have a NaN m/z value
+    final int scanNumbers[][];
+    final double dataPointMZ[][], dataPointIntensity[][];
+
+    private Chunk(int numOfCells) {
+      status = new byte[numOfCells];
+      mz = new double[numOfCells];
+      rt = new double[numOfCells];
+      height = new double[numOfCells];
+      area = new double[numOfCells];
+      rtMin = new double[numOfCells];
+      rtMax = new double[numOfCells];
+      mzMin = new double[numOfCells];
+      mzMax = new double[numOfCells];
+      intensityMin = new double[numOfCells];
+      intensityMax = new double[numOfCells];
+      fwhm = new double[numOfCells];
+      tailingFactor = new double[numOfCells];
+      asymmetryFactor = new double[numOfCells];
+      representativeScan = new int[numOfCells];
+      fragmentScan = new int[numOfCells];
+      charge = new int[numOfCells];
+      scanNumbers = new int[numOfCells][];
+      dataPointMZ = new double[numOfCells][];
+      dataPointIntensity = new double[numOfCells][];
+    }
+
+  }
+
+  /**
+   * Values of a cell which are rarely set
+   */
+  static class Extras {
+    int allMS2FragmentScanNumbers[];
+    IsotopePattern isotopePattern;
+    SimplePeakInformation peakInformation;
+    Integer parentChromatogramRowID;
+  }
+
+  int getNumberOfFiles() {
+    return dataFiles.length;
+  }
+
+  RawDataFile getFile(int fileIndex) {
+    return dataFiles[fileIndex];
+  }
+
+  /**
+   * @return index of given raw data file, or -1 if the file is not part of the matrix
+   */
+  int getFileIndex(RawDataFile dataFile) {
+    final Integer index = fileIndexes.get(dataFile);
+    return (index == null) ? -1 : index;
+  }
+
+  /**
+   * Adds an empty row and returns its index
+   */
+  synchronized int addRow() {
+    final int row = numOfRows;
+    final int chunkIndex = row >> CHUNK_SHIFT;
+    if (chunkIndex == chunks.length)
+      chunks = Arrays.copyOf(chunks, chunks.length * 2);
+    if (chunks[chunkIndex] == null)
+      chunks[chunkIndex] = new Chunk(CHUNK_ROWS * dataFiles.length);
+    numOfRows++;
+    return row;
+  }
+
+  Chunk getChunk(int row) {
+    return chunks[row >> CHUNK_SHIFT];
+  }
+
+  int getOffset(int row, int fileIndex) {
+    return (row & (CHUNK_ROWS - 1)) * dataFiles.length + fileIndex;
+  }
+
+  /**
+   * Copies the values of given feature to the cell of given row and file
+   */
+  void setFeature(int row, int fileIndex, Feature feature) {
+
+    final Chunk chunk = getChunk(row);
+    final int offset = getOffset(row, fileIndex);
+
+    chunk.status[offset] = (byte) (feature.getFeatureStatus().ordinal() + 1);
+    chunk.mz[offset] = feature.getMZ();
+    chunk.rt[offset] = feature.getRT();
+    chunk.height[offset] = feature.getHeight();
+    chunk.area[offset] = feature.getArea();
+    chunk.rtMin[offset] = feature.getRawDataPointsRTRange().lowerEndpoint();
+    chunk.rtMax[offset] = feature.getRawDataPointsRTRange().upperEndpoint();
+    chunk.mzMin[offset] = feature.getRawDataPointsMZRange().lowerEndpoint();
+    chunk.mzMax[offset] = feature.getRawDataPointsMZRange().upperEndpoint();
+    chunk.intensityMin[offset] = feature.getRawDataPointsIntensityRange().lowerEndpoint();
+    chunk.intensityMax[offset] = feature.getRawDataPointsIntensityRange().upperEndpoint();
+    chunk.fwhm[offset] = toColumn(feature.getFWHM());
+    chunk.tailingFactor[offset] = toColumn(feature.getTailingFactor());
+    chunk.asymmetryFactor[offset] = toColumn(feature.getAsymmetryFactor());
+    chunk.representativeScan[offset] = feature.getRepresentativeScanNumber();
+    chunk.fragmentScan[offset] = feature.getMostIntenseFragmentScanNumber();
+    chunk.charge[offset] = feature.getCharge();
+
+    final int scanNumbers[] = feature.getScanNumbers().clone();
+    final double dataPointMZ[] = new double[scanNumbers.length];
+    final double dataPointIntensity[] = new double[scanNumbers.length];
+    for (int i = 0; i < scanNumbers.length; i++) {
+      final DataPoint dataPoint = feature.getDataPoint(scanNumbers[i]);
+      dataPointMZ[i] = (dataPoint == null) ? Double.NaN : dataPoint.getMZ();
+      dataPointIntensity[i] = (dataPoint == null) ? 0 : dataPoint.getIntensity();
+    }
+    chunk.scanNumbers[offset] = scanNumbers;
+    chunk.dataPointMZ[offset] = dataPointMZ;
+    chunk.dataPointIntensity[offset] = dataPointIntensity;
+
+    final int allMS2FragmentScanNumbers[] = feature.getAllMS2FragmentScanNumbers();
+    final IsotopePattern isotopePattern = feature.getIsotopePattern();
+    final SimplePeakInformation peakInformation = feature.getPeakInformation();
+    final Integer parentChromatogramRowID = feature.getParentChromatogramRowID();
+    final long cell = getCell(row, fileIndex);
+    if (((allMS2FragmentScanNumbers == null) || (allMS2FragmentScanNumbers.length == 0))
+        && (isotopePattern == null) && (peakInformation == null)
+        && (parentChromatogramRowID == null)) {
+      extras.remove(cell);
+    } else {
+      final Extras cellExtras = new Extras();
+      cellExtras.allMS2FragmentScanNumbers = allMS2FragmentScanNumbers;
+      cellExtras.isotopePattern = isotopePattern;
+      cellExtras.peakInformation = peakInformation;
+      cellExtras.parentChromatogramRowID = parentChromatogramRowID;
+      extras.put(cell, cellExtras);
+    }
+
+  }
+
+  void removeFeature(int row, int fileIndex) {
+    final Chunk chunk = getChunk(row);
+    final int offset = getOffset(row, fileIndex);
+    chunk.status[offset] = EMPTY;
+    chunk.scanNumbers[offset] = null;
+    chunk.dataPointMZ[offset] = null;
+    chunk.dataPointIntensity[offset] = null;
+    extras.remove(getCell(row, fileIndex));
+  }
+
+  /**
+   * @return the rarely set values of given cell, null if none are set and create is false
+   */
+  Extras getExtras(int row, int fileIndex, boolean create) {
+    final long cell = getCell(row, fileIndex);
+    if (create)
+      return extras.computeIfAbsent(cell, c -> new Extras());
+    return extras.get(cell);
+  }
+
+  private long getCell(int row, int fileIndex) {
+    return (long) row * dataFiles.length + fileIndex;
+  }
+
+  /**
+   * Null values of the optional Double properties are stored as NaN
+   */
+  static double toColumn(Double value) {
+    return (value == null) ? Double.NaN : value;
+  }
+
+  static Double fromColumn(double value) {
+    return Double.isNaN(value) ? null : value;
+  }
+
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.datamodel.impl;
+
+import java.util.Arrays;
+import java.util.List;
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Range;
+import net.sf.mzmine.datamodel.PeakListRow;
+
+/**
+ * Immutable index of feature list rows by their average m/z and retention time. The rows are kept
+ * in arrays sorted by m/z, which are split into blocks of fixed size. Each block knows the
+ * retention time range of its rows, so blocks outside of the queried retention time range are
+ * skipped entirely. The index is a snapshot of the average values at the time it was built; it has
+ * to be rebuilt when any row is added, removed or changes its average values.
+ */
+class PeakListRowIndex {
+
+  private static final int BLOCK_SIZE = 32;
+
+  // Rows sorted by average m/z, their average values and their positions in the feature list
+  private final PeakListRow rows[];
+  private final double mzValues[], rtValues[];
+  private final int positions[];
+
+  // Retention time range of each block of rows
+  private final double blockMinRT[], blockMaxRT[];
+
+  // Version of the feature list rows this index was built from
+  private final int rowsVersion;
+
+  PeakListRowIndex(List<PeakListRow> peakListRows, int rowsVersion) {
+
+    this.rowsVersion = rowsVersion;
+
+    final int n = peakListRows.size();
+    final double mz[] = new double[n];
+    final Integer order[] = new Integer[n];
+    for (int i = 0; i < n; i++) {
+      mz[i] = peakListRows.get(i).getAverageMZ();
+      order[i] = i;
+    }
+
+    // Stable sort, so rows of equal m/z stay in feature list order
+    Arrays.sort(order, (i1, i2) -> Double.compare(mz[i1], mz[i2]));
+
+    rows = new PeakListRow[n];
+    mzValues = new double[n];
+    rtValues = new double[n];
+    positions = new int[n];
+    for (int i = 0; i < n; i++) {
+      positions[i] = order[i];
+      rows[i] = peakListRows.get(positions[i]);
+      mzValues[i] = mz[positions[i]];
+      rtValues[i] = rows[i].getAverageRT();
+    }
+
+    final int numOfBlocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    blockMinRT = new double[numOfBlocks];
+    blockMaxRT = new double[numOfBlocks];
+    for (int b = 0; b < numOfBlocks; b++) {
+      // Rows without peaks have NaN values, which make the whole range NaN, so the block is never
+      // skipped
+      double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+      for (int i = b * BLOCK_SIZE; i < Math.min(n, (b + 1) * BLOCK_SIZE); i++) {
+        min = Math.min(min, rtValues[i]);
+        max = Math.max(max, rtValues[i]);
+      }
+      blockMinRT[b] = min;
+      blockMaxRT[b] = max;
+    }
+
+  }
+
+  /**
+   * @return true if this index was built from the given version of the rows
+   */
+  boolean isUpToDate(int rowsVersion) {
+    return this.rowsVersion == rowsVersion;
+  }
+
+  /**
+   * Returns the rows inside given ranges, in the order of the feature list
+   */
+  PeakListRow[] getRowsInside(Range<Double> rtRange, Range<Double> mzRange) {
+
+    final int from = mzRange.hasLowerBound()
+        ? (mzRange.lowerBoundType() == BoundType.CLOSED ? lowerBound(mzRange.lowerEndpoint())
+            : upperBound(mzRange.lowerEndpoint()))
+        : 0;
+    final int to = mzRange.hasUpperBound()
+        ? (mzRange.upperBoundType() == BoundType.CLOSED ? upperBound(mzRange.upperEndpoint())
+            : lowerBound(mzRange.upperEndpoint()))
+        : mzValues.length;
+
+    if (from >= to)
+      return new PeakListRow[0];
+
+    // Feature list position in the upper and index in the lower 32 bits, for sorting
+    final long found[] = new long[to - from];
+    int numFound = 0;
+
+    int i = from;
+    while (i < to) {
+      final int block = i / BLOCK_SIZE;
+      final int blockEnd = Math.min(to, (block + 1) * BLOCK_SIZE);
+      if (!isBlockOutside(block, rtRange)) {
+        for (; i < blockEnd; i++) {
+          if (rtRange.contains(rtValues[i]))
+            found[numFound++] = ((long) positions[i] << 32) | i;
+        }
+      }
+      i = blockEnd;
+    }
+
+    // Restore the feature list order
+    Arrays.sort(found, 0, numFound);
+    final PeakListRow result[] = new PeakListRow[numFound];
+    for (int f = 0; f < numFound; f++)
+      result[f] = rows[(int) found[f]];
+    return result;
+
+  }
+
+  private boolean isBlockOutside(int block, Range<Double> rtRange) {
+    if (rtRange.hasLowerBound() && (blockMaxRT[block] < rtRange.lowerEndpoint()))
+      return true;
+    if (rtRange.hasUpperBound() && (blockMinRT[block] > rtRange.upperEndpoint()))
+      return true;
+    return false;
+  }
+
+  /**
+   * Returns the index of the first m/z value >= mz
+   */
+  private int lowerBound(double mz) {
+    int low = 0, high = mzValues.length;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (Double.compare(mzValues[middle], mz) < 0)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  /**
+   * Returns the index of the first m/z value > mz
+   */
+  private int upperBound(double mz) {
+    int low = 0, high = mzValues.length;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (Double.compare(mzValues[middle], mz) <= 0)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+}
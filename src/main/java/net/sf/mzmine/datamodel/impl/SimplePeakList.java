@@ -22,9 +22,13 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 import com.google.common.collect.Range;
 import net.sf.mzmine.datamodel.Feature;
@@ -48,6 +52,13 @@ public class SimplePeakList implements PeakList {
   private String dateCreated;
   private Range<Double> mzRange, rtRange;
 
+  // Index of the rows for range queries, built lazily and rebuilt after any change of the rows
+  private volatile PeakListRowIndex rowIndex;
+
+  // Incremented when a row is added or removed, and by the rows of this feature list when their
+  // average values change
+  private final AtomicInteger rowsVersion = new AtomicInteger();
+
   public static DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
 
   public SimplePeakList(String name, RawDataFile dataFile) {
@@ -166,14 +177,28 @@ public class SimplePeakList implements PeakList {
 
   @Override
   public PeakListRow[] getRowsInsideScanAndMZRange(Range<Double> rtRange, Range<Double> mzRange) {
-    Vector<PeakListRow> rowsInside = new Vector<PeakListRow>();
+    return getRowIndex().getRowsInside(rtRange, mzRange);
+  }
 
-    for (PeakListRow row : peakListRows) {
-      if (rtRange.contains(row.getAverageRT()) && mzRange.contains(row.getAverageMZ()))
-        rowsInside.add(row);
+  /**
+   * Returns the index of the rows, rebuilding it if any row has been added or removed or if the
+   * average values of any row have changed since it was built. Changes of the average values are
+   * only noticed for rows of type SimplePeakListRow.
+   */
+  private PeakListRowIndex getRowIndex() {
+    PeakListRowIndex index = rowIndex;
+    if ((index != null) && index.isUpToDate(rowsVersion.get()))
+      return index;
+
+    synchronized (this) {
+      final int version = rowsVersion.get();
+      index = rowIndex;
+      if ((index == null) || !index.isUpToDate(version)) {
+        index = new PeakListRowIndex(peakListRows, version);
+        rowIndex = index;
+      }
+      return index;
     }
-
-    return rowsInside.toArray(new PeakListRow[0]);
   }
 
   @Override
@@ -184,7 +209,32 @@ public class SimplePeakList implements PeakList {
         throw (new IllegalArgumentException("Data file " + testFile + " is not in this feature list"));
     }
 
+    addRowUnchecked(row);
+  }
+
+  /**
+   * Adds all given rows at once. The data files of all rows are verified before any row is added.
+   */
+  public void addRows(Collection<? extends PeakListRow> rows) {
+    Set<RawDataFile> myFiles = new HashSet<>(Arrays.asList(this.getRawDataFiles()));
+    for (PeakListRow row : rows) {
+      for (RawDataFile testFile : row.getRawDataFiles()) {
+        if (!myFiles.contains(testFile))
+          throw (new IllegalArgumentException(
+              "Data file " + testFile + " is not in this feature list"));
+      }
+    }
+
+    peakListRows.ensureCapacity(peakListRows.size() + rows.size());
+    for (PeakListRow row : rows)
+      addRowUnchecked(row);
+  }
+
+  private void addRowUnchecked(PeakListRow row) {
     peakListRows.add(row);
+    if (row instanceof SimplePeakListRow)
+      ((SimplePeakListRow) row).addFeatureListVersion(rowsVersion);
+    rowsVersion.incrementAndGet();
     if (row.getDataPointMaxIntensity() > maxDataPointIntensity) {
       maxDataPointIntensity = row.getDataPointMaxIntensity();
     }
@@ -243,7 +293,9 @@ public class SimplePeakList implements PeakList {
    */
   @Override
   public void removeRow(PeakListRow row) {
-    peakListRows.remove(row);
+    if (peakListRows.remove(row) && (row instanceof SimplePeakListRow))
+      ((SimplePeakListRow) row).removeFeatureListVersion(rowsVersion);
+    rowsVersion.incrementAndGet();
 
     // We have to update the project tree model
     MZmineProjectImpl project =
@@ -26,6 +26,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nonnull;
 import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.IsotopePattern;
@@ -61,9 +62,26 @@ public class SimplePeakListRow implements PeakListRow {
   private double averageRT, averageMZ, averageHeight, averageArea;
   private int rowCharge;
 
+  /**
+   * Row versions of the feature lists which contain this row. They are incremented whenever the
+   * average m/z or RT of this row changes, so the row indexes of these feature lists can detect
+   * that they are out of date. Only the counters are kept, not the feature lists.
+   */
+  private static final AtomicInteger NO_VERSIONS[] = new AtomicInteger[0];
+  private volatile AtomicInteger featureListVersions[] = NO_VERSIONS;
+
   public SimplePeakListRow(int myID) {
+    this(myID, true);
+  }
+
+  /**
+   * @param storePeaks false if the subclass keeps its features itself and overrides all methods
+   *        which access them, see ColumnarPeakListRow
+   */
+  SimplePeakListRow(int myID, boolean storePeaks) {
     this.myID = myID;
-    peaks = new ConcurrentHashMap<RawDataFile, Feature>();
+    if (storePeaks)
+      peaks = new ConcurrentHashMap<RawDataFile, Feature>();
     identities = new Vector<PeakIdentity>();
     information = null;
     preferredPeak = null;
@@ -170,6 +188,33 @@ public class SimplePeakListRow implements PeakListRow {
     } else {
       rowCharge = 0;
     }
+    averageValuesChanged();
+  }
+
+  /**
+   * Called by SimplePeakList when this row is added to it
+   */
+  synchronized void addFeatureListVersion(AtomicInteger version) {
+    featureListVersions = Arrays.copyOf(featureListVersions, featureListVersions.length + 1);
+    featureListVersions[featureListVersions.length - 1] = version;
+  }
+
+  /**
+   * Called by SimplePeakList when this row is removed from it
+   */
+  synchronized void removeFeatureListVersion(AtomicInteger version) {
+    final List<AtomicInteger> versions = new ArrayList<>(Arrays.asList(featureListVersions));
+    if (versions.remove(version))
+      featureListVersions = versions.toArray(NO_VERSIONS);
+  }
+
+  /**
+   * Increments the row versions of the feature lists which contain this row. Called whenever the
+   * average m/z or RT of this row changes.
+   */
+  void averageValuesChanged() {
+    for (AtomicInteger version : featureListVersions)
+      version.incrementAndGet();
   }
 
   /**
@@ -218,6 +263,7 @@ public class SimplePeakListRow implements PeakListRow {
   @Override
   public void setAverageMZ(double mz) {
     this.averageMZ = mz;
+    averageValuesChanged();
   }
 
   /**
@@ -226,6 +272,7 @@ public class SimplePeakListRow implements PeakListRow {
   @Override
   public void setAverageRT(double rt) {
     this.averageRT = rt;
+    averageValuesChanged();
   }
 
   /**
@@ -27,6 +27,7 @@ import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
 import net.sf.mzmine.parameters.parametertypes.BooleanParameter;
 import net.sf.mzmine.parameters.parametertypes.ComboParameter;
+import net.sf.mzmine.parameters.parametertypes.IntegerParameter;
 import net.sf.mzmine.parameters.parametertypes.WindowSettingsParameter;
 import net.sf.mzmine.parameters.parametertypes.filenames.FileNameParameter;
 import net.sf.mzmine.parameters.parametertypes.submodules.OptionalModuleParameter;
@@ -52,6 +53,26 @@ public class MZminePreferences extends SimpleParameterSet {
 
   public static final NumOfThreadsParameter numOfThreads = new NumOfThreadsParameter();
 
+  public static final BooleanParameter memoryMappedScans =
+      new BooleanParameter("Memory-mapped scan storage",
+          "Read scan data from a memory-mapped temporary file, so that multiple threads can read the same raw data file concurrently. Applies to raw data files opened after changing this setting.",
+          false);
+
+  public static final IntegerParameter scanDataCacheSize = new IntegerParameter(
+      "Scan data cache size (MB)",
+      "Maximum memory used to cache recently read scans and mass lists of all raw data files together. The cached data may also be released by the garbage collector when memory is short. Set to 0 to disable the cache. Applies when the next raw data file is opened.",
+      256, 0, null);
+
+  public static final BooleanParameter uncompressedProjectScans =
+      new BooleanParameter("Save project scan data uncompressed",
+          "Store the scan data of raw data files uncompressed when saving a project. The project file is larger, but it is saved faster and its scan data can be read in place when the project is opened.",
+          false);
+
+  public static final BooleanParameter projectScansInPlace =
+      new BooleanParameter("Read project scan data in place",
+          "When opening a project, read uncompressed scan data directly from the project file instead of copying it to the temporary folder. The project file must not be moved or modified while the project is open. The scan data of a raw data file is copied once new data (e.g. mass lists) is added to it.",
+          false);
+
   public static final OptionalModuleParameter proxySettings = new OptionalModuleParameter(
       "Use proxy", "Use proxy for internet connection?", new ProxySettings());
 
@@ -70,6 +91,7 @@ public class MZminePreferences extends SimpleParameterSet {
 
   public MZminePreferences() {
     super(new Parameter[] {colorPalettes, mzFormat, rtFormat, intensityFormat, numOfThreads,
+        memoryMappedScans, scanDataCacheSize, uncompressedProjectScans, projectScansInPlace,
         proxySettings, rExecPath, sendStatistics, windowSetttings, sendErrorEMail});
   }
 
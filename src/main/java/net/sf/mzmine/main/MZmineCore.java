@@ -46,6 +46,7 @@ import net.sf.mzmine.modules.batchmode.BatchModeModule;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.WindowSettingsParameter;
 import net.sf.mzmine.project.ProjectManager;
+import net.sf.mzmine.project.impl.DataPointsCache;
 import net.sf.mzmine.project.impl.MZmineProjectImpl;
 import net.sf.mzmine.project.impl.ProjectManagerImpl;
 import net.sf.mzmine.project.impl.RawDataFileImpl;
@@ -285,7 +286,15 @@ public final class MZmineCore {
   }
 
   public static RawDataFileWriter createNewFile(String name) throws IOException {
-    return new RawDataFileImpl(name);
+    if (configuration == null)
+      return new RawDataFileImpl(name);
+    final MZminePreferences preferences = configuration.getPreferences();
+    final boolean useMemoryMapping =
+        preferences.getParameter(MZminePreferences.memoryMappedScans).getValue();
+    final Integer cacheSizeMB =
+        preferences.getParameter(MZminePreferences.scanDataCacheSize).getValue();
+    DataPointsCache.setMaxBytes(cacheSizeMB == null ? 0 : cacheSizeMB * 1024L * 1024L);
+    return new RawDataFileImpl(name, useMemoryMapping);
   }
 
   @Nonnull
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.batchmode;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import javax.xml.transform.TransformerConfigurationException;
+import org.xml.sax.SAXException;
+import net.sf.mzmine.datamodel.MZmineProject;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.modules.projectmethods.projectload.ProjectOpeningTask;
+import net.sf.mzmine.modules.projectmethods.projectsave.SplitProjectWriter;
+import net.sf.mzmine.project.impl.MZmineProjectImpl;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+
+/**
+ * Checkpoint of a batch run in a directory. The project is saved in the project-save format, split
+ * into one ZIP file for each raw data file and one ZIP file for the feature lists. A raw data file
+ * is written again only if it changed since the last checkpoint, otherwise its ZIP file is reused.
+ * The manifest file lists the ZIP files, the number of completed batch steps and the items created
+ * by the last steps. It is replaced atomically after all ZIP files were written, so the checkpoint
+ * directory always contains the last valid checkpoint.
+ */
+class BatchCheckpoint {
+
+  private static final String MANIFEST_FILENAME = "checkpoint.properties";
+  private static final String RAW_DATA_FILE_PREFIX = "Raw data file ";
+  private static final String PEAK_LISTS_PREFIX = "Feature lists ";
+  private static final Pattern CHECKPOINT_FILE_PATTERN =
+      Pattern.compile("^(" + RAW_DATA_FILE_PREFIX + "|" + PEAK_LISTS_PREFIX + ")(\\d+)\\.zip$");
+
+  private static final String BATCH_STEPS = "batchSteps";
+  private static final String COMPLETED_STEPS = "completedSteps";
+  private static final String DATA_FILES = "dataFiles";
+  private static final String PEAK_LISTS = "peakLists";
+  private static final String CREATED_DATA_FILES = "createdDataFiles";
+  private static final String PREVIOUS_CREATED_DATA_FILES = "previousCreatedDataFiles";
+  private static final String CREATED_PEAK_LISTS = "createdPeakLists";
+  private static final String PREVIOUS_CREATED_PEAK_LISTS = "previousCreatedPeakLists";
+
+  private Logger logger = Logger.getLogger(this.getClass().getName());
+
+  private final File directory;
+  private final String batchSteps;
+
+  // The ID and the modification state of each raw data file saved in the checkpoint
+  private Map<RawDataFile, SavedDataFile> savedDataFiles = new HashMap<>();
+
+  // Next free ID of a checkpoint ZIP file
+  private int nextID = 1;
+
+  BatchCheckpoint(File directory, BatchQueue queue) {
+    this.directory = directory;
+    this.batchSteps = queue.stream().map(step -> step.getModule().getClass().getName())
+        .collect(Collectors.joining(","));
+
+    // Never overwrite the files of an existing checkpoint
+    String fileNames[] = directory.list();
+    if (fileNames != null) {
+      for (String fileName : fileNames) {
+        Matcher m = CHECKPOINT_FILE_PATTERN.matcher(fileName);
+        if (m.matches())
+          nextID = Math.max(nextID, Integer.parseInt(m.group(2)) + 1);
+      }
+    }
+  }
+
+  /**
+   * Writes a new checkpoint of given project after the given number of batch steps was completed
+   */
+  void write(MZmineProject project, int completedSteps, List<RawDataFile> createdDataFiles,
+      List<RawDataFile> previousCreatedDataFiles, List<PeakList> createdPeakLists,
+      List<PeakList> previousCreatedPeakLists)
+      throws IOException, TransformerConfigurationException, SAXException {
+
+    logger.info("Writing batch checkpoint after step # " + completedSteps + " to " + directory);
+
+    if (!directory.exists() && !directory.mkdirs())
+      throw new IOException("Could not create checkpoint directory " + directory);
+
+    // Save the raw data files which changed since the last checkpoint
+    RawDataFile dataFiles[] = project.getDataFiles();
+    Map<RawDataFile, SavedDataFile> newSavedDataFiles = new HashMap<>();
+    Hashtable<RawDataFile, String> dataFilesIDMap = new Hashtable<>();
+    int dataFileIDs[] = new int[dataFiles.length];
+    for (int i = 0; i < dataFiles.length; i++) {
+      RawDataFileImpl dataFile = (RawDataFileImpl) dataFiles[i];
+      String state = getModificationState(dataFile);
+      SavedDataFile saved = savedDataFiles.get(dataFile);
+      if ((saved == null) || !saved.state.equals(state)) {
+        saved = new SavedDataFile(nextID++, state);
+        SplitProjectWriter.writeRawDataFile(dataFile, saved.id, getRawDataZipFile(saved.id));
+      }
+      newSavedDataFiles.put(dataFile, saved);
+      dataFilesIDMap.put(dataFile, String.valueOf(saved.id));
+      dataFileIDs[i] = saved.id;
+    }
+
+    // Save the feature lists, which are always written
+    final int peakListsID = nextID++;
+    SplitProjectWriter.writePeakLists((MZmineProjectImpl) project, dataFilesIDMap,
+        getPeakListsZipFile(peakListsID));
+
+    // Replace the manifest, which makes the new checkpoint valid
+    List<RawDataFile> dataFilesList = Arrays.asList(dataFiles);
+    List<PeakList> peakListsList = Arrays.asList(project.getPeakLists());
+    Properties manifest = new Properties();
+    manifest.setProperty(BATCH_STEPS, batchSteps);
+    manifest.setProperty(COMPLETED_STEPS, String.valueOf(completedSteps));
+    manifest.setProperty(DATA_FILES,
+        Arrays.stream(dataFileIDs).mapToObj(String::valueOf).collect(Collectors.joining(",")));
+    manifest.setProperty(PEAK_LISTS, String.valueOf(peakListsID));
+    manifest.setProperty(CREATED_DATA_FILES, getIndices(createdDataFiles, dataFilesList));
+    manifest.setProperty(PREVIOUS_CREATED_DATA_FILES,
+        getIndices(previousCreatedDataFiles, dataFilesList));
+    manifest.setProperty(CREATED_PEAK_LISTS, getIndices(createdPeakLists, peakListsList));
+    manifest.setProperty(PREVIOUS_CREATED_PEAK_LISTS,
+        getIndices(previousCreatedPeakLists, peakListsList));
+
+    File tempManifest = File.createTempFile(MANIFEST_FILENAME, ".tmp", directory);
+    try (OutputStream os = new FileOutputStream(tempManifest)) {
+      manifest.store(os, "MZmine batch checkpoint");
+    }
+    Files.move(tempManifest.toPath(), new File(directory, MANIFEST_FILENAME).toPath(),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    savedDataFiles = newSavedDataFiles;
+
+    // Remove the files which are not part of the new checkpoint
+    Set<Integer> usedIDs = new HashSet<>();
+    for (int id : dataFileIDs)
+      usedIDs.add(id);
+    usedIDs.add(peakListsID);
+    removeUnusedFiles(usedIDs);
+
+  }
+
+  /**
+   * Opens the project of the last valid checkpoint and restores the items created by the last
+   * steps.
+   *
+   * @return the number of batch steps completed in the checkpoint, or 0 if there is no valid
+   *         checkpoint of the same batch queue
+   */
+  int resume(List<RawDataFile> createdDataFiles, List<RawDataFile> previousCreatedDataFiles,
+      List<PeakList> createdPeakLists, List<PeakList> previousCreatedPeakLists)
+      throws IOException, TransformerConfigurationException, SAXException {
+
+    File manifestFile = new File(directory, MANIFEST_FILENAME);
+    if (!manifestFile.exists()) {
+      logger.info("No batch checkpoint found in " + directory);
+      return 0;
+    }
+
+    Properties manifest = new Properties();
+    try (InputStream is = new FileInputStream(manifestFile)) {
+      manifest.load(is);
+    }
+
+    if (!batchSteps.equals(manifest.getProperty(BATCH_STEPS))) {
+      logger.warning("The batch checkpoint in " + directory
+          + " was written by a different batch queue, starting from the first step");
+      return 0;
+    }
+
+    // Raw data files first, so the feature lists can refer to them
+    int dataFileIDs[] = parseIndices(manifest.getProperty(DATA_FILES));
+    List<File> zipFiles = new ArrayList<>();
+    for (int id : dataFileIDs)
+      zipFiles.add(getRawDataZipFile(id));
+    zipFiles.add(getPeakListsZipFile(Integer.parseInt(manifest.getProperty(PEAK_LISTS))));
+    for (File zipFile : zipFiles) {
+      if (!zipFile.exists())
+        throw new IOException("Missing file " + zipFile + " of the batch checkpoint");
+    }
+
+    ProjectOpeningTask openingTask =
+        ProjectOpeningTask.openSplitProject(zipFiles.toArray(new File[0]));
+    openingTask.run();
+    if (openingTask.getStatus() != TaskStatus.FINISHED)
+      throw new IOException(
+          "Could not open the batch checkpoint: " + openingTask.getErrorMessage());
+
+    MZmineProject project = MZmineCore.getProjectManager().getCurrentProject();
+    RawDataFile dataFiles[] = project.getDataFiles();
+    PeakList peakLists[] = project.getPeakLists();
+    if (dataFiles.length != dataFileIDs.length)
+      throw new IOException("The batch checkpoint contains " + dataFileIDs.length
+          + " raw data files, but " + dataFiles.length + " were opened");
+
+    // The opened raw data files are identical to the saved ones, so their files can be reused
+    savedDataFiles = new HashMap<>();
+    for (int i = 0; i < dataFiles.length; i++) {
+      savedDataFiles.put(dataFiles[i], new SavedDataFile(dataFileIDs[i],
+          getModificationState((RawDataFileImpl) dataFiles[i])));
+    }
+
+    for (int i : parseIndices(manifest.getProperty(CREATED_DATA_FILES)))
+      createdDataFiles.add(dataFiles[i]);
+    for (int i : parseIndices(manifest.getProperty(PREVIOUS_CREATED_DATA_FILES)))
+      previousCreatedDataFiles.add(dataFiles[i]);
+    for (int i : parseIndices(manifest.getProperty(CREATED_PEAK_LISTS)))
+      createdPeakLists.add(peakLists[i]);
+    for (int i : parseIndices(manifest.getProperty(PREVIOUS_CREATED_PEAK_LISTS)))
+      previousCreatedPeakLists.add(peakLists[i]);
+
+    int completedSteps = Integer.parseInt(manifest.getProperty(COMPLETED_STEPS));
+    logger.info("Resumed batch checkpoint from " + directory + " after step # " + completedSteps);
+    return completedSteps;
+
+  }
+
+  /**
+   * Returns a description of the data stored by given raw data file. New data points are always
+   * appended to the data points file, and removed data points leave fewer stored entries, so any
+   * change of the stored data points changes the length of the data points file or the number of
+   * entries. Changes which do not touch the data points, e.g. of the scan properties or the names
+   * of the mass lists, change the checksum of the saved description of the raw data file.
+   */
+  private static String getModificationState(RawDataFileImpl dataFile)
+      throws IOException, TransformerConfigurationException, SAXException {
+    RandomAccessFile dataPointsFile = dataFile.getDataPointsFile();
+    long dataPointsFileLength = (dataPointsFile == null) ? 0 : dataPointsFile.length();
+    return dataFile.getName() + "\n" + dataFile.getDataPointsOffsets().size() + "\n"
+        + dataPointsFileLength + "\n" + SplitProjectWriter.getRawDataFileChecksum(dataFile);
+  }
+
+  private static <T> String getIndices(List<T> items, List<T> allItems) {
+    return items.stream().mapToInt(allItems::indexOf).filter(i -> i >= 0)
+        .mapToObj(String::valueOf).collect(Collectors.joining(","));
+  }
+
+  private static int[] parseIndices(String value) {
+    if ((value == null) || value.isEmpty())
+      return new int[0];
+    return Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+  }
+
+  private File getRawDataZipFile(int id) {
+    return new File(directory, RAW_DATA_FILE_PREFIX + id + ".zip");
+  }
+
+  private File getPeakListsZipFile(int id) {
+    return new File(directory, PEAK_LISTS_PREFIX + id + ".zip");
+  }
+
+  private void removeUnusedFiles(Set<Integer> usedIDs) {
+    String fileNames[] = directory.list();
+    if (fileNames == null)
+      return;
+    for (String fileName : fileNames) {
+      Matcher m = CHECKPOINT_FILE_PATTERN.matcher(fileName);
+      if (m.matches() && !usedIDs.contains(Integer.parseInt(m.group(2)))) {
+        File unusedFile = new File(directory, fileName);
+        if (!unusedFile.delete())
+          logger.warning("Could not delete old checkpoint file " + unusedFile);
+      }
+    }
+  }
+
+  private static class SavedDataFile {
+
+    private final int id;
+    private final String state;
+
+    private SavedDataFile(int id, String state) {
+      this.id = id;
+      this.state = state;
+    }
+
+  }
+
+}
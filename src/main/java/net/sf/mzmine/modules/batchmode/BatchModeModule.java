@@ -26,6 +26,8 @@ import javax.annotation.Nonnull;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.modules.MZmineModuleCategory;
 import net.sf.mzmine.modules.MZmineProcessingModule;
@@ -45,6 +47,9 @@ public class BatchModeModule implements MZmineProcessingModule {
   private static final String MODULE_DESCRIPTION =
       "This module allows execution of multiple processing tasks in a batch.";
 
+  // Optional element of batch files with the settings of command-line batches
+  private static final String BATCH_SETTINGS_ELEMENT = "batchsettings";
+
   @Override
   public @Nonnull String getName() {
     return MODULE_NAME;
@@ -85,7 +90,10 @@ public class BatchModeModule implements MZmineProcessingModule {
       DocumentBuilder docBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
       Document parsedBatchXML = docBuilder.parse(batchFile);
       BatchQueue newQueue = BatchQueue.loadFromXml(parsedBatchXML.getDocumentElement());
+      // The pipeline and checkpoint settings of the batch mode dialog are not used, they are off
+      // unless the batch file sets them
       ParameterSet parameters = new BatchModeParameters();
+      loadBatchSettings(parsedBatchXML.getDocumentElement(), parameters);
       parameters.getParameter(BatchModeParameters.batchQueue).setValue(newQueue);
       Task batchTask = new BatchTask(project, parameters);
       batchTask.run();
@@ -101,6 +109,35 @@ public class BatchModeModule implements MZmineProcessingModule {
 
   }
 
+  /**
+   * Loads the per-file pipeline and checkpoint settings from the batchsettings element of a batch
+   * file, if it has one. The element contains parameter elements as they are saved in the
+   * configuration, e.g. &lt;parameter name="Per-file pipeline"&gt;true&lt;/parameter&gt;.
+   */
+  private static void loadBatchSettings(Element batchElement, ParameterSet parameters) {
+
+    for (Node node = batchElement.getFirstChild(); node != null; node = node.getNextSibling()) {
+
+      if (!(node instanceof Element) || !node.getNodeName().equals(BATCH_SETTINGS_ELEMENT))
+        continue;
+
+      final ParameterSet settings = new BatchModeParameters();
+      settings.loadValuesFromXML((Element) node);
+
+      parameters.getParameter(BatchModeParameters.perFilePipeline)
+          .setValue(settings.getParameter(BatchModeParameters.perFilePipeline).getValue());
+      parameters.getParameter(BatchModeParameters.checkpointDirectory)
+          .setValue(settings.getParameter(BatchModeParameters.checkpointDirectory).getValue());
+      parameters.getParameter(BatchModeParameters.checkpointDirectory).getEmbeddedParameter()
+          .setValue(settings.getParameter(BatchModeParameters.checkpointDirectory)
+              .getEmbeddedParameter().getValue());
+      parameters.getParameter(BatchModeParameters.resumeFromCheckpoint)
+          .setValue(settings.getParameter(BatchModeParameters.resumeFromCheckpoint).getValue());
+
+    }
+
+  }
+
   @Override
   public @Nonnull Class<? extends ParameterSet> getParameterSetClass() {
     return BatchModeParameters.class;
@@ -23,6 +23,9 @@ import java.util.logging.Logger;
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.dialogs.ParameterSetupDialog;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
+import net.sf.mzmine.parameters.parametertypes.BooleanParameter;
+import net.sf.mzmine.parameters.parametertypes.OptionalParameter;
+import net.sf.mzmine.parameters.parametertypes.filenames.DirectoryParameter;
 import net.sf.mzmine.parameters.parametertypes.filenames.FileNameListSilentParameter;
 import net.sf.mzmine.util.ExitCode;
 
@@ -33,8 +36,26 @@ public class BatchModeParameters extends SimpleParameterSet {
   public static final FileNameListSilentParameter lastFiles = new FileNameListSilentParameter("Last used files");
   public static final BatchQueueParameter batchQueue = new BatchQueueParameter();
 
+  public static final BooleanParameter perFilePipeline = new BooleanParameter("Per-file pipeline",
+      "Run consecutive file-local steps (mass detection, chromatogram building, smoothing, "
+          + "deconvolution, deisotoping) for each raw data file on its own, without waiting for "
+          + "the other files between the steps",
+      false);
+
+  public static final OptionalParameter<DirectoryParameter> checkpointDirectory =
+      new OptionalParameter<>(new DirectoryParameter("Checkpoint directory",
+          "Directory where the raw data files and feature lists are saved after each step, so "
+              + "the batch can be resumed. Unchanged raw data files are not saved again."));
+
+  public static final BooleanParameter resumeFromCheckpoint = new BooleanParameter(
+      "Resume from checkpoint",
+      "Open the last checkpoint in the checkpoint directory and continue the batch after the "
+          + "last completed step, if the checkpoint was written by the same batch queue",
+      false);
+
   public BatchModeParameters() {
-    super(new Parameter[] {batchQueue, lastFiles});
+    super(new Parameter[] {batchQueue, perFilePipeline, checkpointDirectory, resumeFromCheckpoint,
+        lastFiles});
   }
 
   @Override
@@ -18,9 +18,14 @@
 
 package net.sf.mzmine.modules.batchmode;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import net.sf.mzmine.datamodel.MZmineProject;
@@ -30,16 +35,25 @@ import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.MZmineProcessingModule;
 import net.sf.mzmine.modules.MZmineProcessingStep;
+import net.sf.mzmine.modules.masslistmethods.ADAPchromatogrambuilder.ADAPChromatogramBuilderModule;
+import net.sf.mzmine.modules.masslistmethods.chromatogrambuilder.ChromatogramBuilderModule;
+import net.sf.mzmine.modules.peaklistmethods.isotopes.deisotoper.IsotopeGrouperModule;
+import net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.DeconvolutionModule;
+import net.sf.mzmine.modules.peaklistmethods.peakpicking.smoothing.SmoothingModule;
+import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.MassDetectionModule;
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.selectors.PeakListsParameter;
 import net.sf.mzmine.parameters.parametertypes.selectors.PeakListsSelection;
+import net.sf.mzmine.parameters.parametertypes.selectors.PeakListsSelectionType;
 import net.sf.mzmine.parameters.parametertypes.selectors.RawDataFilesParameter;
 import net.sf.mzmine.parameters.parametertypes.selectors.RawDataFilesSelection;
+import net.sf.mzmine.parameters.parametertypes.selectors.RawDataFilesSelectionType;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.taskcontrol.TaskPriority;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.ExceptionUtils;
 import net.sf.mzmine.util.ExitCode;
 
 /**
@@ -49,10 +63,24 @@ public class BatchTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
+  /**
+   * Modules which process each raw data file, or each feature list of a single raw data file,
+   * independently of all others, and do not create new raw data files. In the per-file pipeline
+   * mode, consecutive steps of these modules are run for each raw data file on its own.
+   */
+  private static final Set<Class<?>> PER_FILE_MODULES = Set.of(MassDetectionModule.class,
+      ChromatogramBuilderModule.class, ADAPChromatogramBuilderModule.class, SmoothingModule.class,
+      DeconvolutionModule.class, IsotopeGrouperModule.class);
+
   private int totalSteps, processedSteps;
 
   private MZmineProject project;
   private final BatchQueue queue;
+  private final boolean perFilePipeline;
+
+  // Checkpoint written after each step, or null if checkpoints are disabled
+  private final BatchCheckpoint checkpoint;
+  private final boolean resumeFromCheckpoint;
 
   private final List<RawDataFile> createdDataFiles, previousCreatedDataFiles;
   private final List<PeakList> createdPeakLists, previousCreatedPeakLists;
@@ -60,9 +88,22 @@ public class BatchTask extends AbstractTask {
   BatchTask(MZmineProject project, ParameterSet parameters) {
     this.project = project;
     this.queue = parameters.getParameter(BatchModeParameters.batchQueue).getValue();
+    Boolean pipeline = parameters.getParameter(BatchModeParameters.perFilePipeline).getValue();
+    this.perFilePipeline = (pipeline != null) && pipeline;
+    Boolean useCheckpoint =
+        parameters.getParameter(BatchModeParameters.checkpointDirectory).getValue();
+    File checkpointDirectory = parameters.getParameter(BatchModeParameters.checkpointDirectory)
+        .getEmbeddedParameter().getValue();
+    if ((useCheckpoint != null) && useCheckpoint && (checkpointDirectory != null))
+      checkpoint = new BatchCheckpoint(checkpointDirectory, queue);
+    else
+      checkpoint = null;
+    Boolean resume = parameters.getParameter(BatchModeParameters.resumeFromCheckpoint).getValue();
+    this.resumeFromCheckpoint = (resume != null) && resume;
     totalSteps = queue.size();
-    createdDataFiles = new ArrayList<>();
-    createdPeakLists = new ArrayList<>();
+    // The project listener may add items from the threads of other tasks
+    createdDataFiles = Collections.synchronizedList(new ArrayList<>());
+    createdPeakLists = Collections.synchronizedList(new ArrayList<>());
     previousCreatedDataFiles = new ArrayList<>();
     previousCreatedPeakLists = new ArrayList<>();
   }
@@ -73,6 +114,23 @@ public class BatchTask extends AbstractTask {
     setStatus(TaskStatus.PROCESSING);
     logger.info("Starting a batch of " + totalSteps + " steps");
 
+    // Open the project of the last checkpoint, before we listen to the project it replaces
+    int firstStep = 0;
+    if ((checkpoint != null) && resumeFromCheckpoint) {
+      try {
+        firstStep = checkpoint.resume(createdDataFiles, previousCreatedDataFiles, createdPeakLists,
+            previousCreatedPeakLists);
+      } catch (Exception e) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage(
+            "Could not resume from the batch checkpoint: " + ExceptionUtils.exceptionToString(e));
+        return;
+      }
+      if (firstStep > 0)
+        project = MZmineCore.getProjectManager().getCurrentProject();
+      processedSteps = firstStep;
+    }
+
     // Listen for new items in the project
     MZmineProjectListener listener = new MZmineProjectListener() {
       @Override
@@ -88,10 +146,16 @@ public class BatchTask extends AbstractTask {
     project.addProjectListener(listener);
 
     // Process individual batch steps
-    for (int i = 0; i < totalSteps; i++) {
+    for (int i = firstStep; i < totalSteps;) {
 
-      processQueueStep(i);
-      processedSteps++;
+      // Run consecutive per-file steps for each raw data file on its own, if enabled
+      int segmentEnd = perFilePipeline ? findPipelineSegmentEnd(i) : i + 1;
+      if ((segmentEnd - i < 2) || !processPipelineSegment(i, segmentEnd)) {
+        segmentEnd = i + 1;
+        processQueueStep(i);
+      }
+      processedSteps = segmentEnd;
+      i = segmentEnd;
 
       // Update the project reference in case new project was loaded
       if (project != MZmineCore.getProjectManager().getCurrentProject()) {
@@ -102,9 +166,24 @@ public class BatchTask extends AbstractTask {
 
       // If we are canceled or ran into error, stop here
       if (isCanceled() || (getStatus() == TaskStatus.ERROR)) {
+        project.removeProjectListener(listener);
         return;
       }
 
+      // Save the state after the completed steps
+      if (checkpoint != null) {
+        try {
+          checkpoint.write(project, segmentEnd, createdDataFiles, previousCreatedDataFiles,
+              createdPeakLists, previousCreatedPeakLists);
+        } catch (Exception e) {
+          project.removeProjectListener(listener);
+          setStatus(TaskStatus.ERROR);
+          setErrorMessage(
+              "Could not write the batch checkpoint: " + ExceptionUtils.exceptionToString(e));
+          return;
+        }
+      }
+
     }
 
     project.removeProjectListener(listener);
@@ -238,17 +317,297 @@ public class BatchTask extends AbstractTask {
 
       }
 
-      // Wait 1s before checking the tasks again
-      if (!allTasksFinished) {
-        synchronized (this) {
-          try {
-            this.wait(1000);
-          } catch (InterruptedException e) {
-            // ignore
+      // Wait until any of the tasks is done before checking them again
+      if (!allTasksFinished)
+        waitForAnyTask(currentStepTasks);
+
+    }
+
+  }
+
+  /**
+   * Returns the end (exclusive) of the sequence of consecutive per-file steps starting at given
+   * step.
+   */
+  private int findPipelineSegmentEnd(int startStep) {
+    int end = startStep;
+    while ((end < totalSteps)
+        && PER_FILE_MODULES.contains(queue.get(end).getModule().getClass())
+        && usesOnlyBatchLastItems(queue.get(end).getParameterSet()))
+      end++;
+    return end;
+  }
+
+  /**
+   * Returns true if all raw data file and feature list selections of given parameters select the
+   * items created by the previous batch step, so they can be restricted to a single raw data file.
+   */
+  private static boolean usesOnlyBatchLastItems(ParameterSet parameters) {
+    for (Parameter<?> p : parameters.getParameters()) {
+      if (p instanceof RawDataFilesParameter) {
+        RawDataFilesSelection selection = ((RawDataFilesParameter) p).getValue();
+        if ((selection == null)
+            || (selection.getSelectionType() != RawDataFilesSelectionType.BATCH_LAST_FILES))
+          return false;
+      }
+      if (p instanceof PeakListsParameter) {
+        PeakListsSelection selection = ((PeakListsParameter) p).getValue();
+        if ((selection == null)
+            || (selection.getSelectionType() != PeakListsSelectionType.BATCH_LAST_PEAKLISTS))
+          return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Runs the given per-file steps as a pipeline: each raw data file, together with the feature
+   * lists created from it, passes through all steps on its own, without waiting for the other files
+   * between the steps. Only the end of the whole segment is a barrier for all files.
+   *
+   * @return false if the input of the segment cannot be split by raw data file, so the steps have
+   *         to be processed one by one
+   */
+  private boolean processPipelineSegment(int startStep, int endStep) {
+
+    // If the last step did not produce any data files or feature lists, use
+    // the ones from the previous step
+    if (createdDataFiles.isEmpty())
+      createdDataFiles.addAll(previousCreatedDataFiles);
+    if (createdPeakLists.isEmpty())
+      createdPeakLists.addAll(previousCreatedPeakLists);
+
+    // Create one chain of steps for each raw data file
+    final Map<RawDataFile, PipelineChain> chains = new LinkedHashMap<>();
+    for (RawDataFile file : createdDataFiles)
+      chains.computeIfAbsent(file, f -> new PipelineChain(f, startStep));
+    for (PeakList peakList : createdPeakLists) {
+      if (peakList.getNumberOfRawDataFiles() != 1)
+        return false;
+      chains.computeIfAbsent(peakList.getRawDataFile(0), f -> new PipelineChain(f, startStep));
+    }
+    if (chains.isEmpty())
+      return false;
+
+    for (RawDataFile file : createdDataFiles)
+      chains.get(file).createdDataFiles.add(file);
+    for (PeakList peakList : createdPeakLists)
+      chains.get(peakList.getRawDataFile(0)).createdPeakLists.add(peakList);
+
+    logger.info("Starting steps # " + (startStep + 1) + "-" + endStep + " as a pipeline of "
+        + chains.size() + " raw data files");
+
+    // Items which were created by the steps, but cannot be assigned to a chain
+    final List<RawDataFile> unassignedDataFiles = new ArrayList<>();
+    createdDataFiles.clear();
+    createdPeakLists.clear();
+
+    while (true) {
+
+      // If we canceled the batch, cancel all running tasks
+      if (isCanceled()) {
+        cancelAll(chains.values());
+        return true;
+      }
+
+      // Check the task status of all chains before collecting the created items, so all items
+      // created by finished tasks are collected
+      final List<PipelineChain> finishedChains = new ArrayList<>();
+      boolean allChainsFinished = true;
+      for (PipelineChain chain : chains.values()) {
+
+        for (Task stepTask : chain.currentStepTasks) {
+          TaskStatus stepStatus = stepTask.getStatus();
+
+          // If there was an error, we have to stop the whole batch
+          if (stepStatus == TaskStatus.ERROR) {
+            setStatus(TaskStatus.ERROR);
+            setErrorMessage(stepTask.getTaskDescription() + ": " + stepTask.getErrorMessage());
+            cancelAll(chains.values());
+            return true;
+          }
+
+          // If user canceled any of the tasks, we have to cancel the whole batch
+          if (stepStatus == TaskStatus.CANCELED) {
+            setStatus(TaskStatus.CANCELED);
+            cancelAll(chains.values());
+            return true;
+          }
+        }
+
+        if (chain.currentStep < endStep) {
+          allChainsFinished = false;
+          if (chain.isCurrentStepFinished())
+            finishedChains.add(chain);
+        }
+      }
+
+      // Assign the created items to the chains of their raw data files
+      synchronized (createdDataFiles) {
+        unassignedDataFiles.addAll(createdDataFiles);
+        createdDataFiles.clear();
+      }
+      synchronized (createdPeakLists) {
+        for (PeakList peakList : createdPeakLists) {
+          PipelineChain chain = (peakList.getNumberOfRawDataFiles() == 1)
+              ? chains.get(peakList.getRawDataFile(0))
+              : null;
+          if (chain != null)
+            chain.createdPeakLists.add(peakList);
+          else
+            logger.warning("Cannot assign feature list " + peakList + " to a raw data file");
+        }
+        createdPeakLists.clear();
+      }
+
+      if (allChainsFinished)
+        break;
+
+      // Start the next step of each chain whose current step has finished
+      for (PipelineChain chain : finishedChains) {
+        if (chain.started)
+          chain.currentStep++;
+        chain.started = true;
+        if (chain.currentStep < endStep) {
+          if (!chain.startStep(chain.currentStep)) {
+            cancelAll(chains.values());
+            return true;
           }
         }
       }
 
+      // Wait until any of the tasks is done before checking them again, unless all chains have
+      // just advanced
+      if (finishedChains.isEmpty()) {
+        final List<Task> runningTasks = new ArrayList<>();
+        for (PipelineChain chain : chains.values())
+          runningTasks.addAll(chain.currentStepTasks);
+        waitForAnyTask(runningTasks);
+      }
+    }
+
+    // Collect the items created by the last step of all chains, in the order of the raw data files
+    previousCreatedDataFiles.clear();
+    previousCreatedPeakLists.clear();
+    for (PipelineChain chain : chains.values()) {
+      createdDataFiles.addAll(chain.createdDataFiles);
+      createdPeakLists.addAll(chain.createdPeakLists);
+      previousCreatedDataFiles.addAll(chain.previousCreatedDataFiles);
+      previousCreatedPeakLists.addAll(chain.previousCreatedPeakLists);
+    }
+    createdDataFiles.addAll(unassignedDataFiles);
+
+    logger.info("Finished steps # " + (startStep + 1) + "-" + endStep);
+    return true;
+  }
+
+  /**
+   * Waits until any of the given tasks which are still waiting or running is done, or this batch is
+   * canceled. The task controller wakes us up as soon as a task finishes.
+   */
+  private void waitForAnyTask(List<Task> tasks) {
+    final List<Task> waitFor = new ArrayList<>();
+    // The batch itself is done once it is canceled
+    waitFor.add(this);
+    for (Task task : tasks) {
+      TaskStatus status = task.getStatus();
+      if ((status == TaskStatus.WAITING) || (status == TaskStatus.PROCESSING))
+        waitFor.add(task);
+    }
+    if (waitFor.size() > 1)
+      MZmineCore.getTaskController().joinAnyTask(waitFor.toArray(new Task[0]), 0);
+  }
+
+  private static void cancelAll(Iterable<PipelineChain> chains) {
+    for (PipelineChain chain : chains) {
+      for (Task t : chain.currentStepTasks)
+        t.cancel();
+    }
+  }
+
+  /**
+   * The state of one raw data file passing through the steps of a pipeline segment. The created
+   * items are handled exactly as in processQueueStep(), but only for this raw data file.
+   */
+  private class PipelineChain {
+
+    private final RawDataFile dataFile;
+    private int currentStep;
+    private boolean started = false;
+    private List<Task> currentStepTasks = new ArrayList<>();
+
+    private final List<RawDataFile> createdDataFiles = new ArrayList<>(),
+        previousCreatedDataFiles = new ArrayList<>();
+    private final List<PeakList> createdPeakLists = new ArrayList<>(),
+        previousCreatedPeakLists = new ArrayList<>();
+
+    private PipelineChain(RawDataFile dataFile, int firstStep) {
+      this.dataFile = dataFile;
+      this.currentStep = firstStep;
+    }
+
+    private boolean isCurrentStepFinished() {
+      for (Task stepTask : currentStepTasks) {
+        if (stepTask.getStatus() != TaskStatus.FINISHED)
+          return false;
+      }
+      return true;
+    }
+
+    /**
+     * Starts the given step for this raw data file only.
+     *
+     * @return false if the step could not be started, the error is set in the batch task
+     */
+    private boolean startStep(int stepNumber) {
+
+      MZmineProcessingStep<?> currentStep = queue.get(stepNumber);
+      MZmineProcessingModule method = (MZmineProcessingModule) currentStep.getModule();
+
+      // Each chain needs its own parameters, which select only its items
+      ParameterSet stepParameters = currentStep.getParameterSet().cloneParameterSet();
+
+      if (createdDataFiles.isEmpty())
+        createdDataFiles.addAll(previousCreatedDataFiles);
+      if (createdPeakLists.isEmpty())
+        createdPeakLists.addAll(previousCreatedPeakLists);
+
+      for (Parameter<?> p : stepParameters.getParameters()) {
+        if (p instanceof RawDataFilesParameter)
+          ((RawDataFilesParameter) p).getValue()
+              .setBatchLastFiles(createdDataFiles.toArray(new RawDataFile[0]));
+        if (p instanceof PeakListsParameter)
+          ((PeakListsParameter) p).getValue()
+              .setBatchLastPeakLists(createdPeakLists.toArray(new PeakList[0]));
+      }
+
+      previousCreatedDataFiles.clear();
+      previousCreatedDataFiles.addAll(createdDataFiles);
+      previousCreatedPeakLists.clear();
+      previousCreatedPeakLists.addAll(createdPeakLists);
+      createdDataFiles.clear();
+      createdPeakLists.clear();
+
+      ArrayList<String> messages = new ArrayList<String>();
+      if (!stepParameters.checkParameterValues(messages)) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage("Invalid parameter settings for module " + method.getName() + " on "
+            + dataFile + ": " + Arrays.toString(messages.toArray()));
+        return false;
+      }
+
+      ArrayList<Task> stepTasks = new ArrayList<Task>();
+      ExitCode exitCode = method.runModule(project, stepParameters, stepTasks);
+      if (exitCode != ExitCode.OK) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage("Could not start batch step " + method.getName() + " on " + dataFile);
+        return false;
+      }
+
+      currentStepTasks = stepTasks;
+      if (!stepTasks.isEmpty())
+        MZmineCore.getTaskController().addTasks(stepTasks.toArray(new Task[0]));
+      return true;
     }
 
   }
@@ -26,6 +26,7 @@ import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.dialogs.ParameterSetupDialog;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
+import net.sf.mzmine.parameters.parametertypes.BooleanParameter;
 import net.sf.mzmine.parameters.parametertypes.DoubleParameter;
 import net.sf.mzmine.parameters.parametertypes.IntegerParameter;
 import net.sf.mzmine.parameters.parametertypes.MassListParameter;
@@ -69,9 +70,14 @@ public class ADAPChromatogramBuilderParameters extends SimpleParameterSet {
       MZmineCore.getConfiguration().getIntensityFormat());
   // End Owen Edit
 
+  public static final BooleanParameter packedDataPoints = new BooleanParameter("Low memory mode",
+      "Keep the data points in packed arrays instead of one object for each data point.\n"
+          + "Needs much less memory for large files and gives identical results.",
+      false);
+
   public ADAPChromatogramBuilderParameters() {
     super(new Parameter[] {dataFiles, scanSelection, massList, minimumScanSpan, IntensityThresh2,
-        startIntensity, mzTolerance, suffix});
+        startIntensity, mzTolerance, packedDataPoints, suffix});
   }
 
   public ExitCode showSetupDialog(Window parent, boolean valueCheckRequired) {
@@ -79,6 +79,7 @@ public class ADAPChromatogramBuilderTask extends AbstractTask {
   // Owen added User parameers;
   private double IntensityThresh2;
   private double minIntensityForStartChrom;
+  private boolean packedDataPoints;
 
   private SimplePeakList newPeakList;
 
@@ -114,6 +115,8 @@ public class ADAPChromatogramBuilderTask extends AbstractTask {
         parameters.getParameter(ADAPChromatogramBuilderParameters.IntensityThresh2).getValue();
     this.minIntensityForStartChrom =
         parameters.getParameter(ADAPChromatogramBuilderParameters.startIntensity).getValue();
+    this.packedDataPoints =
+        parameters.getParameter(ADAPChromatogramBuilderParameters.packedDataPoints).getValue();
 
 
   }
@@ -196,6 +199,50 @@ public class ADAPChromatogramBuilderTask extends AbstractTask {
     // Create new feature list
     newPeakList = new SimplePeakList(dataFile + " " + suffix, dataFile);
 
+    List<ADAPChromatogram> buildingChromatograms;
+    if (packedDataPoints)
+      buildingChromatograms = buildChromatogramsPacked(allScanNumbers);
+    else
+      buildingChromatograms = buildChromatograms(allScanNumbers);
+    if (buildingChromatograms == null)
+      return;
+
+    ADAPChromatogram[] chromatograms = buildingChromatograms.toArray(new ADAPChromatogram[0]);
+
+
+    // Sort the final chromatograms by m/z
+    Arrays.sort(chromatograms, new PeakSorter(SortingProperty.MZ, SortingDirection.Ascending));
+
+
+    // Add the chromatograms to the new feature list
+    for (Feature finishedPeak : chromatograms) {
+      SimplePeakListRow newRow = new SimplePeakListRow(newPeakID);
+      newPeakID++;
+      newRow.addPeak(dataFile, finishedPeak);
+      newPeakList.addRow(newRow);
+
+      // finishedPeak.outputChromToFile();
+    }
+
+    // Add new peaklist to the project
+    project.addPeakList(newPeakList);
+
+    // Add quality parameters to peaks
+    QualityParameters.calculateQualityParameters(newPeakList);
+
+    progress = 1.0;
+
+    setStatus(TaskStatus.FINISHED);
+
+    logger.info("Finished chromatogram builder on " + dataFile);
+  }
+
+  /**
+   * Builds the chromatograms from all data points, sorted by intensity. Returns null if the task
+   * was canceled or failed.
+   */
+  private List<ADAPChromatogram> buildChromatograms(int allScanNumbers[]) {
+
     // make a list of all the data points
     // sort data points by intensity
     // loop through list
@@ -209,14 +256,14 @@ public class ADAPChromatogramBuilderTask extends AbstractTask {
 
     for (Scan scan : scans) {
       if (isCanceled())
-        return;
+        return null;
 
       MassList massList = scan.getMassList(massListName);
       if (massList == null) {
         setStatus(TaskStatus.ERROR);
         setErrorMessage("Scan " + dataFile + " #" + scan.getScanNumber()
             + " does not have a mass list " + massListName);
-        return;
+        return null;
       }
 
       DataPoint mzValues[] = massList.getDataPoints();
@@ -225,7 +272,7 @@ public class ADAPChromatogramBuilderTask extends AbstractTask {
         setStatus(TaskStatus.ERROR);
         setErrorMessage("Mass list " + massListName + " does not contain m/z values for scan #"
             + scan.getScanNumber() + " of file " + dataFile);
-        return;
+        return null;
       }
 
       for (DataPoint mzPeak : mzValues) {
@@ -269,7 +316,7 @@ public class ADAPChromatogramBuilderTask extends AbstractTask {
       progress += progressStep;
 
       if (isCanceled()) {
-        return;
+        return null;
       }
 
       if (mzPeak == null || Double.isNaN(mzPeak.getMZ()) || Double.isNaN(mzPeak.getIntensity())) {
@@ -372,7 +419,7 @@ public class ADAPChromatogramBuilderTask extends AbstractTask {
     progressStep = (ranges.size() > 0) ? 0.5 / ranges.size() : 0.0;
     while (RangeIterator.hasNext()) {
       if (isCanceled()) {
-        return;
+        return null;
       }
 
       progress += progressStep;
@@ -397,34 +444,142 @@ public class ADAPChromatogramBuilderTask extends AbstractTask {
 
     }
 
-    ADAPChromatogram[] chromatograms = buildingChromatograms.toArray(new ADAPChromatogram[0]);
+    return buildingChromatograms;
+  }
 
+  /**
+   * Builds the same chromatograms as buildChromatograms(), but keeps the data points in packed
+   * primitive arrays instead of one object for each data point, and looks up the m/z ranges of the
+   * chromatograms without allocating objects. Only data points which are added to a chromatogram
+   * are turned into objects. Returns null if the task was canceled or failed.
+   */
+  private List<ADAPChromatogram> buildChromatogramsPacked(int allScanNumbers[]) {
 
-    // Sort the final chromatograms by m/z
-    Arrays.sort(chromatograms, new PeakSorter(SortingProperty.MZ, SortingDirection.Ascending));
+    // make a list of all the data points
+    PackedDataPoints allMzValues = new PackedDataPoints();
 
+    for (int scanIndex = 0; scanIndex < scans.length; scanIndex++) {
+      if (isCanceled())
+        return null;
 
-    // Add the chromatograms to the new feature list
-    for (Feature finishedPeak : chromatograms) {
-      SimplePeakListRow newRow = new SimplePeakListRow(newPeakID);
-      newPeakID++;
-      newRow.addPeak(dataFile, finishedPeak);
-      newPeakList.addRow(newRow);
+      Scan scan = scans[scanIndex];
+      MassList massList = scan.getMassList(massListName);
+      if (massList == null) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage("Scan " + dataFile + " #" + scan.getScanNumber()
+            + " does not have a mass list " + massListName);
+        return null;
+      }
 
-      // finishedPeak.outputChromToFile();
+      DataPoint mzValues[] = massList.getDataPoints();
+
+      if (mzValues == null) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage("Mass list " + massListName + " does not contain m/z values for scan #"
+            + scan.getScanNumber() + " of file " + dataFile);
+        return null;
+      }
+
+      for (DataPoint mzPeak : mzValues)
+        allMzValues.add(mzPeak.getMZ(), mzPeak.getIntensity(), scanIndex);
     }
 
-    // Add new peaklist to the project
-    project.addPeakList(newPeakList);
+    // sort data points by intensity
+    final int sortedIndexes[] = allMzValues.sortByIntensity();
 
-    // Add quality parameters to peaks
-    QualityParameters.calculateQualityParameters(newPeakList);
+    ChromatogramRangeIndex rangeIndex = new ChromatogramRangeIndex();
 
-    progress = 1.0;
+    progress = 0.0;
+    double progressStep = (sortedIndexes.length > 0) ? 0.5 / sortedIndexes.length : 0.0;
 
-    setStatus(TaskStatus.FINISHED);
+    for (int index : sortedIndexes) {
 
-    logger.info("Finished chromatogram builder on " + dataFile);
+      progress += progressStep;
+
+      if (isCanceled()) {
+        return null;
+      }
+
+      final double mz = allMzValues.getMZ(index);
+      final double intensity = allMzValues.getIntensity(index);
+      if (Double.isNaN(mz) || Double.isNaN(intensity)) {
+        continue;
+      }
+
+      final int scanNumber = scans[allMzValues.getScanIndex(index)].getScanNumber();
+
+      long containsPointRange = rangeIndex.find(mz);
+
+      if (containsPointRange < 0) {
+        // skip it entierly if the intensity is not high enough
+        if (intensity < minIntensityForStartChrom) {
+          continue;
+        }
+
+        // Same bounds as in buildChromatograms(), so that none of the ranges overlap
+        final double tolerance = mzTolerance.getMzToleranceForMass(mz);
+        final double toleranceLower = mz - tolerance, toleranceUpper = mz + tolerance;
+        long plusRange = rangeIndex.find(toleranceUpper);
+        long minusRange = rangeIndex.find(toleranceLower);
+        final double toBeLowerBound =
+            (minusRange < 0) ? toleranceLower : rangeIndex.getUpperEndpoint(minusRange);
+        final double toBeUpperBound =
+            (plusRange < 0) ? toleranceUpper : rangeIndex.getLowerEndpoint(plusRange);
+
+        if (toBeLowerBound < toBeUpperBound) {
+          ADAPChromatogram newChrom = new ADAPChromatogram(dataFile, allScanNumbers);
+
+          newChrom.addMzPeak(scanNumber, new ExpandedDataPoint(mz, intensity, scanNumber));
+
+          newChrom.setHighPointMZ(mz);
+
+          rangeIndex.add(toBeLowerBound, toBeUpperBound, newChrom);
+        } else if ((Double.compare(toBeLowerBound, toBeUpperBound) == 0) && (plusRange >= 0)) {
+          addMzPeak(rangeIndex.getChromatogram(plusRange), scanNumber, mz, intensity);
+        } else
+          throw new IllegalStateException(String.format("Incorrect range [%f, %f] for m/z %f",
+              toBeLowerBound, toBeUpperBound, mz));
+
+      } else {
+        addMzPeak(rangeIndex.getChromatogram(containsPointRange), scanNumber, mz, intensity);
+      }
+    }
+
+    // finish chromatograms
+    List<ADAPChromatogram> chromatograms = rangeIndex.getChromatograms();
+
+    List<ADAPChromatogram> buildingChromatograms = new ArrayList<ADAPChromatogram>();
+
+    progressStep = (chromatograms.size() > 0) ? 0.5 / chromatograms.size() : 0.0;
+    for (ADAPChromatogram chromatogram : chromatograms) {
+      if (isCanceled()) {
+        return null;
+      }
+
+      progress += progressStep;
+
+      chromatogram.finishChromatogram();
+
+      // And remove chromatograms who dont have a certian number of continous points above the
+      // IntensityThresh2 level.
+      double numberOfContinuousPointsAboveNoise =
+          chromatogram.findNumberOfContinuousPointsAboveNoise(IntensityThresh2);
+      if (numberOfContinuousPointsAboveNoise >= minimumScanSpan) {
+        buildingChromatograms.add(chromatogram);
+      }
+    }
+
+    return buildingChromatograms;
+  }
+
+  /**
+   * Adds a data point to a chromatogram. The chromatogram keeps only the first data point of each
+   * scan, so no object is created for further data points of the same scan.
+   */
+  private static void addMzPeak(ADAPChromatogram chromatogram, int scanNumber, double mz,
+      double intensity) {
+    if (chromatogram.getDataPoint(scanNumber) == null)
+      chromatogram.addMzPeak(scanNumber, new ExpandedDataPoint(mz, intensity, scanNumber));
   }
 
 }
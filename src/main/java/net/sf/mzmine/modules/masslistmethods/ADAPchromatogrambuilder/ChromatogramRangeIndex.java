@@ -0,0 +1,172 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.masslistmethods.ADAPchromatogrambuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Disjoint open m/z ranges, each mapped to the chromatogram which is built in that range. Does
+ * the work of the RangeSet and the map from ranges to chromatograms in
+ * ADAPChromatogramBuilderTask, but works on primitive values, so looking up a range does not
+ * allocate any objects. The ranges are kept sorted in blocks of limited size, so adding a range
+ * only moves the ranges of one block.
+ *
+ * A range is addressed by a position, which is valid until the next range is added.
+ */
+class ChromatogramRangeIndex {
+
+  private static final int BLOCK_SIZE = 512;
+
+  private static class Block {
+    final double lower[] = new double[BLOCK_SIZE], upper[] = new double[BLOCK_SIZE];
+    final ADAPChromatogram chromatograms[] = new ADAPChromatogram[BLOCK_SIZE];
+    int size = 0;
+  }
+
+  private final List<Block> blocks = new ArrayList<>();
+
+  /**
+   * @return position of the range which contains given m/z value, or -1 if there is none
+   */
+  long find(double mz) {
+    final int blockIndex = findBlock(mz);
+    if (blockIndex < 0)
+      return -1;
+    final Block block = blocks.get(blockIndex);
+    final int i = lastLowerBelow(block, mz);
+    if ((i < 0) || (Double.compare(mz, block.upper[i]) >= 0))
+      return -1;
+    return ((long) blockIndex << 32) | i;
+  }
+
+  double getLowerEndpoint(long position) {
+    return blocks.get((int) (position >>> 32)).lower[(int) position];
+  }
+
+  double getUpperEndpoint(long position) {
+    return blocks.get((int) (position >>> 32)).upper[(int) position];
+  }
+
+  ADAPChromatogram getChromatogram(long position) {
+    return blocks.get((int) (position >>> 32)).chromatograms[(int) position];
+  }
+
+  /**
+   * Adds the open range (lower, upper). The range must not overlap any existing range.
+   */
+  void add(double lower, double upper, ADAPChromatogram chromatogram) {
+
+    int blockIndex = findBlock(lower);
+    if (blockIndex < 0) {
+      if (blocks.isEmpty())
+        blocks.add(new Block());
+      blockIndex = 0;
+    }
+    Block block = blocks.get(blockIndex);
+    int i = lastLowerBelow(block, lower) + 1;
+
+    // Check the neighbors, including the first range of the next block
+    final boolean overlapsPrevious = (i > 0) && (Double.compare(block.upper[i - 1], lower) > 0);
+    final boolean overlapsNext;
+    if (i < block.size)
+      overlapsNext = Double.compare(block.lower[i], upper) < 0;
+    else if (blockIndex + 1 < blocks.size())
+      overlapsNext = Double.compare(blocks.get(blockIndex + 1).lower[0], upper) < 0;
+    else
+      overlapsNext = false;
+    if (overlapsPrevious || overlapsNext)
+      throw new IllegalStateException(
+          String.format("Range (%f, %f) overlaps an existing range", lower, upper));
+
+    // Split a full block
+    if (block.size == BLOCK_SIZE) {
+      final Block newBlock = new Block();
+      final int half = BLOCK_SIZE / 2;
+      System.arraycopy(block.lower, half, newBlock.lower, 0, half);
+      System.arraycopy(block.upper, half, newBlock.upper, 0, half);
+      System.arraycopy(block.chromatograms, half, newBlock.chromatograms, 0, half);
+      Arrays.fill(block.chromatograms, half, BLOCK_SIZE, null);
+      newBlock.size = half;
+      block.size = half;
+      blocks.add(blockIndex + 1, newBlock);
+      if (i > half) {
+        block = newBlock;
+        i -= half;
+      }
+    }
+
+    final int tail = block.size - i;
+    System.arraycopy(block.lower, i, block.lower, i + 1, tail);
+    System.arraycopy(block.upper, i, block.upper, i + 1, tail);
+    System.arraycopy(block.chromatograms, i, block.chromatograms, i + 1, tail);
+    block.lower[i] = lower;
+    block.upper[i] = upper;
+    block.chromatograms[i] = chromatogram;
+    block.size++;
+  }
+
+  /**
+   * @return all chromatograms in the order of their m/z ranges
+   */
+  List<ADAPChromatogram> getChromatograms() {
+    final List<ADAPChromatogram> chromatograms = new ArrayList<>();
+    for (Block block : blocks) {
+      for (int i = 0; i < block.size; i++)
+        chromatograms.add(block.chromatograms[i]);
+    }
+    return chromatograms;
+  }
+
+  /**
+   * @return index of the last block whose first range starts below given m/z value, or -1
+   */
+  private int findBlock(double mz) {
+    int low = 0, high = blocks.size() - 1, result = -1;
+    while (low <= high) {
+      final int middle = (low + high) >>> 1;
+      if (Double.compare(blocks.get(middle).lower[0], mz) < 0) {
+        result = middle;
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return index of the last range in given block which starts below given m/z value, or -1
+   */
+  private static int lastLowerBelow(Block block, double mz) {
+    int low = 0, high = block.size - 1, result = -1;
+    while (low <= high) {
+      final int middle = (low + high) >>> 1;
+      if (Double.compare(block.lower[middle], mz) < 0) {
+        result = middle;
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.masslistmethods.ADAPchromatogrambuilder;
+
+import java.util.Arrays;
+import net.sf.mzmine.util.DataPointSorter;
+import net.sf.mzmine.util.SortingDirection;
+import net.sf.mzmine.util.SortingProperty;
+
+/**
+ * Data points of all scans, packed into primitive arrays: m/z, intensity and the index of the scan
+ * of each data point. Takes 20 bytes per data point, instead of one ExpandedDataPoint object.
+ */
+class PackedDataPoints {
+
+  private double mzValues[] = new double[1024], intensityValues[] = new double[1024];
+  private int scanIndexes[] = new int[1024];
+  private int size = 0;
+
+  void add(double mz, double intensity, int scanIndex) {
+    if (size == mzValues.length) {
+      final int newLength = (int) Math.min(Integer.MAX_VALUE - 8, 2L * size);
+      if (newLength <= size)
+        throw new IllegalStateException("Too many data points");
+      mzValues = Arrays.copyOf(mzValues, newLength);
+      intensityValues = Arrays.copyOf(intensityValues, newLength);
+      scanIndexes = Arrays.copyOf(scanIndexes, newLength);
+    }
+    mzValues[size] = mz;
+    intensityValues[size] = intensity;
+    scanIndexes[size] = scanIndex;
+    size++;
+  }
+
+  int size() {
+    return size;
+  }
+
+  double getMZ(int index) {
+    return mzValues[index];
+  }
+
+  double getIntensity(int index) {
+    return intensityValues[index];
+  }
+
+  int getScanIndex(int index) {
+    return scanIndexes[index];
+  }
+
+  /**
+   * Returns the indexes of the data points sorted by descending intensity, in the same order as
+   * sorting ExpandedDataPoint objects with DataPointSorter
+   */
+  int[] sortByIntensity() {
+    return new DataPointSorter(SortingProperty.Intensity, SortingDirection.Descending)
+        .sortIndexes(mzValues, intensityValues, size);
+  }
+
+}
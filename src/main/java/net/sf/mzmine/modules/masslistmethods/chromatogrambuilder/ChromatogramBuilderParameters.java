@@ -25,7 +25,9 @@ import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.dialogs.ParameterSetupDialog;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
 import net.sf.mzmine.parameters.parametertypes.DoubleParameter;
+import net.sf.mzmine.parameters.parametertypes.IntegerParameter;
 import net.sf.mzmine.parameters.parametertypes.MassListParameter;
+import net.sf.mzmine.parameters.parametertypes.OptionalParameter;
 import net.sf.mzmine.parameters.parametertypes.StringParameter;
 import net.sf.mzmine.parameters.parametertypes.selectors.RawDataFilesParameter;
 import net.sf.mzmine.parameters.parametertypes.selectors.ScanSelection;
@@ -54,12 +56,20 @@ public class ChromatogramBuilderParameters extends SimpleParameterSet {
 
   public static final MZToleranceParameter mzTolerance = new MZToleranceParameter();
 
+  public static final OptionalParameter<IntegerParameter> parallelPartitions =
+      new OptionalParameter<>(new IntegerParameter("Parallel m/z partitions",
+          "Split the m/z axis into up to this many partitions which are processed in parallel.\n"
+              + "Partitions are only split at m/z regions without any m/z peaks, "
+              + "so the results are identical to the serial processing.\n"
+              + "If the m/z peaks cannot be split, the chromatograms are built serially.",
+          Math.max(2, Runtime.getRuntime().availableProcessors()), 2, null));
+
   public static final StringParameter suffix =
       new StringParameter("Suffix", "This string is added to filename as suffix", "chromatograms");
 
   public ChromatogramBuilderParameters() {
     super(new Parameter[] {dataFiles, scanSelection, massList, minimumTimeSpan, minimumHeight,
-        mzTolerance, suffix});
+        mzTolerance, parallelPartitions, suffix});
   }
 
   public ExitCode showSetupDialog(Window parent, boolean valueCheckRequired) {
@@ -18,13 +18,17 @@
 
 package net.sf.mzmine.modules.masslistmethods.chromatogrambuilder;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Logger;
 
-import net.sf.mzmine.datamodel.DataPoint;
+import com.google.common.collect.Range;
+
 import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.MassList;
+import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.datamodel.impl.SimplePeakList;
@@ -41,6 +45,10 @@ import net.sf.mzmine.util.SortingProperty;
 
 public class ChromatogramBuilderTask extends AbstractTask {
 
+  // Resolution of the m/z histogram used to find the partitions for parallel processing
+  private static final int MAX_HISTOGRAM_BINS = 1 << 22;
+  private static final double MIN_HISTOGRAM_BIN_WIDTH = 0.00001;
+
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
   private MZmineProject project;
@@ -56,6 +64,7 @@ public class ChromatogramBuilderTask extends AbstractTask {
   private String suffix, massListName;
   private MZTolerance mzTolerance;
   private double minimumTimeSpan, minimumHeight;
+  private int parallelPartitions;
 
   private SimplePeakList newPeakList;
 
@@ -79,6 +88,12 @@ public class ChromatogramBuilderTask extends AbstractTask {
     this.minimumHeight =
         parameters.getParameter(ChromatogramBuilderParameters.minimumHeight).getValue();
 
+    if (parameters.getParameter(ChromatogramBuilderParameters.parallelPartitions).getValue()) {
+      this.parallelPartitions = parameters
+          .getParameter(ChromatogramBuilderParameters.parallelPartitions).getEmbeddedParameter()
+          .getValue();
+    }
+
     this.suffix = parameters.getParameter(ChromatogramBuilderParameters.suffix).getValue();
 
   }
@@ -135,48 +150,88 @@ public class ChromatogramBuilderTask extends AbstractTask {
     // Create new feature list
     newPeakList = new SimplePeakList(dataFile + " " + suffix, dataFile);
 
-    Chromatogram[] chromatograms;
-    HighestDataPointConnector massConnector = new HighestDataPointConnector(dataFile,
-        allScanNumbers, minimumTimeSpan, minimumHeight, mzTolerance);
-
+    // Check all mass lists before processing
     for (Scan scan : scans) {
-
-      if (isCanceled())
-        return;
-
-      MassList massList = scan.getMassList(massListName);
-      if (massList == null) {
+      if (scan.getMassList(massListName) == null) {
         setStatus(TaskStatus.ERROR);
         setErrorMessage("Scan " + dataFile + " #" + scan.getScanNumber()
             + " does not have a mass list " + massListName);
         return;
       }
+    }
 
-      DataPoint mzValues[] = massList.getDataPoints();
+    // Split the m/z axis into partitions, if parallel processing is enabled
+    double partitionBorders[] = new double[0];
+    if (parallelPartitions > 1) {
+      totalScans = scans.length * 2;
+      partitionBorders = findPartitionBorders();
+      if (partitionBorders == null)
+        return;
+      if (partitionBorders.length == 0)
+        logger.info("No empty m/z region to split the m/z peaks of " + dataFile
+            + " into partitions, building the chromatograms serially");
+      else if (partitionBorders.length + 1 < parallelPartitions)
+        logger.info("Only " + (partitionBorders.length + 1) + " of " + parallelPartitions
+            + " m/z partitions could be used for " + dataFile);
+      else
+        logger.finest(
+            "Using " + (partitionBorders.length + 1) + " m/z partitions for " + dataFile);
+    }
 
-      if (mzValues == null) {
-        setStatus(TaskStatus.ERROR);
-        setErrorMessage("Mass list " + massListName + " does not contain m/z values for scan #"
-            + scan.getScanNumber() + " of file " + dataFile);
+    HighestDataPointConnector massConnector = null;
+    ParallelDataPointConnector parallelConnector = null;
+    if (partitionBorders.length > 0) {
+      parallelConnector = new ParallelDataPointConnector(dataFile, allScanNumbers,
+          minimumTimeSpan, minimumHeight, mzTolerance, partitionBorders);
+    } else {
+      massConnector = new HighestDataPointConnector(dataFile, allScanNumbers, minimumTimeSpan,
+          minimumHeight, mzTolerance);
+    }
+
+    double mzBuffer[] = new double[0], intensityBuffer[] = new double[0];
+
+    for (Scan scan : scans) {
+
+      if (isCanceled())
         return;
+
+      MassList massList = scan.getMassList(massListName);
+
+      // Reuse the buffers, growing them when necessary
+      final int numOfDataPoints = massList.getNumberOfDataPoints();
+      if (mzBuffer.length < numOfDataPoints) {
+        mzBuffer = new double[numOfDataPoints];
+        intensityBuffer = new double[numOfDataPoints];
       }
+      massList.getDataPoints(mzBuffer, intensityBuffer);
 
-      massConnector.addScan(scan.getScanNumber(), mzValues);
+      if (parallelConnector != null) {
+        parallelConnector.addScan(scan.getScanNumber(), mzBuffer, intensityBuffer,
+            numOfDataPoints);
+      } else {
+        massConnector.addScan(scan.getScanNumber(), mzBuffer, intensityBuffer, numOfDataPoints);
+      }
       processedScans++;
     }
 
-    chromatograms = massConnector.finishChromatograms();
+    Chromatogram[] chromatograms;
+    if (parallelConnector != null)
+      chromatograms = parallelConnector.finishChromatograms();
+    else
+      chromatograms = massConnector.finishChromatograms();
 
     // Sort the final chromatograms by m/z
     Arrays.sort(chromatograms, new PeakSorter(SortingProperty.MZ, SortingDirection.Ascending));
 
     // Add the chromatograms to the new feature list
+    List<PeakListRow> newRows = new ArrayList<>(chromatograms.length);
     for (Feature finishedPeak : chromatograms) {
       SimplePeakListRow newRow = new SimplePeakListRow(newPeakID);
       newPeakID++;
       newRow.addPeak(dataFile, finishedPeak);
-      newPeakList.addRow(newRow);
+      newRows.add(newRow);
     }
+    newPeakList.addRows(newRows);
 
     // Add new peaklist to the project
     project.addPeakList(newPeakList);
@@ -190,4 +245,46 @@ public class ChromatogramBuilderTask extends AbstractTask {
 
   }
 
+  /**
+   * Counts the m/z peaks of all mass lists in a fine m/z histogram and finds the borders of the m/z
+   * partitions for parallel processing.
+   *
+   * @return partition borders, or null if the task was canceled
+   */
+  private double[] findPartitionBorders() {
+
+    final Range<Double> mzRange = dataFile.getDataMZRange();
+    final double mzRangeWidth = mzRange.upperEndpoint() - mzRange.lowerEndpoint();
+    final double binWidth = Math.max(mzRangeWidth / MAX_HISTOGRAM_BINS, MIN_HISTOGRAM_BIN_WIDTH);
+    final int numOfBins = (int) Math.ceil(mzRangeWidth / binWidth) + 1;
+    final int peakCounts[] = new int[numOfBins];
+
+    double mzBuffer[] = new double[0], intensityBuffer[] = new double[0];
+
+    for (Scan scan : scans) {
+
+      if (isCanceled())
+        return null;
+
+      MassList massList = scan.getMassList(massListName);
+      final int numOfDataPoints = massList.getNumberOfDataPoints();
+      if (mzBuffer.length < numOfDataPoints) {
+        mzBuffer = new double[numOfDataPoints];
+        intensityBuffer = new double[numOfDataPoints];
+      }
+      massList.getDataPoints(mzBuffer, intensityBuffer);
+
+      for (int i = 0; i < numOfDataPoints; i++) {
+        int bin = (int) ((mzBuffer[i] - mzRange.lowerEndpoint()) / binWidth);
+        bin = Math.max(0, Math.min(numOfBins - 1, bin));
+        peakCounts[bin]++;
+      }
+      processedScans++;
+    }
+
+    return ParallelDataPointConnector.findPartitionBorders(peakCounts, mzRange, binWidth,
+        mzTolerance, parallelPartitions);
+
+  }
+
 }
@@ -18,15 +18,17 @@
 
 package net.sf.mzmine.modules.masslistmethods.chromatogrambuilder;
 
-import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.TreeSet;
 
 import com.google.common.collect.Range;
 
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.util.DataPointSorter;
 import net.sf.mzmine.util.SortingDirection;
@@ -39,7 +41,7 @@ public class HighestDataPointConnector {
   private final RawDataFile dataFile;
   private final int allScanNumbers[];
 
-  // Mapping of last data point m/z --> chromatogram
+  // Chromatograms which were connected in the last scan
   private Set<Chromatogram> buildingChromatograms;
 
   public HighestDataPointConnector(RawDataFile dataFile, int allScanNumbers[],
@@ -59,28 +61,62 @@ public class HighestDataPointConnector {
   }
 
   public void addScan(int scanNumber, DataPoint mzValues[]) {
+    final double mzs[] = new double[mzValues.length];
+    final double intensities[] = new double[mzValues.length];
+    for (int i = 0; i < mzValues.length; i++) {
+      mzs[i] = mzValues[i].getMZ();
+      intensities[i] = mzValues[i].getIntensity();
+    }
+    addScan(scanNumber, mzs, intensities, mzValues.length);
+  }
+
+  /**
+   * Connects the m/z peaks of one scan, given as primitive arrays, to the building chromatograms.
+   * DataPoint instances are only created for the m/z peaks which are actually added to a
+   * chromatogram.
+   */
+  public void addScan(int scanNumber, double mzValues[], double intensityValues[],
+      int numOfDataPoints) {
 
     // Sort m/z peaks by descending intensity
-    Arrays.sort(mzValues,
-        new DataPointSorter(SortingProperty.Intensity, SortingDirection.Descending));
+    final int sortedIndexes[] =
+        new DataPointSorter(SortingProperty.Intensity, SortingDirection.Descending)
+            .sortIndexes(mzValues, intensityValues, numOfDataPoints);
 
     // Set of already connected chromatograms in each iteration
     Set<Chromatogram> connectedChromatograms = new LinkedHashSet<Chromatogram>();
 
-    // TODO: these two nested cycles should be optimized for speed
-    for (DataPoint mzPeak : mzValues) {
+    // Index the building chromatograms by the m/z of their last data point
+    TreeSet<IndexEntry> mzIndex = new TreeSet<>(IndexEntry.order);
+    int rank = 0;
+    for (Chromatogram chromatogram : buildingChromatograms) {
+      mzIndex.add(new IndexEntry(chromatogram, rank++, chromatogram.getLastMzPeak().getMZ()));
+    }
+
+    for (int index : sortedIndexes) {
+
+      final double mz = mzValues[index];
 
-      // Search for best chromatogram, which has highest last data point
-      Chromatogram bestChromatogram = null;
+      // Search for best chromatogram, which has highest last data point. Only the chromatograms
+      // within the search window need to be checked against the tolerance. If several
+      // chromatograms have the same intensity, the one which comes first in buildingChromatograms
+      // wins.
+      final double searchWidth = getSearchWidth(mz);
+      final IndexEntry fromKey = new IndexEntry(null, Integer.MIN_VALUE, mz - searchWidth);
+      final IndexEntry toKey = new IndexEntry(null, Integer.MAX_VALUE, mz + searchWidth);
+      IndexEntry bestEntry = null;
+      double bestIntensity = 0;
 
-      for (Chromatogram testChrom : buildingChromatograms) {
+      for (IndexEntry testEntry : mzIndex.subSet(fromKey, true, toKey, true)) {
 
-        DataPoint lastMzPeak = testChrom.getLastMzPeak();
+        DataPoint lastMzPeak = testEntry.chromatogram.getLastMzPeak();
         Range<Double> toleranceRange = mzTolerance.getToleranceRange(lastMzPeak.getMZ());
-        if (toleranceRange.contains(mzPeak.getMZ())) {
-          if ((bestChromatogram == null) || (testChrom.getLastMzPeak()
-              .getIntensity() > bestChromatogram.getLastMzPeak().getIntensity())) {
-            bestChromatogram = testChrom;
+        if (toleranceRange.contains(mz)) {
+          final double testIntensity = lastMzPeak.getIntensity();
+          if ((bestEntry == null) || (testIntensity > bestIntensity)
+              || ((testIntensity == bestIntensity) && (testEntry.rank < bestEntry.rank))) {
+            bestEntry = testEntry;
+            bestIntensity = testIntensity;
           }
         }
 
@@ -89,16 +125,22 @@ public class HighestDataPointConnector {
       // If we found best chromatogram, check if it is already connected.
       // In such case, we may discard this mass and continue. If we
       // haven't found a chromatogram, we may create a new one.
-      if (bestChromatogram != null) {
+      Chromatogram bestChromatogram;
+      if (bestEntry != null) {
+        bestChromatogram = bestEntry.chromatogram;
         if (connectedChromatograms.contains(bestChromatogram)) {
           continue;
         }
+        // The last data point is going to change, so update the index
+        mzIndex.remove(bestEntry);
+        bestEntry.lastMz = mz;
+        mzIndex.add(bestEntry);
       } else {
         bestChromatogram = new Chromatogram(dataFile, allScanNumbers);
       }
 
       // Add this mzPeak to the chromatogram
-      bestChromatogram.addMzPeak(scanNumber, mzPeak);
+      bestChromatogram.addMzPeak(scanNumber, new SimpleDataPoint(mz, intensityValues[index]));
 
       // Move the chromatogram to the set of connected chromatograms
       connectedChromatograms.add(bestChromatogram);
@@ -139,6 +181,19 @@ public class HighestDataPointConnector {
 
   }
 
+  /**
+   * Returns the half width of the m/z window, which contains the last m/z values of all
+   * chromatograms whose tolerance range may contain the given m/z value. The tolerance grows with
+   * m/z, so the window must cover the tolerance at its own upper end. The result is doubled to
+   * stay on the safe side of rounding errors; the exact tolerance is checked afterwards anyway.
+   */
+  private double getSearchWidth(double mz) {
+    final double ppm = mzTolerance.getPpmTolerance() / 1000000.0;
+    if (ppm >= 1)
+      return Double.POSITIVE_INFINITY;
+    return 2 * Math.max(mzTolerance.getMzTolerance(), mz * ppm / (1 - ppm));
+  }
+
   public Chromatogram[] finishChromatograms() {
 
     // Iterate through current chromatograms and remove those which do not
@@ -173,4 +228,26 @@ public class HighestDataPointConnector {
     return chromatograms;
   }
 
+  /**
+   * Entry of the m/z index of building chromatograms. The entries are sorted by the m/z value of the
+   * last data point of the chromatogram, ties are sorted by the position (rank) of the chromatogram
+   * in buildingChromatograms.
+   */
+  private static class IndexEntry {
+
+    private static final Comparator<IndexEntry> order = Comparator
+        .comparingDouble((IndexEntry entry) -> entry.lastMz).thenComparingInt(entry -> entry.rank);
+
+    private final Chromatogram chromatogram;
+    private final int rank;
+    private double lastMz;
+
+    private IndexEntry(Chromatogram chromatogram, int rank, double lastMz) {
+      this.chromatogram = chromatogram;
+      this.rank = rank;
+      this.lastMz = lastMz;
+    }
+
+  }
+
 }
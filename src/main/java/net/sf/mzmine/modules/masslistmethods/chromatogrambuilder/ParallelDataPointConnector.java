@@ -0,0 +1,210 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.masslistmethods.chromatogrambuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import com.google.common.collect.Range;
+
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+
+/**
+ * Builds chromatograms in parallel by splitting the m/z axis into partitions, each processed by its
+ * own HighestDataPointConnector.
+ *
+ * The partition borders are only placed into m/z regions which do not contain any m/z peak of any
+ * scan and which are wider than the m/z tolerance (see findPartitionBorders()). Therefore, no
+ * chromatogram of one partition can ever be connected to an m/z peak of another partition, and the
+ * chromatograms at the borders never need to be merged. Each connector sees exactly the m/z peaks
+ * of its partition in the original order, so the resulting chromatograms are identical to those of
+ * a single HighestDataPointConnector. They are returned partition by partition, in the order in
+ * which each connector returns them; after sorting by m/z, the order is identical as well.
+ *
+ * The scans are buffered and handed to the partitions in blocks, which are processed in parallel.
+ */
+public class ParallelDataPointConnector {
+
+  // Number of scans processed by each partition in one parallel step
+  private static final int BLOCK_SIZE = 64;
+
+  private final double partitionBorders[];
+  private final HighestDataPointConnector connectors[];
+
+  // Buffered scans: scan numbers and m/z peaks of each partition
+  private final int blockScanNumbers[] = new int[BLOCK_SIZE];
+  private final double blockMzValues[][][], blockIntensityValues[][][];
+  private final int blockNumOfDataPoints[][];
+  private int blockSize = 0;
+
+  /**
+   * @param partitionBorders sorted m/z borders between partitions, as returned by
+   *        findPartitionBorders()
+   */
+  public ParallelDataPointConnector(RawDataFile dataFile, int allScanNumbers[],
+      double minimumTimeSpan, double minimumHeight, MZTolerance mzTolerance,
+      double partitionBorders[]) {
+
+    this.partitionBorders = partitionBorders;
+
+    final int numOfPartitions = partitionBorders.length + 1;
+    connectors = new HighestDataPointConnector[numOfPartitions];
+    for (int i = 0; i < numOfPartitions; i++) {
+      connectors[i] = new HighestDataPointConnector(dataFile, allScanNumbers, minimumTimeSpan,
+          minimumHeight, mzTolerance);
+    }
+
+    blockMzValues = new double[numOfPartitions][BLOCK_SIZE][];
+    blockIntensityValues = new double[numOfPartitions][BLOCK_SIZE][];
+    blockNumOfDataPoints = new int[numOfPartitions][BLOCK_SIZE];
+    for (int p = 0; p < numOfPartitions; p++) {
+      for (int b = 0; b < BLOCK_SIZE; b++) {
+        blockMzValues[p][b] = new double[16];
+        blockIntensityValues[p][b] = new double[16];
+      }
+    }
+
+  }
+
+  /**
+   * @return Number of m/z partitions processed in parallel
+   */
+  public int getNumberOfPartitions() {
+    return connectors.length;
+  }
+
+  /**
+   * Adds the m/z peaks of one scan. The arrays are copied, so the caller may reuse them.
+   */
+  public void addScan(int scanNumber, double mzValues[], double intensityValues[],
+      int numOfDataPoints) {
+
+    blockScanNumbers[blockSize] = scanNumber;
+
+    for (int i = 0; i < numOfDataPoints; i++) {
+      final int partition = getPartition(mzValues[i]);
+      final int n = blockNumOfDataPoints[partition][blockSize];
+      if (n == blockMzValues[partition][blockSize].length) {
+        blockMzValues[partition][blockSize] =
+            Arrays.copyOf(blockMzValues[partition][blockSize], n * 2);
+        blockIntensityValues[partition][blockSize] =
+            Arrays.copyOf(blockIntensityValues[partition][blockSize], n * 2);
+      }
+      blockMzValues[partition][blockSize][n] = mzValues[i];
+      blockIntensityValues[partition][blockSize][n] = intensityValues[i];
+      blockNumOfDataPoints[partition][blockSize] = n + 1;
+    }
+
+    blockSize++;
+    if (blockSize == BLOCK_SIZE)
+      processBlock();
+
+  }
+
+  /**
+   * Finishes the chromatograms of all partitions
+   */
+  public Chromatogram[] finishChromatograms() {
+
+    processBlock();
+
+    final Chromatogram results[][] = new Chromatogram[connectors.length][];
+    IntStream.range(0, connectors.length).parallel()
+        .forEach(p -> results[p] = connectors[p].finishChromatograms());
+
+    List<Chromatogram> chromatograms = new ArrayList<>();
+    for (Chromatogram partitionChromatograms[] : results)
+      chromatograms.addAll(Arrays.asList(partitionChromatograms));
+    return chromatograms.toArray(new Chromatogram[0]);
+
+  }
+
+  private void processBlock() {
+
+    final int size = blockSize;
+    IntStream.range(0, connectors.length).parallel().forEach(p -> {
+      for (int b = 0; b < size; b++) {
+        connectors[p].addScan(blockScanNumbers[b], blockMzValues[p][b], blockIntensityValues[p][b],
+            blockNumOfDataPoints[p][b]);
+        blockNumOfDataPoints[p][b] = 0;
+      }
+    });
+    blockSize = 0;
+
+  }
+
+  private int getPartition(double mz) {
+    int index = Arrays.binarySearch(partitionBorders, mz);
+    if (index < 0)
+      index = -index - 1;
+    return index;
+  }
+
+  /**
+   * Finds m/z borders which split the given m/z peaks into at most numOfPartitions partitions of
+   * similar size. A border is only placed into an empty m/z region that is at least twice as wide
+   * as the m/z tolerance at its upper end, so no chromatogram can be connected to m/z peaks on both
+   * sides of the border.
+   *
+   * @param peakCounts histogram of the number of m/z peaks in bins of given width, starting at the
+   *        lower end of mzRange
+   * @return sorted partition borders, empty array if the m/z peaks cannot be split
+   */
+  public static double[] findPartitionBorders(int peakCounts[], Range<Double> mzRange,
+      double binWidth, MZTolerance mzTolerance, int numOfPartitions) {
+
+    long totalCount = 0;
+    for (int count : peakCounts)
+      totalCount += count;
+
+    final double minMz = mzRange.lowerEndpoint();
+    final List<Double> borders = new ArrayList<>();
+
+    long accumulatedCount = 0;
+    int lastOccupiedBin = -1;
+    for (int bin = 0; bin < peakCounts.length; bin++) {
+
+      if (peakCounts[bin] == 0)
+        continue;
+
+      if (lastOccupiedBin >= 0) {
+        final long targetCount = totalCount * (borders.size() + 1) / numOfPartitions;
+        final double emptyWidth = (bin - lastOccupiedBin - 1) * binWidth;
+        final double upperMz = minMz + (bin + 1) * binWidth;
+        if ((borders.size() < numOfPartitions - 1) && (accumulatedCount >= targetCount)
+            && (emptyWidth > 2 * mzTolerance.getMzToleranceForMass(upperMz))) {
+          borders.add(minMz + (lastOccupiedBin + 1) * binWidth + emptyWidth / 2);
+        }
+      }
+
+      accumulatedCount += peakCounts[bin];
+      lastOccupiedBin = bin;
+    }
+
+    final double result[] = new double[borders.size()];
+    for (int i = 0; i < result.length; i++)
+      result[i] = borders.get(i);
+    return result;
+
+  }
+
+}
@@ -92,6 +92,13 @@ public class HierarAlignerGCParameters extends SimpleParameterSet {
           + "(WARN: 'Pearson correlation' similarity method can imply scores < 0.0 and/or > 1.0)",
       NumberFormat.getNumberInstance(), HierarAlignerGCTask.MIN_SCORE_ABSOLUTE);
 
+  public static final BooleanParameter sparseDistances = new BooleanParameter(
+      "Sparse distance graph",
+      "If checked, only the distances of rows within the m/z and RT tolerance are calculated and"
+          + " stored, and the rows are clustered separately in groups of close rows. This allows"
+          + " aligning many more feature lists. Cannot be combined with the dendrogram export.",
+      false);
+
   // public static final DoubleParameter IDWeight = new DoubleParameter(
   // "Weight for identity", "Weight for identities similarity. Score for
   // perfectly matching identities.");
@@ -141,6 +148,7 @@ public class HierarAlignerGCParameters extends SimpleParameterSet {
         linkageStartegyType_0,
         // hybrid_K_value,
         peakListName, MZTolerance, MZWeight, RTTolerance, RTWeight, minScore,
+        sparseDistances,
         // useKnownCompoundsAsRef,
         // useDetectedMzOnly,
         // RTToleranceAfter,
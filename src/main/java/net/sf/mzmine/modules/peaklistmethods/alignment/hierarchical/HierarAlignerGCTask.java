@@ -31,7 +31,9 @@ import java.util.Hashtable;
 import java.util.List;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import org.gnf.clustering.DataSource;
 import org.gnf.clustering.DistanceMatrix;
 import org.gnf.clustering.FloatSource1D;
@@ -70,7 +72,8 @@ public class HierarAlignerGCTask extends AbstractTask {
   private PeakList alignedPeakList;
 
   // Processed rows counter
-  private int processedRows, totalRows;
+  private final AtomicInteger processedRows = new AtomicInteger();
+  private int totalRows;
 
   private String peakListName;
   private LinkageMode linkageStartegyType;
@@ -86,6 +89,7 @@ public class HierarAlignerGCTask extends AbstractTask {
   private RTTolerance rtTolerance;
   private double mzWeight, rtWeight;
   private double minScore;
+  private boolean sparseDistances;
   // private double idWeight;
   //
   // private boolean useApex, useKnownCompoundsAsRef;
@@ -157,6 +161,9 @@ public class HierarAlignerGCTask extends AbstractTask {
 
     minScore = parameters.getParameter(HierarAlignerGCParameters.minScore).getValue();
 
+    sparseDistances =
+        parameters.getParameter(HierarAlignerGCParameters.sparseDistances).getValue();
+
     // idWeight = parameters.getParameter(JoinAlignerParameters.IDWeight)
     // .getValue();
     // idWeight = 0.0;
@@ -231,7 +238,7 @@ public class HierarAlignerGCTask extends AbstractTask {
       return 0f;
     // return (double) processedRows / (double) totalRows;
     double progress =
-        (double) (processedRows + (clustProgress.getProgress() * (double) totalRows / 3.0d))
+        (double) (processedRows.get() + (clustProgress.getProgress() * (double) totalRows / 3.0d))
             / (double) totalRows;
     // logger.info(">> THE progress: " + progress);
     // logger.info("Caught progress: " +
@@ -250,6 +257,21 @@ public class HierarAlignerGCTask extends AbstractTask {
       setErrorMessage("Cannot run alignment, all the weight parameters are zero!");
       return;
     }
+    if (sparseDistances && exportDendrogramAsTxt) {
+      setStatus(TaskStatus.ERROR);
+      setErrorMessage(
+          "Cannot export the dendrogram, there is no complete tree with the sparse distance graph");
+      return;
+    }
+    // The rows of different groups are never clustered together only if the distance of all other
+    // pairs is beyond the maximum distance
+    if (sparseDistances
+        && !(maximumScore + EPSILON <= RowVsRowDistanceProvider.OUT_OF_TOLERANCE_DISTANCE)) {
+      setStatus(TaskStatus.ERROR);
+      setErrorMessage("Cannot use the sparse distance graph, the sum of the weights must be below "
+          + RowVsRowDistanceProvider.OUT_OF_TOLERANCE_DISTANCE);
+      return;
+    }
 
     setStatus(TaskStatus.PROCESSING);
     logger.info("Running join aligner");
@@ -326,7 +348,8 @@ public class HierarAlignerGCTask extends AbstractTask {
     }
 
     // If 'Hybrid' or no distance matrix: no need for a matrix
-    if (CLUSTERER_TYPE == ClustererType.HYBRID || !saveRAMratherThanCPU_1) {
+    if (!sparseDistances
+        && (CLUSTERER_TYPE == ClustererType.HYBRID || !saveRAMratherThanCPU_1)) {
       // distances = new double[nbPeaks][nbPeaks];
 
       int nRowCount = nbPeaks;
@@ -358,7 +381,8 @@ public class HierarAlignerGCTask extends AbstractTask {
         maximumScore);
 
     // If 'Hybrid' or no distance matrix: no need for a matrix
-    if (CLUSTERER_TYPE == ClustererType.HYBRID || !saveRAMratherThanCPU_1) {
+    if (!sparseDistances
+        && (CLUSTERER_TYPE == ClustererType.HYBRID || !saveRAMratherThanCPU_1)) {
 
       for (int x = 0; x < nbPeaks; ++x) {
 
@@ -374,10 +398,10 @@ public class HierarAlignerGCTask extends AbstractTask {
 
         }
 
-        processedRows++;
+        processedRows.incrementAndGet();
         if (DEBUG)
-          logger.info(
-              "Treating lists: " + (Math.round(100 * processedRows / (double) nbPeaks)) + " %");
+          logger.info("Treating lists: "
+              + (Math.round(100 * processedRows.get() / (double) nbPeaks)) + " %");
 
       }
     }
@@ -418,7 +442,13 @@ public class HierarAlignerGCTask extends AbstractTask {
     }
     String outputPrefix = null;
 
-    if (CLUSTERER_TYPE == ClustererType.CLASSIC) { // Pure Hierar!
+    if (sparseDistances) { // Hierar on each group of close rows!
+
+      gnfClusters = getSparseClusters(distProvider, newIds.length, max_dist);
+      if (gnfClusters == null)
+        return;
+
+    } else if (CLUSTERER_TYPE == ClustererType.CLASSIC) { // Pure Hierar!
 
       outputPrefix = "hierar_0";
 
@@ -479,12 +509,15 @@ public class HierarAlignerGCTask extends AbstractTask {
 
     // Sort Nodes by correlation score (Required in
     // 'getValidatedClusters_3')
+    // (Not with the sparse distance graph: no complete tree, rows already clustered)
     int[] rowOrder = new int[nRowCount];
-    if (DEBUG)
-      logger.info("Sorting tree nodes...");
-    org.gnf.clustering.Utils.NodeSort(arNodes, nRowCount - 2, 0, rowOrder);
+    if (arNodes != null) {
+      if (DEBUG)
+        logger.info("Sorting tree nodes...");
+      org.gnf.clustering.Utils.NodeSort(arNodes, nRowCount - 2, 0, rowOrder);
+    }
 
-    if (do_cluster) {
+    if (do_cluster && arNodes != null) {
 
       gnfClusters = getValidatedClusters_3(arNodes, 0.0f, newIds.length, max_dist,
           distancesGNF_Tri_Bkp, distProvider);
@@ -555,7 +588,7 @@ public class HierarAlignerGCTask extends AbstractTask {
       }
       clustersList.add(rows_cluster);
       //
-      processedRows += rows_cluster.size();
+      processedRows.addAndGet(rows_cluster.size());
     }
 
     if (DEBUG)
@@ -673,6 +706,90 @@ public class HierarAlignerGCTask extends AbstractTask {
 
   }
 
+  /**
+   * Calculates the distances of the rows within the m/z and RT tolerance only, in parallel, and
+   * clusters each group of rows connected by acceptable distances separately, the same way as the
+   * complete distance matrix. Rows of different groups are never part of the same validated
+   * cluster, because the distance between them is beyond the maximum distance. Returns null if the
+   * task was canceled.
+   */
+  private List<List<Integer>> getSparseClusters(RowVsRowDistanceProvider distProvider, int level,
+      double max_dist) {
+
+    final int nbPeaks = full_rows_list.size();
+    final double mzMaxDiff = mzTolerance.getMzTolerance();
+    final double rtMaxDiff = rtTolerance.getTolerance();
+
+    // The candidates of each row are kept separately, so the distances do not depend on the
+    // number of threads
+    final RowVsRowCandidateIndex candidateIndex =
+        new RowVsRowCandidateIndex(full_rows_list, mzMaxDiff, rtMaxDiff);
+    final int candidates[][] = new int[nbPeaks][];
+    final float candidateDistances[][] = new float[nbPeaks][];
+    IntStream.range(0, nbPeaks).parallel().forEach(x -> {
+      if (isCanceled())
+        return;
+      int rowCandidates[] = candidateIndex.getCandidates(x);
+      float rowDistances[] = new float[rowCandidates.length];
+      for (int k = 0; k < rowCandidates.length; k++) {
+        rowDistances[k] = (float) distProvider.getRankedDistance(x, rowCandidates[k], mzMaxDiff,
+            rtMaxDiff, minScore);
+      }
+      candidates[x] = rowCandidates;
+      candidateDistances[x] = rowDistances;
+      processedRows.incrementAndGet();
+    });
+
+    if (isCanceled())
+      return null;
+
+    RawDataFile dataFiles[] = new RawDataFile[nbPeaks];
+    for (int x = 0; x < nbPeaks; x++)
+      dataFiles[x] = full_rows_list.get(x).getRawDataFiles()[0];
+    SparseDistanceMatrix distances =
+        new SparseDistanceMatrix(dataFiles, candidates, candidateDistances);
+
+    List<int[]> groups = distances.getConnectedComponents(max_dist + EPSILON);
+    logger.info("Sparse distance graph: " + distances.getNumberOfPairs() + " pairs of rows within"
+        + " tolerance, " + groups.size() + " groups of rows");
+
+    List<List<Integer>> gnfClusters = new ArrayList<>();
+    for (int group[] : groups) {
+
+      if (isCanceled())
+        return null;
+
+      if (group.length == 1) {
+        gnfClusters.add(Arrays.asList(new Integer[] {group[0]}));
+      } else {
+
+        DistanceMatrix groupDistances = new DistanceMatrixTriangular1D2D(group.length);
+        for (int x = 0; x < group.length; ++x) {
+          for (int y = x; y < group.length; ++y) {
+            groupDistances.setValue(x, y, distances.getDistance(group[x], group[y]));
+          }
+        }
+        DistanceMatrix groupDistancesBkp = new DistanceMatrixTriangular1D2D(groupDistances);
+
+        org.gnf.clustering.Node[] arNodes =
+            org.gnf.clustering.sequentialcache.SequentialCacheClustering
+                .clusterDM(groupDistances, linkageStartegyType, null, group.length);
+
+        for (List<Integer> cl : getValidatedClusters_3(arNodes, 0.0f, level, max_dist,
+            groupDistancesBkp, distProvider)) {
+          List<Integer> rows = new ArrayList<>(cl.size());
+          for (int i = 0; i < cl.size(); i++)
+            rows.add(group[cl.get(i)]);
+          gnfClusters.add(rows);
+        }
+      }
+
+      processedRows.addAndGet(group.length);
+    }
+
+    return gnfClusters;
+  }
+
   /**
    * Two clusters can be merged if and only if: - The resulting merged cluster: (their parent)
    * doesn't exceed 'level' leaves - The distance between them two is acceptable (close enough)
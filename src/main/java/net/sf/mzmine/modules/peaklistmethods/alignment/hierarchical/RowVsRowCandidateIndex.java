@@ -0,0 +1,153 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.alignment.hierarchical;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.RawDataFile;
+
+/**
+ * Grid index of feature list rows by the m/z and RT of their best peak. It finds the candidate
+ * pairs for which RowVsRowDistanceProvider.getRankedDistance() calculates a score: rows of
+ * different raw data files whose m/z and RT differences are below half of the tolerances. All
+ * other pairs get a fixed distance.
+ *
+ * The grid cells are as wide as half of the m/z tolerance, so the candidates of a row are in the
+ * neighbouring m/z cells. Within a cell, the rows are sorted by RT.
+ */
+public class RowVsRowCandidateIndex {
+
+  private final double mzValues[], rtValues[];
+  private final RawDataFile dataFiles[];
+
+  private final double mzHalfTolerance, rtHalfTolerance;
+
+  // Row indexes sorted by m/z cell and RT, with their cells and RT values in the same order
+  private final int sortedRows[];
+  private final long sortedCells[];
+  private final double sortedRTs[];
+
+  public RowVsRowCandidateIndex(List<PeakListRow> rows, double mzMaxDiff, double rtMaxDiff) {
+
+    final int numOfRows = rows.size();
+    mzValues = new double[numOfRows];
+    rtValues = new double[numOfRows];
+    dataFiles = new RawDataFile[numOfRows];
+    for (int i = 0; i < numOfRows; i++) {
+      PeakListRow row = rows.get(i);
+      Feature bestPeak = row.getBestPeak();
+      mzValues[i] = bestPeak.getMZ();
+      rtValues[i] = bestPeak.getRT();
+      dataFiles[i] = row.getRawDataFiles()[0];
+    }
+
+    mzHalfTolerance = mzMaxDiff / 2.0;
+    rtHalfTolerance = rtMaxDiff / 2.0;
+
+    // With a zero tolerance, no pair is a candidate
+    if (!(mzHalfTolerance > 0.0) || !(rtHalfTolerance > 0.0)) {
+      sortedRows = new int[0];
+      sortedCells = new long[0];
+      sortedRTs = new double[0];
+      return;
+    }
+
+    Integer order[] = new Integer[numOfRows];
+    for (int i = 0; i < numOfRows; i++)
+      order[i] = i;
+    Arrays.sort(order, Comparator.<Integer>comparingLong(i -> getCell(mzValues[i]))
+        .thenComparingDouble(i -> rtValues[i]));
+
+    sortedRows = new int[numOfRows];
+    sortedCells = new long[numOfRows];
+    sortedRTs = new double[numOfRows];
+    for (int p = 0; p < numOfRows; p++) {
+      sortedRows[p] = order[p];
+      sortedCells[p] = getCell(mzValues[order[p]]);
+      sortedRTs[p] = rtValues[order[p]];
+    }
+
+  }
+
+  /**
+   * Returns the candidates of given row with a higher index, in ascending order
+   */
+  public int[] getCandidates(int row) {
+
+    final double mz = mzValues[row], rt = rtValues[row];
+    final RawDataFile dataFile = dataFiles[row];
+
+    int candidates[] = new int[16];
+    int numOfCandidates = 0;
+
+    if (sortedRows.length > 0) {
+      final long cell = getCell(mz);
+      for (long c = cell - 1; c <= cell + 1; c++) {
+
+        // The differences are checked with the same expressions as in
+        // RowVsRowDistanceProvider.getRankedDistance()
+        for (int p = findFirstInRange(c, rt); (p < sortedRows.length) && (sortedCells[p] == c)
+            && (sortedRTs[p] - rt < rtHalfTolerance); p++) {
+
+          final int other = sortedRows[p];
+          if ((other <= row) || (dataFiles[other] == dataFile))
+            continue;
+          if ((Math.abs(rt - rtValues[other]) >= rtHalfTolerance)
+              || (Math.abs(mz - mzValues[other]) >= mzHalfTolerance))
+            continue;
+
+          if (numOfCandidates == candidates.length)
+            candidates = Arrays.copyOf(candidates, numOfCandidates * 2);
+          candidates[numOfCandidates++] = other;
+        }
+      }
+    }
+
+    candidates = Arrays.copyOf(candidates, numOfCandidates);
+    Arrays.sort(candidates);
+    return candidates;
+
+  }
+
+  private long getCell(double mz) {
+    return (long) Math.floor(mz / mzHalfTolerance);
+  }
+
+  /**
+   * Binary search for the first position in given cell whose RT is not below the RT range around
+   * given RT, or for the first position of the next cell
+   */
+  private int findFirstInRange(long cell, double rt) {
+    int low = 0, high = sortedRows.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if ((sortedCells[mid] < cell)
+          || ((sortedCells[mid] == cell) && (rt - sortedRTs[mid] >= rtHalfTolerance)))
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+}
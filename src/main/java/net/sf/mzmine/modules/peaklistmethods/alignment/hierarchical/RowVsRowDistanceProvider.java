@@ -26,6 +26,10 @@ import net.sf.mzmine.modules.peaklistmethods.alignment.hierarchical.RowVsRowScor
 
 public class RowVsRowDistanceProvider {
 
+  // Distances of pairs which are never aligned
+  public static final double SAME_FILE_DISTANCE = 1000.0d;
+  public static final double OUT_OF_TOLERANCE_DISTANCE = 100.0d;
+
   MZmineProject project;
   // boolean useOldestRDFancestor;
   // Hashtable<RawDataFile, List<double[]>> rtAdjustementMapping;
@@ -124,7 +128,7 @@ public class RowVsRowDistanceProvider {
     // aligned_row_id < 102)
     // || (row_id >= 102 && aligned_row_id >= 102)) {
     if (row.getRawDataFiles()[0] == k_row.getRawDataFiles()[0]) {
-      return 1000.0d;
+      return SAME_FILE_DISTANCE;
     }
     // Not candidate
     else {
@@ -141,7 +145,7 @@ public class RowVsRowDistanceProvider {
       if ((Math.abs(row.getBestPeak().getRT() - k_row.getBestPeak().getRT()) >= rtMaxDiff / 2.0
           || Math.abs(row.getBestPeak().getMZ() - k_row.getBestPeak().getMZ()) >= mzMaxDiff
               / 2.0)) {
-        return 100.0d;
+        return OUT_OF_TOLERANCE_DISTANCE;
       }
     }
 
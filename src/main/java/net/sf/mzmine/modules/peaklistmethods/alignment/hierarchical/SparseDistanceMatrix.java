@@ -0,0 +1,181 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.alignment.hierarchical;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.mzmine.datamodel.RawDataFile;
+
+/**
+ * Read-only row distances which only store the distances of candidate pairs, i.e. the pairs
+ * within the m/z and RT tolerance (see RowVsRowCandidateIndex). Every other pair has the fixed
+ * distance RowVsRowDistanceProvider.getRankedDistance() would return for it. The stored distances
+ * are kept in compressed rows: the neighbours of each row are sorted by index.
+ */
+public class SparseDistanceMatrix implements RowDistances {
+
+  private final int dimension;
+
+  // Index of the raw data file of each row
+  private final int fileIndexes[];
+
+  // The neighbours of row i are neighbours[offsets[i]] to neighbours[offsets[i + 1] - 1]
+  private final int offsets[];
+  private final int neighbours[];
+  private final float distances[];
+
+  /**
+   * @param dataFiles raw data file of each row
+   * @param candidates candidates of each row with a higher index, in ascending order
+   * @param candidateDistances distances to the candidates of each row
+   */
+  public SparseDistanceMatrix(RawDataFile dataFiles[], int candidates[][],
+      float candidateDistances[][]) {
+
+    dimension = dataFiles.length;
+
+    fileIndexes = new int[dimension];
+    Map<RawDataFile, Integer> fileIndexMap = new HashMap<>();
+    for (int i = 0; i < dimension; i++) {
+      Integer fileIndex = fileIndexMap.get(dataFiles[i]);
+      if (fileIndex == null) {
+        fileIndex = fileIndexMap.size();
+        fileIndexMap.put(dataFiles[i], fileIndex);
+      }
+      fileIndexes[i] = fileIndex;
+    }
+
+    // Each pair is stored in both rows
+    offsets = new int[dimension + 1];
+    for (int i = 0; i < dimension; i++) {
+      offsets[i + 1] += candidates[i].length;
+      for (int j : candidates[i])
+        offsets[j + 1]++;
+    }
+    for (int i = 0; i < dimension; i++)
+      offsets[i + 1] += offsets[i];
+
+    neighbours = new int[offsets[dimension]];
+    distances = new float[offsets[dimension]];
+
+    // Filling the rows in ascending order keeps the neighbours of each row sorted: the lower
+    // neighbours of row j are added while filling rows i < j, before its higher neighbours
+    int next[] = Arrays.copyOf(offsets, dimension);
+    for (int i = 0; i < dimension; i++) {
+      for (int k = 0; k < candidates[i].length; k++) {
+        final int j = candidates[i][k];
+        final float distance = candidateDistances[i][k];
+        neighbours[next[j]] = i;
+        distances[next[j]++] = distance;
+      }
+      for (int k = 0; k < candidates[i].length; k++) {
+        neighbours[next[i]] = candidates[i][k];
+        distances[next[i]++] = candidateDistances[i][k];
+      }
+    }
+
+  }
+
+  @Override
+  public int getNumberOfRows() {
+    return dimension;
+  }
+
+  @Override
+  public float getDistance(int row1, int row2) {
+
+    if (row1 == row2)
+      return 0f;
+
+    final int position = Arrays.binarySearch(neighbours, offsets[row1], offsets[row1 + 1], row2);
+    if (position >= 0)
+      return distances[position];
+
+    if (fileIndexes[row1] == fileIndexes[row2])
+      return (float) RowVsRowDistanceProvider.SAME_FILE_DISTANCE;
+    return (float) RowVsRowDistanceProvider.OUT_OF_TOLERANCE_DISTANCE;
+
+  }
+
+  /**
+   * Returns the number of stored pairs
+   */
+  public int getNumberOfPairs() {
+    return neighbours.length / 2;
+  }
+
+  /**
+   * Returns the connected components of the graph of all pairs whose distance is below given
+   * maximum. Each component is sorted in ascending order, and the components are sorted by their
+   * first row.
+   */
+  public List<int[]> getConnectedComponents(double maxDistance) {
+
+    // Union-find, the lowest row of each set is its root
+    int parents[] = new int[dimension];
+    for (int i = 0; i < dimension; i++)
+      parents[i] = i;
+
+    for (int i = 0; i < dimension; i++) {
+      for (int k = offsets[i]; k < offsets[i + 1]; k++) {
+        final int j = neighbours[k];
+        if ((j <= i) || !(distances[k] < maxDistance))
+          continue;
+        final int rootI = findRoot(parents, i), rootJ = findRoot(parents, j);
+        if (rootI < rootJ)
+          parents[rootJ] = rootI;
+        else if (rootJ < rootI)
+          parents[rootI] = rootJ;
+      }
+    }
+
+    int sizes[] = new int[dimension];
+    for (int i = 0; i < dimension; i++)
+      sizes[findRoot(parents, i)]++;
+
+    List<int[]> components = new ArrayList<>();
+    int componentIndexes[] = new int[dimension];
+    int filled[] = new int[dimension];
+    for (int i = 0; i < dimension; i++) {
+      final int root = findRoot(parents, i);
+      if (root == i) {
+        componentIndexes[i] = components.size();
+        components.add(new int[sizes[i]]);
+      }
+      final int component = componentIndexes[root];
+      components.get(component)[filled[component]++] = i;
+    }
+
+    return components;
+
+  }
+
+  private static int findRoot(int parents[], int i) {
+    while (parents[i] != i) {
+      parents[i] = parents[parents[i]];
+      i = parents[i];
+    }
+    return i;
+  }
+
+}
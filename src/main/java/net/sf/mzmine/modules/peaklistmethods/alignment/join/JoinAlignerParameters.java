@@ -62,9 +62,18 @@ public class JoinAlignerParameters extends SimpleParameterSet {
           "Compare MS1 or MS2 spectra similarity",
           new JoinAlignerSpectraSimilarityScoreParameters());
 
+  public static final BooleanParameter compactFeatures = new BooleanParameter(
+      "Compact feature storage",
+      "If checked, the values of the aligned features are stored in compact columns instead of "
+          + "feature objects. This reduces the memory needed for many raw data files. The data "
+          + "points of the features are kept as plain arrays of scan numbers, m/z values and "
+          + "intensities.",
+      false);
+
   public JoinAlignerParameters() {
     super(new Parameter[] {peakLists, peakListName, MZTolerance, MZWeight, RTTolerance, RTWeight,
-        SameChargeRequired, SameIDRequired, compareIsotopePattern, compareSpectraSimilarity});
+        SameChargeRequired, SameIDRequired, compareIsotopePattern, compareSpectraSimilarity,
+        compactFeatures});
   }
 
 }
@@ -18,11 +18,16 @@
 
 package net.sf.mzmine.modules.peaklistmethods.alignment.join;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import com.google.common.collect.Range;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.IsotopePattern;
@@ -30,6 +35,7 @@ import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.ColumnarPeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
 import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
@@ -53,14 +59,15 @@ public class JoinAlignerTask extends AbstractTask {
   private PeakList peakLists[], alignedPeakList;
 
   // Processed rows counter
-  private int processedRows, totalRows;
+  private final AtomicInteger processedRows = new AtomicInteger();
+  private int totalRows;
 
   private String peakListName;
   private MZTolerance mzTolerance;
   private RTTolerance rtTolerance;
   private double mzWeight, rtWeight;
   private boolean sameIDRequired, sameChargeRequired, compareIsotopePattern,
-      compareSpectraSimilarity;
+      compareSpectraSimilarity, compactFeatures;
   private ParameterSet parameters;
 
   // ID counter for the new peaklist
@@ -93,6 +100,8 @@ public class JoinAlignerTask extends AbstractTask {
 
     sameIDRequired = parameters.getParameter(JoinAlignerParameters.SameIDRequired).getValue();
 
+    compactFeatures = parameters.getParameter(JoinAlignerParameters.compactFeatures).getValue();
+
     compareIsotopePattern =
         parameters.getParameter(JoinAlignerParameters.compareIsotopePattern).getValue();
 
@@ -129,7 +138,7 @@ public class JoinAlignerTask extends AbstractTask {
   public double getFinishedPercentage() {
     if (totalRows == 0)
       return 0f;
-    return (double) processedRows / (double) totalRows;
+    return (double) processedRows.get() / (double) totalRows;
   }
 
   /**
@@ -172,7 +181,11 @@ public class JoinAlignerTask extends AbstractTask {
     }
 
     // Create a new aligned feature list
-    alignedPeakList = new SimplePeakList(peakListName, allDataFiles.toArray(new RawDataFile[0]));
+    if (compactFeatures)
+      alignedPeakList =
+          new ColumnarPeakList(peakListName, allDataFiles.toArray(new RawDataFile[0]));
+    else
+      alignedPeakList = new SimplePeakList(peakListName, allDataFiles.toArray(new RawDataFile[0]));
 
     // Iterate source feature lists
     for (PeakList peakList : peakLists) {
@@ -182,93 +195,23 @@ public class JoinAlignerTask extends AbstractTask {
 
       PeakListRow allRows[] = peakList.getRows();
 
-      // Calculate scores for all possible alignments of this row
-      for (PeakListRow row : allRows) {
-
+      // Calculate scores for all possible alignments of each row in parallel. The scores of each
+      // row are kept separately and added to the score set in the original row order afterwards,
+      // so the alignment does not depend on the number of threads.
+      final List<List<RowVsRowScore>> rowScores =
+          new ArrayList<>(Collections.nCopies(allRows.length, null));
+      IntStream.range(0, allRows.length).parallel().forEach(i -> {
         if (isCanceled())
           return;
+        rowScores.set(i, calculateScores(allRows[i]));
+        processedRows.incrementAndGet();
+      });
 
-        // Calculate limits for a row with which the row can be aligned
-        Range<Double> mzRange = mzTolerance.getToleranceRange(row.getAverageMZ());
-        Range<Double> rtRange = rtTolerance.getToleranceRange(row.getAverageRT());
-
-        // Get all rows of the aligned peaklist within parameter limits
-        PeakListRow candidateRows[] = alignedPeakList.getRowsInsideScanAndMZRange(rtRange, mzRange);
-
-        // Calculate scores and store them
-        for (PeakListRow candidate : candidateRows) {
-
-          if (sameChargeRequired) {
-            if (!PeakUtils.compareChargeState(row, candidate))
-              continue;
-          }
-
-          if (sameIDRequired) {
-            if (!PeakUtils.compareIdentities(row, candidate))
-              continue;
-          }
-
-          if (compareIsotopePattern) {
-            IsotopePattern ip1 = row.getBestIsotopePattern();
-            IsotopePattern ip2 = candidate.getBestIsotopePattern();
-
-            if ((ip1 != null) && (ip2 != null)) {
-              ParameterSet isotopeParams =
-                  parameters.getParameter(JoinAlignerParameters.compareIsotopePattern)
-                      .getEmbeddedParameters();
-
-              if (!IsotopePatternScoreCalculator.checkMatch(ip1, ip2, isotopeParams)) {
-                continue;
-              }
-            }
-          }
-
-          // compare the similarity of spectra mass lists on MS1 or MS2 level
-          if (compareSpectraSimilarity) {
-            DataPoint[] rowDPs = null;
-            DataPoint[] candidateDPs = null;
-            SpectralSimilarity sim = null;
-
-            // get data points of mass list of the representative scans
-            if (msLevel == 1) {
-              rowDPs =
-                  row.getBestPeak().getRepresentativeScan().getMassList(massList).getDataPoints();
-              candidateDPs = candidate.getBestPeak().getRepresentativeScan().getMassList(massList)
-                  .getDataPoints();
-            }
-
-            // get data points of mass list of the best fragmentation scans
-            if (msLevel == 2) {
-              if (row.getBestFragmentation() != null && candidate.getBestFragmentation() != null) {
-                rowDPs = row.getBestFragmentation().getMassList(massList).getDataPoints();
-                candidateDPs =
-                    candidate.getBestFragmentation().getMassList(massList).getDataPoints();
-              } else
-                continue;
-            }
-
-            // compare mass list data points of selected scans
-            if (rowDPs != null && candidateDPs != null) {
-
-              // calculate similarity using SimilarityFunction
-              sim = createSimilarity(rowDPs, candidateDPs);
-
-              // check if similarity is null. Similarity is not null if similarity score is >= the
-              // user set threshold
-              if (sim == null) {
-                continue;
-              }
-            }
-          }
+      if (isCanceled())
+        return;
 
-          RowVsRowScore score =
-              new RowVsRowScore(row, candidate, RangeUtils.rangeLength(mzRange) / 2.0, mzWeight,
-                  RangeUtils.rangeLength(rtRange) / 2.0, rtWeight);
-
-          scoreSet.add(score);
-        }
-        processedRows++;
-      }
+      for (List<RowVsRowScore> scores : rowScores)
+        scoreSet.addAll(scores);
 
       // Create a table of mappings for best scores
       Hashtable<PeakListRow, PeakListRow> alignmentMapping =
@@ -299,7 +242,10 @@ public class JoinAlignerTask extends AbstractTask {
 
         // If we have no mapping for this row, add a new one
         if (targetRow == null) {
-          targetRow = new SimplePeakListRow(newRowID);
+          if (compactFeatures)
+            targetRow = ((ColumnarPeakList) alignedPeakList).createRow(newRowID);
+          else
+            targetRow = new SimplePeakListRow(newRowID);
           newRowID++;
           alignedPeakList.addRow(targetRow);
         }
@@ -313,7 +259,7 @@ public class JoinAlignerTask extends AbstractTask {
         // aligned row
         PeakUtils.copyPeakListRowProperties(row, targetRow);
 
-        processedRows++;
+        processedRows.incrementAndGet();
 
       }
 
@@ -332,6 +278,97 @@ public class JoinAlignerTask extends AbstractTask {
 
   }
 
+  /**
+   * Calculates the scores of all possible alignments of given row with the rows of the aligned
+   * feature list. This method is called from multiple threads.
+   */
+  private List<RowVsRowScore> calculateScores(PeakListRow row) {
+
+    List<RowVsRowScore> scores = new ArrayList<>();
+
+    // Calculate limits for a row with which the row can be aligned
+    Range<Double> mzRange = mzTolerance.getToleranceRange(row.getAverageMZ());
+    Range<Double> rtRange = rtTolerance.getToleranceRange(row.getAverageRT());
+
+    // Get all rows of the aligned peaklist within parameter limits
+    PeakListRow candidateRows[] = alignedPeakList.getRowsInsideScanAndMZRange(rtRange, mzRange);
+
+    // Calculate scores and store them
+    for (PeakListRow candidate : candidateRows) {
+
+      if (sameChargeRequired) {
+        if (!PeakUtils.compareChargeState(row, candidate))
+          continue;
+      }
+
+      if (sameIDRequired) {
+        if (!PeakUtils.compareIdentities(row, candidate))
+          continue;
+      }
+
+      if (compareIsotopePattern) {
+        IsotopePattern ip1 = row.getBestIsotopePattern();
+        IsotopePattern ip2 = candidate.getBestIsotopePattern();
+
+        if ((ip1 != null) && (ip2 != null)) {
+          ParameterSet isotopeParams =
+              parameters.getParameter(JoinAlignerParameters.compareIsotopePattern)
+                  .getEmbeddedParameters();
+
+          if (!IsotopePatternScoreCalculator.checkMatch(ip1, ip2, isotopeParams)) {
+            continue;
+          }
+        }
+      }
+
+      // compare the similarity of spectra mass lists on MS1 or MS2 level
+      if (compareSpectraSimilarity) {
+        DataPoint[] rowDPs = null;
+        DataPoint[] candidateDPs = null;
+        SpectralSimilarity sim = null;
+
+        // get data points of mass list of the representative scans
+        if (msLevel == 1) {
+          rowDPs =
+              row.getBestPeak().getRepresentativeScan().getMassList(massList).getDataPoints();
+          candidateDPs = candidate.getBestPeak().getRepresentativeScan().getMassList(massList)
+              .getDataPoints();
+        }
+
+        // get data points of mass list of the best fragmentation scans
+        if (msLevel == 2) {
+          if (row.getBestFragmentation() != null && candidate.getBestFragmentation() != null) {
+            rowDPs = row.getBestFragmentation().getMassList(massList).getDataPoints();
+            candidateDPs =
+                candidate.getBestFragmentation().getMassList(massList).getDataPoints();
+          } else
+            continue;
+        }
+
+        // compare mass list data points of selected scans
+        if (rowDPs != null && candidateDPs != null) {
+
+          // calculate similarity using SimilarityFunction
+          sim = createSimilarity(rowDPs, candidateDPs);
+
+          // check if similarity is null. Similarity is not null if similarity score is >= the
+          // user set threshold
+          if (sim == null) {
+            continue;
+          }
+        }
+      }
+
+      RowVsRowScore score =
+          new RowVsRowScore(row, candidate, RangeUtils.rangeLength(mzRange) / 2.0, mzWeight,
+              RangeUtils.rangeLength(rtRange) / 2.0, rtWeight);
+
+      scores.add(score);
+    }
+
+    return scores;
+  }
+
   /**
    * Uses the similarity function and filter to create similarity.
    * 
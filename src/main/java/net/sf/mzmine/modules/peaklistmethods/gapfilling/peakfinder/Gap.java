@@ -66,21 +66,43 @@ public class Gap {
 
     double scanRT = scan.getRetentionTime();
 
-    // If not yet inside the RT range
-    if (scanRT < rtRange.lowerEndpoint())
+    // Skip reading the data points if this scan is not relevant
+    if (!isRelevant(scanRT))
       return;
 
-    // If we have passed the RT range and finished processing last peak
-    if ((scanRT > rtRange.upperEndpoint()) && (currentPeakDataPoints == null))
+    final int numOfDataPoints = scan.getNumberOfDataPoints();
+    final double mzValues[] = new double[numOfDataPoints];
+    final double intensityValues[] = new double[numOfDataPoints];
+    scan.getDataPoints(mzValues, intensityValues);
+
+    offerNextScan(scan, mzValues, intensityValues, numOfDataPoints);
+
+  }
+
+  /**
+   * Offers the next scan together with its data points, which were already read by the caller. This
+   * way, the data points of each scan only have to be read once for all gaps.
+   * 
+   * @param mzValues sorted m/z values of the scan
+   * @param intensityValues intensity values of the scan
+   * @param numOfDataPoints number of valid elements in mzValues and intensityValues
+   */
+  public void offerNextScan(Scan scan, double mzValues[], double intensityValues[],
+      int numOfDataPoints) {
+
+    double scanRT = scan.getRetentionTime();
+
+    if (!isRelevant(scanRT))
       return;
 
     // Find top m/z peak in our range
-    DataPoint basePeak = ScanUtils.findBasePeak(scan, mzRange);
+    final int basePeakIndex =
+        ScanUtils.findMostIntensePeakWithin(mzValues, intensityValues, numOfDataPoints, mzRange);
 
     GapDataPoint currentDataPoint;
-    if (basePeak != null) {
-      currentDataPoint =
-          new GapDataPoint(scan.getScanNumber(), basePeak.getMZ(), scanRT, basePeak.getIntensity());
+    if (basePeakIndex >= 0) {
+      currentDataPoint = new GapDataPoint(scan.getScanNumber(), mzValues[basePeakIndex], scanRT,
+          intensityValues[basePeakIndex]);
     } else {
       currentDataPoint =
           new GapDataPoint(scan.getScanNumber(), RangeUtils.rangeCenter(mzRange), scanRT, 0);
@@ -111,6 +133,26 @@ public class Gap {
 
   }
 
+  public Range<Double> getRTRange() {
+    return rtRange;
+  }
+
+  /**
+   * Returns true if a scan with given retention time may contribute to this gap
+   */
+  public boolean isRelevant(double scanRT) {
+
+    // If not yet inside the RT range
+    if (scanRT < rtRange.lowerEndpoint())
+      return false;
+
+    // If we have passed the RT range and finished processing last peak
+    if ((scanRT > rtRange.upperEndpoint()) && (currentPeakDataPoints == null))
+      return false;
+
+    return true;
+  }
+
   /**
    * Finalizes the gap, adds a peak
    * 
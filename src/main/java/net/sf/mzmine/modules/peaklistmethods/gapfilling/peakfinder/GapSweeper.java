@@ -0,0 +1,108 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.gapfilling.peakfinder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import net.sf.mzmine.datamodel.Scan;
+
+/**
+ * Offers the scans of one raw data file to the gaps of that file by sweeping over the retention
+ * time. The gaps are sorted by the start of their RT range. When a scan is offered, all gaps whose
+ * RT range has started are activated, the scan is offered only to the active gaps, and gaps which
+ * cannot accept any more scans are retired. The data points of a scan are read once, and only if
+ * at least one gap is active. Each gap then finds its m/z range in the sorted data points by binary
+ * search.
+ *
+ * The scans must be offered in the order of their scan numbers, as when offering them to each gap
+ * directly. The results are identical to offering every scan to every gap.
+ */
+public class GapSweeper {
+
+  private final Gap gaps[];
+
+  // Gaps sorted by the start of their RT range, and index of the next gap to activate
+  private final Gap sortedGaps[];
+  private int nextGap = 0;
+
+  private final List<Gap> activeGaps = new ArrayList<>();
+
+  // Gaps are only retired while retention times increase, because a gap which has passed its RT
+  // range may still accept a scan with a lower retention time
+  private double previousRT = Double.NEGATIVE_INFINITY;
+  private boolean retireGaps = true;
+
+  // Buffers for the data points of each scan, shared by all gaps
+  private double mzBuffer[] = new double[0], intensityBuffer[] = new double[0];
+
+  public GapSweeper(Collection<Gap> gaps) {
+    this.gaps = gaps.toArray(new Gap[0]);
+    sortedGaps = this.gaps.clone();
+    Arrays.sort(sortedGaps, Comparator.comparingDouble(g -> g.getRTRange().lowerEndpoint()));
+  }
+
+  /**
+   * Offers the next scan to all gaps whose RT range covers it
+   */
+  public void offerNextScan(Scan scan) {
+
+    final double scanRT = scan.getRetentionTime();
+    if (scanRT < previousRT)
+      retireGaps = false;
+    previousRT = scanRT;
+
+    // Activate all gaps whose RT range has started
+    while ((nextGap < sortedGaps.length)
+        && (sortedGaps[nextGap].getRTRange().lowerEndpoint() <= scanRT)) {
+      activeGaps.add(sortedGaps[nextGap]);
+      nextGap++;
+    }
+
+    // Retire all gaps which are past their RT range and have no peak under construction
+    if (retireGaps)
+      activeGaps.removeIf(gap -> !gap.isRelevant(scanRT));
+
+    if (activeGaps.isEmpty())
+      return;
+
+    // Read the data points once for all active gaps
+    final int numOfDataPoints = scan.getNumberOfDataPoints();
+    if (mzBuffer.length < numOfDataPoints) {
+      mzBuffer = new double[numOfDataPoints];
+      intensityBuffer = new double[numOfDataPoints];
+    }
+    scan.getDataPoints(mzBuffer, intensityBuffer);
+
+    for (Gap gap : activeGaps)
+      gap.offerNextScan(scan, mzBuffer, intensityBuffer, numOfDataPoints);
+
+  }
+
+  /**
+   * Finalizes all gaps
+   */
+  public void noMoreOffers() {
+    for (Gap gap : gaps)
+      gap.noMoreOffers();
+  }
+
+}
@@ -31,7 +31,7 @@ import net.sf.mzmine.datamodel.PeakIdentity;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
-import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.ColumnarPeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
 import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
@@ -86,13 +86,20 @@ class PeakFinderTask extends AbstractTask {
     }
     processedScans = new AtomicInteger();
 
-    // Create new feature list
-    processedPeakList = new SimplePeakList(peakList + " " + suffix, peakList.getRawDataFiles());
+    // Create new feature list, keeping the compact feature storage of aligned feature lists
+    final boolean compactFeatures = peakList instanceof ColumnarPeakList;
+    if (compactFeatures)
+      processedPeakList =
+          new ColumnarPeakList(peakList + " " + suffix, peakList.getRawDataFiles());
+    else
+      processedPeakList = new SimplePeakList(peakList + " " + suffix, peakList.getRawDataFiles());
 
     // Fill new feature list with empty rows
     for (int row = 0; row < peakList.getNumberOfRows(); row++) {
       PeakListRow sourceRow = peakList.getRow(row);
-      PeakListRow newRow = new SimplePeakListRow(sourceRow.getID());
+      PeakListRow newRow = compactFeatures
+          ? ((ColumnarPeakList) processedPeakList).createRow(sourceRow.getID())
+          : new SimplePeakListRow(sourceRow.getID());
       newRow.setComment(sourceRow.getComment());
       for (PeakIdentity ident : sourceRow.getPeakIdentities()) {
         newRow.addPeakIdentity(ident, false);
@@ -171,6 +178,9 @@ class PeakFinderTask extends AbstractTask {
         // Get all scans of this data file
         int scanNumbers[] = dataFile.getScanNumbers(1);
 
+        // Offer the scans only to the gaps whose RT range covers them
+        GapSweeper sweeper = new GapSweeper(gaps);
+
         // Process each scan
         for (int scanNumber : scanNumbers) {
           // Canceled?
@@ -179,21 +189,12 @@ class PeakFinderTask extends AbstractTask {
             return;
           }
 
-          // Get the scan
-          Scan scan = dataFile.getScan(scanNumber);
-
-          // Feed this scan to all gaps
-          for (Gap gap : gaps) {
-            gap.offerNextScan(scan);
-          }
-
+          sweeper.offerNextScan(dataFile.getScan(scanNumber));
           processedScans.incrementAndGet();
         }
 
         // Finalize gaps
-        for (Gap gap : gaps) {
-          gap.noMoreOffers();
-        }
+        sweeper.noMoreOffers();
       });
     }
     // terminate - stream only skips all elements
@@ -307,28 +308,22 @@ class PeakFinderTask extends AbstractTask {
         // Get all scans of this data file
         int scanNumbers[] = datafile1.getScanNumbers(1);
 
+        // Offer the scans only to the gaps whose RT range covers them
+        GapSweeper sweeper = new GapSweeper(gaps);
+
         // Process each scan
         for (int scanNumber : scanNumbers) {
-
           // Canceled?
           if (isCanceled()) {
             return;
           }
 
-          // Get the scan
-          Scan scan = datafile1.getScan(scanNumber);
-
-          // Feed this scan to all gaps
-          for (Gap gap : gaps) {
-            gap.offerNextScan(scan);
-          }
+          sweeper.offerNextScan(datafile1.getScan(scanNumber));
           processedScans.incrementAndGet();
         }
 
         // Finalize gaps
-        for (Gap gap : gaps) {
-          gap.noMoreOffers();
-        }
+        sweeper.noMoreOffers();
       }
     }
   }
@@ -27,8 +27,8 @@ import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
-import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.modules.peaklistmethods.gapfilling.peakfinder.Gap;
+import net.sf.mzmine.modules.peaklistmethods.gapfilling.peakfinder.GapSweeper;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
@@ -129,6 +129,9 @@ class MultiThreadPeakFinderTask extends AbstractTask {
       // Get all scans of this data file
       int scanNumbers[] = dataFile.getScanNumbers(1);
 
+      // Offer the scans only to the gaps whose RT range covers them
+      GapSweeper sweeper = new GapSweeper(gaps);
+
       // Process each scan
       for (int scanNumber : scanNumbers) {
         // Canceled?
@@ -136,21 +139,12 @@ class MultiThreadPeakFinderTask extends AbstractTask {
           return;
         }
 
-        // Get the scan
-        Scan scan = dataFile.getScan(scanNumber);
-
-        // Feed this scan to all gaps
-        for (Gap gap : gaps) {
-          gap.offerNextScan(scan);
-        }
-
+        sweeper.offerNextScan(dataFile.getScan(scanNumber));
         processedScans++;
       }
 
       // Finalize gaps
-      for (Gap gap : gaps) {
-        gap.noMoreOffers();
-      }
+      sweeper.noMoreOffers();
     }
 
     // first notify listener
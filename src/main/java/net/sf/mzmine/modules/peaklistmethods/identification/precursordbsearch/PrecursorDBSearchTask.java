@@ -35,6 +35,7 @@ import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.spectraldb.entry.DBEntryField;
 import net.sf.mzmine.util.spectraldb.entry.PrecursorDBPeakIdentity;
@@ -115,12 +116,9 @@ class PrecursorDBSearchTask extends AbstractTask {
               i--;
             }
           }
-          // wait for all sub tasks to finish
-          try {
-            Thread.sleep(100);
-          } catch (Exception e) {
-            cancel();
-          }
+          // wait for all sub tasks to finish, without holding a worker thread
+          if (!tasks.isEmpty())
+            MZmineCore.getTaskController().joinTasks(tasks.toArray(new Task[0]), 100);
         }
         // cancelled
         if (isCanceled()) {
@@ -20,7 +20,6 @@ package net.sf.mzmine.modules.peaklistmethods.identification.spectraldbsearch;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -33,11 +32,10 @@ import net.sf.mzmine.desktop.impl.HeadLessDesktop;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.taskcontrol.TaskStatus;
-import net.sf.mzmine.util.spectraldb.entry.SpectralDBEntry;
-import net.sf.mzmine.util.spectraldb.parser.AutoLibraryParser;
-import net.sf.mzmine.util.spectraldb.parser.LibraryEntryProcessor;
 import net.sf.mzmine.util.spectraldb.parser.UnsupportedFormatException;
+import net.sf.mzmine.util.spectraldb.store.SpectralDBStore;
 
 class LocalSpectralDBSearchTask extends AbstractTask {
 
@@ -88,7 +86,10 @@ class LocalSpectralDBSearchTask extends AbstractTask {
     setStatus(TaskStatus.PROCESSING);
     int count = 0;
     try {
-      tasks = parseFile(dataBaseFile);
+      tasks = createTasks(dataBaseFile);
+      // cancelled while converting the library
+      if (tasks == null)
+        return;
       totalTasks = tasks.size();
       if (!tasks.isEmpty()) {
         // wait for the tasks to finish
@@ -100,12 +101,9 @@ class LocalSpectralDBSearchTask extends AbstractTask {
               i--;
             }
           }
-          // wait for all sub tasks to finish
-          try {
-            Thread.sleep(100);
-          } catch (Exception e) {
-            cancel();
-          }
+          // wait for all sub tasks to finish, without holding a worker thread
+          if (!tasks.isEmpty())
+            MZmineCore.getTaskController().joinTasks(tasks.toArray(new Task[0]), 100);
         }
         // cancelled
         if (isCanceled()) {
@@ -136,28 +134,23 @@ class LocalSpectralDBSearchTask extends AbstractTask {
   }
 
   /**
-   * Load all library entries from data base file
+   * Open the store of the data base file (converting the library once) and start the tasks to
+   * match the rows against it
    * 
    * @param dataBaseFile
-   * @return
+   * @return the started tasks or null if cancelled
    */
-  private List<RowsSpectralMatchTask> parseFile(File dataBaseFile)
+  private List<RowsSpectralMatchTask> createTasks(File dataBaseFile)
       throws UnsupportedFormatException, IOException {
-    //
-    List<RowsSpectralMatchTask> tasks = new ArrayList<>();
-    AutoLibraryParser parser = new AutoLibraryParser(100, new LibraryEntryProcessor() {
-      @Override
-      public void processNextEntries(List<SpectralDBEntry> list, int alreadyProcessed) {
-        // start last task
-        RowsSpectralMatchTask task =
-            new RowsSpectralMatchTask(peakList.getName(), rows, parameters, alreadyProcessed + 1, list);
-        MZmineCore.getTaskController().addTask(task);
-        tasks.add(task);
-      }
-    });
-
-    // return tasks
-    parser.parse(this, dataBaseFile);
+    SpectralDBStore store = SpectralDBStore.open(this, dataBaseFile);
+    if (store == null)
+      return null;
+    logger.info("Matching against " + store.getNumberOfEntries() + " library entries of "
+        + store.getStoreFile());
+
+    List<RowsSpectralMatchTask> tasks =
+        RowsSpectralMatchTask.createTasks(peakList.getName(), rows, parameters, store, null);
+    MZmineCore.getTaskController().addTasks(tasks.toArray(new Task[0]));
     return tasks;
   }
 
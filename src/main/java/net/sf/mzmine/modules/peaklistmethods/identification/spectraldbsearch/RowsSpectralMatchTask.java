@@ -21,11 +21,14 @@ package net.sf.mzmine.modules.peaklistmethods.identification.spectraldbsearch;
 import java.io.File;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Nonnull;
+import com.google.common.collect.Range;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.MassList;
 import net.sf.mzmine.datamodel.PeakListRow;
@@ -52,6 +55,7 @@ import net.sf.mzmine.util.scans.sorting.ScanSortMode;
 import net.sf.mzmine.util.spectraldb.entry.DBEntryField;
 import net.sf.mzmine.util.spectraldb.entry.SpectralDBEntry;
 import net.sf.mzmine.util.spectraldb.entry.SpectralDBPeakIdentity;
+import net.sf.mzmine.util.spectraldb.store.SpectralDBStore;
 
 public class RowsSpectralMatchTask extends AbstractTask {
 
@@ -59,6 +63,8 @@ public class RowsSpectralMatchTask extends AbstractTask {
 
   private static final String METHOD = "Spectral DB search";
   private static final int MAX_ERROR = 3;
+  // number of library entries (MS level 1) or rows (MS level > 1) per task
+  private static final int ENTRIES_PER_TASK = 100, ROWS_PER_TASK = 100;
   private int errorCounter = 0;
   private String description;
   private PeakListRow[] rows;
@@ -77,6 +83,10 @@ public class RowsSpectralMatchTask extends AbstractTask {
   private final double noiseLevel;
   private final int minMatch;
   private List<SpectralDBEntry> list;
+  // if the library is read from a store, entries are fetched from it when the task runs
+  private final SpectralDBStore store;
+  // first row (1-based) of the rows which are matched against the store by precursor m/z
+  private final int startRow;
 
   private int count = 0;
 
@@ -108,13 +118,26 @@ public class RowsSpectralMatchTask extends AbstractTask {
   public RowsSpectralMatchTask(String description, @Nonnull PeakListRow[] rows,
       ParameterSet parameters, int startEntry, List<SpectralDBEntry> list,
       Consumer<SpectralDBPeakIdentity> matchListener) {
+    this(description, rows, parameters, null, 0, startEntry, list.size(), matchListener);
+    this.list = list;
+  }
+
+  /**
+   * Matches rows against the entries of a store. For MS level 1, all rows are matched against
+   * listsize entries from startEntry (1-based) on. Otherwise, the entries are fetched by the
+   * precursor m/z of each row and startRow (1-based) is the number of the first row.
+   */
+  private RowsSpectralMatchTask(String description, @Nonnull PeakListRow[] rows,
+      ParameterSet parameters, SpectralDBStore store, int startRow, int startEntry, int listsize,
+      Consumer<SpectralDBPeakIdentity> matchListener) {
     this.description = description;
     this.rows = rows;
     this.parameters = parameters;
+    this.store = store;
+    this.startRow = startRow;
     this.startEntry = startEntry;
-    this.list = list;
+    this.listsize = listsize;
     this.matchListener = matchListener;
-    listsize = list.size();
     dataBaseFile = parameters.getParameter(LocalSpectralDBSearchParameters.dataBaseFile).getValue();
     massListName = parameters.getParameter(LocalSpectralDBSearchParameters.massList).getValue();
     mzToleranceSpectra =
@@ -151,6 +174,37 @@ public class RowsSpectralMatchTask extends AbstractTask {
     totalRows = rows.length;
   }
 
+  /**
+   * Creates the tasks to match given rows against all entries of the store. For MS level 1, each
+   * task matches all rows against a block of entries. Otherwise, each task matches a block of rows
+   * against the entries within the precursor m/z tolerance of each row, so only these entries are
+   * read from the store. The rows are sorted by m/z, so the entries of each task are close in the
+   * store.
+   */
+  public static List<RowsSpectralMatchTask> createTasks(String description,
+      @Nonnull PeakListRow[] rows, ParameterSet parameters, @Nonnull SpectralDBStore store,
+      Consumer<SpectralDBPeakIdentity> matchListener) {
+    List<RowsSpectralMatchTask> tasks = new ArrayList<>();
+    final int msLevel = parameters.getParameter(LocalSpectralDBSearchParameters.msLevel).getValue();
+    if (msLevel == 1) {
+      for (int start = 0; start < store.getNumberOfEntries(); start += ENTRIES_PER_TASK) {
+        final int listsize = Math.min(ENTRIES_PER_TASK, store.getNumberOfEntries() - start);
+        tasks.add(new RowsSpectralMatchTask(description, rows, parameters, store, 0, start + 1,
+            listsize, matchListener));
+      }
+    } else if (store.getNumberOfEntries() > 0) {
+      PeakListRow sortedRows[] = rows.clone();
+      Arrays.sort(sortedRows, Comparator.comparingDouble(PeakListRow::getAverageMZ));
+      for (int start = 0; start < sortedRows.length; start += ROWS_PER_TASK) {
+        final PeakListRow taskRows[] = Arrays.copyOfRange(sortedRows, start,
+            Math.min(start + ROWS_PER_TASK, sortedRows.length));
+        tasks.add(new RowsSpectralMatchTask(description, taskRows, parameters, store, start + 1,
+            1, store.getNumberOfEntries(), matchListener));
+      }
+    }
+    return tasks;
+  }
+
   /**
    * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
    */
@@ -166,6 +220,10 @@ public class RowsSpectralMatchTask extends AbstractTask {
    */
   @Override
   public String getTaskDescription() {
+    if (store != null && msLevel > 1)
+      return MessageFormat.format(
+          "(rows {2}-{3}) spectral database identification in {0} using database {1}",
+          description, dataBaseFile.getName(), startRow, startRow + totalRows - 1);
     return MessageFormat.format(
         "(entry {2}-{3}) spectral database identification in {0} using database {1}", description,
         dataBaseFile.getName(), startEntry, startEntry + listsize - 1);
@@ -177,6 +235,9 @@ public class RowsSpectralMatchTask extends AbstractTask {
   @Override
   public void run() {
     setStatus(TaskStatus.PROCESSING);
+    // entries of a store are decoded only now, to not keep all entries in memory at once
+    if (store != null && msLevel == 1)
+      list = store.getEntries(startEntry - 1, startEntry - 1 + listsize);
     for (PeakListRow row : rows) {
       if (isCanceled()) {
         logger.info("Added " + count + " spectral library matches (before being cancelled)");
@@ -198,8 +259,11 @@ public class RowsSpectralMatchTask extends AbstractTask {
           rowMassLists.add(rowMassList);
         }
 
-        // match against all library entries
-        for (SpectralDBEntry ident : list) {
+        // match against all library entries, or against the entries of the store which may
+        // match the precursor m/z
+        List<SpectralDBEntry> entries =
+            list != null ? list : store.getEntries(getPrecursorMZRange(row));
+        for (SpectralDBEntry ident : entries) {
           SpectralDBPeakIdentity best = null;
           // match all scans against this ident to find best match
           for (int i = 0; i < scans.size(); i++) {
@@ -313,6 +377,22 @@ public class RowsSpectralMatchTask extends AbstractTask {
       return mzTolerancePrecursor.checkWithinTolerance(ident.getPrecursorMZ(), row.getAverageMZ());
   }
 
+  /**
+   * Range of library precursor m/z values which contains all values accepted by checkPrecursorMZ()
+   * for this row. The tolerance depends on the library precursor m/z, so the range is derived from
+   * both the absolute and the relative tolerance.
+   */
+  private Range<Double> getPrecursorMZRange(PeakListRow row) {
+    final double mz = row.getAverageMZ();
+    final double absolute = mzTolerancePrecursor.getMzTolerance();
+    final double relative = mzTolerancePrecursor.getPpmTolerance() / 1E6;
+    final double low = Math.min(mz - absolute, mz / (1 + relative));
+    final double high = relative < 1 ? Math.max(mz + absolute, mz / (1 - relative))
+        : Double.POSITIVE_INFINITY;
+    // widen the range a bit, rounding must not exclude entries at the edges
+    return Range.closed(low - Math.abs(low) * 1E-12, high + Math.abs(high) * 1E-12);
+  }
+
   private boolean checkRT(PeakListRow row, SpectralDBEntry ident) {
     Double rt = (Double) ident.getField(DBEntryField.RT).orElse(null);
     return (!useRT || rt == null || rtTolerance.checkWithinTolerance(rt, row.getAverageRT()));
@@ -149,14 +149,9 @@ public class GnpsFbmnExportAndSubmitTask extends AbstractTask {
 
     MZmineCore.getTaskController().addTasks(list.toArray(new AbstractTask[list.size()]));
 
-    // wait till finish
-    while (!(isCanceled() || isFinished())) {
-      try {
-        Thread.sleep(100);
-      } catch (InterruptedException e) {
-        LOG.log(Level.SEVERE, "Error in GNPS export/submit task", e);
-      }
-    }
+    // wait till finish, without holding a worker thread. The listener sets the status of this task
+    // when all sub tasks are done
+    MZmineCore.getTaskController().joinTasks(new Task[] {this}, 0);
   }
 
 
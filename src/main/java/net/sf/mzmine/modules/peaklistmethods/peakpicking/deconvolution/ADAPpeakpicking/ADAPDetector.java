@@ -225,7 +225,7 @@ public class ADAPDetector implements PeakResolver {
 
 
 
-        ResolvedPeak peak = new ResolvedPeak(chromatogram, curPeak.leftApexIndex,
+        ResolvedPeak peak = new ResolvedPeak(chromatogram, retentionTimes, curPeak.leftApexIndex,
             curPeak.rightApexIndex, mzCenterFunction, msmsRange, rTRangeMSMS);
         peak.setPeakInformation(information);
 
@@ -23,8 +23,10 @@ import static net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.De
 import static net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.DeconvolutionParameters.RetentionTimeMSMS;
 import static net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.DeconvolutionParameters.SUFFIX;
 import static net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.DeconvolutionParameters.mzRangeMSMS;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
@@ -55,7 +57,7 @@ public class DeconvolutionTask extends AbstractTask {
   private PeakList newPeakList;
 
   // Counters.
-  private int processedRows;
+  private final AtomicInteger processedRows = new AtomicInteger();
   private int totalRows;
 
   // User parameters
@@ -83,7 +85,6 @@ public class DeconvolutionTask extends AbstractTask {
     parameters = parameterSet;
     originalPeakList = list;
     newPeakList = null;
-    processedRows = 0;
     totalRows = 0;
     this.mzCenterFunction = mzCenterFunction;
   }
@@ -97,7 +98,7 @@ public class DeconvolutionTask extends AbstractTask {
   @Override
   public double getFinishedPercentage() {
 
-    return totalRows == 0 ? 0.0 : (double) processedRows / (double) totalRows;
+    return totalRows == 0 ? 0.0 : (double) processedRows.get() / (double) totalRows;
   }
 
   @Override
@@ -245,26 +246,52 @@ public class DeconvolutionTask extends AbstractTask {
         "Peak deconvolution by " + resolver, resolver.getParameterSet()));
 
     // Initialise counters.
-    processedRows = 0;
+    processedRows.set(0);
     totalRows = peakList.getNumberOfRows();
     int peakId = 1;
 
-    // Process each chromatogram.
+    final PeakResolver resolverModule = resolver.getModule();
+    final ParameterSet resolverParams = resolver.getParameterSet();
+
+    // Resolve peaks in each chromatogram.
     final PeakListRow[] peakListRows = peakList.getRows();
     final int chromatogramCount = peakListRows.length;
+    final ResolvedPeak[][] rowPeaks = new ResolvedPeak[chromatogramCount][];
+    if (resolverModule.isThreadSafe() && rSession == null) {
+
+      // The peaks of each chromatogram are kept separately and added to the new feature list in the
+      // original row order afterwards, so the row IDs do not depend on the number of threads.
+      IntStream.range(0, chromatogramCount).parallel().forEach(index -> {
+        if (isCanceled())
+          return;
+        final Feature chromatogram = peakListRows[index].getPeak(dataFile);
+        try {
+          rowPeaks[index] = resolverModule.resolvePeaks(chromatogram, resolverParams, null,
+              mzCenterFunction, msmsRange, RTRangeMSMS);
+        } catch (RSessionWrapperException e) {
+          // Thread-safe resolvers do not use R
+          throw new IllegalStateException(e);
+        }
+        processedRows.incrementAndGet();
+      });
+
+    } else {
+
+      for (int index = 0; !isCanceled() && index < chromatogramCount; index++) {
+        final Feature chromatogram = peakListRows[index].getPeak(dataFile);
+        rowPeaks[index] = resolverModule.resolvePeaks(chromatogram, resolverParams, rSession,
+            mzCenterFunction, msmsRange, RTRangeMSMS);
+        processedRows.incrementAndGet();
+      }
+
+    }
+
+    // Add peaks to the new feature list.
     for (int index = 0; !isCanceled() && index < chromatogramCount; index++) {
 
       final PeakListRow currentRow = peakListRows[index];
-      final Feature chromatogram = currentRow.getPeak(dataFile);
-
-      // Resolve peaks.
-      final PeakResolver resolverModule = resolver.getModule();
-      final ParameterSet resolverParams = resolver.getParameterSet();
-      final ResolvedPeak[] peaks = resolverModule.resolvePeaks(chromatogram, resolverParams, rSession,
-          mzCenterFunction, msmsRange, RTRangeMSMS);
 
-      // Add peaks to the new feature list.
-      for (final ResolvedPeak peak : peaks) {
+      for (final ResolvedPeak peak : rowPeaks[index]) {
 
         peak.setParentChromatogramRowID(currentRow.getID());
 
@@ -273,8 +300,6 @@ public class DeconvolutionTask extends AbstractTask {
         newRow.setPeakInformation(peak.getPeakInformation());
         resolvedPeaks.addRow(newRow);
       }
-
-      processedRows++;
     }
 
     return resolvedPeaks;
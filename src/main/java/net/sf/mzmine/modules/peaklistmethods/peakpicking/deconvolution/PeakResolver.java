@@ -48,6 +48,14 @@ public interface PeakResolver extends MZmineModule {
    */
   public REngineType getREngineType(final ParameterSet parameters);
 
+  /**
+   * Gets if peaks may be resolved in several chromatograms at the same time. Resolvers which
+   * require R share one R session and are never called concurrently.
+   */
+  public default boolean isThreadSafe() {
+    return false;
+  }
+
   /**
    * Resolve a peaks found within given chromatogram. For easy use, three arrays (scanNumbers,
    * retentionTimes and intensities) are provided, although the contents of these arrays can also be
@@ -83,6 +83,27 @@ public class ResolvedPeak implements Feature {
    */
   public ResolvedPeak(Feature chromatogram, int regionStart, int regionEnd,
       CenterFunction mzCenterFunction, double msmsRange, double RTRangeMSMS) {
+    this(chromatogram, getRetentionTimes(chromatogram, regionStart, regionEnd), regionStart,
+        regionStart, regionEnd, mzCenterFunction, msmsRange, RTRangeMSMS);
+  }
+
+  /**
+   * Initializes this peak like the constructor above, taking the retention times of the scans from
+   * the given array instead of looking up each scan in the data file. The array must contain the
+   * retention time of each scan of the chromatogram, in the order of its scan numbers.
+   */
+  public ResolvedPeak(Feature chromatogram, double retentionTimes[], int regionStart,
+      int regionEnd, CenterFunction mzCenterFunction, double msmsRange, double RTRangeMSMS) {
+    this(chromatogram, retentionTimes, 0, regionStart, regionEnd, mzCenterFunction, msmsRange,
+        RTRangeMSMS);
+  }
+
+  /**
+   * retentionTimes[i - rtOffset] is the retention time of the i-th scan of the chromatogram
+   */
+  private ResolvedPeak(Feature chromatogram, double retentionTimes[], int rtOffset,
+      int regionStart, int regionEnd, CenterFunction mzCenterFunction, double msmsRange,
+      double RTRangeMSMS) {
 
     assert regionEnd > regionStart;
 
@@ -123,13 +144,14 @@ public class ResolvedPeak implements Feature {
       dataPointMZValues[i] = dp.getMZ();
       dataPointIntensityValues[i] = dp.getIntensity();
 
+      final double scanRT = retentionTimes[regionStart + i - rtOffset];
+
       if (rawDataPointsIntensityRange == null) {
         rawDataPointsIntensityRange = Range.singleton(dp.getIntensity());
-        rawDataPointsRTRange = Range.singleton(dataFile.getScan(scanNumbers[i]).getRetentionTime());
+        rawDataPointsRTRange = Range.singleton(scanRT);
         rawDataPointsMZRange = Range.singleton(dp.getMZ());
       } else {
-        rawDataPointsRTRange = rawDataPointsRTRange
-            .span(Range.singleton(dataFile.getScan(scanNumbers[i]).getRetentionTime()));
+        rawDataPointsRTRange = rawDataPointsRTRange.span(Range.singleton(scanRT));
         rawDataPointsIntensityRange =
             rawDataPointsIntensityRange.span(Range.singleton(dp.getIntensity()));
         rawDataPointsMZRange = rawDataPointsMZRange.span(Range.singleton(dp.getMZ()));
@@ -137,7 +159,7 @@ public class ResolvedPeak implements Feature {
 
       if (height < dp.getIntensity()) {
         height = dp.getIntensity();
-        rt = dataFile.getScan(scanNumbers[i]).getRetentionTime();
+        rt = scanRT;
         representativeScan = scanNumbers[i];
 
       }
@@ -151,8 +173,8 @@ public class ResolvedPeak implements Feature {
     for (int i = 1; i < scanNumbers.length; i++) {
 
       // For area calculation, we use retention time in seconds
-      double previousRT = dataFile.getScan(scanNumbers[i - 1]).getRetentionTime() * 60d;
-      double currentRT = dataFile.getScan(scanNumbers[i]).getRetentionTime() * 60d;
+      double previousRT = retentionTimes[regionStart + i - 1 - rtOffset] * 60d;
+      double currentRT = retentionTimes[regionStart + i - rtOffset] * 60d;
 
       double previousHeight = dataPointIntensityValues[i - 1];
       double currentHeight = dataPointIntensityValues[i];
@@ -197,6 +219,20 @@ public class ResolvedPeak implements Feature {
 
   }
 
+  /**
+   * Returns the retention times of the scans of given chromatogram region
+   */
+  private static double[] getRetentionTimes(Feature chromatogram, int regionStart,
+      int regionEnd) {
+    final RawDataFile dataFile = chromatogram.getDataFile();
+    final int chromatogramScanNumbers[] = chromatogram.getScanNumbers();
+    final double retentionTimes[] = new double[regionEnd - regionStart + 1];
+    for (int i = 0; i < retentionTimes.length; i++)
+      retentionTimes[i] =
+          dataFile.getScan(chromatogramScanNumbers[regionStart + i]).getRetentionTime();
+    return retentionTimes;
+  }
+
   /**
    * This method returns a representative datapoint of this peak in a given scan
    */
@@ -107,8 +107,8 @@ public class BaselinePeakDetector implements PeakResolver {
             && currentRegionHeight >= minimumPeakHeight) {
 
           // Create a new ResolvedPeak and add it.
-          resolvedPeaks.add(new ResolvedPeak(chromatogram, currentRegionStart, currentRegionEnd,
-              mzCenterFunction, msmsRange, rTRangeMSMS));
+          resolvedPeaks.add(new ResolvedPeak(chromatogram, retentionTimes, currentRegionStart,
+              currentRegionEnd, mzCenterFunction, msmsRange, rTRangeMSMS));
         }
 
         // Find next peak region, starting from next data point.
@@ -145,4 +145,9 @@ public class BaselinePeakDetector implements PeakResolver {
     return null;
   }
 
+  @Override
+  public boolean isThreadSafe() {
+    return true;
+  }
+
 }
@@ -161,8 +161,8 @@ public class CentWaveDetector implements PeakResolver {
             if ((end > start)
                 && (peakDuration.contains(retentionTimes[end] - retentionTimes[start]))) {
 
-              resolvedPeaks.add(new ResolvedPeak(chromatogram, start, end, mzCenterFunction,
-                  msmsRange, rTRangeMSMS));
+              resolvedPeaks.add(new ResolvedPeak(chromatogram, retentionTimes, start, end,
+                  mzCenterFunction, msmsRange, rTRangeMSMS));
             }
 
             start = end;
@@ -122,8 +122,8 @@ public class MinimumSearchPeakDetector implements PeakResolver {
               && currentRegionHeight >= peakMinRight * minRatio && peakDuration.contains(
                   retentionTimes[currentRegionEnd] - retentionTimes[currentRegionStart])) {
 
-            resolvedPeaks.add(new ResolvedPeak(chromatogram, currentRegionStart, currentRegionEnd,
-                mzCenterFunction, msmsRange, rTRangeMSMS));
+            resolvedPeaks.add(new ResolvedPeak(chromatogram, retentionTimes, currentRegionStart,
+                currentRegionEnd, mzCenterFunction, msmsRange, rTRangeMSMS));
           }
 
           // Set the next region start to current region end - 1
@@ -181,8 +181,9 @@ public class MinimumSearchPeakDetector implements PeakResolver {
                 && currentRegionHeight >= peakMinRight * minRatio && peakDuration.contains(
                     retentionTimes[currentRegionEnd] - retentionTimes[currentRegionStart])) {
 
-              resolvedPeaks.add(new ResolvedPeak(chromatogram, currentRegionStart, currentRegionEnd,
-                  mzCenterFunction, msmsRange, rTRangeMSMS));
+              resolvedPeaks.add(new ResolvedPeak(chromatogram, retentionTimes,
+                  currentRegionStart, currentRegionEnd, mzCenterFunction, msmsRange,
+                  rTRangeMSMS));
             }
 
             // Set the next region start to current region end-1
@@ -223,4 +224,9 @@ public class MinimumSearchPeakDetector implements PeakResolver {
     return null;
   }
 
+  @Override
+  public boolean isThreadSafe() {
+    return true;
+  }
+
 }
@@ -121,8 +121,8 @@ public class NoiseAmplitudePeakDetector implements PeakResolver {
 
           if (currentPeakEnd - currentPeakStart > 0) {
 
-            final ResolvedPeak peak = new ResolvedPeak(chromatogram, currentPeakStart,
-                currentPeakEnd, mzCenterFunction, msmsRange, rTRangeMSMS);
+            final ResolvedPeak peak = new ResolvedPeak(chromatogram, retentionTimes,
+                currentPeakStart, currentPeakEnd, mzCenterFunction, msmsRange, rTRangeMSMS);
             if (peakDuration.contains(RangeUtils.rangeLength(peak.getRawDataPointsRTRange()))
                 && peak.getHeight() >= minimumPeakHeight) {
 
@@ -212,4 +212,9 @@ public class NoiseAmplitudePeakDetector implements PeakResolver {
   public REngineType getREngineType(ParameterSet parameters) {
     return null;
   }
+
+  @Override
+  public boolean isThreadSafe() {
+    return true;
+  }
 }
@@ -102,7 +102,8 @@ public class SavitzkyGolayPeakDetector implements PeakResolver {
       // Search for peaks.
       Arrays.sort(scanNumbers);
       final Feature[] resolvedOriginalPeaks = peaksSearch(chromatogram, scanNumbers,
-          secondDerivative, noiseThreshold, mzCenterFunction, msmsRange, rTRangeMSMS);
+          retentionTimes, secondDerivative, noiseThreshold, mzCenterFunction, msmsRange,
+          rTRangeMSMS);
 
       final Range<Double> peakDuration = parameters.getParameter(PEAK_DURATION).getValue();
       final double minimumPeakHeight = parameters.getParameter(MIN_PEAK_HEIGHT).getValue();
@@ -127,12 +128,14 @@ public class SavitzkyGolayPeakDetector implements PeakResolver {
    * 
    * @param chromatogram the chromatogram to search.
    * @param scanNumbers scan number to focus search on
+   * @param retentionTimes retention times of the scans.
    * @param derivativeOfIntensities derivatives of intensity values.
    * @param noiseThreshold noise threshold.
    * @return array of peaks found.
    */
   private static Feature[] peaksSearch(final Feature chromatogram, final int[] scanNumbers,
-      final double[] derivativeOfIntensities, final double noiseThreshold,
+      final double[] retentionTimes, final double[] derivativeOfIntensities,
+      final double noiseThreshold,
       CenterFunction mzCenterFunction, final double msmsRange, final double rTRangeMSMS) {
 
     // Flag to identify the current and next overlapped peak.
@@ -261,8 +264,8 @@ public class SavitzkyGolayPeakDetector implements PeakResolver {
       // the chromatogram.
       if (currentPeakEnd - currentPeakStart > 0 && !activeFirstPeak) {
 
-        resolvedPeaks.add(new ResolvedPeak(chromatogram, currentPeakStart, currentPeakEnd,
-            mzCenterFunction, msmsRange, rTRangeMSMS));
+        resolvedPeaks.add(new ResolvedPeak(chromatogram, retentionTimes, currentPeakStart,
+            currentPeakEnd, mzCenterFunction, msmsRange, rTRangeMSMS));
 
         // If exists next overlapped peak, swap the indexes between next
         // and current, and clean ending index
@@ -333,4 +336,9 @@ public class SavitzkyGolayPeakDetector implements PeakResolver {
   public REngineType getREngineType(ParameterSet parameters) {
     return null;
   }
+
+  @Override
+  public boolean isThreadSafe() {
+    return true;
+  }
 }
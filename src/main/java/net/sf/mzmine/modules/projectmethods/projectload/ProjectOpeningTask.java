@@ -24,11 +24,22 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import javax.swing.JOptionPane;
@@ -37,6 +48,7 @@ import org.xml.sax.SAXException;
 import com.google.common.io.CountingInputStream;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.peaklistmethods.qualityparameters.QualityParameters;
 import net.sf.mzmine.modules.projectmethods.projectload.version_2_0.PeakListOpenHandler_2_0;
@@ -58,32 +70,74 @@ import net.sf.mzmine.util.ExceptionUtils;
 import net.sf.mzmine.util.GUIUtils;
 import net.sf.mzmine.util.StreamCopy;
 
+/**
+ * Opens a project. The raw data files and the feature lists of each project ZIP file are restored
+ * in parallel. If enabled in the preferences, uncompressed scan data is read in place from the
+ * project file instead of being copied to the temporary folder.
+ */
 public class ProjectOpeningTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
+  private static final Pattern rawFilePattern =
+      Pattern.compile("Raw data file #([\\d]+) (.*)\\.xml$");
+  private static final Pattern scansFilePattern =
+      Pattern.compile("Raw data file #([\\d]+) (.*)\\.scans$");
+  private static final Pattern peakListPattern = Pattern.compile("Peak list #([\\d]+) (.*)\\.xml$");
+
   private File openFile;
+  private final File openFiles[];
+
+  // True if the project was saved split into several ZIP files, see openSplitProject()
+  private final boolean splitProject;
   private MZmineProjectImpl newProject;
 
-  private RawDataFileOpenHandler rawDataFileOpenHandler;
-  private PeakListOpenHandler peakListOpenHandler;
+  // Handlers of the project version, each raw data file and feature list is read by a new handler
+  private Supplier<RawDataFileOpenHandler> rawDataFileOpenHandlerFactory;
+  private Supplier<PeakListOpenHandler> peakListOpenHandlerFactory;
   private UserParameterOpenHandler userParameterOpenHandler;
-  private StreamCopy copyMachine;
 
-  private CountingInputStream cis;
-  private long totalBytes, finishedBytes;
-  private String currentLoadedObjectName;
+  // Handlers and copy machines which are currently running, so they can be canceled
+  private final Set<RawDataFileOpenHandler> rawDataFileOpenHandlers =
+      ConcurrentHashMap.newKeySet();
+  private final Set<PeakListOpenHandler> peakListOpenHandlers = ConcurrentHashMap.newKeySet();
+  private final Set<StreamCopy> copyMachines = ConcurrentHashMap.newKeySet();
+
+  // ZIP entries which are currently read
+  private final Set<CountingInputStream> openStreams = ConcurrentHashMap.newKeySet();
+  private long totalBytes;
+  private final AtomicLong finishedBytes = new AtomicLong();
+  private volatile String currentLoadedObjectName;
+
+  // Read uncompressed scan data in place, see MZminePreferences.projectScansInPlace
+  private boolean scansInPlace;
 
   // This hashtable maps stored IDs to raw data file objects
   private final Hashtable<String, RawDataFile> dataFilesIDMap = new Hashtable<>();
-  private final Hashtable<String, File> scanFilesIDMap = new Hashtable<>();
 
   public ProjectOpeningTask(ParameterSet parameters) {
-    this.openFile = parameters.getParameter(ProjectLoaderParameters.projectFile).getValue();
+    this(parameters.getParameter(ProjectLoaderParameters.projectFile).getValue());
   }
 
   public ProjectOpeningTask(File openFile) {
-    this.openFile = openFile;
+    this(new File[] {openFile}, false);
+  }
+
+  private ProjectOpeningTask(File openFiles[], boolean splitProject) {
+    this.openFile = openFiles[openFiles.length - 1];
+    this.openFiles = openFiles.clone();
+    this.splitProject = splitProject;
+  }
+
+  /**
+   * Opens a project which was saved split into several ZIP files, e.g. by SplitProjectWriter. The
+   * files are read into one new project in the given order, so raw data files must come before the
+   * feature lists which refer to them. The user is not asked before the current project is
+   * replaced, and the opened files are neither set as the project file nor added to the recent
+   * projects, even if there is only one file.
+   */
+  public static ProjectOpeningTask openSplitProject(File openFiles[]) {
+    return new ProjectOpeningTask(openFiles, true);
   }
 
   /**
@@ -105,15 +159,13 @@ public class ProjectOpeningTask extends AbstractTask {
     if (totalBytes == 0)
       return 0;
 
-    long totalReadBytes = this.finishedBytes;
+    long totalReadBytes = finishedBytes.get();
 
-    // Add the current ZIP entry progress to totalReadBytes
-    synchronized (this) {
-      if (cis != null)
-        totalReadBytes += cis.getCount();
-    }
+    // Add the progress of the ZIP entries which are currently read
+    for (CountingInputStream cis : openStreams)
+      totalReadBytes += cis.getCount();
 
-    return (double) totalReadBytes / totalBytes;
+    return Math.min(1.0, (double) totalReadBytes / totalBytes);
   }
 
   /**
@@ -125,7 +177,7 @@ public class ProjectOpeningTask extends AbstractTask {
     try {
       // Check if existing raw data files are present
       ProjectManager projectManager = MZmineCore.getProjectManager();
-      if (projectManager.getCurrentProject().getDataFiles().length > 0) {
+      if (!splitProject && (projectManager.getCurrentProject().getDataFiles().length > 0)) {
         int dialogResult = JOptionPane.showConfirmDialog(null,
             "Loading the project will replace the existing raw data files and feature lists. Do you want to proceed?",
             "Warning", JOptionPane.YES_NO_OPTION);
@@ -139,9 +191,15 @@ public class ProjectOpeningTask extends AbstractTask {
       logger.info("Started opening project " + openFile);
       setStatus(TaskStatus.PROCESSING);
 
+      // Read the preference before the configuration of the project is loaded
+      scansInPlace = (MZmineCore.getConfiguration() != null)
+          && Boolean.TRUE.equals(MZmineCore.getConfiguration().getPreferences()
+              .getParameter(MZminePreferences.projectScansInPlace).getValue());
+
       // Create a new project
       newProject = new MZmineProjectImpl();
-      newProject.setProjectFile(openFile);
+      if (!splitProject)
+        newProject.setProjectFile(openFile);
 
       // Close all windows related to previous project
       GUIUtils.closeAllWindows();
@@ -149,116 +207,219 @@ public class ProjectOpeningTask extends AbstractTask {
       // Replace the current project with the new one
       projectManager.setCurrentProject(newProject);
 
-      // Open the ZIP file
-      ZipFile zipFile = new ZipFile(openFile);
-
       // Get total uncompressed size
-      Enumeration<? extends ZipEntry> entries = zipFile.entries();
-      while (entries.hasMoreElements()) {
-        ZipEntry entry = entries.nextElement();
-        totalBytes += entry.getSize();
+      for (File file : openFiles) {
+        try (ZipFile zipFile = new ZipFile(file)) {
+          Enumeration<? extends ZipEntry> entries = zipFile.entries();
+          while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            totalBytes += entry.getSize();
+          }
+        }
+      }
+
+      for (File file : openFiles) {
+        loadZipFile(file);
+        if (isCanceled())
+          return;
       }
 
-      final Pattern rawFilePattern = Pattern.compile("Raw data file #([\\d]+) (.*)\\.xml$");
-      final Pattern scansFilePattern = Pattern.compile("Raw data file #([\\d]+) (.*)\\.scans$");
-      final Pattern peakListPattern = Pattern.compile("Peak list #([\\d]+) (.*)\\.xml$");
+      // Final check for cancel
+      if (isCanceled())
+        return;
+
+      logger.info("Finished opening project " + openFile);
+      setStatus(TaskStatus.FINISHED);
+
+      // add to last loaded projects
+      if (!splitProject)
+        MZmineCore.getConfiguration().getLastProjectsParameter().addFile(openFile);
+
+    } catch (Throwable e) {
+
+      // If project opening was canceled, parser was stopped by a
+      // SAXException which can be safely ignored
+      if (isCanceled())
+        return;
+
+      setStatus(TaskStatus.ERROR);
+      e.printStackTrace();
+      setErrorMessage("Failed opening project: " + ExceptionUtils.exceptionToString(e));
+    }
+
+  }
+
+  /**
+   * Loads all entries of one project ZIP file into the new project. The version and configuration
+   * are read first, then all raw data files in parallel, then all feature lists in parallel and
+   * finally the user parameters. The raw data files and feature lists are added to the project in
+   * the order of the ZIP entries.
+   */
+  private void loadZipFile(File file) throws Exception {
+
+    try (ZipFile zipFile = new ZipFile(file)) {
 
       boolean versionInformationLoaded = false;
+      ZipEntry userParametersEntry = null;
+      final List<ZipEntry> rawFileEntries = new ArrayList<>();
+      final Map<String, ZipEntry> scansFileEntries = new HashMap<>();
+      final List<ZipEntry> peakListEntries = new ArrayList<>();
 
-      // Iterate over the entries and read them
-      entries = zipFile.entries();
+      // Iterate over the entries, load the version and configuration and sort out the rest
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
       while (entries.hasMoreElements()) {
 
-        if (isCanceled()) {
-          zipFile.close();
+        if (isCanceled())
           return;
-        }
 
         ZipEntry entry = entries.nextElement();
         String entryName = entry.getName();
-        cis = new CountingInputStream(zipFile.getInputStream(entry));
 
         // Load version
         if (entryName.equals(ProjectSavingTask.VERSION_FILENAME)) {
-          loadVersion(cis);
+          loadEntry(zipFile, entry, this::loadVersion);
           versionInformationLoaded = true;
         }
 
         // Load configuration
         if (entryName.equals(ProjectSavingTask.CONFIG_FILENAME))
-          loadConfiguration(cis);
+          loadEntry(zipFile, entry, this::loadConfiguration);
 
-        // Load user parameters
-        if (entryName.equals(ProjectSavingTask.PARAMETERS_FILENAME)) {
-          loadUserParameters(cis);
-        }
+        if (entryName.equals(ProjectSavingTask.PARAMETERS_FILENAME))
+          userParametersEntry = entry;
 
-        // Load a raw data file
-        final Matcher rawFileMatcher = rawFilePattern.matcher(entryName);
-        if (rawFileMatcher.matches()) {
-          final String fileID = rawFileMatcher.group(1);
-          final String fileName = rawFileMatcher.group(2);
-          loadRawDataFile(cis, fileID, fileName);
-        }
+        if (rawFilePattern.matcher(entryName).matches())
+          rawFileEntries.add(entry);
 
-        // Load the scan data of a raw data file
         final Matcher scansFileMatcher = scansFilePattern.matcher(entryName);
-        if (scansFileMatcher.matches()) {
-          final String fileID = scansFileMatcher.group(1);
-          final String fileName = scansFileMatcher.group(2);
-          loadScansFile(cis, fileID, fileName);
-        }
+        if (scansFileMatcher.matches())
+          scansFileEntries.put(scansFileMatcher.group(1), entry);
 
-        // Load a feature list
-        final Matcher peakListMatcher = peakListPattern.matcher(entryName);
-        if (peakListMatcher.matches()) {
-          final String peakListName = peakListMatcher.group(2);
-          loadPeakList(cis, peakListName);
-        }
+        if (peakListPattern.matcher(entryName).matches())
+          peakListEntries.add(entry);
 
-        // Close the ZIP entry
-        cis.close();
-
-        // Add the uncompressed entry size finishedBytes
-        synchronized (this) {
-          finishedBytes += entry.getSize();
-          cis = null;
-        }
+        // Entries which are not loaded at all
+        if (!entryName.equals(ProjectSavingTask.VERSION_FILENAME)
+            && !entryName.equals(ProjectSavingTask.CONFIG_FILENAME)
+            && !entryName.equals(ProjectSavingTask.PARAMETERS_FILENAME)
+            && !rawFilePattern.matcher(entryName).matches() && !scansFileMatcher.matches()
+            && !peakListPattern.matcher(entryName).matches())
+          finishedBytes.addAndGet(entry.getSize());
 
       }
 
-      // Finish and close the project ZIP file
-      zipFile.close();
-
       if (!versionInformationLoaded) {
         throw new IOException(
             "This file is not valid MZmine 2 project. It does not contain version information.");
       }
 
-      // Final check for cancel
+      // Positions of the uncompressed entries, which can be read in place
+      final Map<String, long[]> storedEntries =
+          scansInPlace ? StoredZipEntries.read(file) : Collections.emptyMap();
+
+      // Load the raw data files, the scan data first
+      final RawDataFile newFiles[] = new RawDataFile[rawFileEntries.size()];
+      runInParallel(rawFileEntries.size(), i -> {
+        final Matcher rawFileMatcher = rawFilePattern.matcher(rawFileEntries.get(i).getName());
+        rawFileMatcher.matches();
+        final String fileID = rawFileMatcher.group(1);
+        final String fileName = rawFileMatcher.group(2);
+        final ZipEntry scansEntry = scansFileEntries.get(fileID);
+        if (scansEntry == null) {
+          throw new IOException("Missing scans data for file ID " + fileID);
+        }
+        final RawDataFileImpl newFile = (RawDataFileImpl) MZmineCore.createNewFile(null);
+        loadScansFile(file, zipFile, scansEntry, storedEntries.get(scansEntry.getName()), newFile,
+            fileID, fileName);
+        if (isCanceled())
+          return;
+        loadEntry(zipFile, rawFileEntries.get(i),
+            is -> newFiles[i] = loadRawDataFile(is, newFile, fileID, fileName));
+      });
       if (isCanceled())
         return;
+      for (int i = 0; i < newFiles.length; i++) {
+        final Matcher rawFileMatcher = rawFilePattern.matcher(rawFileEntries.get(i).getName());
+        rawFileMatcher.matches();
+        newProject.addFile(newFiles[i]);
+        dataFilesIDMap.put(rawFileMatcher.group(1), newFiles[i]);
+      }
 
-      logger.info("Finished opening project " + openFile);
-      setStatus(TaskStatus.FINISHED);
+      // Load the feature lists, which refer to the raw data files
+      final PeakList newPeakLists[] = new PeakList[peakListEntries.size()];
+      runInParallel(peakListEntries.size(), i -> {
+        final Matcher peakListMatcher = peakListPattern.matcher(peakListEntries.get(i).getName());
+        peakListMatcher.matches();
+        final String peakListName = peakListMatcher.group(2);
+        loadEntry(zipFile, peakListEntries.get(i),
+            is -> newPeakLists[i] = loadPeakList(is, peakListName));
+      });
+      if (isCanceled())
+        return;
+      for (PeakList newPeakList : newPeakLists)
+        newProject.addPeakList(newPeakList);
 
-      // add to last loaded projects
-      MZmineCore.getConfiguration().getLastProjectsParameter().addFile(openFile);
+      // Load user parameters
+      if (userParametersEntry != null)
+        loadEntry(zipFile, userParametersEntry, this::loadUserParameters);
 
-    } catch (Throwable e) {
+    }
 
-      // If project opening was canceled, parser was stopped by a
-      // SAXException which can be safely ignored
-      if (isCanceled())
-        return;
+  }
 
-      setStatus(TaskStatus.ERROR);
-      e.printStackTrace();
-      setErrorMessage("Failed opening project: " + ExceptionUtils.exceptionToString(e));
+  /**
+   * Reads one ZIP entry and counts its bytes for the progress
+   */
+  private void loadEntry(ZipFile zipFile, ZipEntry entry, EntryLoader loader) throws Exception {
+
+    final CountingInputStream cis = new CountingInputStream(zipFile.getInputStream(entry));
+    openStreams.add(cis);
+    try {
+      loader.load(cis);
+    } finally {
+      cis.close();
+      // Add the uncompressed entry size to finishedBytes
+      openStreams.remove(cis);
+      finishedBytes.addAndGet(entry.getSize());
     }
 
   }
 
+  /**
+   * Runs given function for each index in parallel. The first exception thrown by any of them is
+   * thrown once all have finished.
+   */
+  private void runInParallel(int count, IndexedLoader loader) throws Exception {
+
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+    IntStream.range(0, count).parallel().forEach(i -> {
+      if (isCanceled() || (error.get() != null))
+        return;
+      try {
+        loader.load(i);
+      } catch (Throwable e) {
+        error.compareAndSet(null, e);
+      }
+    });
+
+    final Throwable e = error.get();
+    if (e instanceof Exception)
+      throw (Exception) e;
+    if (e instanceof Error)
+      throw (Error) e;
+
+  }
+
+  @FunctionalInterface
+  private interface EntryLoader {
+    void load(InputStream is) throws Exception;
+  }
+
+  @FunctionalInterface
+  private interface IndexedLoader {
+    void load(int index) throws Exception;
+  }
+
   /**
    * @see net.sf.mzmine.taskcontrol.Task#cancel()
    */
@@ -269,16 +430,16 @@ public class ProjectOpeningTask extends AbstractTask {
 
     setStatus(TaskStatus.CANCELED);
 
-    if (rawDataFileOpenHandler != null)
+    for (RawDataFileOpenHandler rawDataFileOpenHandler : rawDataFileOpenHandlers)
       rawDataFileOpenHandler.cancel();
 
-    if (peakListOpenHandler != null)
+    for (PeakListOpenHandler peakListOpenHandler : peakListOpenHandlers)
       peakListOpenHandler.cancel();
 
     if (userParameterOpenHandler != null)
       userParameterOpenHandler.cancel();
 
-    if (copyMachine != null)
+    for (StreamCopy copyMachine : copyMachines)
       copyMachine.cancel();
 
   }
@@ -321,15 +482,15 @@ public class ProjectOpeningTask extends AbstractTask {
 
     // Check if the project version is 2.0 to 2.2
     if ((projectMajorVersion == 2) && (projectMinorVersion <= 2)) {
-      rawDataFileOpenHandler = new RawDataFileOpenHandler_2_0();
-      peakListOpenHandler = new PeakListOpenHandler_2_0(dataFilesIDMap);
+      rawDataFileOpenHandlerFactory = RawDataFileOpenHandler_2_0::new;
+      peakListOpenHandlerFactory = () -> new PeakListOpenHandler_2_0(dataFilesIDMap);
       return;
     }
 
     // Check if the project version is 2.3 to 2.4
     if ((projectMajorVersion == 2) && (projectMinorVersion <= 4)) {
-      rawDataFileOpenHandler = new RawDataFileOpenHandler_2_3();
-      peakListOpenHandler = new PeakListOpenHandler_2_3(dataFilesIDMap);
+      rawDataFileOpenHandlerFactory = RawDataFileOpenHandler_2_3::new;
+      peakListOpenHandlerFactory = () -> new PeakListOpenHandler_2_3(dataFilesIDMap);
       userParameterOpenHandler = new UserParameterOpenHandler_2_3(newProject, dataFilesIDMap);
       return;
     }
@@ -344,8 +505,8 @@ public class ProjectOpeningTask extends AbstractTask {
     }
 
     // Default opening handler for MZmine 2.5 and higher
-    rawDataFileOpenHandler = new RawDataFileOpenHandler_2_5();
-    peakListOpenHandler = new PeakListOpenHandler_2_5(dataFilesIDMap);
+    rawDataFileOpenHandlerFactory = RawDataFileOpenHandler_2_5::new;
+    peakListOpenHandlerFactory = () -> new PeakListOpenHandler_2_5(dataFilesIDMap);
     userParameterOpenHandler = new UserParameterOpenHandler_2_5(newProject, dataFilesIDMap);
 
   }
@@ -361,8 +522,10 @@ public class ProjectOpeningTask extends AbstractTask {
 
     File tempConfigFile = File.createTempFile("mzmineconfig", ".tmp");
     FileOutputStream fileStream = new FileOutputStream(tempConfigFile);
-    copyMachine = new StreamCopy();
+    StreamCopy copyMachine = new StreamCopy();
+    copyMachines.add(copyMachine);
     copyMachine.copy(is, fileStream);
+    copyMachines.remove(copyMachine);
     fileStream.close();
 
     try {
@@ -375,54 +538,78 @@ public class ProjectOpeningTask extends AbstractTask {
     tempConfigFile.delete();
   }
 
-  private void loadRawDataFile(InputStream is, String fileID, String fileName) throws IOException,
-      ParserConfigurationException, SAXException, InstantiationException, IllegalAccessException {
+  private RawDataFile loadRawDataFile(InputStream is, RawDataFileImpl newFile, String fileID,
+      String fileName) throws IOException, ParserConfigurationException, SAXException {
 
     logger.info("Loading raw data file #" + fileID + ": " + fileName);
 
     currentLoadedObjectName = fileName;
 
-    File scansFile = scanFilesIDMap.get(fileID);
-    if (scansFile == null) {
-      throw new IOException("Missing scans data for file ID " + fileID);
+    final RawDataFileOpenHandler rawDataFileOpenHandler = rawDataFileOpenHandlerFactory.get();
+    rawDataFileOpenHandlers.add(rawDataFileOpenHandler);
+    try {
+      return rawDataFileOpenHandler.readRawDataFile(is, newFile);
+    } finally {
+      rawDataFileOpenHandlers.remove(rawDataFileOpenHandler);
     }
 
-    RawDataFile newFile = rawDataFileOpenHandler.readRawDataFile(is, scansFile);
-    newProject.addFile(newFile);
-    dataFilesIDMap.put(fileID, newFile);
-
   }
 
-  private void loadScansFile(InputStream is, String fileID, String fileName) throws IOException {
+  /**
+   * Opens the scan data of a raw data file. Uncompressed scan data is read in place if enabled,
+   * otherwise it is copied to a new temporary file.
+   *
+   * @param storedEntry position and size of the uncompressed scans entry, or null if it is
+   *        compressed or must not be read in place
+   */
+  private void loadScansFile(File file, ZipFile zipFile, ZipEntry scansEntry, long storedEntry[],
+      RawDataFileImpl newFile, String fileID, String fileName) throws Exception {
+
+    if (storedEntry != null) {
+      logger.info("Reading scans data #" + fileID + " in place: " + fileName);
+      newFile.openReadOnlyDataPointsFile(file, storedEntry[0], storedEntry[1]);
+      finishedBytes.addAndGet(scansEntry.getSize());
+      return;
+    }
 
     logger.info("Loading scans data #" + fileID + ": " + fileName);
 
     currentLoadedObjectName = fileName + " scan data";
 
     final File tempFile = RawDataFileImpl.createNewDataPointsFile();
-    final FileOutputStream os = new FileOutputStream(tempFile);
-
-    copyMachine = new StreamCopy();
-    copyMachine.copy(is, os);
-    os.close();
+    loadEntry(zipFile, scansEntry, is -> {
+      try (FileOutputStream os = new FileOutputStream(tempFile)) {
+        StreamCopy copyMachine = new StreamCopy();
+        copyMachines.add(copyMachine);
+        copyMachine.copy(is, os);
+        copyMachines.remove(copyMachine);
+      }
+    });
 
-    scanFilesIDMap.put(fileID, tempFile);
+    newFile.openDataPointsFile(tempFile);
 
   }
 
-  private void loadPeakList(InputStream is, String peakListName) throws IOException,
-      ParserConfigurationException, SAXException, InstantiationException, IllegalAccessException {
+  private PeakList loadPeakList(InputStream is, String peakListName)
+      throws IOException, ParserConfigurationException, SAXException {
 
     logger.info("Loading feature list " + peakListName);
 
     currentLoadedObjectName = peakListName;
 
-    PeakList newPeakList = peakListOpenHandler.readPeakList(is);
-
-    newProject.addPeakList(newPeakList);
+    final PeakListOpenHandler peakListOpenHandler = peakListOpenHandlerFactory.get();
+    peakListOpenHandlers.add(peakListOpenHandler);
+    final PeakList newPeakList;
+    try {
+      newPeakList = peakListOpenHandler.readPeakList(is);
+    } finally {
+      peakListOpenHandlers.remove(peakListOpenHandler);
+    }
 
     // Add quality parameters to peaks
     QualityParameters.calculateQualityParameters(newPeakList);
+
+    return newPeakList;
   }
 
   private void loadUserParameters(InputStream is) throws IOException, ParserConfigurationException,
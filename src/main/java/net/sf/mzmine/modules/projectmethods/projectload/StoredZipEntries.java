@@ -0,0 +1,162 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectload;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Finds the positions of the uncompressed (stored) entries of a ZIP file, so their data can be read
+ * in place. java.util.zip.ZipFile does not expose these positions, so the central directory is
+ * read directly. ZIP64 archives are supported, as projects may be larger than 4 GB.
+ */
+class StoredZipEntries {
+
+  private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+  private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+  private static final int ZIP64_END_LOCATOR = 0x07064b50;
+  private static final int CENTRAL_FILE_HEADER = 0x02014b50;
+  private static final int LOCAL_FILE_HEADER = 0x04034b50;
+  private static final int ZIP64_EXTRA_FIELD = 0x0001;
+  private static final int METHOD_STORED = 0;
+  private static final long MAX_32 = 0xffffffffL;
+
+  // Fixed part of the end of central directory record, followed by a comment of up to 64 kB
+  private static final int END_SIZE = 22;
+
+  /**
+   * Returns the position of the data and the size of each uncompressed entry of given ZIP file, by
+   * entry name
+   */
+  static Map<String, long[]> read(File zipFile) throws IOException {
+
+    try (RandomAccessFile file = new RandomAccessFile(zipFile, "r")) {
+
+      // Find the end of central directory record
+      final long fileLength = file.length();
+      final int tailLength = (int) Math.min(fileLength, END_SIZE + 0xffff);
+      final ByteBuffer tail = read(file, fileLength - tailLength, tailLength);
+      int endPosition = -1;
+      for (int i = tailLength - END_SIZE; i >= 0; i--) {
+        if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+          endPosition = i;
+          break;
+        }
+      }
+      if (endPosition < 0)
+        throw new IOException(zipFile + " is not a ZIP file");
+
+      long numOfEntries = tail.getShort(endPosition + 10) & 0xffff;
+      long directorySize = tail.getInt(endPosition + 12) & MAX_32;
+      long directoryOffset = tail.getInt(endPosition + 16) & MAX_32;
+
+      // ZIP64 archives store the real values in another record, found by the locator just before
+      // the end of central directory record
+      if ((endPosition >= 20) && (tail.getInt(endPosition - 20) == ZIP64_END_LOCATOR)) {
+        final long zip64EndOffset = tail.getLong(endPosition - 20 + 8);
+        final ByteBuffer zip64End = read(file, zip64EndOffset, 56);
+        if (zip64End.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY)
+          throw new IOException("Invalid ZIP64 end of central directory in " + zipFile);
+        numOfEntries = zip64End.getLong(32);
+        directorySize = zip64End.getLong(40);
+        directoryOffset = zip64End.getLong(48);
+      }
+
+      if (directorySize > Integer.MAX_VALUE)
+        throw new IOException("Central directory of " + zipFile + " is too large");
+      final ByteBuffer directory = read(file, directoryOffset, (int) directorySize);
+
+      final Map<String, long[]> storedEntries = new HashMap<>();
+      int position = 0;
+      for (long entry = 0; entry < numOfEntries; entry++) {
+
+        if (directory.getInt(position) != CENTRAL_FILE_HEADER)
+          throw new IOException("Invalid central directory in " + zipFile);
+
+        final int method = directory.getShort(position + 10) & 0xffff;
+        long compressedSize = directory.getInt(position + 20) & MAX_32;
+        long size = directory.getInt(position + 24) & MAX_32;
+        final int nameLength = directory.getShort(position + 28) & 0xffff;
+        final int extraLength = directory.getShort(position + 30) & 0xffff;
+        final int commentLength = directory.getShort(position + 32) & 0xffff;
+        long headerOffset = directory.getInt(position + 42) & MAX_32;
+
+        final byte nameBytes[] = new byte[nameLength];
+        for (int i = 0; i < nameLength; i++)
+          nameBytes[i] = directory.get(position + 46 + i);
+        final String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+        // The ZIP64 extra field holds the values which do not fit into 32 bits, in this order
+        int extraPosition = position + 46 + nameLength;
+        final int extraEnd = extraPosition + extraLength;
+        while (extraPosition + 4 <= extraEnd) {
+          final int id = directory.getShort(extraPosition) & 0xffff;
+          final int length = directory.getShort(extraPosition + 2) & 0xffff;
+          if (id == ZIP64_EXTRA_FIELD) {
+            int valuePosition = extraPosition + 4;
+            if (size == MAX_32) {
+              size = directory.getLong(valuePosition);
+              valuePosition += 8;
+            }
+            if (compressedSize == MAX_32) {
+              compressedSize = directory.getLong(valuePosition);
+              valuePosition += 8;
+            }
+            if (headerOffset == MAX_32)
+              headerOffset = directory.getLong(valuePosition);
+          }
+          extraPosition += 4 + length;
+        }
+
+        if ((method == METHOD_STORED) && (compressedSize == size)) {
+          // The data follows the local file header, whose extra field may differ from the one in
+          // the central directory
+          final ByteBuffer localHeader = read(file, headerOffset, 30);
+          if (localHeader.getInt(0) != LOCAL_FILE_HEADER)
+            throw new IOException("Invalid local file header of " + name + " in " + zipFile);
+          final int localNameLength = localHeader.getShort(26) & 0xffff;
+          final int localExtraLength = localHeader.getShort(28) & 0xffff;
+          final long dataOffset = headerOffset + 30 + localNameLength + localExtraLength;
+          storedEntries.put(name, new long[] {dataOffset, size});
+        }
+
+        position += 46 + nameLength + extraLength + commentLength;
+      }
+
+      return storedEntries;
+
+    }
+
+  }
+
+  private static ByteBuffer read(RandomAccessFile file, long offset, int length)
+      throws IOException {
+    final byte bytes[] = new byte[length];
+    file.seek(offset);
+    file.readFully(bytes);
+    return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+}
@@ -18,10 +18,9 @@
 
 package net.sf.mzmine.modules.projectmethods.projectload.version_2_0;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.TreeMap;
+import java.util.NavigableMap;
 import java.util.logging.Logger;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -31,7 +30,6 @@ import javax.xml.parsers.SAXParserFactory;
 import net.sf.mzmine.datamodel.MassSpectrumType;
 import net.sf.mzmine.datamodel.PolarityType;
 import net.sf.mzmine.datamodel.RawDataFile;
-import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.projectmethods.projectload.RawDataFileOpenHandler;
 import net.sf.mzmine.project.impl.RawDataFileImpl;
 import net.sf.mzmine.project.impl.StorableScan;
@@ -61,21 +59,20 @@ public class RawDataFileOpenHandler_2_0 extends DefaultHandler implements RawDat
   private boolean canceled = false;
 
   /**
-   * Create a new raw data file using the information from the XML raw data description file
+   * Fills the new raw data file using the information from the XML raw data description file
    * 
-   * @param Name raw data file name
+   * @param newRawDataFile new raw data file, whose data points file is already open
    * @throws SAXException
    * @throws ParserConfigurationException
    */
-  public RawDataFile readRawDataFile(InputStream is, File scansFile)
+  public RawDataFile readRawDataFile(InputStream is, RawDataFileImpl newRawDataFile)
       throws IOException, ParserConfigurationException, SAXException {
 
     storageFileOffset = 0;
 
     charBuffer = new StringBuffer();
 
-    newRawDataFile = (RawDataFileImpl) MZmineCore.createNewFile(null);
-    newRawDataFile.openDataPointsFile(scansFile);
+    this.newRawDataFile = newRawDataFile;
 
     // Reads the XML file (raw data description)
     SAXParserFactory factory = SAXParserFactory.newInstance();
@@ -184,8 +181,8 @@ public class RawDataFileOpenHandler_2_0 extends DefaultHandler implements RawDat
 
       try {
         int newStorageID = 1;
-        TreeMap<Integer, Long> dataPointsOffsets = newRawDataFile.getDataPointsOffsets();
-        TreeMap<Integer, Integer> dataPointsLengths = newRawDataFile.getDataPointsLengths();
+        NavigableMap<Integer, Long> dataPointsOffsets = newRawDataFile.getDataPointsOffsets();
+        NavigableMap<Integer, Integer> dataPointsLengths = newRawDataFile.getDataPointsLengths();
         if (!dataPointsOffsets.isEmpty())
           newStorageID = dataPointsOffsets.lastKey().intValue() + 1;
 
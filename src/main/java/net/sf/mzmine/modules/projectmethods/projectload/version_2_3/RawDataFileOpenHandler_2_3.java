@@ -18,11 +18,10 @@
 
 package net.sf.mzmine.modules.projectmethods.projectload.version_2_3;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.TreeMap;
+import java.util.NavigableMap;
 import java.util.logging.Logger;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -35,7 +34,6 @@ import net.sf.mzmine.datamodel.PolarityType;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.datamodel.impl.SimpleMassList;
-import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.projectmethods.projectload.RawDataFileOpenHandler;
 import net.sf.mzmine.project.impl.RawDataFileImpl;
 import net.sf.mzmine.project.impl.StorableScan;
@@ -66,14 +64,13 @@ public class RawDataFileOpenHandler_2_3 extends DefaultHandler implements RawDat
   private boolean canceled = false;
 
   /**
-   * Extract the scan file and copies it into the temporary folder. Create a new raw data file using
-   * the information from the XML raw data description file
+   * Fills the new raw data file using the information from the XML raw data description file
    * 
-   * @param Name raw data file name
+   * @param newRawDataFile new raw data file, whose data points file is already open
    * @throws SAXException
    * @throws ParserConfigurationException
    */
-  public RawDataFile readRawDataFile(InputStream is, File scansFile)
+  public RawDataFile readRawDataFile(InputStream is, RawDataFileImpl newRawDataFile)
       throws IOException, ParserConfigurationException, SAXException {
 
     storageFileOffset = 0;
@@ -82,8 +79,7 @@ public class RawDataFileOpenHandler_2_3 extends DefaultHandler implements RawDat
     currentMassLists = new ArrayList<SimpleMassList>();
     allMassLists = new ArrayList<SimpleMassList>();
 
-    newRawDataFile = (RawDataFileImpl) MZmineCore.createNewFile(null);
-    newRawDataFile.openDataPointsFile(scansFile);
+    this.newRawDataFile = newRawDataFile;
 
     // Reads the XML file (raw data description)
     SAXParserFactory factory = SAXParserFactory.newInstance();
@@ -214,8 +210,8 @@ public class RawDataFileOpenHandler_2_3 extends DefaultHandler implements RawDat
 
       try {
         int newStorageID = 1;
-        TreeMap<Integer, Long> dataPointsOffsets = newRawDataFile.getDataPointsOffsets();
-        TreeMap<Integer, Integer> dataPointsLengths = newRawDataFile.getDataPointsLengths();
+        NavigableMap<Integer, Long> dataPointsOffsets = newRawDataFile.getDataPointsOffsets();
+        NavigableMap<Integer, Integer> dataPointsLengths = newRawDataFile.getDataPointsLengths();
         if (!dataPointsOffsets.isEmpty())
           newStorageID = dataPointsOffsets.lastKey().intValue() + 1;
 
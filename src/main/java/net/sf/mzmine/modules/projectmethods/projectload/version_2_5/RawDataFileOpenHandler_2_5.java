@@ -18,11 +18,10 @@
 
 package net.sf.mzmine.modules.projectmethods.projectload.version_2_5;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.TreeMap;
+import java.util.NavigableMap;
 import java.util.logging.Logger;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -37,7 +36,6 @@ import com.google.common.collect.Range;
 
 import net.sf.mzmine.datamodel.PolarityType;
 import net.sf.mzmine.datamodel.RawDataFile;
-import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.projectmethods.projectload.RawDataFileOpenHandler;
 import net.sf.mzmine.project.impl.RawDataFileImpl;
 import net.sf.mzmine.project.impl.StorableMassList;
@@ -62,8 +60,8 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler implements RawDat
   private int currentStorageID;
   private int storedDataID;
   private int storedDataNumDP;
-  private TreeMap<Integer, Long> dataPointsOffsets;
-  private TreeMap<Integer, Integer> dataPointsLengths;
+  private NavigableMap<Integer, Long> dataPointsOffsets;
+  private NavigableMap<Integer, Integer> dataPointsLengths;
   private ArrayList<StorableMassList> massLists;
   private PolarityType polarity = PolarityType.UNKNOWN;
   private String scanDescription = "";
@@ -72,21 +70,19 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler implements RawDat
   private boolean canceled = false;
 
   /**
-   * Extract the scan file and copies it into the temporary folder. Create a new raw data file using
-   * the information from the XML raw data description file
+   * Fills the new raw data file using the information from the XML raw data description file
    * 
-   * @param Name raw data file name
+   * @param newRawDataFile new raw data file, whose data points file is already open
    * @throws SAXException
    * @throws ParserConfigurationException
    */
-  public RawDataFile readRawDataFile(InputStream is, File scansFile)
+  public RawDataFile readRawDataFile(InputStream is, RawDataFileImpl newRawDataFile)
       throws IOException, ParserConfigurationException, SAXException {
 
     charBuffer = new StringBuffer();
     massLists = new ArrayList<StorableMassList>();
 
-    newRawDataFile = (RawDataFileImpl) MZmineCore.createNewFile(null);
-    newRawDataFile.openDataPointsFile(scansFile);
+    this.newRawDataFile = newRawDataFile;
 
     dataPointsOffsets = newRawDataFile.getDataPointsOffsets();
     dataPointsLengths = newRawDataFile.getDataPointsLengths();
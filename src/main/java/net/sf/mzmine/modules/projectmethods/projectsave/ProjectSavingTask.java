@@ -201,9 +201,19 @@ public class ProjectSavingTask extends AbstractTask {
         return;
       }
 
-      // Move the temporary ZIP file to the final location
+      // Move the temporary ZIP file to the final location. Raw data files may read their data
+      // points in place from the old file. Where the old file cannot be removed while it is open
+      // (Windows), their data points are copied to temporary files first.
       if (saveFile.exists() && !saveFile.delete()) {
-        throw new IOException("Could not delete old file " + saveFile);
+        for (RawDataFile dataFile : savedProject.getDataFiles()) {
+          RawDataFileImpl dataFileImpl = (RawDataFileImpl) dataFile;
+          File readOnlyFile = dataFileImpl.getReadOnlyDataPointsFile();
+          if ((readOnlyFile != null)
+              && readOnlyFile.getAbsoluteFile().equals(saveFile.getAbsoluteFile()))
+            dataFileImpl.copyReadOnlyDataPointsFile();
+        }
+        if (!saveFile.delete())
+          throw new IOException("Could not delete old file " + saveFile);
       }
 
       boolean renameOK = tempFile.renameTo(saveFile);
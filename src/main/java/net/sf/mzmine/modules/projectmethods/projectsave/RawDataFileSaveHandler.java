@@ -24,6 +24,8 @@ import java.io.RandomAccessFile;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -36,6 +38,8 @@ import javax.xml.transform.stream.StreamResult;
 
 import net.sf.mzmine.datamodel.MassList;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
+import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.project.impl.RawDataFileImpl;
 import net.sf.mzmine.project.impl.StorableMassList;
 import net.sf.mzmine.project.impl.StorableScan;
@@ -56,8 +60,15 @@ class RawDataFileSaveHandler {
   private Map<Integer, Integer> dataPointsLengths;
   private double progress = 0;
 
+  // If true, the data points are stored uncompressed, so they can be read in place when the project
+  // is opened
+  private final boolean uncompressedScans;
+
   RawDataFileSaveHandler(ZipOutputStream zipOutputStream) {
     this.zipOutputStream = zipOutputStream;
+    this.uncompressedScans = (MZmineCore.getConfiguration() != null)
+        && Boolean.TRUE.equals(MZmineCore.getConfiguration().getPreferences()
+            .getParameter(MZminePreferences.uncompressedProjectScans).getValue());
   }
 
   /**
@@ -86,31 +97,21 @@ class RawDataFileSaveHandler {
 
     String rawDataSavedName = "Raw data file #" + number + " " + rawDataFile.getName();
 
-    zipOutputStream.putNextEntry(new ZipEntry(rawDataSavedName + ".scans"));
-
-    // We save only those data points that still have a reference in the
-    // dataPointsOffset table. Some deleted mass lists may still be present
-    // in the data points file, we don't want to copy those.
-    long newOffset = 0;
-    byte buffer[] = new byte[1 << 20];
-    RandomAccessFile dataPointsFile = rawDataFile.getDataPointsFile();
-    for (Integer storageID : dataPointsOffsets.keySet()) {
-
-      if (canceled)
-        return;
-
-      final long offset = dataPointsOffsets.get(storageID);
-      dataPointsFile.seek(offset);
-
-      final int bytes = dataPointsLengths.get(storageID) * 4 * 2;
-      consolidatedDataPointsOffsets.put(storageID, newOffset);
-      if (buffer.length < bytes) {
-        buffer = new byte[bytes * 2];
-      }
-      dataPointsFile.read(buffer, 0, bytes);
-      zipOutputStream.write(buffer, 0, bytes);
-      newOffset += bytes;
-      progress = 0.9 * ((double) offset / dataPointsFile.length());
+    ZipEntry scansEntry = new ZipEntry(rawDataSavedName + ".scans");
+    if (uncompressedScans) {
+      // Uncompressed entries need their size and checksum before the data, so the data points are
+      // read twice
+      CRC32 crc = new CRC32();
+      final long size = writeDataPoints(rawDataFile, null, crc, 0.0, 0.45);
+      scansEntry.setMethod(ZipEntry.STORED);
+      scansEntry.setSize(size);
+      scansEntry.setCompressedSize(size);
+      scansEntry.setCrc(crc.getValue());
+      zipOutputStream.putNextEntry(scansEntry);
+      writeDataPoints(rawDataFile, zipOutputStream, null, 0.45, 0.9);
+    } else {
+      zipOutputStream.putNextEntry(scansEntry);
+      writeDataPoints(rawDataFile, zipOutputStream, null, 0.0, 0.9);
     }
 
     if (canceled)
@@ -120,7 +121,30 @@ class RawDataFileSaveHandler {
     logger.info("Saving raw data description of: " + rawDataFile.getName());
 
     zipOutputStream.putNextEntry(new ZipEntry(rawDataSavedName + ".xml"));
-    OutputStream finalStream = zipOutputStream;
+    writeRawDataDescription(rawDataFile, zipOutputStream);
+  }
+
+  /**
+   * Returns a checksum of the XML description of given raw data file, with the offsets of the data
+   * points in the data points file of the raw data file instead of the saved ones. Any change of
+   * the name, scans, mass lists or stored data points of the raw data file changes the checksum.
+   */
+  long getDescriptionChecksum(RawDataFileImpl rawDataFile)
+      throws IOException, TransformerConfigurationException, SAXException {
+
+    numOfScans = rawDataFile.getNumOfScans();
+    dataPointsOffsets = rawDataFile.getDataPointsOffsets();
+    dataPointsLengths = rawDataFile.getDataPointsLengths();
+    consolidatedDataPointsOffsets = new TreeMap<Integer, Long>(dataPointsOffsets);
+
+    CRC32 crc = new CRC32();
+    writeRawDataDescription(rawDataFile,
+        new CheckedOutputStream(OutputStream.nullOutputStream(), crc));
+    return crc.getValue();
+  }
+
+  private void writeRawDataDescription(RawDataFileImpl rawDataFile, OutputStream finalStream)
+      throws IOException, TransformerConfigurationException, SAXException {
 
     StreamResult streamResult = new StreamResult(finalStream);
     SAXTransformerFactory tf = (SAXTransformerFactory) SAXTransformerFactory.newInstance();
@@ -309,6 +333,48 @@ class RawDataFileSaveHandler {
 
   }
 
+  /**
+   * Writes the data points of given raw data file to given stream (if not null) and updates given
+   * checksum (if not null). We save only those data points that still have a reference in the
+   * dataPointsOffset table. Some deleted mass lists may still be present in the data points file,
+   * we don't want to copy those.
+   *
+   * @return number of written bytes
+   */
+  private long writeDataPoints(RawDataFileImpl rawDataFile, OutputStream os, CRC32 crc,
+      double progressStart, double progressEnd) throws IOException {
+
+    long newOffset = 0;
+    byte buffer[] = new byte[1 << 20];
+    RandomAccessFile dataPointsFile = rawDataFile.getDataPointsFile();
+    final long dataPointsStart = rawDataFile.getDataPointsStart();
+    for (Integer storageID : dataPointsOffsets.keySet()) {
+
+      if (canceled)
+        return newOffset;
+
+      final long offset = dataPointsOffsets.get(storageID);
+      dataPointsFile.seek(dataPointsStart + offset);
+
+      final int bytes = dataPointsLengths.get(storageID) * 4 * 2;
+      consolidatedDataPointsOffsets.put(storageID, newOffset);
+      if (buffer.length < bytes) {
+        buffer = new byte[bytes * 2];
+      }
+      dataPointsFile.read(buffer, 0, bytes);
+      if (os != null)
+        os.write(buffer, 0, bytes);
+      if (crc != null)
+        crc.update(buffer, 0, bytes);
+      newOffset += bytes;
+      progress = progressStart
+          + (progressEnd - progressStart) * ((double) offset / dataPointsFile.length());
+    }
+
+    return newOffset;
+
+  }
+
   /**
    * 
    * @return the progress of these functions saving the raw data information to the zip file.
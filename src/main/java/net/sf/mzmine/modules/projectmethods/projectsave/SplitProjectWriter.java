@@ -0,0 +1,106 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectsave;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Hashtable;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.xml.transform.TransformerConfigurationException;
+import org.xml.sax.SAXException;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.project.impl.MZmineProjectImpl;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+
+/**
+ * Writes a project in the project-save format, split into several ZIP files: one for each raw data
+ * file, and one for the feature lists and user parameters. Each file contains the version
+ * information, so the files can be opened together by ProjectOpeningTask, raw data files first. A
+ * raw data file which did not change does not have to be written again when the project is saved
+ * the next time. The configuration is not saved.
+ */
+public class SplitProjectWriter {
+
+  private static final Logger logger = Logger.getLogger(SplitProjectWriter.class.getName());
+
+  /**
+   * Writes a ZIP file which contains given raw data file, saved under given ID
+   */
+  public static void writeRawDataFile(RawDataFileImpl rawDataFile, int id, File zipFile)
+      throws IOException, TransformerConfigurationException, SAXException {
+
+    logger.info("Saving raw data file " + rawDataFile.getName() + " to " + zipFile);
+
+    try (ZipOutputStream zipStream = new ZipOutputStream(new FileOutputStream(zipFile))) {
+      saveVersion(zipStream);
+      RawDataFileSaveHandler rawDataFileSaveHandler = new RawDataFileSaveHandler(zipStream);
+      rawDataFileSaveHandler.writeRawDataFile(rawDataFile, id);
+    }
+
+  }
+
+  /**
+   * Returns a checksum of the description of given raw data file as it would be saved, which
+   * changes whenever anything but the values of the stored data points changes
+   */
+  public static long getRawDataFileChecksum(RawDataFileImpl rawDataFile)
+      throws IOException, TransformerConfigurationException, SAXException {
+    return new RawDataFileSaveHandler(null).getDescriptionChecksum(rawDataFile);
+  }
+
+  /**
+   * Writes a ZIP file which contains all feature lists and user parameters of given project. The
+   * dataFilesIDMap must contain the IDs under which the raw data files of the project were saved.
+   */
+  public static void writePeakLists(MZmineProjectImpl project,
+      Hashtable<RawDataFile, String> dataFilesIDMap, File zipFile)
+      throws IOException, TransformerConfigurationException, SAXException {
+
+    logger.info("Saving feature lists to " + zipFile);
+
+    try (ZipOutputStream zipStream = new ZipOutputStream(new FileOutputStream(zipFile))) {
+      saveVersion(zipStream);
+
+      PeakList peakLists[] = project.getPeakLists();
+      for (int i = 0; i < peakLists.length; i++) {
+        String peakListSavedName = "Peak list #" + (i + 1) + " " + peakLists[i].getName();
+        zipStream.putNextEntry(new ZipEntry(peakListSavedName + ".xml"));
+        PeakListSaveHandler peakListSaveHandler = new PeakListSaveHandler(zipStream, dataFilesIDMap);
+        peakListSaveHandler.savePeakList(peakLists[i]);
+      }
+
+      zipStream.putNextEntry(new ZipEntry(ProjectSavingTask.PARAMETERS_FILENAME));
+      UserParameterSaveHandler userParameterSaveHandler =
+          new UserParameterSaveHandler(zipStream, project, dataFilesIDMap);
+      userParameterSaveHandler.saveParameters();
+    }
+
+  }
+
+  private static void saveVersion(ZipOutputStream zipStream) throws IOException {
+    zipStream.putNextEntry(new ZipEntry(ProjectSavingTask.VERSION_FILENAME));
+    zipStream.write(MZmineCore.getMZmineVersion().getBytes());
+  }
+
+}
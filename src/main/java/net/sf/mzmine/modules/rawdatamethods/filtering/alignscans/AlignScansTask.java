@@ -32,6 +32,7 @@ import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.scans.ScanWindow;
 
 public class AlignScansTask extends AbstractTask {
 
@@ -107,6 +108,8 @@ public class AlignScansTask extends AbstractTask {
     try {
       newRDFW = MZmineCore.createNewFile(dataFile.getName() + ' ' + suffix);
 
+      // Neighbouring scans are read once, as the window moves forward
+      ScanWindow window = new ScanWindow(dataFile, scanNumbers);
       DataPoint mzValues[][] = null; // [relative scan][j value]
       int i, j, si, sj, ii, k, shift, ks;
       int shiftedScans[] = new int[mzSpan * 2 + 1];
@@ -127,9 +130,9 @@ public class AlignScansTask extends AbstractTask {
           if (mzValues == null || mzValues.length < sj - si + 1)
             mzValues = new DataPoint[sj - si + 1][];
           // Load Data Points
+          window.moveTo(si, sj);
           for (j = si; j <= sj; j++) {
-            Scan xscan = dataFile.getScan(scanNumbers[j]);
-            mzValues[j - si] = xscan.getDataPoints();
+            mzValues[j - si] = window.getDataPoints(j);
           }
           // Estimate Correlations
           ii = i - si;
@@ -20,6 +20,7 @@ package net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters;
 
 import java.io.IOException;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.RawDataFileWriter;
@@ -33,6 +34,11 @@ import net.sf.mzmine.taskcontrol.TaskStatus;
 
 class ScanFilteringTask extends AbstractTask {
 
+  // Maximum number of scans (per processor) and data points filtered in parallel at once. The
+  // filtered scans are kept in memory until they are written.
+  private static final int MAX_BLOCK_SCANS_PER_THREAD = 16;
+  private static final long MAX_BLOCK_DATA_POINTS = 1 << 22;
+
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
   private final MZmineProject project;
@@ -44,7 +50,7 @@ class ScanFilteringTask extends AbstractTask {
 
   // User parameters
   private String suffix;
-  private boolean removeOriginal;
+  private boolean removeOriginal, useParallel;
 
   // Raw Data Filter
   private MZmineProcessingStep<ScanFilter> rawDataFilter;
@@ -65,6 +71,7 @@ class ScanFilteringTask extends AbstractTask {
 
     suffix = parameters.getParameter(ScanFiltersParameters.suffix).getValue();
     select = parameters.getParameter(ScanFiltersParameters.scanSelect).getValue();
+    useParallel = parameters.getParameter(ScanFiltersParameters.useParallel).getValue();
 
   }
 
@@ -112,25 +119,25 @@ class ScanFilteringTask extends AbstractTask {
       String newName = dataFile.getName() + " " + suffix;
       RawDataFileWriter rawDataFileWriter = MZmineCore.createNewFile(newName);
 
-      for (int i = 0; i < totalScans; i++) {
-
+      if (useParallel) {
+        filterScansInParallel(rawDataFileWriter);
         if (isCanceled()) {
           return;
         }
+      } else {
+        for (int i = 0; i < totalScans; i++) {
 
+          if (isCanceled()) {
+            return;
+          }
 
-        Scan scan = dataFile.getScan(scanNumbers[i]);
-        Scan newScan = null;
-        if (select.matches(scan))
-          newScan = rawDataFilter.getModule().filterScan(scan, rawDataFilter.getParameterSet());
-        else
-          newScan = scan;
+          Scan newScan = filterScan(dataFile.getScan(scanNumbers[i]));
+          if (newScan != null) {
+            rawDataFileWriter.addScan(newScan);
+          }
 
-        if (newScan != null) {
-          rawDataFileWriter.addScan(newScan);
+          processedScans++;
         }
-
-        processedScans++;
       }
 
       // Finalize writing
@@ -157,4 +164,65 @@ class ScanFilteringTask extends AbstractTask {
 
   }
 
+  /**
+   * Filters the scans in blocks, each block in parallel. The filtered scans of a block are written
+   * in their original order once the whole block is filtered, so the raw data file writer receives
+   * the same scans as in the serial filtering. The size of the blocks limits the memory used by the
+   * filtered scans which wait to be written.
+   */
+  private void filterScansInParallel(RawDataFileWriter rawDataFileWriter) throws IOException {
+
+    final int maxBlockScans =
+        MAX_BLOCK_SCANS_PER_THREAD * Runtime.getRuntime().availableProcessors();
+    final Scan scans[] = new Scan[maxBlockScans], newScans[] = new Scan[maxBlockScans];
+
+    int i = 0;
+    while (i < totalScans) {
+
+      if (isCanceled()) {
+        return;
+      }
+
+      // The block contains at least one scan, even if it exceeds the number of data points
+      int blockSize = 0;
+      long blockDataPoints = 0;
+      while ((i < totalScans) && (blockSize < maxBlockScans)
+          && ((blockSize == 0) || (blockDataPoints < MAX_BLOCK_DATA_POINTS))) {
+        scans[blockSize] = dataFile.getScan(scanNumbers[i]);
+        blockDataPoints += scans[blockSize].getNumberOfDataPoints();
+        blockSize++;
+        i++;
+      }
+
+      IntStream.range(0, blockSize).parallel().forEach(j -> {
+        if (!isCanceled())
+          newScans[j] = filterScan(scans[j]);
+      });
+
+      if (isCanceled()) {
+        return;
+      }
+
+      for (int j = 0; j < blockSize; j++) {
+        if (newScans[j] != null) {
+          rawDataFileWriter.addScan(newScans[j]);
+        }
+        scans[j] = null;
+        newScans[j] = null;
+        processedScans++;
+      }
+    }
+
+  }
+
+  /**
+   * Applies the filter to given scan, if the scan matches the scan selection
+   */
+  private Scan filterScan(Scan scan) {
+    if (select.matches(scan))
+      return rawDataFilter.getModule().filterScan(scan, rawDataFilter.getParameterSet());
+    else
+      return scan;
+  }
+
 }
@@ -47,12 +47,17 @@ public class ScanFiltersParameters extends SimpleParameterSet {
   public static final ModuleComboParameter<ScanFilter> filter =
       new ModuleComboParameter<ScanFilter>("Filter", "Raw data filter", rawDataFilters);
 
+  public static final BooleanParameter useParallel = new BooleanParameter("Parallel filtering",
+      "Filter the scans in parallel. The filtered scans are written in their original order, "
+          + "so the results are identical to the serial filtering.",
+      false);
+
   public static final BooleanParameter autoRemove =
       new BooleanParameter("Remove source file after filtering",
           "If checked, original file will be removed and only filtered version remains");
 
   public ScanFiltersParameters() {
-    super(new Parameter[] {dataFiles, scanSelect, suffix, filter, autoRemove});
+    super(new Parameter[] {dataFiles, scanSelect, suffix, filter, useParallel, autoRemove});
   }
 
 }
@@ -39,6 +39,7 @@ import net.sf.mzmine.parameters.parametertypes.selectors.ScanSelection;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ArrayUtils;
+import net.sf.mzmine.util.scans.ScanWindow;
 
 public class GridMassTask extends AbstractTask {
 
@@ -588,12 +589,13 @@ public class GridMassTask extends AbstractTask {
     int totalScans = scanNumbers.length;
     DataPoint mzValues[][] = null; // [relative scan][j value]
     DataPoint mzValuesJ[] = null;
-    int mzValuesScan[] = null;
     int mzValuesMZidx[] = null;
     IndexedDataPoint newMZValues[][] = null;
     IndexedDataPoint tmpDP[] = new IndexedDataPoint[0];
     newMZValues = new IndexedDataPoint[totalScans][];
     int i, j, si, sj, ii, k, ssi, ssj, m;
+    // Neighbouring scans are read once, as the window moves forward
+    ScanWindow window = new ScanWindow(dataFile, scanNumbers);
     double timeSmoothingMZtol = Math.max(timeMZSpan, 1e-6);
 
     int modts = Math.max(1, totalScans / 10);
@@ -642,22 +644,13 @@ public class GridMassTask extends AbstractTask {
           // Allocate
           if (mzValues == null || mzValues.length < sj - si + 1) {
             mzValues = new DataPoint[sj - si + 1][];
-            mzValuesScan = new int[sj - si + 1];
             mzValuesMZidx = new int[sj - si + 1];
           }
           // Load Data Points
+          window.moveTo(si, sj);
           for (j = si; j <= sj; j++) {
-            int jsi = j - si;
-            if (mzValues[jsi] == null || jsi >= mzValuesScan.length - 1
-                || mzValuesScan[jsi + 1] != scanNumbers[j]) {
-              Scan xscan = dataFile.getScan(scanNumbers[j]);
-              mzValues[jsi] = xscan.getDataPoints();
-              mzValuesScan[jsi] = scanNumbers[j];
-            } else {
-              mzValues[jsi] = mzValues[jsi + 1];
-              mzValuesScan[jsi] = mzValuesScan[jsi + 1];
-            }
-            mzValuesMZidx[jsi] = 0;
+            mzValues[j - si] = window.getDataPoints(j);
+            mzValuesMZidx[j - si] = 0;
           }
           // Estimate Averages
           ii = i - si;
@@ -20,6 +20,7 @@ package net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.centroid;
 
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.MassDetector;
 import net.sf.mzmine.parameters.ParameterSet;
 
@@ -34,10 +35,25 @@ import java.util.ArrayList;
 public class CentroidMassDetector implements MassDetector {
 
   public DataPoint[] getMassValues(Scan scan, ParameterSet parameters) {
-    return getMassValues(scan.getDataPoints(), parameters);
+    final int numOfDataPoints = scan.getNumberOfDataPoints();
+    final double mzValues[] = new double[numOfDataPoints];
+    final double intensityValues[] = new double[numOfDataPoints];
+    scan.getDataPoints(mzValues, intensityValues);
+    return getMassValues(mzValues, intensityValues, numOfDataPoints, parameters);
   }
-  
+
   public DataPoint[] getMassValues(DataPoint dataPoints[], ParameterSet parameters) {
+    final double mzValues[] = new double[dataPoints.length];
+    final double intensityValues[] = new double[dataPoints.length];
+    for (int i = 0; i < dataPoints.length; i++) {
+      mzValues[i] = dataPoints[i].getMZ();
+      intensityValues[i] = dataPoints[i].getIntensity();
+    }
+    return getMassValues(mzValues, intensityValues, dataPoints.length, parameters);
+  }
+
+  private DataPoint[] getMassValues(double mzValues[], double intensityValues[],
+      int numOfDataPoints, ParameterSet parameters) {
 
     double noiseLevel =
         parameters.getParameter(CentroidMassDetectorParameters.noiseLevel).getValue();
@@ -45,12 +61,12 @@ public class CentroidMassDetector implements MassDetector {
     ArrayList<DataPoint> mzPeaks = new ArrayList<DataPoint>();
 
     // Find possible mzPeaks
-    for (int j = 0; j < dataPoints.length; j++) {
+    for (int j = 0; j < numOfDataPoints; j++) {
 
       // Is intensity above the noise level?
-      if (dataPoints[j].getIntensity() >= noiseLevel) {
+      if (intensityValues[j] >= noiseLevel) {
         // Yes, then mark this index as mzPeak
-        mzPeaks.add(dataPoints[j]);
+        mzPeaks.add(new SimpleDataPoint(mzValues[j], intensityValues[j]));
       }
     }
     return mzPeaks.toArray(new DataPoint[0]);
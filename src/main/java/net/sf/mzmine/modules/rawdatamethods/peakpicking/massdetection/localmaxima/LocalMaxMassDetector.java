@@ -24,6 +24,7 @@ import javax.annotation.Nonnull;
 
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.MassDetector;
 import net.sf.mzmine.parameters.ParameterSet;
 
@@ -33,10 +34,25 @@ import net.sf.mzmine.parameters.ParameterSet;
 public class LocalMaxMassDetector implements MassDetector {
   
   public DataPoint[] getMassValues(Scan scan, ParameterSet parameters) {
-    return getMassValues(scan.getDataPoints(), parameters);
+    final int numOfDataPoints = scan.getNumberOfDataPoints();
+    final double mzValues[] = new double[numOfDataPoints];
+    final double intensityValues[] = new double[numOfDataPoints];
+    scan.getDataPoints(mzValues, intensityValues);
+    return getMassValues(mzValues, intensityValues, numOfDataPoints, parameters);
   }
 
   public DataPoint[] getMassValues(DataPoint dataPoints[], ParameterSet parameters) {
+    final double mzValues[] = new double[dataPoints.length];
+    final double intensityValues[] = new double[dataPoints.length];
+    for (int i = 0; i < dataPoints.length; i++) {
+      mzValues[i] = dataPoints[i].getMZ();
+      intensityValues[i] = dataPoints[i].getIntensity();
+    }
+    return getMassValues(mzValues, intensityValues, dataPoints.length, parameters);
+  }
+
+  private DataPoint[] getMassValues(double mzValues[], double intensityValues[],
+      int numOfDataPoints, ParameterSet parameters) {
 
     double noiseLevel =
         parameters.getParameter(LocalMaxMassDetectorParameters.noiseLevel).getValue();
@@ -46,18 +62,18 @@ public class LocalMaxMassDetector implements MassDetector {
 
     // All data points of current m/z peak
 
-    // Top data point of current m/z peak
-    DataPoint currentMzPeakTop = null;
+    // Index of top data point of current m/z peak
+    int currentMzPeakTop = -1;
 
     // True if we haven't reached the current local maximum yet
     boolean ascending = true;
 
     // Iterate through all data points
-    for (int i = 0; i < dataPoints.length - 1; i++) {
+    for (int i = 0; i < numOfDataPoints - 1; i++) {
 
-      boolean nextIsBigger = dataPoints[i + 1].getIntensity() > dataPoints[i].getIntensity();
-      boolean nextIsZero = dataPoints[i + 1].getIntensity() == 0;
-      boolean currentIsZero = dataPoints[i].getIntensity() == 0;
+      boolean nextIsBigger = intensityValues[i + 1] > intensityValues[i];
+      boolean nextIsZero = intensityValues[i + 1] == 0;
+      boolean currentIsZero = intensityValues[i] == 0;
 
       // Ignore zero intensity regions
       if (currentIsZero)
@@ -65,19 +81,20 @@ public class LocalMaxMassDetector implements MassDetector {
 
       // Check for local maximum
       if (ascending && (!nextIsBigger)) {
-        currentMzPeakTop = dataPoints[i];
+        currentMzPeakTop = i;
         ascending = false;
         continue;
       }
 
-      assert currentMzPeakTop != null;
+      assert currentMzPeakTop >= 0;
 
       // Check for the end of the peak
       if ((!ascending) && (nextIsBigger || nextIsZero)) {
 
         // Add the m/z peak if it is above the noise level
-        if (currentMzPeakTop.getIntensity() > noiseLevel) {
-          mzPeaks.add(currentMzPeakTop);
+        if (intensityValues[currentMzPeakTop] > noiseLevel) {
+          mzPeaks.add(
+              new SimpleDataPoint(mzValues[currentMzPeakTop], intensityValues[currentMzPeakTop]));
         }
 
         // Reset and start with new peak
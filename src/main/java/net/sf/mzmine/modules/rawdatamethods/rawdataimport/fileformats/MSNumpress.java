@@ -0,0 +1,214 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+
+/**
+ * Decoders of the MS-Numpress compressions of mzML binary data arrays
+ * (https://github.com/ms-numpress/ms-numpress), ported from its reference implementation.
+ *
+ * - Linear prediction (numLin): fixed point values, stored as the difference to the value linearly
+ * extrapolated from the two previous values. Used for m/z and retention time arrays.
+ *
+ * - Positive integer (numPic): values rounded to positive integers. Used for intensity arrays.
+ *
+ * - Short logged float (numSlof): the logarithm of the values, as a fixed point 16-bit integer.
+ * Used for intensity arrays.
+ *
+ * All integers except the 16-bit values of numSlof are written as variable length sequences of
+ * half bytes, see decodeInt().
+ */
+class MSNumpress {
+
+  // Accessions of the compressions in the PSI-MS controlled vocabulary
+  static final String LINEAR = "MS:1002312";
+  static final String PIC = "MS:1002313";
+  static final String SLOF = "MS:1002314";
+  static final String LINEAR_ZLIB = "MS:1002746";
+  static final String PIC_ZLIB = "MS:1002747";
+  static final String SLOF_ZLIB = "MS:1002748";
+
+  /**
+   * Decodes given bytes, compressed by the MS-Numpress compression of given accession. The zlib
+   * compression of the combined compressions has to be inflated already.
+   */
+  static double[] decode(String accession, byte data[], int dataSize) throws DataFormatException {
+    switch (accession) {
+      case LINEAR:
+      case LINEAR_ZLIB:
+        return decodeLinear(data, dataSize);
+      case PIC:
+      case PIC_ZLIB:
+        return decodePic(data, dataSize);
+      case SLOF:
+      case SLOF_ZLIB:
+        return decodeSlof(data, dataSize);
+      default:
+        throw new IllegalArgumentException("Unknown MS-Numpress compression " + accession);
+    }
+  }
+
+  static double[] decodeLinear(byte data[], int dataSize) throws DataFormatException {
+
+    if (dataSize == 8)
+      return new double[0];
+    if (dataSize < 8)
+      throw new DataFormatException("Corrupt MS-Numpress data: cannot read the fixed point");
+
+    final double fixedPoint = decodeFixedPoint(data);
+
+    if (dataSize < 12)
+      throw new DataFormatException("Corrupt MS-Numpress data: cannot read the first value");
+
+    // At most two values per byte after the first two values
+    final double result[] = new double[2 + Math.max(0, dataSize - 16) * 2];
+
+    final long ints[] = new long[3];
+    ints[1] = decodeUnsignedInt(data, 8);
+    result[0] = ints[1] / fixedPoint;
+
+    if (dataSize == 12)
+      return Arrays.copyOf(result, 1);
+    if (dataSize < 16)
+      throw new DataFormatException("Corrupt MS-Numpress data: cannot read the second value");
+
+    ints[2] = decodeUnsignedInt(data, 12);
+    result[1] = ints[2] / fixedPoint;
+
+    final int position[] = {16, 0};
+    int ri = 2;
+    while (position[0] < dataSize) {
+      // The last half byte is only padding
+      if ((position[0] == dataSize - 1) && (position[1] == 1) && ((data[position[0]] & 0xf) == 0))
+        break;
+      ints[0] = ints[1];
+      ints[1] = ints[2];
+      final int diff = decodeInt(data, position, dataSize);
+      final long extrapolated = ints[1] * 2 - ints[0];
+      final long y = extrapolated + diff;
+      result[ri++] = y / fixedPoint;
+      ints[2] = y;
+    }
+
+    return Arrays.copyOf(result, ri);
+
+  }
+
+  static double[] decodePic(byte data[], int dataSize) throws DataFormatException {
+
+    final double result[] = new double[dataSize * 2];
+    final int position[] = {0, 0};
+    int ri = 0;
+    while (position[0] < dataSize) {
+      // The last half byte is only padding
+      if ((position[0] == dataSize - 1) && (position[1] == 1) && ((data[position[0]] & 0xf) == 0))
+        break;
+      result[ri++] = decodeInt(data, position, dataSize) & 0xffffffffL;
+    }
+
+    return Arrays.copyOf(result, ri);
+
+  }
+
+  static double[] decodeSlof(byte data[], int dataSize) throws DataFormatException {
+
+    if (dataSize < 8)
+      throw new DataFormatException("Corrupt MS-Numpress data: cannot read the fixed point");
+
+    final double fixedPoint = decodeFixedPoint(data);
+    final double result[] = new double[(dataSize - 8) / 2];
+    for (int i = 0; i < result.length; i++) {
+      final int x = (data[8 + i * 2] & 0xff) | ((data[9 + i * 2] & 0xff) << 8);
+      result[i] = Math.exp(x / fixedPoint) - 1;
+    }
+
+    return result;
+
+  }
+
+  /**
+   * The fixed point is stored as a big endian 64-bit float
+   */
+  private static double decodeFixedPoint(byte data[]) {
+    long fixedPoint = 0;
+    for (int i = 0; i < 8; i++)
+      fixedPoint |= (data[7 - i] & 0xffL) << (8 * i);
+    return Double.longBitsToDouble(fixedPoint);
+  }
+
+  /**
+   * Reads a little endian unsigned 32-bit integer
+   */
+  private static long decodeUnsignedInt(byte data[], int offset) {
+    long value = 0;
+    for (int i = 0; i < 4; i++)
+      value |= (data[offset + i] & 0xffL) << (i * 8);
+    return value;
+  }
+
+  /**
+   * Reads a 32-bit integer stored as half bytes. The first half byte n is the number of leading
+   * zero half bytes (n <= 8) or, if n > 8, the number of leading 0xf half bytes plus 8. It is
+   * followed by the remaining half bytes of the integer, least significant first.
+   *
+   * @param position index of the byte and of its half byte (0 for the upper, 1 for the lower half
+   *        byte) to read from, updated to the half byte after the integer
+   */
+  private static int decodeInt(byte data[], int position[], int dataSize)
+      throws DataFormatException {
+
+    final int head = readHalfByte(data, position);
+
+    int n, result = 0;
+    if (head <= 8) {
+      n = head;
+    } else {
+      n = head - 8;
+      for (int i = 0; i < n; i++)
+        result |= 0xf0000000 >>> (4 * i);
+    }
+
+    if (n == 8)
+      return result;
+
+    if (position[0] + ((8 - n) - (1 - position[1])) / 2 >= dataSize)
+      throw new DataFormatException("Corrupt MS-Numpress data: integer exceeds the data");
+
+    for (int i = n; i < 8; i++)
+      result |= readHalfByte(data, position) << ((i - n) * 4);
+
+    return result;
+
+  }
+
+  private static int readHalfByte(byte data[], int position[]) {
+    final int halfByte;
+    if (position[1] == 0) {
+      halfByte = (data[position[0]] >> 4) & 0xf;
+    } else {
+      halfByte = data[position[0]] & 0xf;
+      position[0]++;
+    }
+    position[1] = 1 - position[1];
+    return halfByte;
+  }
+
+}
@@ -1,16 +1,16 @@
 /*
  * Copyright 2006-2018 The MZmine 2 Development Team
- * 
+ *
  * This file is part of MZmine 2.
- * 
+ *
  * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
  * General Public License as published by the Free Software Foundation; either version 2 of the
  * License, or (at your option) any later version.
- * 
+ *
  * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
  * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
  * General Public License for more details.
- * 
+ *
  * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
  * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
  * USA
@@ -18,11 +18,27 @@
 
 package net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.MZmineProject;
@@ -36,22 +52,16 @@ import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExceptionUtils;
 import net.sf.mzmine.util.scans.ScanUtils;
-import uk.ac.ebi.jmzml.model.mzml.BinaryDataArray;
-import uk.ac.ebi.jmzml.model.mzml.BinaryDataArrayList;
-import uk.ac.ebi.jmzml.model.mzml.CVParam;
-import uk.ac.ebi.jmzml.model.mzml.ParamGroup;
-import uk.ac.ebi.jmzml.model.mzml.Precursor;
-import uk.ac.ebi.jmzml.model.mzml.PrecursorList;
-import uk.ac.ebi.jmzml.model.mzml.Scan;
-import uk.ac.ebi.jmzml.model.mzml.ScanList;
-import uk.ac.ebi.jmzml.model.mzml.SelectedIonList;
-import uk.ac.ebi.jmzml.model.mzml.Spectrum;
-import uk.ac.ebi.jmzml.xml.io.MzMLObjectIterator;
-import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshaller;
 
 /**
- * This class reads mzML 1.0 and 1.1.0 files (http://www.psidev.info/index.php?q=node/257) using the
- * jmzml library (http://code.google.com/p/jmzml/).
+ * This class reads mzML 1.0 and 1.1.0 files (http://www.psidev.info/index.php?q=node/257) using a
+ * streaming StAX parser. Each spectrum is parsed exactly once and its binary data arrays are
+ * decoded directly into primitive arrays, so the memory use does not depend on the file size.
+ *
+ * The scan numbers must be known before the first spectrum is parsed, because they may have to be
+ * replaced if they are not unique. They are taken from the spectrum index at the end of indexed
+ * mzML files. Only if a file has no usable index, the spectrum IDs are collected in a quick pass
+ * that reads nothing but the spectrum elements' attributes.
  */
 public class MzMLReadTask extends AbstractTask {
 
@@ -59,6 +69,11 @@ public class MzMLReadTask extends AbstractTask {
 
   private static final Pattern SCAN_PATTERN = Pattern.compile("scan=([0-9]+)");
 
+  // The offset of the index is stored at the very end of indexed mzML files
+  private static final Pattern INDEX_LIST_OFFSET_PATTERN =
+      Pattern.compile("<indexListOffset>\\s*([0-9]+)\\s*</indexListOffset>");
+  private static final int INDEX_LIST_OFFSET_SEARCH_LENGTH = 4096;
+
   private File file;
   private MZmineProject project;
   private RawDataFileWriter newMZmineFile;
@@ -69,6 +84,12 @@ public class MzMLReadTask extends AbstractTask {
 
   private Map<String, Integer> scanIdTable = new Hashtable<String, Integer>();
 
+  // Parameters of the referenceable parameter groups, by group ID
+  private final Map<String, List<CVParam>> paramGroups = new HashMap<>();
+
+  // Buffer for decompressing binary data arrays, reused for all arrays
+  private byte inflateBuffer[] = new byte[0];
+
   /*
    * This stack stores at most 20 consecutive scans. This window serves to find possible fragments
    * (current scan) that belongs to any of the stored scans in the stack. The reason of the size
@@ -100,72 +121,21 @@ public class MzMLReadTask extends AbstractTask {
     setStatus(TaskStatus.PROCESSING);
     logger.info("Started parsing file " + file);
 
-    MzMLUnmarshaller unmarshaller = new MzMLUnmarshaller(file);
-
-    totalScans = unmarshaller.getObjectCountForXpath("/run/spectrumList/spectrum");
-
-    fillScanIdTable(
-            unmarshaller.unmarshalCollectionFromXpath("/run/spectrumList/spectrum", Spectrum.class),
-            totalScans);
-
-    MzMLObjectIterator<Spectrum> spectrumIterator =
-        unmarshaller.unmarshalCollectionFromXpath("/run/spectrumList/spectrum", Spectrum.class);
     try {
 
-      while (spectrumIterator.hasNext()) {
-
-        if (isCanceled())
-          return;
-
-        Spectrum spectrum = spectrumIterator.next();
-
-        // Ignore scans that are not MS, e.g. UV
-        if (!isMsSpectrum(spectrum)) {
-          parsedScans++;
-          continue;
-        }
-
-        String scanId = spectrum.getId();
-        Integer scanNumber = scanIdTable.get(scanId);
-        if (scanNumber == null)
-          throw new IllegalStateException("Cannot determine scan number: " + scanId);
-
-        // Extract scan data
-        int msLevel = extractMSLevel(spectrum);
-        double retentionTime = extractRetentionTime(spectrum);
-        PolarityType polarity = extractPolarity(spectrum);
-        int parentScan = extractParentScanNumber(spectrum);
-        double precursorMz = extractPrecursorMz(spectrum);
-        int precursorCharge = extractPrecursorCharge(spectrum);
-        String scanDefinition = extractScanDefinition(spectrum);
-        DataPoint dataPoints[] = extractDataPoints(spectrum);
-
-        // Auto-detect whether this scan is centroided
-        MassSpectrumType spectrumType = ScanUtils.detectSpectrumType(dataPoints);
-
-        SimpleScan scan = new SimpleScan(null, scanNumber, msLevel, retentionTime, precursorMz,
-            precursorCharge, null, dataPoints, spectrumType, polarity, scanDefinition, null);
-
-        for (SimpleScan s : parentStack) {
-          if (s.getScanNumber() == parentScan) {
-            s.addFragmentScan(scanNumber);
-          }
-        }
+      List<String> spectrumIds = readIndexedSpectrumIds();
+      if (spectrumIds == null) {
+        logger.info("No spectrum index found in " + file + ", reading spectrum IDs");
+        spectrumIds = readSpectrumIds();
+      }
+      totalScans = spectrumIds.size();
 
-        /*
-         * Verify the size of parentStack. The actual size of the window to cover possible
-         * candidates is defined by limitSize.
-         */
-        if (parentStack.size() > PARENT_STACK_SIZE) {
-          SimpleScan firstScan = parentStack.removeLast();
-          newMZmineFile.addScan(firstScan);
-        }
+      fillScanIdTable(spectrumIds);
 
-        parentStack.addFirst(scan);
+      parseSpectra();
 
-        parsedScans++;
-
-      }
+      if (isCanceled())
+        return;
 
       while (!parentStack.isEmpty()) {
         SimpleScan scan = parentStack.removeLast();
@@ -195,25 +165,307 @@ public class MzMLReadTask extends AbstractTask {
 
   }
 
+  /**
+   * Reads the IDs of all spectra from the spectrum index of an indexed mzML file.
+   *
+   * @return spectrum IDs in file order, or null if the file has no usable spectrum index
+   */
+  private List<String> readIndexedSpectrumIds() throws IOException {
+
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+
+      final long fileLength = raf.length();
+      final int tailLength = (int) Math.min(fileLength, INDEX_LIST_OFFSET_SEARCH_LENGTH);
+      final byte tail[] = new byte[tailLength];
+      raf.seek(fileLength - tailLength);
+      raf.readFully(tail);
+
+      final Matcher matcher =
+          INDEX_LIST_OFFSET_PATTERN.matcher(new String(tail, StandardCharsets.US_ASCII));
+      if (!matcher.find())
+        return null;
+      final long indexListOffset = Long.parseLong(matcher.group(1));
+      if ((indexListOffset <= 0) || (indexListOffset >= fileLength))
+        return null;
+
+      raf.seek(indexListOffset);
+      final InputStream is = new BufferedInputStream(Channels.newInputStream(raf.getChannel()));
+      final XMLStreamReader reader = createXMLStreamReader(is, false);
+
+      try {
+        final List<String> ids = new ArrayList<>();
+        boolean inSpectrumIndex = false;
+
+        while (reader.hasNext()) {
+          final int event = reader.next();
+
+          if (event == XMLStreamConstants.START_ELEMENT) {
+            switch (reader.getLocalName()) {
+              case "indexList":
+                break;
+              case "index":
+                inSpectrumIndex = "spectrum".equals(reader.getAttributeValue(null, "name"));
+                break;
+              case "offset":
+                if (inSpectrumIndex)
+                  ids.add(reader.getAttributeValue(null, "idRef"));
+                break;
+              default:
+                // The offset does not point to the index
+                return null;
+            }
+          }
+
+          if (event == XMLStreamConstants.END_ELEMENT) {
+            final String name = reader.getLocalName();
+            if (name.equals("index") && inSpectrumIndex)
+              return ids.contains(null) ? null : ids;
+            if (name.equals("indexList"))
+              return null;
+          }
+        }
+        return null;
+
+      } catch (XMLStreamException e) {
+        // The offset does not point to a valid index
+        logger.fine("Cannot read the spectrum index of " + file + ": " + e);
+        return null;
+      } finally {
+        reader.close();
+      }
+
+    } catch (XMLStreamException e) {
+      logger.fine("Cannot read the spectrum index of " + file + ": " + e);
+      return null;
+    }
+
+  }
+
+  /**
+   * Reads the IDs of all spectra, without parsing the spectra themselves.
+   *
+   * @return spectrum IDs in file order
+   */
+  private List<String> readSpectrumIds() throws IOException, XMLStreamException {
+
+    final List<String> ids = new ArrayList<>();
+
+    try (InputStream is = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+      final XMLStreamReader reader = createXMLStreamReader(is, false);
+      try {
+        while (reader.hasNext()) {
+          if (isCanceled())
+            return ids;
+          if ((reader.next() == XMLStreamConstants.START_ELEMENT)
+              && reader.getLocalName().equals("spectrum"))
+            ids.add(reader.getAttributeValue(null, "id"));
+        }
+      } finally {
+        reader.close();
+      }
+    }
+
+    return ids;
+  }
+
+  /**
+   * Parses all spectra and adds the MS scans to the new raw data file.
+   */
+  private void parseSpectra() throws IOException, XMLStreamException, DataFormatException {
+
+    try (InputStream is = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+      final XMLStreamReader reader = createXMLStreamReader(is, true);
+      try {
+        while (reader.hasNext()) {
+          if (reader.next() != XMLStreamConstants.START_ELEMENT)
+            continue;
+
+          switch (reader.getLocalName()) {
+            case "referenceableParamGroup":
+              readParamGroup(reader);
+              break;
+            case "spectrum":
+              if (isCanceled())
+                return;
+              processSpectrum(readSpectrum(reader));
+              break;
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    }
+
+  }
+
+  private XMLStreamReader createXMLStreamReader(InputStream is, boolean coalescing)
+      throws XMLStreamException {
+    final XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, coalescing);
+    return factory.createXMLStreamReader(is);
+  }
+
+  /**
+   * Reads the cvParams of a referenceableParamGroup element.
+   */
+  private void readParamGroup(XMLStreamReader reader) throws XMLStreamException {
+    final String id = reader.getAttributeValue(null, "id");
+    final List<CVParam> params = new ArrayList<>();
+    int depth = 1;
+    while (depth > 0) {
+      final int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+        if (reader.getLocalName().equals("cvParam"))
+          params.add(new CVParam(reader));
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+    if (id != null)
+      paramGroups.put(id, params);
+  }
+
+  /**
+   * Reads one spectrum element, including its binary data arrays. The reader must be positioned at
+   * the start of the spectrum element, and is positioned at its end afterwards.
+   */
+  private MzMLSpectrum readSpectrum(XMLStreamReader reader)
+      throws XMLStreamException, DataFormatException {
+
+    final MzMLSpectrum spectrum = new MzMLSpectrum(reader.getAttributeValue(null, "id"));
+    final int defaultArrayLength = parseInt(reader.getAttributeValue(null, "defaultArrayLength"), 0);
+
+    // Names of the open elements, the innermost first
+    final Deque<String> path = new ArrayDeque<>();
+    path.push("spectrum");
+
+    BinaryDataArray currentArray = null;
+    int numOfArrays = 0;
+
+    while (!path.isEmpty()) {
+      final int event = reader.next();
+
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        final String name = reader.getLocalName();
+        final String parent = path.peek();
+        path.push(name);
+
+        switch (name) {
+          case "cvParam":
+            spectrum.addParam(parent, new CVParam(reader), currentArray);
+            break;
+          case "referenceableParamGroupRef":
+            final List<CVParam> group = paramGroups.get(reader.getAttributeValue(null, "ref"));
+            if (group != null) {
+              for (CVParam param : group)
+                spectrum.addParam(parent, param, currentArray);
+            }
+            break;
+          case "precursor":
+            spectrum.numOfPrecursors++;
+            if (spectrum.numOfPrecursors == 1)
+              spectrum.precursorSpectrumRef = reader.getAttributeValue(null, "spectrumRef");
+            break;
+          case "binaryDataArray":
+            currentArray = new BinaryDataArray(
+                parseInt(reader.getAttributeValue(null, "arrayLength"), defaultArrayLength),
+                numOfArrays++);
+            break;
+          case "binary":
+            if (currentArray != null)
+              currentArray.base64 = reader.getElementText();
+            // getElementText() has consumed the end element
+            path.pop();
+            break;
+        }
+
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        final String name = path.pop();
+        if (name.equals("binaryDataArray") && (currentArray != null)) {
+          decodeBinaryDataArray(spectrum, currentArray);
+          currentArray = null;
+        }
+      }
+    }
+
+    return spectrum;
+  }
+
+  /**
+   * Creates a scan from a parsed spectrum and adds it to the parent stack.
+   */
+  private void processSpectrum(MzMLSpectrum spectrum) {
+
+    // Ignore scans that are not MS, e.g. UV
+    if (!spectrum.isMsSpectrum()) {
+      parsedScans++;
+      return;
+    }
+
+    String scanId = spectrum.id;
+    Integer scanNumber = scanIdTable.get(scanId);
+    if (scanNumber == null)
+      throw new IllegalStateException("Cannot determine scan number: " + scanId);
+
+    // Extract scan data
+    int msLevel = spectrum.getMSLevel();
+    double retentionTime = spectrum.getRetentionTime();
+    PolarityType polarity = spectrum.getPolarity();
+    int parentScan = getParentScanNumber(spectrum);
+    double precursorMz = spectrum.precursorMz;
+    int precursorCharge = spectrum.precursorCharge;
+    String scanDefinition = spectrum.getScanDefinition();
+    DataPoint dataPoints[] = spectrum.getDataPoints();
+
+    // Auto-detect whether this scan is centroided
+    MassSpectrumType spectrumType = ScanUtils.detectSpectrumType(dataPoints);
+
+    SimpleScan scan = new SimpleScan(null, scanNumber, msLevel, retentionTime, precursorMz,
+        precursorCharge, null, dataPoints, spectrumType, polarity, scanDefinition, null);
+
+    for (SimpleScan s : parentStack) {
+      if (s.getScanNumber() == parentScan) {
+        s.addFragmentScan(scanNumber);
+      }
+    }
+
+    /*
+     * Verify the size of parentStack. The actual size of the window to cover possible candidates is
+     * defined by limitSize.
+     */
+    if (parentStack.size() > PARENT_STACK_SIZE) {
+      SimpleScan firstScan = parentStack.removeLast();
+      newMZmineFile.addScan(firstScan);
+    }
+
+    parentStack.addFirst(scan);
+
+    parsedScans++;
+
+  }
+
   /**
    * Retrieves scan numbers from scan IDs and stores them in scanIdTable.
    *
    * If retrieved scan numbers are not unique, we replace them with new scan numbers.
    *
-   * @param iterator iterator from MzMLUnmarshaller
+   * @param spectrumIds IDs of all spectra in file order
    */
-  private void fillScanIdTable(MzMLObjectIterator<Spectrum> iterator, int totalScans) {
+  private void fillScanIdTable(List<String> spectrumIds) {
 
     Map<String, Integer> alternativeScanIdTable = new HashMap<>();
-    for (int i = 1; iterator.hasNext(); ++i) {
-      String id = iterator.next().getId();
+    for (int i = 1; i <= spectrumIds.size(); ++i) {
+      String id = spectrumIds.get(i - 1);
       saveScanNumberToTable(id);
       alternativeScanIdTable.put(id, i);
     }
 
     Set<Integer> scanNumberSet = new HashSet<>(scanIdTable.values());
 
-    if (scanNumberSet.size() != totalScans)
+    if (scanNumberSet.size() != spectrumIds.size())
       // Scan Numbers are not unique! We replace them with numbers 1, 2, 3, ...
       scanIdTable = alternativeScanIdTable;
   }
@@ -240,271 +492,327 @@ public class MzMLReadTask extends AbstractTask {
     scanIdTable.put(scanId, scanNumber);
   }
 
-  private int extractMSLevel(Spectrum spectrum) {
-    // Browse the spectrum parameters
-    List<CVParam> cvParams = spectrum.getCvParam();
-    if (cvParams == null)
-      return 1;
-    for (CVParam param : cvParams) {
-      String accession = param.getAccession();
-      String value = param.getValue();
-      if ((accession == null) || (value == null))
-        continue;
-
-      // MS level MS:1000511
-      if (accession.equals("MS:1000511")) {
-        int msLevel = Integer.parseInt(value);
-        return msLevel;
+  private int getParentScanNumber(MzMLSpectrum spectrum) {
+    // Get the precursor scan number
+    if (spectrum.precursorSpectrumRef == null)
+      return -1;
+    Integer parentScan = scanIdTable.get(spectrum.precursorSpectrumRef);
+    if (parentScan == null)
+      return -1;
+    return parentScan;
+  }
+
+  /**
+   * Decodes a base64 encoded, possibly zlib and MS-Numpress compressed binary data array into the
+   * m/z or intensity values of the spectrum.
+   */
+  private void decodeBinaryDataArray(MzMLSpectrum spectrum, BinaryDataArray array)
+      throws DataFormatException {
+
+    int bytesPerValue = 8;
+    boolean floatingPoint = true, zlib = false;
+    String numpress = null;
+    Boolean mzArray = null;
+
+    for (CVParam param : array.params) {
+      switch (param.accession) {
+        // 64-bit float
+        case "MS:1000523":
+          bytesPerValue = 8;
+          floatingPoint = true;
+          break;
+        // 32-bit float
+        case "MS:1000521":
+          bytesPerValue = 4;
+          floatingPoint = true;
+          break;
+        // 64-bit integer
+        case "MS:1000522":
+          bytesPerValue = 8;
+          floatingPoint = false;
+          break;
+        // 32-bit integer
+        case "MS:1000519":
+          bytesPerValue = 4;
+          floatingPoint = false;
+          break;
+        // zlib compression
+        case "MS:1000574":
+          zlib = true;
+          break;
+        // MS-Numpress compression
+        case MSNumpress.LINEAR:
+        case MSNumpress.PIC:
+        case MSNumpress.SLOF:
+          numpress = param.accession;
+          break;
+        // MS-Numpress compression followed by zlib compression
+        case MSNumpress.LINEAR_ZLIB:
+        case MSNumpress.PIC_ZLIB:
+        case MSNumpress.SLOF_ZLIB:
+          numpress = param.accession;
+          zlib = true;
+          break;
+        // m/z array
+        case "MS:1000514":
+          mzArray = true;
+          break;
+        // intensity array
+        case "MS:1000515":
+          mzArray = false;
+          break;
       }
     }
-    return 1;
-  }
 
-  private double extractRetentionTime(Spectrum spectrum) {
+    // Arrays of unknown type are identified by their position: m/z first, intensity second
+    if (mzArray == null) {
+      if (array.position > 1)
+        return;
+      mzArray = (array.position == 0);
+    }
 
-    ScanList scanListElement = spectrum.getScanList();
-    if (scanListElement == null)
-      return 0;
-    List<Scan> scanElements = scanListElement.getScan();
-    if (scanElements == null)
-      return 0;
+    final byte encoded[] = (array.base64 == null) ? new byte[0]
+        : Base64.getMimeDecoder().decode(array.base64);
+
+    final byte bytes[];
+    int length;
+    if (zlib && (encoded.length > 0)) {
+      // The size of MS-Numpress compressed data is not known in advance
+      length = inflate(encoded, (numpress == null) ? array.arrayLength * bytesPerValue : 0);
+      bytes = inflateBuffer;
+    } else {
+      bytes = encoded;
+      length = encoded.length;
+    }
 
-    for (Scan scan : scanElements) {
-      List<CVParam> cvParams = scan.getCvParam();
-      if (cvParams == null)
-        continue;
+    final double values[];
+    if (numpress != null) {
+      values = MSNumpress.decode(numpress, bytes, length);
+    } else {
+      final int numOfValues = length / bytesPerValue;
+      values = new double[numOfValues];
+      final ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+      for (int i = 0; i < numOfValues; i++) {
+        if (floatingPoint)
+          values[i] = (bytesPerValue == 8) ? buffer.getDouble() : buffer.getFloat();
+        else
+          values[i] = (bytesPerValue == 8) ? buffer.getLong() : buffer.getInt();
+      }
+    }
 
-      for (CVParam param : cvParams) {
-        String accession = param.getAccession();
-        String unitAccession = param.getUnitAccession();
-        String value = param.getValue();
-        if ((accession == null) || (value == null))
-          continue;
+    if (mzArray)
+      spectrum.mzValues = values;
+    else
+      spectrum.intensityValues = values;
 
-        // Retention time (actually "Scan start time") MS:1000016
-        if (accession.equals("MS:1000016")) {
-          // MS:1000038 is used in mzML 1.0, while UO:0000031
-          // is used in mzML 1.1.0 :-/
-          double retentionTime;
-          if ((unitAccession == null) || (unitAccession.equals("MS:1000038"))
-              || unitAccession.equals("UO:0000031")) {
-            retentionTime = Double.parseDouble(value);
-          } else {
-            retentionTime = Double.parseDouble(value) / 60d;
-          }
-          return retentionTime;
+  }
 
-        }
+  /**
+   * Decompresses zlib compressed bytes into inflateBuffer, growing it if necessary.
+   *
+   * @param expectedLength expected number of decompressed bytes, if known
+   * @return number of decompressed bytes
+   */
+  private int inflate(byte compressed[], int expectedLength) throws DataFormatException {
+
+    if (inflateBuffer.length < Math.max(expectedLength, compressed.length * 2))
+      inflateBuffer = new byte[Math.max(expectedLength, compressed.length * 2)];
+
+    final Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(compressed);
+      int length = 0;
+      while (!inflater.finished()) {
+        if (length == inflateBuffer.length)
+          inflateBuffer = Arrays.copyOf(inflateBuffer, inflateBuffer.length * 2);
+        final int inflated = inflater.inflate(inflateBuffer, length, inflateBuffer.length - length);
+        if ((inflated == 0) && (inflater.needsInput() || inflater.needsDictionary()))
+          break;
+        length += inflated;
       }
+      return length;
+    } finally {
+      inflater.end();
     }
-
-    return 0;
   }
 
-  private DataPoint[] extractDataPoints(Spectrum spectrum) {
-    BinaryDataArrayList dataList = spectrum.getBinaryDataArrayList();
-
-    if ((dataList == null) || (dataList.getCount().equals(0)))
-      return new DataPoint[0];
-
-    BinaryDataArray mzArray = dataList.getBinaryDataArray().get(0);
-    BinaryDataArray intensityArray = dataList.getBinaryDataArray().get(1);
-    Number mzValues[] = mzArray.getBinaryDataAsNumberArray();
-    Number intensityValues[] = intensityArray.getBinaryDataAsNumberArray();
-    DataPoint dataPoints[] = new DataPoint[mzValues.length];
-    for (int i = 0; i < dataPoints.length; i++) {
-      double mz = mzValues[i].doubleValue();
-      double intensity = intensityValues[i].doubleValue();
-      dataPoints[i] = new SimpleDataPoint(mz, intensity);
+  private static int parseInt(String value, int defaultValue) {
+    if (value == null)
+      return defaultValue;
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      return defaultValue;
     }
-    return dataPoints;
+  }
 
+  public String getTaskDescription() {
+    return "Opening file " + file;
   }
 
-  private int extractParentScanNumber(Spectrum spectrum) {
-    PrecursorList precursorListElement = spectrum.getPrecursorList();
-    if ((precursorListElement == null) || (precursorListElement.getCount().equals(0)))
-      return -1;
+  /**
+   * A controlled vocabulary parameter (cvParam element)
+   */
+  private static class CVParam {
 
-    List<Precursor> precursorList = precursorListElement.getPrecursor();
-    for (Precursor parent : precursorList) {
-      // Get the precursor scan number
-      String precursorScanId = parent.getSpectrumRef();
-      if (precursorScanId == null) {
-        return -1;
-      }
-      Integer parentScan = scanIdTable.get(precursorScanId);
-      if (parentScan == null)
-        return -1;
+    private final String accession, value, unitAccession;
 
-      return parentScan;
+    private CVParam(XMLStreamReader reader) {
+      String accession = reader.getAttributeValue(null, "accession");
+      this.accession = (accession == null) ? "" : accession;
+      this.value = reader.getAttributeValue(null, "value");
+      this.unitAccession = reader.getAttributeValue(null, "unitAccession");
     }
-    return -1;
-  }
 
-  private double extractPrecursorMz(Spectrum spectrum) {
+  }
 
-    PrecursorList precursorListElement = spectrum.getPrecursorList();
-    if ((precursorListElement == null) || (precursorListElement.getCount().equals(0)))
-      return 0;
+  /**
+   * A binary data array, until it is decoded
+   */
+  private static class BinaryDataArray {
 
-    List<Precursor> precursorList = precursorListElement.getPrecursor();
-    for (Precursor parent : precursorList) {
-
-      SelectedIonList selectedIonListElement = parent.getSelectedIonList();
-      if ((selectedIonListElement == null) || (selectedIonListElement.getCount().equals(0)))
-        return 0;
-      List<ParamGroup> selectedIonParams = selectedIonListElement.getSelectedIon();
-      if (selectedIonParams == null)
-        continue;
-
-      for (ParamGroup pg : selectedIonParams) {
-        List<CVParam> pgCvParams = pg.getCvParam();
-        for (CVParam param : pgCvParams) {
-          String accession = param.getAccession();
-          String value = param.getValue();
-          if ((accession == null) || (value == null))
-            continue;
-          // MS:1000040 is used in mzML 1.0,
-          // MS:1000744 is used in mzML 1.1.0
-          if (accession.equals("MS:1000040") || accession.equals("MS:1000744")) {
-            double precursorMz = Double.parseDouble(value);
-            return precursorMz;
-          }
-        }
+    private final int arrayLength, position;
+    private final List<CVParam> params = new ArrayList<>();
+    private String base64;
 
-      }
+    private BinaryDataArray(int arrayLength, int position) {
+      this.arrayLength = arrayLength;
+      this.position = position;
     }
-    return 0;
+
   }
 
-  private int extractPrecursorCharge(Spectrum spectrum) {
-    PrecursorList precursorListElement = spectrum.getPrecursorList();
-    if ((precursorListElement == null) || (precursorListElement.getCount().equals(0)))
-      return 0;
+  /**
+   * The values of one spectrum element which are relevant for creating a scan
+   */
+  private static class MzMLSpectrum {
 
-    List<Precursor> precursorList = precursorListElement.getPrecursor();
-    for (Precursor parent : precursorList) {
-
-      SelectedIonList selectedIonListElement = parent.getSelectedIonList();
-      if ((selectedIonListElement == null) || (selectedIonListElement.getCount().equals(0)))
-        return 0;
-      List<ParamGroup> selectedIonParams = selectedIonListElement.getSelectedIon();
-      if (selectedIonParams == null)
-        continue;
-
-      for (ParamGroup pg : selectedIonParams) {
-        List<CVParam> pgCvParams = pg.getCvParam();
-        for (CVParam param : pgCvParams) {
-          String accession = param.getAccession();
-          String value = param.getValue();
-          if ((accession == null) || (value == null))
-            continue;
-          if (accession.equals("MS:1000041")) {
-            int precursorCharge = Integer.parseInt(value);
-            return precursorCharge;
-          }
+    private final String id;
 
-        }
+    // Parameters of the spectrum element and of its scan elements
+    private final List<CVParam> spectrumParams = new ArrayList<>(), scanParams = new ArrayList<>();
 
-      }
-    }
-    return 0;
-  }
+    // Only the first precursor is used
+    private int numOfPrecursors = 0;
+    private String precursorSpectrumRef;
+    private double precursorMz = 0;
+    private int precursorCharge = 0;
+    private boolean precursorMzFound = false, precursorChargeFound = false;
 
-  private PolarityType extractPolarity(Spectrum spectrum) {
-    List<CVParam> cvParams = spectrum.getCvParam();
-    if (cvParams != null) {
-      for (CVParam param : cvParams) {
-        String accession = param.getAccession();
+    private double mzValues[], intensityValues[];
 
-        if (accession == null)
-          continue;
-        if (accession.equals("MS:1000130"))
-          return PolarityType.POSITIVE;
-        if (accession.equals("MS:1000129"))
-          return PolarityType.NEGATIVE;
+    private MzMLSpectrum(String id) {
+      this.id = id;
+    }
+
+    /**
+     * Adds a parameter found as a child of the given element
+     */
+    private void addParam(String parent, CVParam param, BinaryDataArray currentArray) {
+      switch (parent) {
+        case "spectrum":
+          spectrumParams.add(param);
+          break;
+        case "scan":
+          scanParams.add(param);
+          break;
+        case "selectedIon":
+          if ((numOfPrecursors == 1) && (param.value != null))
+            addSelectedIonParam(param);
+          break;
+        case "binaryDataArray":
+          if (currentArray != null)
+            currentArray.params.add(param);
+          break;
       }
     }
-    ScanList scanListElement = spectrum.getScanList();
-    if (scanListElement != null) {
-      List<Scan> scanElements = scanListElement.getScan();
-      if (scanElements != null) {
-        for (Scan scan : scanElements) {
-          cvParams = scan.getCvParam();
-          if (cvParams == null)
-            continue;
-          for (CVParam param : cvParams) {
-            String accession = param.getAccession();
-            if (accession == null)
-              continue;
-            if (accession.equals("MS:1000130"))
-              return PolarityType.POSITIVE;
-            if (accession.equals("MS:1000129"))
-              return PolarityType.NEGATIVE;
-          }
 
-        }
+    private void addSelectedIonParam(CVParam param) {
+      // MS:1000040 is used in mzML 1.0,
+      // MS:1000744 is used in mzML 1.1.0
+      if (!precursorMzFound
+          && (param.accession.equals("MS:1000040") || param.accession.equals("MS:1000744"))) {
+        precursorMz = Double.parseDouble(param.value);
+        precursorMzFound = true;
+      }
+      if (!precursorChargeFound && param.accession.equals("MS:1000041")) {
+        precursorCharge = Integer.parseInt(param.value);
+        precursorChargeFound = true;
       }
     }
-    return PolarityType.UNKNOWN;
 
-  }
+    private boolean isMsSpectrum() {
+      for (CVParam param : spectrumParams) {
+        if (param.accession.equals("MS:1000804"))
+          return false;
+      }
 
-  private String extractScanDefinition(Spectrum spectrum) {
-    List<CVParam> cvParams = spectrum.getCvParam();
-    if (cvParams != null) {
-      for (CVParam param : cvParams) {
-        String accession = param.getAccession();
+      // By default, let's assume unidentified spectra are MS spectra
+      return true;
+    }
 
-        if (accession == null)
-          continue;
-        if (accession.equals("MS:1000512"))
-          return param.getValue();
+    private int getMSLevel() {
+      for (CVParam param : spectrumParams) {
+        // MS level MS:1000511
+        if (param.accession.equals("MS:1000511") && (param.value != null))
+          return Integer.parseInt(param.value);
       }
+      return 1;
     }
-    ScanList scanListElement = spectrum.getScanList();
-    if (scanListElement != null) {
-      List<Scan> scanElements = scanListElement.getScan();
-      if (scanElements != null) {
-        for (Scan scan : scanElements) {
-          cvParams = scan.getCvParam();
-          if (cvParams == null)
-            continue;
-          for (CVParam param : cvParams) {
-            String accession = param.getAccession();
-            if (accession == null)
-              continue;
-            if (accession.equals("MS:1000512"))
-              return param.getValue();
-          }
 
+    private double getRetentionTime() {
+      for (CVParam param : scanParams) {
+        if (param.value == null)
+          continue;
+
+        // Retention time (actually "Scan start time") MS:1000016
+        if (param.accession.equals("MS:1000016")) {
+          // MS:1000038 is used in mzML 1.0, while UO:0000031
+          // is used in mzML 1.1.0 :-/
+          final String unitAccession = param.unitAccession;
+          if ((unitAccession == null) || (unitAccession.equals("MS:1000038"))
+              || unitAccession.equals("UO:0000031")) {
+            return Double.parseDouble(param.value);
+          } else {
+            return Double.parseDouble(param.value) / 60d;
+          }
         }
       }
+      return 0;
     }
-    return spectrum.getId();
-  }
-
-  public String getTaskDescription() {
-    return "Opening file " + file;
-  }
-
-  boolean isMsSpectrum(Spectrum spectrum) {
 
-    List<CVParam> cvParams = spectrum.getCvParam();
-    if (cvParams != null) {
-      for (CVParam param : cvParams) {
-        String accession = param.getAccession();
-        if (accession == null)
-          continue;
+    private PolarityType getPolarity() {
+      for (List<CVParam> params : Arrays.asList(spectrumParams, scanParams)) {
+        for (CVParam param : params) {
+          if (param.accession.equals("MS:1000130"))
+            return PolarityType.POSITIVE;
+          if (param.accession.equals("MS:1000129"))
+            return PolarityType.NEGATIVE;
+        }
+      }
+      return PolarityType.UNKNOWN;
+    }
 
-        if (accession.equals("MS:1000804"))
-          return false;
+    private String getScanDefinition() {
+      for (List<CVParam> params : Arrays.asList(spectrumParams, scanParams)) {
+        for (CVParam param : params) {
+          if (param.accession.equals("MS:1000512"))
+            return param.value;
+        }
       }
+      return id;
+    }
+
+    private DataPoint[] getDataPoints() {
+      if ((mzValues == null) || (intensityValues == null))
+        return new DataPoint[0];
+      final int numOfDataPoints = Math.min(mzValues.length, intensityValues.length);
+      final DataPoint dataPoints[] = new DataPoint[numOfDataPoints];
+      for (int i = 0; i < numOfDataPoints; i++)
+        dataPoints[i] = new SimpleDataPoint(mzValues[i], intensityValues[i]);
+      return dataPoints;
     }
 
-    // By default, let's assume unidentified spectra are MS spectra
-    return true;
   }
 
 }
@@ -32,6 +32,7 @@ import net.sf.mzmine.modules.visualization.spectra.simplespectra.SpectraPlot;
 import net.sf.mzmine.modules.visualization.spectra.spectralmatchresults.SpectraIdentificationResultsWindow;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.spectraldb.entry.SpectralDBEntry;
 import net.sf.mzmine.util.spectraldb.parser.AutoLibraryParser;
@@ -115,12 +116,9 @@ class SpectraIdentificationSpectralDatabaseTask extends AbstractTask {
               i--;
             }
           }
-          // wait for all sub tasks to finish
-          try {
-            Thread.sleep(100);
-          } catch (Exception e) {
-            cancel();
-          }
+          // wait for all sub tasks to finish, without holding a worker thread
+          if (!tasks.isEmpty())
+            MZmineCore.getTaskController().joinTasks(tasks.toArray(new Task[0]), 100);
         }
         // cancelled
         if (isCanceled()) {
@@ -31,6 +31,8 @@ import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.project.impl.ChromatogramIndex;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.taskcontrol.TaskPriority;
 import net.sf.mzmine.taskcontrol.TaskStatus;
@@ -321,16 +323,30 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
     // Determine plot type (now done from constructor).
     final TICPlotType plotType = this.plotType;
 
+    // Chromatogram index of the data file, obtained once the m/z range does not cover a scan.
+    ChromatogramIndex chromatogramIndex = null;
+
     // Process each scan.
     for (int index = 0; status != TaskStatus.CANCELED && index < totalScans; index++) {
 
       // Current scan.
       final Scan scan = scans[index];
+      final boolean wholeScan = mzRange.encloses(scan.getDataPointMZRange());
+      if (!wholeScan && chromatogramIndex == null && dataFile instanceof RawDataFileImpl) {
+        chromatogramIndex = ((RawDataFileImpl) dataFile).getChromatogramIndex();
+      }
+      final boolean useIndex =
+          !wholeScan && chromatogramIndex != null && chromatogramIndex.contains(scan);
 
       // Determine base peak value.
-      final DataPoint basePeak =
-          mzRange.encloses(scan.getDataPointMZRange()) ? scan.getHighestDataPoint()
-              : ScanUtils.findBasePeak(scan, mzRange);
+      final DataPoint basePeak;
+      if (wholeScan) {
+        basePeak = scan.getHighestDataPoint();
+      } else if (useIndex) {
+        basePeak = chromatogramIndex.getBasePeak(scan, mzRange);
+      } else {
+        basePeak = ScanUtils.findBasePeak(scan, mzRange);
+      }
       if (basePeak != null) {
 
         basePeakValues[index] = basePeak.getMZ();
@@ -341,8 +357,13 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
       if (plotType == TICPlotType.TIC) {
 
         // Total ion count.
-        intensity = mzRange.encloses(scan.getDataPointMZRange()) ? scan.getTIC()
-            : ScanUtils.calculateTIC(scan, mzRange);
+        if (wholeScan) {
+          intensity = scan.getTIC();
+        } else if (useIndex) {
+          intensity = chromatogramIndex.getTIC(scan, mzRange);
+        } else {
+          intensity = ScanUtils.calculateTIC(scan, mzRange);
+        }
 
       } else if (plotType == TICPlotType.BASEPEAK && basePeak != null) {
 
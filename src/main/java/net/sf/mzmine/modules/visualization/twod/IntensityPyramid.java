@@ -0,0 +1,296 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.visualization.twod;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.collect.Range;
+
+/**
+ * Disk-backed multi-resolution grid of the maximum intensities of the scans of a 2D plot. Level 0
+ * has one column per scan and divides the m/z range into bins. Each higher level halves both
+ * resolutions, so each cell holds the maximum of up to 2x2 cells of the level below. The levels
+ * are written to a temporary file and memory-mapped for reading, so the grid of a large raw data
+ * file does not occupy the heap.
+ *
+ * The scans are added in the order of their index by addScan(), then finishWriting() builds the
+ * higher levels. After that, the pyramid is read-only and can be read from any thread. The levels
+ * are unmapped by dispose(), so reading is locked against disposal.
+ */
+class IntensityPyramid {
+
+  // Level 0 must fit into a single mapped buffer
+  private static final long MAX_LEVEL_SIZE = 1L << 30;
+  private static final int MAX_MZ_BINS = 4096;
+
+  private final int numOfScans, numOfBins;
+  private final Range<Double> mzRange;
+  private final double binWidth;
+
+  private final File pyramidFile;
+  private final RandomAccessFile pyramidRAF;
+  private final FileChannel pyramidChannel;
+
+  // Values are written through this buffer
+  private final ByteBuffer writeBuffer = ByteBuffer.allocate(1 << 20);
+  private final float column[];
+  private int addedScans = 0;
+
+  // Levels, each stored column by column (one column per scan at level 0)
+  private final List<MappedByteBuffer> levels = new ArrayList<>();
+  private final List<Integer> levelRows = new ArrayList<>();
+
+  private final ReadWriteLock disposeLock = new ReentrantReadWriteLock();
+  private boolean disposed = false;
+
+  // Unmaps a mapped buffer immediately (sun.misc.Unsafe.invokeCleaner), null if not available
+  private static final Object unsafe;
+  private static final Method invokeCleaner;
+
+  static {
+    Object theUnsafe = null;
+    Method cleaner = null;
+    try {
+      final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      final Field theUnsafeField = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafeField.setAccessible(true);
+      theUnsafe = theUnsafeField.get(null);
+      cleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Mapped buffers are unmapped when they are garbage collected
+    }
+    unsafe = theUnsafe;
+    invokeCleaner = cleaner;
+  }
+
+  IntensityPyramid(int numOfScans, Range<Double> mzRange) throws IOException {
+
+    this.numOfScans = numOfScans;
+    this.mzRange = mzRange;
+
+    // Highest power of two which keeps level 0 below the maximum size
+    final long maxBins = Math.max(1, MAX_LEVEL_SIZE / 4 / Math.max(1, numOfScans));
+    numOfBins = Integer.highestOneBit((int) Math.min(MAX_MZ_BINS, maxBins));
+    binWidth = (mzRange.upperEndpoint() - mzRange.lowerEndpoint()) / numOfBins;
+
+    column = new float[numOfBins];
+
+    pyramidFile = File.createTempFile("mzmine", ".pyramid");
+    pyramidFile.deleteOnExit();
+    pyramidRAF = new RandomAccessFile(pyramidFile, "rw");
+    pyramidChannel = pyramidRAF.getChannel();
+
+  }
+
+  /**
+   * Adds the level 0 column of the next scan. The m/z values must be sorted in ascending order.
+   */
+  void addScan(double mzValues[], double intensityValues[], int numOfDataPoints)
+      throws IOException {
+
+    for (int i = 0; i < numOfBins; i++)
+      column[i] = 0f;
+
+    for (int i = 0; i < numOfDataPoints; i++) {
+      final int bin = getBin(mzValues[i]);
+      if (bin < 0)
+        continue;
+      if (bin >= numOfBins)
+        break;
+      if (intensityValues[i] > column[bin])
+        column[bin] = (float) intensityValues[i];
+    }
+
+    for (int i = 0; i < numOfBins; i++)
+      writeFloat(column[i]);
+    addedScans++;
+
+  }
+
+  /**
+   * Builds the higher levels from level 0 and maps all levels for reading
+   */
+  void finishWriting() throws IOException {
+
+    if (addedScans != numOfScans)
+      throw new IllegalStateException(addedScans + " of " + numOfScans + " scans were added");
+
+    flushWriteBuffer();
+
+    long levelOffset = 0;
+    int columns = numOfScans, rows = numOfBins;
+    MappedByteBuffer level = pyramidChannel.map(FileChannel.MapMode.READ_ONLY, levelOffset,
+        (long) columns * rows * 4);
+    levels.add(level);
+    levelRows.add(rows);
+
+    while ((columns > 1) || (rows > 1)) {
+
+      levelOffset += (long) columns * rows * 4;
+      final int newColumns = (columns + 1) / 2, newRows = (rows + 1) / 2;
+
+      for (int c = 0; c < newColumns; c++) {
+        for (int r = 0; r < newRows; r++) {
+          float max = 0f;
+          for (int oldC = 2 * c; (oldC <= 2 * c + 1) && (oldC < columns); oldC++) {
+            for (int oldR = 2 * r; (oldR <= 2 * r + 1) && (oldR < rows); oldR++) {
+              max = Math.max(max, level.getFloat((oldC * rows + oldR) * 4));
+            }
+          }
+          writeFloat(max);
+        }
+      }
+      flushWriteBuffer();
+
+      columns = newColumns;
+      rows = newRows;
+      level = pyramidChannel.map(FileChannel.MapMode.READ_ONLY, levelOffset,
+          (long) columns * rows * 4);
+      levels.add(level);
+      levelRows.add(rows);
+    }
+
+  }
+
+  private void writeFloat(float value) throws IOException {
+    if (!writeBuffer.hasRemaining())
+      flushWriteBuffer();
+    writeBuffer.putFloat(value);
+  }
+
+  private void flushWriteBuffer() throws IOException {
+    writeBuffer.flip();
+    while (writeBuffer.hasRemaining())
+      pyramidChannel.write(writeBuffer);
+    writeBuffer.clear();
+  }
+
+  Range<Double> getMZRange() {
+    return mzRange;
+  }
+
+  /**
+   * Returns the highest level whose cells do not span more than given number of scans and m/z
+   * bins, or -1 if the m/z bins of level 0 are already too wide
+   */
+  int getLevel(double scansPerPixel, double mzPerPixel) {
+
+    final double binsPerPixel = mzPerPixel / binWidth;
+    if (!(binsPerPixel >= 1.0))
+      return -1;
+
+    final double cellsPerPixel = Math.min(binsPerPixel, Math.max(1.0, scansPerPixel));
+    int level = 0;
+    while ((level + 1 < levels.size()) && ((1L << (level + 1)) <= cellsPerPixel))
+      level++;
+    return level;
+
+  }
+
+  /**
+   * Returns the maximum intensity in the given range of scans (inclusive) and m/z range at given
+   * level, or 0 once the pyramid is disposed. The cells at the edges of the ranges are included
+   * completely.
+   */
+  double getMaxIntensity(int level, int firstScan, int lastScan, Range<Double> range) {
+
+    int firstBin = getBin(range.lowerEndpoint()), lastBin = getBin(range.upperEndpoint());
+    if ((lastBin < 0) || (firstBin >= numOfBins))
+      return 0;
+    firstBin = Math.max(firstBin, 0);
+    lastBin = Math.min(lastBin, numOfBins - 1);
+
+    disposeLock.readLock().lock();
+    try {
+      if (disposed)
+        return 0;
+
+      final MappedByteBuffer levelBuffer = levels.get(level);
+      final int rows = levelRows.get(level);
+      final int firstRow = firstBin >> level, lastRow = lastBin >> level;
+
+      float max = 0f;
+      for (int c = firstScan >> level; c <= lastScan >> level; c++) {
+        for (int r = firstRow; r <= lastRow; r++) {
+          max = Math.max(max, levelBuffer.getFloat((c * rows + r) * 4));
+        }
+      }
+      return max;
+    } finally {
+      disposeLock.readLock().unlock();
+    }
+
+  }
+
+  /**
+   * Unmaps the levels, closes and removes the temporary file
+   */
+  void dispose() {
+
+    disposeLock.writeLock().lock();
+    try {
+      if (disposed)
+        return;
+      disposed = true;
+      if (invokeCleaner != null) {
+        for (MappedByteBuffer level : levels) {
+          try {
+            invokeCleaner.invoke(unsafe, level);
+          } catch (ReflectiveOperationException e) {
+            // Unmapped when it is garbage collected
+          }
+        }
+      }
+    } finally {
+      disposeLock.writeLock().unlock();
+    }
+
+    try {
+      pyramidRAF.close();
+    } catch (IOException e) {
+      // Ignore, the file is removed on exit
+    }
+    pyramidFile.delete();
+
+  }
+
+  /**
+   * Returns the level 0 bin of given m/z value. The upper end of the m/z range belongs to the last
+   * bin.
+   */
+  private int getBin(double mz) {
+    if (mz < mzRange.lowerEndpoint())
+      return -1;
+    if (mz == mzRange.upperEndpoint())
+      return numOfBins - 1;
+    return (int) Math.min(numOfBins, Math.floor((mz - mzRange.lowerEndpoint()) / binWidth));
+  }
+
+}
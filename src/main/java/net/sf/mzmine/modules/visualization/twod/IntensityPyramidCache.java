@@ -0,0 +1,158 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.visualization.twod;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import com.google.common.collect.Range;
+
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.main.MZmineCore;
+
+/**
+ * Intensity pyramids of the 2D plots, shared by all 2D windows which show the same scans and m/z
+ * range of a raw data file. Each window acquires a pyramid, or adds the one it has built, and
+ * releases it when it is closed. Pyramids which are not used by any window anymore are kept for
+ * windows opened later, up to MAX_UNUSED_PYRAMIDS, unless their raw data file has been removed
+ * from the project.
+ */
+class IntensityPyramidCache {
+
+  private static final int MAX_UNUSED_PYRAMIDS = 2;
+
+  private static final Map<Key, CachedPyramid> pyramids = new HashMap<>();
+
+  // Pyramids which are not used by any window, least recently used first
+  private static final Deque<CachedPyramid> unusedPyramids = new ArrayDeque<>();
+
+  /**
+   * Returns the pyramid of given scans and m/z range, or null if it has not been built yet. The
+   * pyramid has to be released by release().
+   */
+  static synchronized IntensityPyramid acquire(RawDataFile dataFile, int scanNumbers[],
+      Range<Double> mzRange) {
+    final CachedPyramid cached = pyramids.get(new Key(dataFile, scanNumbers, mzRange));
+    if (cached == null)
+      return null;
+    use(cached);
+    return cached.pyramid;
+  }
+
+  /**
+   * Adds a newly built pyramid of given scans and m/z range and returns it. If another window has
+   * added a pyramid of the same scans in the meantime, the new pyramid is disposed and the other
+   * one is returned instead. The returned pyramid has to be released by release().
+   */
+  static synchronized IntensityPyramid add(RawDataFile dataFile, int scanNumbers[],
+      Range<Double> mzRange, IntensityPyramid pyramid) {
+    final Key key = new Key(dataFile, scanNumbers, mzRange);
+    CachedPyramid cached = pyramids.get(key);
+    if (cached != null) {
+      pyramid.dispose();
+    } else {
+      cached = new CachedPyramid(key, pyramid);
+      pyramids.put(key, cached);
+    }
+    use(cached);
+    return cached.pyramid;
+  }
+
+  /**
+   * Releases a pyramid returned by acquire() or add()
+   */
+  static synchronized void release(IntensityPyramid pyramid) {
+
+    CachedPyramid cached = null;
+    for (CachedPyramid p : pyramids.values()) {
+      if (p.pyramid == pyramid)
+        cached = p;
+    }
+    if ((cached == null) || (--cached.references > 0))
+      return;
+
+    final RawDataFile projectFiles[] =
+        MZmineCore.getProjectManager().getCurrentProject().getDataFiles();
+    if (!Arrays.asList(projectFiles).contains(cached.key.dataFile)) {
+      pyramids.remove(cached.key);
+      cached.pyramid.dispose();
+      return;
+    }
+
+    unusedPyramids.addLast(cached);
+    while (unusedPyramids.size() > MAX_UNUSED_PYRAMIDS) {
+      final CachedPyramid oldest = unusedPyramids.removeFirst();
+      pyramids.remove(oldest.key);
+      oldest.pyramid.dispose();
+    }
+
+  }
+
+  private static void use(CachedPyramid cached) {
+    if (cached.references++ == 0)
+      unusedPyramids.remove(cached);
+  }
+
+  private static class CachedPyramid {
+
+    private final Key key;
+    private final IntensityPyramid pyramid;
+    private int references = 0;
+
+    private CachedPyramid(Key key, IntensityPyramid pyramid) {
+      this.key = key;
+      this.pyramid = pyramid;
+    }
+
+  }
+
+  private static class Key {
+
+    private final RawDataFile dataFile;
+    private final int scanNumbers[];
+    private final Range<Double> mzRange;
+
+    private Key(RawDataFile dataFile, int scanNumbers[], Range<Double> mzRange) {
+      this.dataFile = dataFile;
+      this.scanNumbers = scanNumbers;
+      this.mzRange = mzRange;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key))
+        return false;
+      final Key key = (Key) o;
+      return (key.dataFile == dataFile) && Arrays.equals(key.scanNumbers, scanNumbers)
+          && key.mzRange.equals(mzRange);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(System.identityHashCode(dataFile), Arrays.hashCode(scanNumbers),
+          mzRange);
+    }
+
+  }
+
+}
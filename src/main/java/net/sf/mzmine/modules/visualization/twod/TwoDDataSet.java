@@ -18,9 +18,12 @@
 
 package net.sf.mzmine.modules.visualization.twod;
 
+import java.io.IOException;
 import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.jfree.data.xy.AbstractXYDataset;
 import com.google.common.collect.Range;
 import net.sf.mzmine.datamodel.DataPoint;
@@ -39,6 +42,8 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 
   private static final long serialVersionUID = 1L;
 
+  private Logger logger = Logger.getLogger(this.getClass().getName());
+
   private RawDataFile rawDataFile;
 
   private double retentionTimes[];
@@ -49,6 +54,11 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
   private int totalScans, processedScans;
   private final Scan scans[];
 
+  // Maximum intensities at several resolutions, available once all scans are processed. The
+  // pyramid is shared with other 2D windows of the same scans, see IntensityPyramidCache.
+  private volatile IntensityPyramid pyramid;
+  private boolean disposed = false;
+
   private TaskStatus status = TaskStatus.WAITING;
 
   public double curMaxIntensity;
@@ -82,21 +92,83 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 
     status = TaskStatus.PROCESSING;
 
+    final int scanNumbers[] = new int[totalScans];
+    for (int index = 0; index < totalScans; index++)
+      scanNumbers[index] = scans[index].getScanNumber();
+
+    // The data points are not kept in memory, they are only read once to build the pyramid, unless
+    // another 2D window has built it already
+    final IntensityPyramid cachedPyramid =
+        IntensityPyramidCache.acquire(rawDataFile, scanNumbers, totalMZRange);
+    IntensityPyramid newPyramid = null;
+    if ((cachedPyramid == null) && (totalScans > 0)) {
+      try {
+        newPyramid = new IntensityPyramid(totalScans, totalMZRange);
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Cannot create the intensity pyramid of " + rawDataFile, e);
+      }
+    }
+    double mzBuffer[] = new double[0], intensityBuffer[] = new double[0];
+
     for (int index = 0; index < totalScans; index++) {
 
       // Cancel?
-      if (status == TaskStatus.CANCELED)
+      if (status == TaskStatus.CANCELED) {
+        if (newPyramid != null)
+          newPyramid.dispose();
+        if (cachedPyramid != null)
+          IntensityPyramidCache.release(cachedPyramid);
         return;
+      }
 
       Scan scan = scans[index];
       DataPoint scanBasePeak = scan.getHighestDataPoint();
       retentionTimes[index] = scan.getRetentionTime();
       basePeaks[index] = (scanBasePeak == null ? 0 : scanBasePeak.getIntensity());
-      DataPoint scanDataPoints[] = scan.getDataPoints();
-      dataPointMatrix[index] = new SoftReference<DataPoint[]>(scanDataPoints);
+
+      if (newPyramid != null) {
+        final int numOfDataPoints = scan.getNumberOfDataPoints();
+        if (mzBuffer.length < numOfDataPoints) {
+          mzBuffer = new double[numOfDataPoints];
+          intensityBuffer = new double[numOfDataPoints];
+        }
+        scan.getDataPoints(mzBuffer, intensityBuffer);
+        try {
+          newPyramid.addScan(mzBuffer, intensityBuffer, numOfDataPoints);
+        } catch (IOException e) {
+          logger.log(Level.WARNING, "Cannot write the intensity pyramid of " + rawDataFile, e);
+          newPyramid.dispose();
+          newPyramid = null;
+        }
+      }
+
       processedScans++;
     }
 
+    IntensityPyramid finishedPyramid = cachedPyramid;
+    if (newPyramid != null) {
+      try {
+        newPyramid.finishWriting();
+        finishedPyramid =
+            IntensityPyramidCache.add(rawDataFile, scanNumbers, totalMZRange, newPyramid);
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Cannot write the intensity pyramid of " + rawDataFile, e);
+        newPyramid.dispose();
+      }
+    }
+
+    // The window may have been closed in the meantime
+    if (finishedPyramid != null) {
+      synchronized (this) {
+        if (!disposed) {
+          pyramid = finishedPyramid;
+          finishedPyramid = null;
+        }
+      }
+      if (finishedPyramid != null)
+        IntensityPyramidCache.release(finishedPyramid);
+    }
+
     fireDatasetChanged();
 
     status = TaskStatus.FINISHED;
@@ -203,6 +275,82 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 
   }
 
+  /**
+   * Returns the level of the intensity pyramid to render given ranges into an image of given size,
+   * or -1 if the image has to be rendered from the raw scans (until the pyramid is built, when
+   * zoomed in beyond its finest level, or outside of its m/z range). The pyramid only holds the
+   * maxima of the data points within each cell, as in the CENTROID plot mode, so the other modes,
+   * which show the closest data point where there is none, are always rendered from the raw scans.
+   */
+  int getPyramidLevel(Range<Double> rtRange, Range<Double> mzRange, int width, int height,
+      PlotMode plotMode) {
+
+    final IntensityPyramid currentPyramid = pyramid;
+    if ((currentPyramid == null) || (plotMode != PlotMode.CENTROID) || (width <= 0)
+        || (height <= 0) || !currentPyramid.getMZRange().encloses(mzRange))
+      return -1;
+
+    final int visibleScans = findScanIndexAbove(rtRange.upperEndpoint(), true)
+        - findScanIndexAbove(rtRange.lowerEndpoint(), false);
+    final double mzPerPixel = (mzRange.upperEndpoint() - mzRange.lowerEndpoint()) / height;
+    return currentPyramid.getLevel((double) visibleScans / width, mzPerPixel);
+
+  }
+
+  /**
+   * Same as upperEndpointIntensity(Range, Range, PlotMode), but reads the maximum from given level
+   * of the intensity pyramid (see getPyramidLevel()). The cells at the edges of the ranges are
+   * included completely.
+   */
+  double upperEndpointIntensity(Range<Double> rtRange, Range<Double> mzRange, PlotMode plotMode,
+      int pyramidLevel) {
+
+    final IntensityPyramid currentPyramid = pyramid;
+    if ((pyramidLevel < 0) || (currentPyramid == null))
+      return upperEndpointIntensity(rtRange, mzRange, plotMode);
+
+    final int firstScanIndex = findScanIndexAbove(rtRange.lowerEndpoint(), false);
+    final int lastScanIndex = findScanIndexAbove(rtRange.upperEndpoint(), true) - 1;
+
+    // No scan in the RT range, use the closest one
+    if (firstScanIndex > lastScanIndex)
+      return upperEndpointIntensity(rtRange, mzRange, plotMode);
+
+    return currentPyramid.getMaxIntensity(pyramidLevel, firstScanIndex, lastScanIndex, mzRange);
+
+  }
+
+  /**
+   * Returns the index of the first scan whose retention time is above (or equal to, unless
+   * strictly is set) given retention time. Only used once all scans are processed.
+   */
+  private int findScanIndexAbove(double rt, boolean strictly) {
+    int low = 0, high = totalScans;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if ((retentionTimes[mid] < rt) || (strictly && (retentionTimes[mid] == rt)))
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  /**
+   * Stops building the intensity pyramid and releases it
+   */
+  void dispose() {
+    cancel();
+    final IntensityPyramid currentPyramid;
+    synchronized (this) {
+      disposed = true;
+      currentPyramid = pyramid;
+      pyramid = null;
+    }
+    if (currentPyramid != null)
+      IntensityPyramidCache.release(currentPyramid);
+  }
+
   public ArrayList getrtValuesInUserRange() {
     return rtValuesInUserRange;
   }
@@ -243,7 +391,7 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
     for (int scanIndex = startScanIndex; ((scanIndex < searchRetentionTimes.length)
         && (searchRetentionTimes[scanIndex] <= rtRange.upperEndpoint())); scanIndex++) {
       // get the list of data points
-      DataPoint dataPoints[] = dataPointMatrix[scanIndex].get();
+      DataPoint dataPoints[] = getDataPoints(scanIndex);
       // Binary search for the mz values in the range you want
 
       DataPoint searchMZ = new SimpleDataPoint(mzRange.lowerEndpoint(), 0);
@@ -285,13 +433,22 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 
   private double upperEndpointIntensity(int dataPointMatrixIndex, Range<Double> mzRange,
       PlotMode plotMode) {
-    DataPoint dataPoints[] = dataPointMatrix[dataPointMatrixIndex].get();
+    DataPoint dataPoints[] = getDataPoints(dataPointMatrixIndex);
+    return upperEndpointIntensity(dataPoints, mzRange, plotMode);
+  }
+
+  /**
+   * Returns the data points of given scan, which are read again if they are not cached anymore
+   */
+  private DataPoint[] getDataPoints(int dataPointMatrixIndex) {
+    SoftReference<DataPoint[]> reference = dataPointMatrix[dataPointMatrixIndex];
+    DataPoint dataPoints[] = (reference == null ? null : reference.get());
     if (dataPoints == null) {
       Scan scan = scans[dataPointMatrixIndex];
       dataPoints = scan.getDataPoints();
       dataPointMatrix[dataPointMatrixIndex] = new SoftReference<DataPoint[]>(dataPoints);
     }
-    return upperEndpointIntensity(dataPoints, mzRange, plotMode);
+    return dataPoints;
   }
 
   private double upperEndpointIntensity(DataPoint dataPoints[], Range<Double> mzRange,
@@ -82,6 +82,10 @@ class TwoDXYPlot extends BaseXYPlot {
     // Save current time
     Date renderStartTime = new Date();
 
+    // Render from the intensity pyramid, unless zoomed in beyond its finest level
+    final int pyramidLevel = dataset.getPyramidLevel(Range.closed(imageRTMin, imageRTMax),
+        Range.closed(imageMZMin, imageMZMax), width, height, plotMode);
+
     // prepare a double array of summed intensities
     double values[][] = new double[width][height];
     maxValue = 0; // now this is an instance variable
@@ -95,7 +99,7 @@ class TwoDXYPlot extends BaseXYPlot {
         double pointMZMax = pointMZMin + imageMZStep;
 
         double lv = dataset.upperEndpointIntensity(Range.closed(pointRTMin, pointRTMax),
-            Range.closed(pointMZMin, pointMZMax), plotMode);
+            Range.closed(pointMZMin, pointMZMax), plotMode, pyramidLevel);
 
         if (logScale) {
           lv = Math.log10(lv);
@@ -144,7 +148,7 @@ class TwoDXYPlot extends BaseXYPlot {
 
     Date renderFinishTime = new Date();
 
-    logger.finest("Finished rendering 2D visualizer, "
+    logger.finest("Finished rendering 2D visualizer (pyramid level " + pyramidLevel + "), "
         + (renderFinishTime.getTime() - renderStartTime.getTime()) + " ms");
 
     return true;
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.util.Arrays;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import com.google.common.collect.Range;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.util.scans.ScanUtils;
+
+/**
+ * Immutable index of the intensities of all scans of a raw data file, binned by m/z. For each scan
+ * and each non-empty bin, it keeps the number of data points, the sum of their intensities and the
+ * most intense data point. The TIC and the base peak of a scan within any m/z range are assembled
+ * from the bins covered by the range. Only the data points of the bins at the edges of the range
+ * are read again from the data points file, if the bin values do not determine the exact result.
+ * The results are the same as those of ScanUtils.calculateTIC() and ScanUtils.findBasePeak(), the
+ * m/z range is treated as a closed range.
+ *
+ * The data points are stored as floats in the data points file, so the most intense data point of
+ * each bin is kept as floats without loss of precision.
+ */
+public class ChromatogramIndex {
+
+  // Maximum number of bins (in all scans) and bins per scan
+  private static final int MAX_CELLS = 1 << 20;
+  private static final int MIN_BINS = 16, MAX_BINS = 1 << 14;
+
+  private final RawDataFileImpl dataFile;
+
+  // Bins cover the m/z range of the data file, data points outside of it fall into the first or
+  // the last bin
+  private final double mzMin, mzMax, binWidth;
+  private final int numOfBins;
+
+  // Indexed scan numbers, sorted
+  private final int scanNumbers[];
+
+  // The bins of scan i are cells offsets[i] to offsets[i + 1] - 1, sorted by bin
+  private final int offsets[];
+  private int cellBins[], cellCounts[];
+  private double cellSums[];
+  private float cellMaxMZs[], cellMaxIntensities[];
+
+  ChromatogramIndex(RawDataFileImpl dataFile) {
+
+    this.dataFile = dataFile;
+    scanNumbers = dataFile.getScanNumbers();
+
+    final Range<Double> mzRange = dataFile.getDataMZRange();
+    numOfBins =
+        Math.max(MIN_BINS, Math.min(MAX_BINS, MAX_CELLS / Math.max(1, scanNumbers.length)));
+    mzMin = mzRange.lowerEndpoint();
+    mzMax = mzRange.upperEndpoint();
+    binWidth = Math.max(Double.MIN_NORMAL, (mzRange.upperEndpoint() - mzMin) / numOfBins);
+
+    offsets = new int[scanNumbers.length + 1];
+    final int initialCapacity = Math.min(MAX_CELLS, scanNumbers.length * MIN_BINS);
+    cellBins = new int[initialCapacity];
+    cellCounts = new int[initialCapacity];
+    cellSums = new double[initialCapacity];
+    cellMaxMZs = new float[initialCapacity];
+    cellMaxIntensities = new float[initialCapacity];
+
+    double mzValues[] = new double[0], intensityValues[] = new double[0];
+    int numOfCells = 0;
+
+    for (int i = 0; i < scanNumbers.length; i++) {
+
+      final Scan scan = dataFile.getScan(scanNumbers[i]);
+      final int numOfDataPoints = scan.getNumberOfDataPoints();
+      if (mzValues.length < numOfDataPoints) {
+        mzValues = new double[numOfDataPoints];
+        intensityValues = new double[numOfDataPoints];
+      }
+      scan.getDataPoints(mzValues, intensityValues);
+
+      // The data points are sorted by m/z, so each bin is a continuous run of data points
+      int lastBin = -1;
+      for (int j = 0; j < numOfDataPoints; j++) {
+        final int bin = getBin(mzValues[j]);
+        if (bin != lastBin) {
+          if (numOfCells == cellBins.length)
+            growCells();
+          cellBins[numOfCells] = bin;
+          cellMaxMZs[numOfCells] = (float) mzValues[j];
+          cellMaxIntensities[numOfCells] = (float) intensityValues[j];
+          numOfCells++;
+          lastBin = bin;
+        } else if (intensityValues[j] > cellMaxIntensities[numOfCells - 1]) {
+          cellMaxMZs[numOfCells - 1] = (float) mzValues[j];
+          cellMaxIntensities[numOfCells - 1] = (float) intensityValues[j];
+        }
+        cellCounts[numOfCells - 1]++;
+        cellSums[numOfCells - 1] += intensityValues[j];
+      }
+      offsets[i + 1] = numOfCells;
+    }
+
+    cellBins = Arrays.copyOf(cellBins, numOfCells);
+    cellCounts = Arrays.copyOf(cellCounts, numOfCells);
+    cellSums = Arrays.copyOf(cellSums, numOfCells);
+    cellMaxMZs = Arrays.copyOf(cellMaxMZs, numOfCells);
+    cellMaxIntensities = Arrays.copyOf(cellMaxIntensities, numOfCells);
+
+  }
+
+  private void growCells() {
+    final int newCapacity = Math.max(16, cellBins.length * 2);
+    cellBins = Arrays.copyOf(cellBins, newCapacity);
+    cellCounts = Arrays.copyOf(cellCounts, newCapacity);
+    cellSums = Arrays.copyOf(cellSums, newCapacity);
+    cellMaxMZs = Arrays.copyOf(cellMaxMZs, newCapacity);
+    cellMaxIntensities = Arrays.copyOf(cellMaxIntensities, newCapacity);
+  }
+
+  /**
+   * @return true if given scan is indexed, so getTIC() and getBasePeak() can be used for it
+   */
+  public boolean contains(@Nonnull Scan scan) {
+    return (scan.getDataFile() == dataFile)
+        && (Arrays.binarySearch(scanNumbers, scan.getScanNumber()) >= 0);
+  }
+
+  /**
+   * Calculates the total ion count of given scan within given m/z range, see
+   * ScanUtils.calculateTIC()
+   */
+  public double getTIC(@Nonnull Scan scan, @Nonnull Range<Double> mzRange) {
+
+    final int scanIndex = Arrays.binarySearch(scanNumbers, scan.getScanNumber());
+    final double mzLow = mzRange.lowerEndpoint(), mzHigh = mzRange.upperEndpoint();
+    final int firstBin = getBin(mzLow), lastBin = getBin(mzHigh);
+
+    // Data points of the scan, read if needed for the edge bins
+    ScanValues values = null;
+
+    double tic = 0.0;
+    for (int c = findFirstCell(scanIndex, firstBin); (c < offsets[scanIndex + 1])
+        && (cellBins[c] <= lastBin); c++) {
+
+      final int bin = cellBins[c];
+      if (isBinWithin(bin, mzLow, mzHigh)) {
+        tic += cellSums[c];
+      } else if (cellCounts[c] == 1) {
+        if ((cellMaxMZs[c] >= mzLow) && (cellMaxMZs[c] <= mzHigh))
+          tic += cellMaxIntensities[c];
+      } else {
+        if (values == null)
+          values = new ScanValues(scan);
+        for (int i = values.findFirstIndex(Math.max(mzLow, getBinStart(bin))); (i < values.size)
+            && (values.mzValues[i] <= mzHigh) && (getBin(values.mzValues[i]) == bin); i++) {
+          tic += values.intensityValues[i];
+        }
+      }
+    }
+    return tic;
+
+  }
+
+  /**
+   * Finds the base peak of given scan within given m/z range, see ScanUtils.findBasePeak()
+   *
+   * @return the most intense data point within the range, or null if there is no data point
+   */
+  public @Nullable DataPoint getBasePeak(@Nonnull Scan scan, @Nonnull Range<Double> mzRange) {
+
+    final int scanIndex = Arrays.binarySearch(scanNumbers, scan.getScanNumber());
+    final double mzLow = mzRange.lowerEndpoint(), mzHigh = mzRange.upperEndpoint();
+    final int firstBin = getBin(mzLow), lastBin = getBin(mzHigh);
+
+    // Data points of the scan, read if needed for the edge bins
+    ScanValues values = null;
+
+    // The bins are visited by increasing m/z, so only a strictly higher intensity replaces the
+    // base peak, as in ScanUtils.findMostIntensePeakWithin()
+    boolean found = false;
+    double basePeakMZ = 0.0, basePeakIntensity = 0.0;
+    for (int c = findFirstCell(scanIndex, firstBin); (c < offsets[scanIndex + 1])
+        && (cellBins[c] <= lastBin); c++) {
+
+      // The edge bins only need to be read if their maximum may become the base peak, and if the
+      // maximum itself is outside of the range
+      final int bin = cellBins[c];
+      if (found && (cellMaxIntensities[c] <= basePeakIntensity))
+        continue;
+      if (isBinWithin(bin, mzLow, mzHigh)
+          || ((cellMaxMZs[c] >= mzLow) && (cellMaxMZs[c] <= mzHigh))) {
+        found = true;
+        basePeakMZ = cellMaxMZs[c];
+        basePeakIntensity = cellMaxIntensities[c];
+        continue;
+      }
+
+      if (values == null)
+        values = new ScanValues(scan);
+      for (int i = values.findFirstIndex(Math.max(mzLow, getBinStart(bin))); (i < values.size)
+          && (values.mzValues[i] <= mzHigh) && (getBin(values.mzValues[i]) == bin); i++) {
+        if (!found || (values.intensityValues[i] > basePeakIntensity)) {
+          found = true;
+          basePeakMZ = values.mzValues[i];
+          basePeakIntensity = values.intensityValues[i];
+        }
+      }
+    }
+
+    if (!found)
+      return null;
+    return new SimpleDataPoint(basePeakMZ, basePeakIntensity);
+
+  }
+
+  /**
+   * Returns the index of the first cell of given scan whose bin is not below given bin
+   */
+  private int findFirstCell(int scanIndex, int bin) {
+    int low = offsets[scanIndex], high = offsets[scanIndex + 1];
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (cellBins[middle] < bin)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  /**
+   * Returns the bin of given m/z value. The result is consistent with getBinStart(), so rounding
+   * errors cannot move a data point to a neighbouring bin.
+   */
+  private int getBin(double mz) {
+    int bin = (int) Math.max(0, Math.min(numOfBins - 1, Math.floor((mz - mzMin) / binWidth)));
+    while ((bin > 0) && (mz < getBinStart(bin)))
+      bin--;
+    while ((bin < numOfBins - 1) && (mz >= getBinStart(bin + 1)))
+      bin++;
+    return bin;
+  }
+
+  private double getBinStart(int bin) {
+    if (bin == 0)
+      return Double.NEGATIVE_INFINITY;
+    return mzMin + bin * binWidth;
+  }
+
+  /**
+   * @return true if all m/z values of given bin are within the closed range of mzLow and mzHigh
+   */
+  private boolean isBinWithin(int bin, double mzLow, double mzHigh) {
+    final double binLow = (bin == 0) ? mzMin : getBinStart(bin);
+    final double binHigh = (bin == numOfBins - 1) ? mzMax : getBinStart(bin + 1);
+    return (binLow >= mzLow) && (binHigh <= mzHigh);
+  }
+
+  /**
+   * Data points of one scan, read from the data points file
+   */
+  private static class ScanValues {
+
+    private final double mzValues[], intensityValues[];
+    private final int size;
+
+    private ScanValues(Scan scan) {
+      final int numOfDataPoints = scan.getNumberOfDataPoints();
+      mzValues = new double[numOfDataPoints];
+      intensityValues = new double[numOfDataPoints];
+      size = scan.getDataPoints(mzValues, intensityValues);
+    }
+
+    private int findFirstIndex(double mz) {
+      return ScanUtils.findFirstMzIndex(mzValues, size, mz);
+    }
+
+  }
+
+}
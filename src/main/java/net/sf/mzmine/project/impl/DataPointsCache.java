@@ -0,0 +1,293 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Approximately least-recently-used cache of decoded data points of one raw data file, keyed by
+ * storage ID. The data points of one storage ID are kept as a float array of interleaved m/z and
+ * intensity values, exactly as they are stored in the data points file, so each data point takes 8
+ * bytes.
+ *
+ * The caches of all raw data files share one memory budget (see setMaxBytes()) and one concurrent
+ * map, so the total size does not grow with the number of open files. Entries are evicted by the
+ * clock algorithm: a hit only marks the entry as referenced, and the eviction passes over the
+ * entries of all files, evicting those which were not referenced since its last pass. The arrays
+ * are only softly referenced, so the garbage collector may also drop them when memory is short.
+ *
+ * Hits and the checks whether the caches are enabled take no lock, so any number of threads can
+ * read through the caches concurrently. Only the eviction is serialized. The cached arrays are
+ * never modified after they have been put into the cache.
+ */
+public class DataPointsCache {
+
+  // Shared by the caches of all raw data files
+  private static volatile long maxBytes = 0;
+  private static final AtomicLong currentBytes = new AtomicLong();
+  private static final ConcurrentHashMap<Key, CachedValues> entries = new ConcurrentHashMap<>();
+  private static final ReferenceQueue<float[]> clearedValues = new ReferenceQueue<>();
+  private static final AtomicLong evictions = new AtomicLong();
+
+  // Clock hand of the eviction, guarded by evictionLock
+  private static final Object evictionLock = new Object();
+  private static Iterator<CachedValues> clockHand = null;
+
+  // Entries of this cache
+  private final AtomicInteger numOfEntries = new AtomicInteger();
+  private final AtomicLong ownBytes = new AtomicLong();
+
+  private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+
+  /**
+   * Storage ID of the cache of one raw data file
+   */
+  private static class Key {
+
+    private final DataPointsCache cache;
+    private final int storageID;
+
+    private Key(DataPointsCache cache, int storageID) {
+      this.cache = cache;
+      this.storageID = storageID;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key))
+        return false;
+      final Key key = (Key) o;
+      return (key.cache == cache) && (key.storageID == storageID);
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(cache) * 31 + storageID;
+    }
+
+  }
+
+  /**
+   * Soft reference to cached values, which remembers its key and size after it has been cleared
+   */
+  private static class CachedValues extends SoftReference<float[]> {
+
+    private final Key key;
+    private final long size;
+
+    // Set by hits, cleared by the eviction
+    private volatile boolean referenced = true;
+
+    private CachedValues(Key key, float values[]) {
+      super(values, clearedValues);
+      this.key = key;
+      this.size = getSize(values);
+    }
+
+  }
+
+  /**
+   * Sets the maximum size of the cached data points of all raw data files in bytes, evicting
+   * entries if necessary. 0 disables the caches.
+   */
+  public static void setMaxBytes(long newMaxBytes) {
+    maxBytes = newMaxBytes;
+    evict();
+  }
+
+  public static long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * @return size of the cached data points of all raw data files in bytes
+   */
+  public static long getTotalBytes() {
+    return currentBytes.get();
+  }
+
+  /**
+   * @return number of entries evicted from the caches of all raw data files
+   */
+  public static long getEvictions() {
+    return evictions.get();
+  }
+
+  /**
+   * @return true if this cache may hold any data points
+   */
+  boolean isEnabled() {
+    return maxBytes > 0;
+  }
+
+  /**
+   * Returns the interleaved m/z and intensity values cached for given storage ID, or null if they
+   * are not cached. The returned array must not be modified.
+   */
+  float[] get(int storageID) {
+    float values[] = null;
+    final CachedValues cachedValues = entries.get(new Key(this, storageID));
+    if (cachedValues != null) {
+      values = cachedValues.get();
+      // Avoid writing to the shared entry if it is already marked
+      if ((values != null) && !cachedValues.referenced)
+        cachedValues.referenced = true;
+    }
+    if (values == null)
+      misses.increment();
+    else
+      hits.increment();
+    return values;
+  }
+
+  /**
+   * Puts the interleaved m/z and intensity values of given storage ID into the cache, evicting
+   * entries if necessary. The array must not be modified afterwards.
+   */
+  void put(int storageID, float values[]) {
+
+    removeClearedValues();
+
+    if (getSize(values) > maxBytes)
+      return;
+
+    final Key key = new Key(this, storageID);
+    final CachedValues cachedValues = new CachedValues(key, values);
+    addEntry(cachedValues);
+    removeEntry(entries.put(key, cachedValues));
+
+    if (currentBytes.get() > maxBytes)
+      evict();
+
+  }
+
+  /**
+   * Removes the data points of given storage ID from the cache
+   */
+  void remove(int storageID) {
+    removeEntry(entries.remove(new Key(this, storageID)));
+  }
+
+  /**
+   * Removes all data points of this cache
+   */
+  void clear() {
+    final Iterator<CachedValues> iterator = entries.values().iterator();
+    while ((numOfEntries.get() > 0) && iterator.hasNext()) {
+      final CachedValues cachedValues = iterator.next();
+      if ((cachedValues.key.cache == this) && entries.remove(cachedValues.key, cachedValues))
+        removeEntry(cachedValues);
+    }
+  }
+
+  public long getCurrentBytes() {
+    return ownBytes.get();
+  }
+
+  public int getNumberOfEntries() {
+    return numOfEntries.get();
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * Counts an entry which is put into the map
+   */
+  private static void addEntry(CachedValues cachedValues) {
+    cachedValues.key.cache.numOfEntries.incrementAndGet();
+    cachedValues.key.cache.ownBytes.addAndGet(cachedValues.size);
+    currentBytes.addAndGet(cachedValues.size);
+  }
+
+  /**
+   * Stops counting an entry which has been removed from the map. Only the thread whose put() or
+   * remove() has removed the entry from the map calls this, so each entry is counted once.
+   */
+  private static void removeEntry(CachedValues cachedValues) {
+    if (cachedValues == null)
+      return;
+    cachedValues.key.cache.numOfEntries.decrementAndGet();
+    cachedValues.key.cache.ownBytes.addAndGet(-cachedValues.size);
+    currentBytes.addAndGet(-cachedValues.size);
+  }
+
+  /**
+   * Evicts entries of all caches until the budget is met. The clock hand passes over the entries,
+   * entries which were referenced since the last pass are only unmarked.
+   */
+  private static void evict() {
+    synchronized (evictionLock) {
+      // Each entry is unmarked by the first pass, so two passes evict all unused entries
+      long remainingSteps = 2L * entries.size() + 2;
+      while ((currentBytes.get() > maxBytes) && (remainingSteps-- > 0)) {
+        if ((clockHand == null) || !clockHand.hasNext()) {
+          clockHand = entries.values().iterator();
+          if (!clockHand.hasNext())
+            break;
+        }
+        final CachedValues cachedValues = clockHand.next();
+        if (cachedValues.referenced && (cachedValues.get() != null)) {
+          cachedValues.referenced = false;
+          continue;
+        }
+        if (entries.remove(cachedValues.key, cachedValues)) {
+          removeEntry(cachedValues);
+          evictions.incrementAndGet();
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes the entries whose values were dropped by the garbage collector
+   */
+  private static void removeClearedValues() {
+    CachedValues cleared;
+    while ((cleared = (CachedValues) clearedValues.poll()) != null) {
+      // The entry may have been replaced or removed in the meantime
+      if (entries.remove(cleared.key, cleared))
+        removeEntry(cleared);
+    }
+  }
+
+  private static long getSize(float values[]) {
+    return values.length * 4L;
+  }
+
+  @Override
+  public String toString() {
+    return "Data points cache: " + getNumberOfEntries() + " entries, " + getCurrentBytes()
+        + " bytes (" + getTotalBytes() + " of " + getMaxBytes() + " bytes in all files), "
+        + getHits() + " hits, " + getMisses() + " misses, " + getEvictions()
+        + " evictions in all files";
+  }
+
+}
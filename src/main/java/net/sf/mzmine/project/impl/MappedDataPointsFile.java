@@ -0,0 +1,220 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Read-only, memory-mapped view of a data points (.scans) file. The data points may also start at
+ * an offset within a larger file, e.g. an uncompressed entry of a project ZIP file; all offsets
+ * passed to readDataPoints() are relative to that start. The file is mapped in segments of
+ * fixed size, because a single MappedByteBuffer cannot exceed 2 GB. Segments are mapped lazily and
+ * re-mapped when the underlying file has grown beyond the mapped part of a segment (new data points
+ * are always appended to the end of the file by RawDataFileImpl.storeDataPoints()).
+ *
+ * Reading uses only absolute get methods of the mapped buffers, which do not modify the buffer
+ * state, so any number of threads can read concurrently. They only share the read lock which keeps
+ * the segments from being unmapped by close() while they are read. Only the (rare) mapping of a new
+ * or grown segment is synchronized.
+ *
+ * Each data point takes 8 bytes (two floats) and the segment size is a multiple of 8, so a single
+ * float value never spans two segments.
+ */
+class MappedDataPointsFile {
+
+  // 256 MB segments, up to 4 TB in total
+  private static final int SEGMENT_SHIFT = 28;
+  private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+  private static final int MAX_SEGMENTS = 1 << 14;
+
+  private final FileChannel fileChannel;
+  private final long startOffset;
+  private final AtomicReferenceArray<MappedByteBuffer> segments;
+
+  // Segments which were re-mapped when the file has grown, unmapped by close()
+  private final List<MappedByteBuffer> replacedSegments = new ArrayList<>();
+
+  private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+  private boolean closed = false;
+
+  // Unmaps a mapped buffer immediately (sun.misc.Unsafe.invokeCleaner), null if not available
+  private static final Object unsafe;
+  private static final Method invokeCleaner;
+
+  static {
+    Object theUnsafe = null;
+    Method cleaner = null;
+    try {
+      final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      final Field theUnsafeField = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafeField.setAccessible(true);
+      theUnsafe = theUnsafeField.get(null);
+      cleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Mapped buffers are unmapped when they are garbage collected
+    }
+    unsafe = theUnsafe;
+    invokeCleaner = cleaner;
+  }
+
+  MappedDataPointsFile(FileChannel fileChannel) {
+    this(fileChannel, 0);
+  }
+
+  /**
+   * @param startOffset byte offset of the data points within the file
+   */
+  MappedDataPointsFile(FileChannel fileChannel, long startOffset) {
+    this.fileChannel = fileChannel;
+    this.startOffset = startOffset;
+    this.segments = new AtomicReferenceArray<>(MAX_SEGMENTS);
+  }
+
+  /**
+   * Reads numOfDataPoints pairs of (m/z, intensity) floats starting at the given byte offset into
+   * the given arrays.
+   *
+   * @return false if the file has been closed, so the data points have to be read otherwise
+   */
+  boolean readDataPoints(long offset, int numOfDataPoints, double mzValues[],
+      double intensityValues[]) throws IOException {
+
+    closeLock.readLock().lock();
+    try {
+
+      if (closed)
+        return false;
+
+      final long endOffset = offset + (long) numOfDataPoints * 2 * 4;
+      long position = offset;
+      int i = 0;
+
+      while (position < endOffset) {
+        final int segmentIndex = (int) (position >>> SEGMENT_SHIFT);
+        final long segmentEnd =
+            Math.min(endOffset, ((long) segmentIndex << SEGMENT_SHIFT) + SEGMENT_SIZE);
+        final MappedByteBuffer segment = getSegment(segmentIndex, segmentEnd);
+
+        int index = (int) (position & (SEGMENT_SIZE - 1));
+        while (position < segmentEnd) {
+          mzValues[i] = segment.getFloat(index);
+          intensityValues[i] = segment.getFloat(index + 4);
+          index += 8;
+          position += 8;
+          i++;
+        }
+      }
+
+      return true;
+
+    } finally {
+      closeLock.readLock().unlock();
+    }
+
+  }
+
+  /**
+   * Unmaps all segments, so the file can be deleted (on Windows, a mapped file cannot be deleted).
+   * Waits until the running reads have finished, later reads return false. The file channel is not
+   * closed.
+   */
+  void close() {
+
+    closeLock.writeLock().lock();
+    try {
+      if (closed)
+        return;
+      closed = true;
+      if (invokeCleaner == null)
+        return;
+      final List<MappedByteBuffer> mappedSegments = new ArrayList<>();
+      synchronized (this) {
+        mappedSegments.addAll(replacedSegments);
+        replacedSegments.clear();
+        for (int i = 0; i < segments.length(); i++) {
+          final MappedByteBuffer segment = segments.getAndSet(i, null);
+          if (segment != null)
+            mappedSegments.add(segment);
+        }
+      }
+      for (MappedByteBuffer segment : mappedSegments) {
+        try {
+          invokeCleaner.invoke(unsafe, segment);
+        } catch (ReflectiveOperationException e) {
+          // Unmapped when it is garbage collected
+        }
+      }
+    } finally {
+      closeLock.writeLock().unlock();
+    }
+
+  }
+
+  /**
+   * Returns the segment with given index, making sure it maps the file at least up to the given
+   * (absolute) end offset.
+   */
+  private MappedByteBuffer getSegment(int segmentIndex, long requiredEnd) throws IOException {
+    final long segmentStart = (long) segmentIndex << SEGMENT_SHIFT;
+    final long requiredLength = requiredEnd - segmentStart;
+    MappedByteBuffer segment = segments.get(segmentIndex);
+    if ((segment != null) && (segment.capacity() >= requiredLength))
+      return segment;
+    return mapSegment(segmentIndex, requiredLength);
+  }
+
+  private synchronized MappedByteBuffer mapSegment(int segmentIndex, long requiredLength)
+      throws IOException {
+
+    // Another thread may have mapped the segment in the meantime
+    MappedByteBuffer segment = segments.get(segmentIndex);
+    if ((segment != null) && (segment.capacity() >= requiredLength))
+      return segment;
+
+    final long segmentStart = (long) segmentIndex << SEGMENT_SHIFT;
+    final long fileLength = fileChannel.size();
+    final long mapLength = Math.min(SEGMENT_SIZE, fileLength - startOffset - segmentStart);
+    if (mapLength < requiredLength) {
+      throw new IOException("Data points file is shorter than expected (" + fileLength + " bytes)");
+    }
+
+    final MappedByteBuffer oldSegment = segment;
+    segment =
+        fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset + segmentStart, mapLength);
+    segments.set(segmentIndex, segment);
+
+    // Other threads may still read the old segment, so it is only unmapped by close()
+    if (oldSegment != null)
+      replacedSegments.add(oldSegment);
+
+    return segment;
+
+  }
+
+}
@@ -28,11 +28,14 @@ import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Nonnull;
@@ -49,12 +52,26 @@ import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 /**
  * RawDataFile implementation. It provides storage of data points for scans and mass lists using the
  * storeDataPoints() and readDataPoints() methods. The data points are stored in a temporary file
- * (dataPointsFile) and the structure of the file is stored in two TreeMaps. The dataPointsOffsets
+ * (dataPointsFile) and the structure of the file is stored in two sorted maps. The dataPointsOffsets
  * maps storage ID to the offset in the dataPointsFile. The dataPointsLength maps the storage ID to
  * the number of data points stored under this ID. When stored data points are deleted using
  * removeStoredDataPoints(), the dataPointsFile is not modified, the storage ID is just deleted from
- * the two TreeMaps. When the project is saved, the contents of the dataPointsFile are consolidated
- * - only data points referenced by the TreeMaps are saved (see the RawDataFileSaveHandler class).
+ * the two sorted maps. When the project is saved, the contents of the dataPointsFile are consolidated
+ * - only data points referenced by the sorted maps are saved (see the RawDataFileSaveHandler class).
+ * 
+ * By default, reading of data points is serialized on this instance, because all reads share a
+ * single RandomAccessFile. If the memory-mapped storage is enabled, the dataPointsFile is mapped
+ * into memory (see MappedDataPointsFile) and readDataPoints() can be called concurrently without
+ * locking. Writing is always serialized and appends to the end of the dataPointsFile, so both modes
+ * use the same file format.
+ * 
+ * Recently read data points are kept in a memory-bounded cache (see DataPointsCache), so repeated
+ * reading of the same scan or mass list does not need to decode the data again. The memory budget
+ * of the cache is shared by all raw data files, and reading from the cache takes no lock.
+ * 
+ * The data points may also be read in place from a part of another file, such as an uncompressed
+ * entry of a project ZIP file (see openReadOnlyDataPointsFile()). Such a file is never modified or
+ * removed. It is copied to a new temporary data points file before any data points are stored.
  */
 public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
@@ -68,13 +85,24 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
   private final Hashtable<Integer, int[]> scanNumbersCache;
 
   private ByteBuffer buffer = ByteBuffer.allocate(20000);
-  private final TreeMap<Integer, Long> dataPointsOffsets;
-  private final TreeMap<Integer, Integer> dataPointsLengths;
+  private final NavigableMap<Integer, Long> dataPointsOffsets;
+  private final NavigableMap<Integer, Integer> dataPointsLengths;
 
   // Temporary file for scan data storage
   private File dataPointsFileName;
   private RandomAccessFile dataPointsFile;
 
+  // Part of the dataPointsFile which holds the data points, if it is opened read-only
+  private boolean dataPointsReadOnly = false;
+  private long dataPointsStart = 0, dataPointsLength = 0;
+
+  // Memory-mapped view of the dataPointsFile, null if memory mapping is disabled
+  private final boolean useMemoryMapping;
+  private volatile MappedDataPointsFile mappedDataPointsFile;
+
+  // Cache of recently read data points
+  private final DataPointsCache dataPointsCache;
+
   // To store mass lists that have been added but not yet reflected in the GUI by the
   // notifyUpdatedMassLists() method
   private final List<MassList> newMassLists = new ArrayList<>();
@@ -84,9 +112,26 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
    */
   private final Hashtable<Integer, StorableScan> scans;
 
+  // Retention time index of the scans of each MS level, null if it has to be (re)built
+  private volatile Map<Integer, ScanRTIndex> scanRTIndex;
+
+  // m/z binned intensities of all scans, null until it is first used or if it has to be rebuilt
+  private volatile ChromatogramIndex chromatogramIndex;
+  private final Object chromatogramIndexLock = new Object();
+
   public RawDataFileImpl(String dataFileName) throws IOException {
+    this(dataFileName, false);
+  }
+
+  /**
+   * @param useMemoryMapping if true, data points are read from a memory-mapped view of the data
+   *        points file, allowing concurrent reading without locking
+   */
+  public RawDataFileImpl(String dataFileName, boolean useMemoryMapping) throws IOException {
 
     this.dataFileName = dataFileName;
+    this.useMemoryMapping = useMemoryMapping;
+    this.dataPointsCache = new DataPointsCache();
 
     // Prepare the hashtables for scan numbers and data limits.
     scanNumbersCache = new Hashtable<Integer, int[]>();
@@ -95,8 +140,8 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     dataMaxBasePeakIntensity = new Hashtable<Integer, Double>();
     dataMaxTIC = new Hashtable<Integer, Double>();
     scans = new Hashtable<Integer, StorableScan>();
-    dataPointsOffsets = new TreeMap<Integer, Long>();
-    dataPointsLengths = new TreeMap<Integer, Integer>();
+    dataPointsOffsets = new ConcurrentSkipListMap<Integer, Long>();
+    dataPointsLengths = new ConcurrentSkipListMap<Integer, Integer>();
 
   }
 
@@ -122,7 +167,7 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
   /**
    * Opens the given file as a data points file for this RawDataFileImpl instance. If the file is
-   * not empty, the TreeMaps supplied as parameters have to describe the mapping of storage IDs to
+   * not empty, the maps supplied as parameters have to describe the mapping of storage IDs to
    * data points in the file.
    */
   public synchronized void openDataPointsFile(File dataPointsFileName) throws IOException {
@@ -149,6 +194,105 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     // shutdown hook registered in the main.ShutDownHook class
     dataPointsFileName.deleteOnExit();
 
+    if (useMemoryMapping)
+      mappedDataPointsFile = new MappedDataPointsFile(dataPointsFile.getChannel());
+
+  }
+
+  /**
+   * Opens given part of an existing file as the data points file of this RawDataFileImpl instance,
+   * without copying it. The file is opened read-only and it is not removed when this instance is
+   * closed. As in openDataPointsFile(), the maps of storage IDs have to describe the data points,
+   * with offsets relative to the start of the part.
+   */
+  public synchronized void openReadOnlyDataPointsFile(File file, long start, long length)
+      throws IOException {
+
+    if (this.dataPointsFile != null) {
+      throw new IOException("Cannot open another data points file, because one is already open");
+    }
+
+    this.dataPointsFileName = file;
+    this.dataPointsFile = new RandomAccessFile(file, "r");
+    this.dataPointsReadOnly = true;
+    this.dataPointsStart = start;
+    this.dataPointsLength = length;
+
+    if (useMemoryMapping)
+      mappedDataPointsFile = new MappedDataPointsFile(dataPointsFile.getChannel(), start);
+
+  }
+
+  /**
+   * Returns the file whose part is read in place by openReadOnlyDataPointsFile(), or null if the
+   * data points file is a temporary file
+   */
+  public synchronized @Nullable File getReadOnlyDataPointsFile() {
+    return dataPointsReadOnly ? dataPointsFileName : null;
+  }
+
+  /**
+   * Returns the byte offset of the data points within the data points file. It is only non-zero if
+   * the data points are read in place, see openReadOnlyDataPointsFile().
+   */
+  public synchronized long getDataPointsStart() {
+    return dataPointsStart;
+  }
+
+  /**
+   * Copies the data points which are read in place (see openReadOnlyDataPointsFile()) to a new
+   * temporary data points file, which is used from now on. Does nothing if the data points file is
+   * already a temporary file.
+   */
+  public synchronized void copyReadOnlyDataPointsFile() throws IOException {
+
+    if (!dataPointsReadOnly)
+      return;
+
+    logger.finest("Copying the data points of " + dataFileName + " from " + dataPointsFileName);
+
+    final File newFileName = createNewDataPointsFile();
+    try (RandomAccessFile newFile = new RandomAccessFile(newFileName, "rw")) {
+      final FileChannel source = dataPointsFile.getChannel(), target = newFile.getChannel();
+      long copiedBytes = 0;
+      while (copiedBytes < dataPointsLength) {
+        final long bytes = source.transferTo(dataPointsStart + copiedBytes,
+            dataPointsLength - copiedBytes, target);
+        if ((bytes <= 0) && (dataPointsStart + copiedBytes >= source.size()))
+          throw new IOException("Data points file " + dataPointsFileName + " is truncated");
+        copiedBytes += bytes;
+      }
+    }
+
+    // Readers of the memory-mapped view fall back to the synchronized reading until the new file
+    // is open
+    final MappedDataPointsFile readOnlyMappedFile = mappedDataPointsFile;
+    mappedDataPointsFile = null;
+    if (readOnlyMappedFile != null)
+      readOnlyMappedFile.close();
+    final RandomAccessFile readOnlyFile = dataPointsFile;
+    dataPointsFile = null;
+    dataPointsReadOnly = false;
+    dataPointsStart = 0;
+    dataPointsLength = 0;
+    readOnlyFile.close();
+
+    openDataPointsFile(newFileName);
+
+  }
+
+  /**
+   * Returns true if data points are read from a memory-mapped view of the data points file
+   */
+  public boolean isMemoryMapped() {
+    return useMemoryMapping;
+  }
+
+  /**
+   * Returns the cache of decoded data points, which provides hit, miss and eviction counts
+   */
+  public @Nonnull DataPointsCache getDataPointsCache() {
+    return dataPointsCache;
   }
 
   /**
@@ -188,20 +332,62 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
     assert rtRange != null;
 
-    ArrayList<Integer> eligibleScanNumbers = new ArrayList<Integer>();
+    ScanRTIndex index = getScanRTIndex().get(msLevel);
+    if (index == null)
+      return new int[0];
 
-    Enumeration<StorableScan> scansEnum = scans.elements();
-    while (scansEnum.hasMoreElements()) {
-      Scan scan = scansEnum.nextElement();
+    return index.getScanNumbers(rtRange);
+  }
 
-      if ((scan.getMSLevel() == msLevel) && (rtRange.contains(scan.getRetentionTime())))
-        eligibleScanNumbers.add(scan.getScanNumber());
+  /**
+   * Returns the retention time index of all MS levels, building it if necessary
+   */
+  private Map<Integer, ScanRTIndex> getScanRTIndex() {
+    Map<Integer, ScanRTIndex> index = scanRTIndex;
+    if (index == null)
+      index = buildScanRTIndex();
+    return index;
+  }
+
+  private synchronized Map<Integer, ScanRTIndex> buildScanRTIndex() {
+
+    if (scanRTIndex != null)
+      return scanRTIndex;
+
+    Map<Integer, List<Scan>> scansByMSLevel = new HashMap<>();
+    for (Scan scan : scans.values()) {
+      scansByMSLevel.computeIfAbsent(scan.getMSLevel(), l -> new ArrayList<>()).add(scan);
     }
 
-    int[] numbersArray = Ints.toArray(eligibleScanNumbers);
-    Arrays.sort(numbersArray);
+    Map<Integer, ScanRTIndex> index = new HashMap<>();
+    for (Map.Entry<Integer, List<Scan>> entry : scansByMSLevel.entrySet()) {
+      index.put(entry.getKey(), new ScanRTIndex(entry.getValue()));
+    }
 
-    return numbersArray;
+    scanRTIndex = index;
+    return index;
+
+  }
+
+  /**
+   * Returns the chromatogram index of all scans, building it on first use. Building the index reads
+   * the data points of all scans once.
+   */
+  public @Nonnull ChromatogramIndex getChromatogramIndex() {
+    ChromatogramIndex index = chromatogramIndex;
+    if (index != null)
+      return index;
+    // Not synchronized on this instance, so reading of the data points is not blocked during
+    // the build
+    synchronized (chromatogramIndexLock) {
+      if (chromatogramIndex == null) {
+        final long startTime = System.currentTimeMillis();
+        chromatogramIndex = new ChromatogramIndex(this);
+        logger.finest("Chromatogram index of " + dataFileName + " built in "
+            + (System.currentTimeMillis() - startTime) + " ms");
+      }
+      return chromatogramIndex;
+    }
   }
 
   /**
@@ -326,6 +512,9 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
       openDataPointsFile(newFile);
     }
 
+    // Data points read in place must not be modified
+    copyReadOnlyDataPointsFile();
+
     final long currentOffset = dataPointsFile.length();
 
     final int currentID;
@@ -358,14 +547,46 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     dataPointsFile.seek(currentOffset);
     dataPointsFile.write(buffer.array(), 0, numOfBytes);
 
-    dataPointsOffsets.put(currentID, currentOffset);
+    // The ID of removed data points may be reused, make sure nothing stale is cached
+    dataPointsCache.remove(currentID);
+
+    // Lengths first, so concurrent readers never see an offset without a length
     dataPointsLengths.put(currentID, numOfDataPoints);
+    dataPointsOffsets.put(currentID, currentOffset);
 
     return currentID;
 
   }
 
-  public synchronized DataPoint[] readDataPoints(int ID) throws IOException {
+  public DataPoint[] readDataPoints(int ID) throws IOException {
+
+    final Integer numOfDataPoints = dataPointsLengths.get(ID);
+    if (numOfDataPoints == null) {
+      throw new IllegalArgumentException("Unknown storage ID " + ID);
+    }
+
+    final double mzValues[] = new double[numOfDataPoints];
+    final double intensityValues[] = new double[numOfDataPoints];
+    readDataPoints(ID, mzValues, intensityValues);
+
+    DataPoint dataPoints[] = new DataPoint[numOfDataPoints];
+    for (int i = 0; i < numOfDataPoints; i++) {
+      dataPoints[i] = new SimpleDataPoint(mzValues[i], intensityValues[i]);
+    }
+
+    return dataPoints;
+
+  }
+
+  /**
+   * Reads the data points stored under given storage ID directly into the given m/z and intensity
+   * arrays, without creating DataPoint instances. The arrays must have at least
+   * getNumOfStoredDataPoints(ID) elements.
+   * 
+   * @return Number of data points read
+   */
+  public int readDataPoints(int ID, double mzValues[], double intensityValues[])
+      throws IOException {
 
     final Long currentOffset = dataPointsOffsets.get(ID);
     final Integer numOfDataPoints = dataPointsLengths.get(ID);
@@ -374,6 +595,41 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
       throw new IllegalArgumentException("Unknown storage ID " + ID);
     }
 
+    if (dataPointsCache.isEnabled()) {
+      final float cachedValues[] = dataPointsCache.get(ID);
+      if (cachedValues != null) {
+        for (int i = 0; i < numOfDataPoints; i++) {
+          mzValues[i] = cachedValues[i * 2];
+          intensityValues[i] = cachedValues[i * 2 + 1];
+        }
+        return numOfDataPoints;
+      }
+    }
+
+    // The memory-mapped view returns false if it has been closed in the meantime
+    final MappedDataPointsFile mappedFile = mappedDataPointsFile;
+    if ((mappedFile == null)
+        || !mappedFile.readDataPoints(currentOffset, numOfDataPoints, mzValues, intensityValues))
+      readDataPointsFromFile(currentOffset, numOfDataPoints, mzValues, intensityValues);
+
+    if (dataPointsCache.isEnabled()) {
+      final float values[] = new float[numOfDataPoints * 2];
+      for (int i = 0; i < numOfDataPoints; i++) {
+        values[i * 2] = (float) mzValues[i];
+        values[i * 2 + 1] = (float) intensityValues[i];
+      }
+      // Do not cache data points that were removed while we were reading them
+      if (currentOffset.equals(dataPointsOffsets.get(ID)))
+        dataPointsCache.put(ID, values);
+    }
+
+    return numOfDataPoints;
+
+  }
+
+  private synchronized void readDataPointsFromFile(long currentOffset, int numOfDataPoints,
+      double mzValues[], double intensityValues[]) throws IOException {
+
     final int numOfBytes = numOfDataPoints * 2 * 4;
 
     if (buffer.capacity() < numOfBytes) {
@@ -384,26 +640,30 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
       ((Buffer) buffer).clear();
     }
 
-    dataPointsFile.seek(currentOffset);
+    dataPointsFile.seek(dataPointsStart + currentOffset);
     dataPointsFile.read(buffer.array(), 0, numOfBytes);
 
     FloatBuffer floatBuffer = buffer.asFloatBuffer();
 
-    DataPoint dataPoints[] = new DataPoint[numOfDataPoints];
-
     for (int i = 0; i < numOfDataPoints; i++) {
-      float mz = floatBuffer.get();
-      float intensity = floatBuffer.get();
-      dataPoints[i] = new SimpleDataPoint(mz, intensity);
+      mzValues[i] = floatBuffer.get();
+      intensityValues[i] = floatBuffer.get();
     }
 
-    return dataPoints;
+  }
 
+  /**
+   * Returns the number of data points stored under given storage ID, or 0 if the ID is unknown
+   */
+  public int getNumOfStoredDataPoints(int ID) {
+    final Integer numOfDataPoints = dataPointsLengths.get(ID);
+    return numOfDataPoints == null ? 0 : numOfDataPoints;
   }
 
   public synchronized void removeStoredDataPoints(int ID) throws IOException {
     dataPointsOffsets.remove(ID);
     dataPointsLengths.remove(ID);
+    dataPointsCache.remove(ID);
   }
 
   @Override
@@ -411,6 +671,9 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
     // When we are loading the project, scan data file is already prepare
     // and we just need store the reference
+    scanRTIndex = null;
+    chromatogramIndex = null;
+
     if (newScan instanceof StorableScan) {
       scans.put(newScan.getScanNumber(), (StorableScan) newScan);
       return;
@@ -433,6 +696,8 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     for (StorableScan scan : scans.values()) {
       scan.updateValues();
     }
+    scanRTIndex = null;
+    buildScanRTIndex();
     logger.finest("Writing of scans to file " + dataPointsFileName + " finished");
     return this;
   }
@@ -524,20 +789,28 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     return getScanNumbers(msLevel).length;
   }
 
-  public synchronized TreeMap<Integer, Long> getDataPointsOffsets() {
+  public synchronized NavigableMap<Integer, Long> getDataPointsOffsets() {
     return dataPointsOffsets;
   }
 
-  public synchronized TreeMap<Integer, Integer> getDataPointsLengths() {
+  public synchronized NavigableMap<Integer, Integer> getDataPointsLengths() {
     return dataPointsLengths;
   }
 
   @Override
   public synchronized void close() {
     try {
+      logger.finest(dataFileName + ": " + dataPointsCache);
+      dataPointsCache.clear();
       if (dataPointsFileName != null) {
+        // The file cannot be deleted on Windows while it is still mapped
+        final MappedDataPointsFile mappedFile = mappedDataPointsFile;
+        mappedDataPointsFile = null;
+        if (mappedFile != null)
+          mappedFile.close();
         dataPointsFile.close();
-        dataPointsFileName.delete();
+        if (!dataPointsReadOnly)
+          dataPointsFileName.delete();
       }
     } catch (IOException e) {
       logger.warning("Could not close file " + dataPointsFileName + ": " + e.toString());
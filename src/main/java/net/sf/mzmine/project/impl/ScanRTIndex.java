@@ -0,0 +1,132 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.util.Arrays;
+import java.util.Collection;
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Range;
+import net.sf.mzmine.datamodel.Scan;
+
+/**
+ * Immutable index of the scans of one MS level, sorted by retention time. Answers retention time
+ * range queries by binary search. The results are sorted by scan number, as returned by
+ * RawDataFile.getScanNumbers(int, Range).
+ */
+class ScanRTIndex {
+
+  // Scan numbers sorted by retention time (ties sorted by scan number) and their retention times
+  private final int scanNumbersByRT[];
+  private final double retentionTimes[];
+
+  // All scan numbers sorted by scan number
+  private final int scanNumbers[];
+
+  // True if the retention times increase with scan numbers, so both orders are identical
+  private final boolean rtOrderEqualsScanOrder;
+
+  ScanRTIndex(Collection<? extends Scan> scans) {
+
+    final Scan sortedScans[] = scans.toArray(new Scan[0]);
+    Arrays.sort(sortedScans, (s1, s2) -> {
+      int result = Double.compare(s1.getRetentionTime(), s2.getRetentionTime());
+      if (result == 0)
+        result = Integer.compare(s1.getScanNumber(), s2.getScanNumber());
+      return result;
+    });
+
+    scanNumbersByRT = new int[sortedScans.length];
+    retentionTimes = new double[sortedScans.length];
+    boolean increasing = true;
+    for (int i = 0; i < sortedScans.length; i++) {
+      scanNumbersByRT[i] = sortedScans[i].getScanNumber();
+      retentionTimes[i] = sortedScans[i].getRetentionTime();
+      if ((i > 0) && (scanNumbersByRT[i] < scanNumbersByRT[i - 1]))
+        increasing = false;
+    }
+    rtOrderEqualsScanOrder = increasing;
+
+    if (rtOrderEqualsScanOrder) {
+      scanNumbers = scanNumbersByRT;
+    } else {
+      scanNumbers = scanNumbersByRT.clone();
+      Arrays.sort(scanNumbers);
+    }
+
+  }
+
+  /**
+   * Returns the numbers of scans within given retention time range, sorted by scan number. The
+   * returned array is always a new array, so callers may modify it.
+   */
+  int[] getScanNumbers(Range<Double> rtRange) {
+
+    final int from = rtRange.hasLowerBound()
+        ? (rtRange.lowerBoundType() == BoundType.CLOSED ? lowerBound(rtRange.lowerEndpoint())
+            : upperBound(rtRange.lowerEndpoint()))
+        : 0;
+    final int to = rtRange.hasUpperBound()
+        ? (rtRange.upperBoundType() == BoundType.CLOSED ? upperBound(rtRange.upperEndpoint())
+            : lowerBound(rtRange.upperEndpoint()))
+        : retentionTimes.length;
+
+    if (from >= to)
+      return new int[0];
+
+    if ((from == 0) && (to == retentionTimes.length))
+      return scanNumbers.clone();
+
+    final int result[] = Arrays.copyOfRange(scanNumbersByRT, from, to);
+    if (!rtOrderEqualsScanOrder)
+      Arrays.sort(result);
+    return result;
+
+  }
+
+  /**
+   * Returns the index of the first retention time >= rt
+   */
+  private int lowerBound(double rt) {
+    int low = 0, high = retentionTimes.length;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (retentionTimes[middle] < rt)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  /**
+   * Returns the index of the first retention time > rt
+   */
+  private int upperBound(double rt) {
+    int low = 0, high = retentionTimes.length;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (retentionTimes[middle] <= rt)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+}
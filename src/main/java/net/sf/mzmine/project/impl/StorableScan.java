@@ -35,6 +35,7 @@ import net.sf.mzmine.datamodel.MassSpectrumType;
 import net.sf.mzmine.datamodel.PolarityType;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.desktop.impl.projecttree.RawDataTreeModel;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.util.scans.ScanUtils;
@@ -127,30 +128,44 @@ public class StorableScan implements Scan {
 
   }
 
+  /**
+   * Reads the scan's m/z and intensity values from temporary file, without creating DataPoint
+   * instances.
+   */
+  @Override
+  public int getDataPoints(@Nonnull double mzValues[], @Nonnull double intensityValues[]) {
+    try {
+      return rawDataFile.readDataPoints(storageID, mzValues, intensityValues);
+    } catch (IOException e) {
+      logger.severe("Could not read data from temporary file " + e.toString());
+      return 0;
+    }
+  }
+
   /**
    * @return Returns scan datapoints within a given range
    */
   public @Nonnull DataPoint[] getDataPointsByMass(@Nonnull Range<Double> mzRange) {
 
-    DataPoint dataPoints[] = getDataPoints();
+    final double mzValues[] = new double[numberOfDataPoints];
+    final double intensityValues[] = new double[numberOfDataPoints];
+    final int numOfDataPoints = getDataPoints(mzValues, intensityValues);
 
-    int startIndex, endIndex;
-    for (startIndex = 0; startIndex < dataPoints.length; startIndex++) {
-      if (dataPoints[startIndex].getMZ() >= mzRange.lowerEndpoint()) {
-        break;
-      }
-    }
+    final int startIndex =
+        ScanUtils.findFirstMzIndex(mzValues, numOfDataPoints, mzRange.lowerEndpoint());
 
-    for (endIndex = startIndex; endIndex < dataPoints.length; endIndex++) {
-      if (dataPoints[endIndex].getMZ() > mzRange.upperEndpoint()) {
+    int endIndex;
+    for (endIndex = startIndex; endIndex < numOfDataPoints; endIndex++) {
+      if (mzValues[endIndex] > mzRange.upperEndpoint()) {
         break;
       }
     }
 
+    // Create only the relevant points
     DataPoint pointsWithinRange[] = new DataPoint[endIndex - startIndex];
-
-    // Copy the relevant points
-    System.arraycopy(dataPoints, startIndex, pointsWithinRange, 0, endIndex - startIndex);
+    for (int i = startIndex; i < endIndex; i++) {
+      pointsWithinRange[i - startIndex] = new SimpleDataPoint(mzValues[i], intensityValues[i]);
+    }
 
     return pointsWithinRange;
   }
@@ -225,26 +240,31 @@ public class StorableScan implements Scan {
   }
 
   void updateValues() {
-    DataPoint dataPoints[] = getDataPoints();
+    final double mzValues[] = new double[numberOfDataPoints];
+    final double intensityValues[] = new double[numberOfDataPoints];
+    final int numOfDataPoints = getDataPoints(mzValues, intensityValues);
 
     // find m/z range and base peak
-    if (dataPoints.length > 0) {
+    if (numOfDataPoints > 0) {
 
-      basePeak = dataPoints[0];
-      mzRange = Range.singleton(dataPoints[0].getMZ());
+      int basePeakIndex = 0;
+      double minMZ = mzValues[0], maxMZ = mzValues[0];
       double tic = 0;
 
-      for (DataPoint dp : dataPoints) {
+      for (int i = 0; i < numOfDataPoints; i++) {
 
-        if (dp.getIntensity() > basePeak.getIntensity())
-          basePeak = dp;
+        if (intensityValues[i] > intensityValues[basePeakIndex])
+          basePeakIndex = i;
 
-        mzRange = mzRange.span(Range.singleton(dp.getMZ()));
+        minMZ = Math.min(minMZ, mzValues[i]);
+        maxMZ = Math.max(maxMZ, mzValues[i]);
 
-        tic += dp.getIntensity();
+        tic += intensityValues[i];
 
       }
 
+      basePeak = new SimpleDataPoint(mzValues[basePeakIndex], intensityValues[basePeakIndex]);
+      mzRange = Range.closed(minMZ, maxMZ);
       totalIonCurrent = new Double(tic);
 
     } else {
@@ -35,6 +35,24 @@ public interface TaskController {
 
   public void setTaskPriority(Task task, TaskPriority priority);
 
+  /**
+   * Waits until all given tasks are finished, canceled or stopped by an error, but at most for the
+   * given time in ms (0 = no limit). A task running in a worker thread of this controller does not
+   * occupy its thread slot while waiting, so the tasks it waits for can run meanwhile.
+   * 
+   * @return true if all given tasks are done
+   */
+  public boolean joinTasks(Task tasks[], long timeout);
+
+  /**
+   * Waits until any of the given tasks is finished, canceled or stopped by an error, but at most for
+   * the given time in ms (0 = no limit). As in joinTasks(), a waiting task does not occupy its
+   * thread slot.
+   * 
+   * @return true if any given task is done
+   */
+  public boolean joinAnyTask(Task tasks[], long timeout);
+
   public void addTaskControlListener(TaskControlListener listener);
 
   public TaskQueue getTaskQueue();
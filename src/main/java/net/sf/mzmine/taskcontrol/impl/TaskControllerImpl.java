@@ -21,9 +21,10 @@ package net.sf.mzmine.taskcontrol.impl;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
-import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.logging.Logger;
 import net.sf.mzmine.desktop.preferences.MZminePreferences;
 import net.sf.mzmine.desktop.preferences.NumOfThreadsParameter;
@@ -54,10 +55,13 @@ public class TaskControllerImpl implements TaskController, Runnable {
   private TaskQueue taskQueue;
 
   /**
-   * This vector contains references to all running threads of NORMAL priority. Maximum number of
-   * concurrent threads is specified in the preferences dialog.
+   * Work-stealing pool which runs the tasks of NORMAL priority. Its parallelism is the maximum
+   * number of concurrent threads specified in the preferences dialog. Tasks submitted by a task
+   * running in the pool go to the queue of its worker, from which idle workers steal them. A task
+   * waiting in joinTasks() is compensated by the pool, so it does not occupy a thread slot.
    */
-  private Vector<WorkerThread> runningThreads;
+  private ForkJoinPool workerPool;
+  private int workerPoolParallelism;
 
   /**
    * Initialize the task controller
@@ -66,10 +70,8 @@ public class TaskControllerImpl implements TaskController, Runnable {
 
     taskQueue = new TaskQueue();
 
-    runningThreads = new Vector<WorkerThread>();
-
-    // Create a low-priority thread that will manage the queue and start
-    // worker threads for tasks
+    // Create a low-priority thread that will update the queue and the
+    // task progress window
     taskControllerThread = new Thread(this, "Task controller thread");
     taskControllerThread.setPriority(Thread.MIN_PRIORITY);
     taskControllerThread.start();
@@ -121,6 +123,7 @@ public class TaskControllerImpl implements TaskController, Runnable {
       uniqueTaskClasses.add(taskClassName);
       WrappedTask newQueueEntry = new WrappedTask(task, priority);
       taskQueue.addWrappedTask(newQueueEntry);
+      startTask(newQueueEntry);
     }
 
     // Track module usage
@@ -178,61 +181,156 @@ public class TaskControllerImpl implements TaskController, Runnable {
         continue;
       }
 
-      // Remove already finished threads from runningThreads
-      Iterator<WorkerThread> threadIterator = runningThreads.iterator();
-      while (threadIterator.hasNext()) {
-        WorkerThread thread = threadIterator.next();
-        if (thread.isFinished())
-          threadIterator.remove();
-      }
-
-      // Get a snapshot of the queue
-      WrappedTask[] queueSnapshot = taskQueue.getQueueSnapshot();
-
-      // Obtain the settings of max concurrent threads
-      NumOfThreadsParameter parameter = MZmineCore.getConfiguration().getPreferences()
-          .getParameter(MZminePreferences.numOfThreads);
-      int maxRunningThreads;
-      if (parameter.isAutomatic() || (parameter.getValue() == null))
-        maxRunningThreads = Runtime.getRuntime().availableProcessors();
-      else
-        maxRunningThreads = parameter.getValue();
-
-      // Check all tasks in the queue
-      for (WrappedTask task : queueSnapshot) {
-
-        // Skip assigned and canceled tasks
-        if (task.isAssigned() || (task.getActualTask().getStatus() == TaskStatus.CANCELED))
-          continue;
-
-        // Create a new thread if the task is high-priority or if we
-        // have less then maximum # of threads running
-        if ((task.getPriority() == TaskPriority.HIGH)
-            || (runningThreads.size() < maxRunningThreads)) {
-          WorkerThread newThread = new WorkerThread(task);
-
-          if (task.getPriority() == TaskPriority.NORMAL) {
-            runningThreads.add(newThread);
-          }
+      // Tell the queue to refresh the Task progress window
+      taskQueue.refresh();
 
-          newThread.start();
+      // Sleep until a task is added or finished, but refresh the progress at least every 300 ms
+      synchronized (this) {
+        try {
+          this.wait(TASKCONTROLLER_THREAD_SLEEP);
+        } catch (InterruptedException e) {
+          // Ignore
         }
       }
 
-      // Tell the queue to refresh the Task progress window
-      taskQueue.refresh();
+    }
+
+  }
+
+  /**
+   * Starts given task right away, in its own thread if the task is high-priority, otherwise in the
+   * worker pool
+   */
+  private void startTask(WrappedTask task) {
+
+    // Skip assigned and canceled tasks
+    if (task.isAssigned() || (task.getActualTask().getStatus() == TaskStatus.CANCELED))
+      return;
+
+    if (task.getPriority() == TaskPriority.HIGH) {
+      WorkerThread newThread = new WorkerThread(task, this::taskFinished);
+      if (task.assignTo(newThread))
+        newThread.start();
+      return;
+    }
+
+    final ForkJoinPool pool = getWorkerPool();
+    final ForkJoinTask<?> job = ForkJoinTask.adapt(() -> {
+      // The task may have been canceled, or started in its own thread after its priority was
+      // raised, while it was waiting in the pool
+      if ((task.getActualTask().getStatus() == TaskStatus.CANCELED)
+          || !task.assignTo(Thread.currentThread()))
+        return;
+      WorkerThread.processTask(task);
+      taskFinished();
+    });
+
+    // Tasks submitted from a worker are queued locally, so idle workers can steal them
+    if (ForkJoinTask.getPool() == pool)
+      job.fork();
+    else
+      pool.execute(job);
+
+  }
+
+  /**
+   * Wakes up the task controller thread and all tasks waiting in joinTasks()
+   */
+  private synchronized void taskFinished() {
+    this.notifyAll();
+  }
 
-      // Sleep for a while until next update
-      try {
-        Thread.sleep(TASKCONTROLLER_THREAD_SLEEP);
-      } catch (InterruptedException e) {
-        // Ignore
+  /**
+   * Returns the worker pool, which is replaced if the maximum number of threads was changed in the
+   * preferences. The previous pool still finishes all tasks submitted to it.
+   */
+  private synchronized ForkJoinPool getWorkerPool() {
+
+    // Obtain the settings of max concurrent threads
+    NumOfThreadsParameter parameter = MZmineCore.getConfiguration().getPreferences()
+        .getParameter(MZminePreferences.numOfThreads);
+    int maxRunningThreads;
+    if (parameter.isAutomatic() || (parameter.getValue() == null))
+      maxRunningThreads = Runtime.getRuntime().availableProcessors();
+    else
+      maxRunningThreads = parameter.getValue();
+
+    if ((workerPool == null) || (workerPoolParallelism != maxRunningThreads)) {
+      if (workerPool != null)
+        workerPool.shutdown();
+      workerPool = new ForkJoinPool(maxRunningThreads, pool -> {
+        ForkJoinWorkerThread thread =
+            ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("Task worker thread " + thread.getPoolIndex());
+        return thread;
+      }, null, true);
+      workerPoolParallelism = maxRunningThreads;
+    }
+    return workerPool;
+
+  }
+
+  @Override
+  public boolean joinTasks(Task tasks[], long timeout) {
+    return join(tasks, false, timeout);
+  }
+
+  @Override
+  public boolean joinAnyTask(Task tasks[], long timeout) {
+    return join(tasks, true, timeout);
+  }
+
+  /**
+   * Waits until all (or any) given tasks are done, see joinTasks()
+   */
+  private boolean join(Task tasks[], boolean any, long timeout) {
+
+    final long deadline = (timeout > 0) ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+
+    ForkJoinPool.ManagedBlocker blocker = new ForkJoinPool.ManagedBlocker() {
+
+      @Override
+      public boolean isReleasable() {
+        return tasksDone(tasks, any) || (System.currentTimeMillis() >= deadline);
+      }
+
+      @Override
+      public boolean block() throws InterruptedException {
+        synchronized (TaskControllerImpl.this) {
+          // Task statuses may also change without a task finishing, e.g. when a waiting task is
+          // canceled, so check them at least every 300 ms
+          if (!isReleasable()) {
+            long waitTime = Math.min(deadline - System.currentTimeMillis(),
+                TASKCONTROLLER_THREAD_SLEEP);
+            TaskControllerImpl.this.wait(Math.max(1, waitTime));
+          }
+        }
+        return isReleasable();
       }
+    };
 
+    try {
+      ForkJoinPool.managedBlock(blocker);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
+    return tasksDone(tasks, any);
 
   }
 
+  /**
+   * Returns true if all given tasks are done, or if any is done if any is true
+   */
+  private static boolean tasksDone(Task tasks[], boolean any) {
+    for (Task task : tasks) {
+      TaskStatus status = task.getStatus();
+      final boolean done = (status != TaskStatus.WAITING) && (status != TaskStatus.PROCESSING);
+      if (done == any)
+        return any;
+    }
+    return !any;
+  }
+
   @Override
   public void setTaskPriority(Task task, TaskPriority priority) {
 
@@ -247,6 +345,10 @@ public class TaskControllerImpl implements TaskController, Runnable {
             "Setting priority of task \"" + task.getTaskDescription() + "\" to " + priority);
         wrappedTask.setPriority(priority);
 
+        // A waiting task raised to high priority starts right away
+        if (priority == TaskPriority.HIGH)
+          startTask(wrappedTask);
+
         // Call refresh to re-sort the queue according to new priority
         // and update the Task progress window
         taskQueue.refresh();
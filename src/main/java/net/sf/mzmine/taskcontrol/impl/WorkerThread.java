@@ -27,25 +27,35 @@ import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExceptionUtils;
 
 /**
- * Task controller worker thread, this thread will process one task and then finish
+ * Task controller worker thread, this thread will process one high-priority task and then finish.
+ * Tasks of normal priority are processed by the worker pool of the task controller, also using
+ * processTask().
  */
 class WorkerThread extends Thread {
 
-  private Logger logger = Logger.getLogger(this.getClass().getName());
+  private static final Logger logger = Logger.getLogger(WorkerThread.class.getName());
 
-  private WrappedTask wrappedTask;
-  private boolean finished = false;
+  private final WrappedTask wrappedTask;
+  private final Runnable finishedCallback;
 
-  WorkerThread(WrappedTask wrappedTask) {
+  WorkerThread(WrappedTask wrappedTask, Runnable finishedCallback) {
     super("Thread executing task " + wrappedTask);
     this.wrappedTask = wrappedTask;
-    wrappedTask.assignTo(this);
+    this.finishedCallback = finishedCallback;
   }
 
   /**
    * @see java.lang.Runnable#run()
    */
   public void run() {
+    processTask(wrappedTask);
+    finishedCallback.run();
+  }
+
+  /**
+   * Processes given task in the current thread and reports its errors
+   */
+  static void processTask(WrappedTask wrappedTask) {
 
     Task actualTask = wrappedTask.getActualTask();
 
@@ -100,15 +110,6 @@ class WorkerThread extends Thread {
 
     }
 
-    /*
-     * Mark this thread as finished
-     */
-    finished = true;
-
-  }
-
-  boolean isFinished() {
-    return finished;
   }
 
 }
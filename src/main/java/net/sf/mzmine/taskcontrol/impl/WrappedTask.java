@@ -28,7 +28,7 @@ public class WrappedTask {
 
   private Task task;
   private TaskPriority priority;
-  private WorkerThread assignedTo;
+  private Thread assignedTo;
 
   WrappedTask(Task task, TaskPriority priority) {
     this.task = task;
@@ -47,7 +47,8 @@ public class WrappedTask {
    */
   void setPriority(TaskPriority priority) {
     this.priority = priority;
-    if (assignedTo != null) {
+    // Only a dedicated thread may change its priority, not a shared worker of the pool
+    if (assignedTo instanceof WorkerThread) {
       switch (priority) {
         case HIGH:
           assignedTo.setPriority(Thread.MAX_PRIORITY);
@@ -62,12 +63,20 @@ public class WrappedTask {
   /**
    * @return Returns the assigned.
    */
-  boolean isAssigned() {
+  synchronized boolean isAssigned() {
     return assignedTo != null;
   }
 
-  void assignTo(WorkerThread thread) {
+  /**
+   * Assigns this task to given thread, unless it was already assigned to another thread
+   * 
+   * @return true if the task was assigned to given thread and should be run by it
+   */
+  synchronized boolean assignTo(Thread thread) {
+    if (assignedTo != null)
+      return false;
     assignedTo = thread;
+    return true;
   }
 
   /**
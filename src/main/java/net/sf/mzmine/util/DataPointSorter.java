@@ -75,4 +75,78 @@ public class DataPointSorter implements Comparator<DataPoint> {
     }
 
   }
+
+  /**
+   * Sorts data points given as primitive m/z and intensity arrays, without creating DataPoint
+   * instances. The arrays are not modified, instead the indexes of the data points are returned in
+   * the order given by compare(). The sort is stable, so the result is identical to sorting the
+   * corresponding DataPoint array with Arrays.sort() and this comparator.
+   *
+   * @param numOfDataPoints number of valid elements in mzValues and intensityValues
+   * @return data point indexes in sorted order
+   */
+  public int[] sortIndexes(double mzValues[], double intensityValues[], int numOfDataPoints) {
+
+    int indexes[] = new int[numOfDataPoints];
+    for (int i = 0; i < numOfDataPoints; i++)
+      indexes[i] = i;
+
+    // Bottom-up merge sort. The bounds are computed as long, so they do not overflow for arrays of
+    // more than 2^30 data points
+    int buffer[] = new int[numOfDataPoints];
+    for (long width = 1; width < numOfDataPoints; width *= 2) {
+      for (long left = 0; left < numOfDataPoints; left += 2 * width) {
+        final int middle = (int) Math.min(left + width, numOfDataPoints);
+        final int right = (int) Math.min(left + 2 * width, numOfDataPoints);
+        int i = (int) left, j = middle, k = (int) left;
+        while ((i < middle) && (j < right)) {
+          if (compare(mzValues, intensityValues, indexes[j], indexes[i]) < 0)
+            buffer[k++] = indexes[j++];
+          else
+            buffer[k++] = indexes[i++];
+        }
+        while (i < middle)
+          buffer[k++] = indexes[i++];
+        while (j < right)
+          buffer[k++] = indexes[j++];
+      }
+      int swap[] = indexes;
+      indexes = buffer;
+      buffer = swap;
+    }
+
+    return indexes;
+  }
+
+  private int compare(double mzValues[], double intensityValues[], int index1, int index2) {
+
+    final double primary1, primary2, secondary1, secondary2;
+    switch (property) {
+      case MZ:
+        primary1 = mzValues[index1];
+        primary2 = mzValues[index2];
+        secondary1 = intensityValues[index1];
+        secondary2 = intensityValues[index2];
+        break;
+      case Intensity:
+        primary1 = intensityValues[index1];
+        primary2 = intensityValues[index2];
+        secondary1 = mzValues[index1];
+        secondary2 = mzValues[index2];
+        break;
+      default:
+        // We should never get here, so throw an exception
+        throw (new IllegalStateException());
+    }
+
+    int result = Double.compare(primary1, primary2);
+    if (result == 0)
+      result = Double.compare(secondary1, secondary2);
+
+    if (direction == SortingDirection.Ascending)
+      return result;
+    else
+      return -result;
+
+  }
 }
@@ -4,13 +4,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Range;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.util.DataPointSorter;
 import net.sf.mzmine.util.SortingDirection;
 import net.sf.mzmine.util.SortingProperty;
+import net.sf.mzmine.util.scans.similarity.CosineSimilarityKernel;
 
 /**
  * Scan or mass list alignment based on data points array
@@ -28,34 +28,18 @@ public class ScanAlignment {
 
 
   /**
-   * Aligned data points within mzTolerance. Sort by intensity and match every signal only once
+   * Aligned data points within mzTolerance. Sort by intensity and match every signal only once.
+   * Every signal of a (by descending intensity) is matched to the most intense unmatched signal of
+   * b within mzTolerance, see {@link CosineSimilarityKernel}. The arrays are not modified.
    * 
    * @param a
    * @param b
    * @return List of aligned data points
    */
   public static List<DataPoint[]> align(MZTolerance mzTol, DataPoint[] a, DataPoint[] b) {
-    // sort by intensity
-    Arrays.sort(a, sorter);
-
-    // sort b
-    ArrayList<DataPoint> bsorted = Lists.newArrayList(b);
-    bsorted.sort(sorter);
-
-    // add all datapoints of a to the aligned list
-    List<DataPoint[]> list = new ArrayList<>();
-    for (DataPoint dpa : a) {
-      // match or null
-      DataPoint dpb = findMatch(mzTol, dpa, bsorted);
-      list.add(new DataPoint[] {dpa, dpb});
-    }
-
-    // insert all remaining DP from sorted b
-    for (DataPoint dp : bsorted) {
-      list.add(new DataPoint[] {null, dp});
-    }
-
-    return list;
+    CosineSimilarityKernel kernel = CosineSimilarityKernel.get();
+    kernel.match(mzTol, a, b);
+    return kernel.getAlignedDataPoints(a, b);
   }
 
   /**
@@ -121,25 +105,6 @@ public class ScanAlignment {
     return Range.closed(min, max);
   }
 
-  /**
-   * Removes the matched datapoint from the sorted b list
-   * 
-   * @param mzTol
-   * @param dpa
-   * @param bsorted sorted by intensity
-   * @return
-   */
-  private static DataPoint findMatch(MZTolerance mzTol, DataPoint dpa, List<DataPoint> bsorted) {
-    for (DataPoint dpb : bsorted) {
-      if (mzTol.checkWithinTolerance(dpa.getMZ(), dpb.getMZ())) {
-        // remove from list and return
-        bsorted.remove(dpb);
-        return dpb;
-      }
-    }
-    return null;
-  }
-
   public static double getTIC(DataPoint[] scan) {
     return Arrays.stream(scan).mapToDouble(DataPoint::getIntensity).sum();
   }
@@ -115,15 +115,17 @@ public class ScanUtils {
   public static @Nonnull DataPoint findBasePeak(@Nonnull Scan scan,
       @Nonnull Range<Double> mzRange) {
 
-    DataPoint dataPoints[] = scan.getDataPointsByMass(mzRange);
-    DataPoint basePeak = null;
+    final int numOfDataPoints = scan.getNumberOfDataPoints();
+    final double mzValues[] = new double[numOfDataPoints];
+    final double intensityValues[] = new double[numOfDataPoints];
+    scan.getDataPoints(mzValues, intensityValues);
 
-    for (DataPoint dp : dataPoints) {
-      if ((basePeak == null) || (dp.getIntensity() > basePeak.getIntensity()))
-        basePeak = dp;
-    }
+    final int basePeakIndex =
+        findMostIntensePeakWithin(mzValues, intensityValues, numOfDataPoints, mzRange);
+    if (basePeakIndex < 0)
+      return null;
 
-    return basePeak;
+    return new SimpleDataPoint(mzValues[basePeakIndex], intensityValues[basePeakIndex]);
   }
 
   /**
@@ -135,9 +137,15 @@ public class ScanUtils {
    */
   public static double calculateTIC(Scan scan, Range<Double> mzRange) {
 
+    final int numOfDataPoints = scan.getNumberOfDataPoints();
+    final double mzValues[] = new double[numOfDataPoints];
+    final double intensityValues[] = new double[numOfDataPoints];
+    scan.getDataPoints(mzValues, intensityValues);
+
     double tic = 0.0;
-    for (final DataPoint dataPoint : scan.getDataPointsByMass(mzRange)) {
-      tic += dataPoint.getIntensity();
+    for (int i = findFirstMzIndex(mzValues, numOfDataPoints, mzRange.lowerEndpoint());
+        (i < numOfDataPoints) && (mzValues[i] <= mzRange.upperEndpoint()); i++) {
+      tic += intensityValues[i];
     }
     return tic;
   }
@@ -414,6 +422,50 @@ public class ScanUtils {
     return mostIntense;
   }
 
+  /**
+   * Returns the index of the first m/z value which is greater than or equal to the given m/z value.
+   * 
+   * @param mzValues sorted(!) m/z values
+   * @param numOfDataPoints number of valid elements in mzValues
+   * @param mz m/z value to search for
+   * @return index of the first m/z value >= mz, or numOfDataPoints if there is no such value
+   */
+  public static int findFirstMzIndex(double mzValues[], int numOfDataPoints, double mz) {
+    int low = 0, high = numOfDataPoints;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (mzValues[middle] < mz)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  /**
+   * Returns the index of the data point with highest intensity within the given m/z range
+   * 
+   * @param mzValues sorted(!) m/z values
+   * @param intensityValues intensity values corresponding to mzValues
+   * @param numOfDataPoints number of valid elements in mzValues and intensityValues
+   * @param mzRange m/z range to search in
+   * @return index of data point or -1, if no data point is in range
+   */
+  public static int findMostIntensePeakWithin(double mzValues[], double intensityValues[],
+      int numOfDataPoints, Range<Double> mzRange) {
+    int mostIntense = -1;
+    for (int k = findFirstMzIndex(mzValues, numOfDataPoints, mzRange.lowerEndpoint());
+        k < numOfDataPoints; k++) {
+      if (mzValues[k] > mzRange.upperEndpoint())
+        break;
+      if (!mzRange.contains(mzValues[k]))
+        continue;
+      if ((mostIntense < 0) || (intensityValues[k] > intensityValues[mostIntense]))
+        mostIntense = k;
+    }
+    return mostIntense;
+  }
+
   /**
    * Returns index of m/z value in a given array, which is closest to given value, limited by given
    * m/z tolerance. We assume the m/z array is sorted.
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.util.scans;
+
+import javax.annotation.Nonnull;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.RawDataFile;
+
+/**
+ * Sliding window over a sequence of scans of a raw data file, for processing which needs the data
+ * points of the neighbouring scans of each scan. The data points of the scans within the window are
+ * kept in a ring buffer, so each scan is read from the data points file only once, as long as the
+ * window moves forward. Scans which fall behind the window are dropped.
+ *
+ * The scans are addressed by their index in the array of scan numbers given to the constructor.
+ */
+public class ScanWindow {
+
+  private final RawDataFile dataFile;
+  private final int scanNumbers[];
+
+  // Data points of the scans first to last - 1, scan j is kept at j % buffer.length
+  private DataPoint buffer[][] = new DataPoint[16][];
+  private int first = 0, last = 0;
+
+  public ScanWindow(@Nonnull RawDataFile dataFile, @Nonnull int scanNumbers[]) {
+    this.dataFile = dataFile;
+    this.scanNumbers = scanNumbers;
+  }
+
+  /**
+   * Moves the window to the scans from index from to index to (inclusive), and reads the data
+   * points of the scans which enter the window. Moving the window backwards drops all scans.
+   */
+  public void moveTo(int from, int to) {
+
+    if ((from < 0) || (to >= scanNumbers.length) || (from > to))
+      throw new IllegalArgumentException(
+          "Invalid scan window " + from + " - " + to + " of " + scanNumbers.length + " scans");
+
+    if ((from < first) || (from >= last)) {
+      clear();
+      first = last = from;
+    } else {
+      for (; first < from; first++)
+        buffer[first % buffer.length] = null;
+    }
+
+    // Scans which are still in the ring buffer keep their data points when it grows
+    if (Math.max(to + 1, last) - first > buffer.length) {
+      final DataPoint newBuffer[][] =
+          new DataPoint[Integer.highestOneBit(Math.max(to + 1, last) - first) * 2][];
+      for (int j = first; j < last; j++)
+        newBuffer[j % newBuffer.length] = buffer[j % buffer.length];
+      buffer = newBuffer;
+    }
+
+    for (; last <= to; last++)
+      buffer[last % buffer.length] = dataFile.getScan(scanNumbers[last]).getDataPoints();
+
+  }
+
+  /**
+   * Returns the data points of the scan at given index, which must be within the window
+   */
+  public @Nonnull DataPoint[] getDataPoints(int index) {
+    if ((index < first) || (index >= last))
+      throw new IndexOutOfBoundsException(
+          "Scan " + index + " is not within the scan window " + first + " - " + (last - 1));
+    return buffer[index % buffer.length];
+  }
+
+  /**
+   * Drops the data points of all scans
+   */
+  public void clear() {
+    for (int j = first; j < last; j++)
+      buffer[j % buffer.length] = null;
+    first = last = 0;
+  }
+
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.util.scans.similarity;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+
+/**
+ * Matches the signals of two mass lists and calculates the weighted cosine similarity on primitive
+ * arrays, see ScanAlignment.align() and ScanAlignment.toIntensityMatrixWeighted().
+ *
+ * The signals are matched as in ScanAlignment.align(): the library signals are visited by
+ * descending intensity, and each takes the most intense unmatched query signal within the m/z
+ * tolerance. The query signals are sorted by m/z, so the candidates of each library signal are
+ * found by binary search instead of scanning all query signals. The scores are the same as those
+ * of Similarity.COSINE on the aligned intensity matrix, the sums are added in the same order.
+ *
+ * The prepared arrays and weighted intensities of both mass lists are kept and reused as long as
+ * the same DataPoint arrays are passed again, e.g. when one query is matched against many library
+ * entries. All buffers are reused, so a kernel is not thread-safe; get() returns the kernel of the
+ * current thread. The kernels of pool threads live as long as the threads, so a kernel only keeps
+ * primitive copies of the mass lists and a weak reference to the last DataPoint arrays, never the
+ * data points themselves. The matched data points are taken from the arrays passed to
+ * getMatchedDataPoints() and getAlignedDataPoints().
+ */
+public class CosineSimilarityKernel {
+
+  private static final ThreadLocal<CosineSimilarityKernel> kernels =
+      ThreadLocal.withInitial(CosineSimilarityKernel::new);
+
+  private final PreparedMassList library = new PreparedMassList();
+  private final PreparedMassList query = new PreparedMassList();
+
+  // Matches in the order of the library signals by descending intensity, as indexes of the
+  // prepared mass lists
+  private int numOfMatches = 0;
+  private int matchedLibrary[] = new int[0], matchedQuery[] = new int[0];
+  private boolean queryMatched[] = new boolean[0];
+
+  // Buffers to sort the matches by m/z
+  private int sortedMatches[] = new int[0], sortBuffer[] = new int[0];
+  private double matchMZs[] = new double[0];
+
+  public static CosineSimilarityKernel get() {
+    return kernels.get();
+  }
+
+  /**
+   * Matches the signals of both mass lists, see ScanAlignment.align(). The arrays are not modified.
+   *
+   * @return the number of matched signals
+   */
+  public int match(MZTolerance mzTol, DataPoint libraryDataPoints[], DataPoint queryDataPoints[]) {
+
+    library.prepare(libraryDataPoints);
+    query.prepare(queryDataPoints);
+
+    final int capacity = Math.min(library.size, query.size);
+    if (matchedLibrary.length < capacity) {
+      matchedLibrary = new int[capacity];
+      matchedQuery = new int[capacity];
+    }
+    if (queryMatched.length < query.size)
+      queryMatched = new boolean[query.size];
+    Arrays.fill(queryMatched, 0, query.size, false);
+    numOfMatches = 0;
+
+    for (int l = 0; (l < library.size) && (numOfMatches < query.size); l++) {
+
+      // Same bounds as mzTol.checkWithinTolerance(library m/z, query m/z)
+      final double mz = library.mzValues[l];
+      final double tolerance = mzTol.getMzToleranceForMass(mz);
+      final double lower = mz - tolerance, upper = mz + tolerance;
+
+      // The query signals are indexed by descending intensity, so the lowest unmatched index
+      // within the tolerance is the most intense signal
+      int best = -1;
+      for (int k = query.findFirstMZ(lower); (k < query.size)
+          && (query.sortedMZs[k] <= upper); k++) {
+        final int q = query.mzOrder[k];
+        if (!queryMatched[q] && ((best < 0) || (q < best)))
+          best = q;
+      }
+
+      if (best >= 0) {
+        queryMatched[best] = true;
+        matchedLibrary[numOfMatches] = l;
+        matchedQuery[numOfMatches] = best;
+        numOfMatches++;
+      }
+    }
+
+    return numOfMatches;
+
+  }
+
+  /**
+   * @return the number of signals matched by the last call of match()
+   */
+  public int getOverlap() {
+    return numOfMatches;
+  }
+
+  /**
+   * Weighted cosine similarity of the last matched mass lists, see
+   * ScanAlignment.toIntensityMatrixWeighted() and Similarity.COSINE
+   *
+   * @param removeUnmatched if true, only the matched signals are included in the norms
+   */
+  public double getCosine(Weights weights, boolean removeUnmatched) {
+
+    final double libraryWeighted[] = library.getWeighted(weights);
+    final double queryWeighted[] = query.getWeighted(weights);
+
+    // Sums in the order of the rows of the aligned intensity matrix: the library signals by
+    // descending intensity with their matches, then the unmatched query signals
+    double dot = 0, libraryNorm = 0, queryNorm = 0;
+    for (int m = 0; m < numOfMatches; m++) {
+      final double l = libraryWeighted[matchedLibrary[m]], q = queryWeighted[matchedQuery[m]];
+      dot += l * q;
+      queryNorm += q * q;
+      if (removeUnmatched)
+        libraryNorm += l * l;
+    }
+
+    if (!removeUnmatched) {
+      libraryNorm = library.getNorm(weights);
+      for (int q = 0; q < query.size; q++) {
+        if (!queryMatched[q])
+          queryNorm += queryWeighted[q] * queryWeighted[q];
+      }
+    }
+
+    return dot / (Math.sqrt(libraryNorm) * Math.sqrt(queryNorm));
+
+  }
+
+  /**
+   * Sum of the relative intensity ratios of neighbouring matched signals (sorted by the lower m/z
+   * of each match), divided by the number of matches. Ranges from 0 to 1.
+   */
+  public double getRelativeNeighbourFactor() {
+
+    if (sortedMatches.length < numOfMatches) {
+      sortedMatches = new int[numOfMatches];
+      sortBuffer = new int[numOfMatches];
+      matchMZs = new double[numOfMatches];
+    }
+    for (int m = 0; m < numOfMatches; m++) {
+      sortedMatches[m] = m;
+      matchMZs[m] =
+          Math.min(library.mzValues[matchedLibrary[m]], query.mzValues[matchedQuery[m]]);
+    }
+    final int sorted[] = sortIndexes(sortedMatches, sortBuffer, numOfMatches, matchMZs, null,
+        false);
+
+    // 0 is library, 1 is query
+    double factor = 0;
+    for (int i = 1; i < numOfMatches; i++) {
+      final int match1 = sorted[i - 1], match2 = sorted[i];
+      final double ratioLibrary = library.intensityValues[matchedLibrary[match2]]
+          / library.intensityValues[matchedLibrary[match1]];
+      final double ratioQuery = query.intensityValues[matchedQuery[match2]]
+          / query.intensityValues[matchedQuery[match1]];
+      factor += Math.min(ratioLibrary, ratioQuery) / Math.max(ratioLibrary, ratioQuery);
+    }
+    return factor / numOfMatches;
+
+  }
+
+  /**
+   * Returns the matched data points as pairs of library and query data point, in the order of the
+   * library data points by descending intensity. The arrays must be the ones passed to the last
+   * call of match().
+   */
+  public List<DataPoint[]> getMatchedDataPoints(DataPoint libraryDataPoints[],
+      DataPoint queryDataPoints[]) {
+    final List<DataPoint[]> aligned = new ArrayList<>(numOfMatches);
+    for (int m = 0; m < numOfMatches; m++) {
+      aligned.add(new DataPoint[] {library.getDataPoint(libraryDataPoints, matchedLibrary[m]),
+          query.getDataPoint(queryDataPoints, matchedQuery[m])});
+    }
+    return aligned;
+  }
+
+  /**
+   * Returns the aligned data points like ScanAlignment.align(): each library data point by
+   * descending intensity with its match or null, then each unmatched query data point by
+   * descending intensity. The arrays must be the ones passed to the last call of match().
+   */
+  public List<DataPoint[]> getAlignedDataPoints(DataPoint libraryDataPoints[],
+      DataPoint queryDataPoints[]) {
+    final List<DataPoint[]> aligned = new ArrayList<>(library.size + query.size - numOfMatches);
+    int m = 0;
+    for (int l = 0; l < library.size; l++) {
+      DataPoint match = null;
+      if ((m < numOfMatches) && (matchedLibrary[m] == l))
+        match = query.getDataPoint(queryDataPoints, matchedQuery[m++]);
+      aligned.add(new DataPoint[] {library.getDataPoint(libraryDataPoints, l), match});
+    }
+    for (int q = 0; q < query.size; q++) {
+      if (!queryMatched[q])
+        aligned.add(new DataPoint[] {null, query.getDataPoint(queryDataPoints, q)});
+    }
+    return aligned;
+  }
+
+  /**
+   * Stable bottom-up merge sort of the first n indexes by their primary and (if not null)
+   * secondary values
+   *
+   * @return the array which holds the sorted indexes, either indexes or buffer
+   */
+  private static int[] sortIndexes(int indexes[], int buffer[], int n, double primary[],
+      double secondary[], boolean descending) {
+    for (int width = 1; width < n; width *= 2) {
+      for (int left = 0; left < n; left += 2 * width) {
+        final int middle = Math.min(left + width, n);
+        final int right = Math.min(left + 2 * width, n);
+        int i = left, j = middle, k = left;
+        while ((i < middle) && (j < right)) {
+          int result = Double.compare(primary[indexes[j]], primary[indexes[i]]);
+          if ((result == 0) && (secondary != null))
+            result = Double.compare(secondary[indexes[j]], secondary[indexes[i]]);
+          if (descending)
+            result = -result;
+          if (result < 0)
+            buffer[k++] = indexes[j++];
+          else
+            buffer[k++] = indexes[i++];
+        }
+        while (i < middle)
+          buffer[k++] = indexes[i++];
+        while (j < right)
+          buffer[k++] = indexes[j++];
+      }
+      final int swap[] = indexes;
+      indexes = buffer;
+      buffer = swap;
+    }
+    return indexes;
+  }
+
+  /**
+   * A mass list sorted by descending intensity (as by ScanAlignment.sorter), with its m/z order
+   * and weighted intensities
+   */
+  private static class PreparedMassList {
+
+    // The prepared array, to recognize it when it is passed again. Only weakly referenced, so the
+    // kernel does not keep the mass list alive.
+    private WeakReference<DataPoint[]> source = new WeakReference<>(null);
+
+    private int size = 0;
+
+    // By descending intensity, with the index of each data point in the prepared array
+    private int sourceIndexes[] = new int[0];
+    private double mzValues[] = new double[0], intensityValues[] = new double[0];
+
+    // Indexes of the above by ascending m/z, and their m/z values
+    private int mzOrder[] = new int[0];
+    private double sortedMZs[] = new double[0];
+
+    // Weighted intensities and the sum of their squares, for these weights
+    private Weights weights;
+    private double weighted[] = new double[0];
+    private double norm;
+
+    private int indexBuffer[] = new int[0], sortBuffer[] = new int[0];
+    private double sourceMZs[] = new double[0], sourceIntensities[] = new double[0];
+
+    private void prepare(DataPoint dps[]) {
+
+      if (isPrepared(dps))
+        return;
+
+      size = dps.length;
+      if (sourceIndexes.length < size) {
+        sourceIndexes = new int[size];
+        mzValues = new double[size];
+        intensityValues = new double[size];
+        mzOrder = new int[size];
+        sortedMZs = new double[size];
+        weighted = new double[size];
+        indexBuffer = new int[size];
+        sortBuffer = new int[size];
+        sourceMZs = new double[size];
+        sourceIntensities = new double[size];
+      }
+      source = new WeakReference<>(dps);
+      weights = null;
+
+      // Same order as a stable sort by ScanAlignment.sorter
+      for (int i = 0; i < size; i++) {
+        sourceMZs[i] = dps[i].getMZ();
+        sourceIntensities[i] = dps[i].getIntensity();
+        indexBuffer[i] = i;
+      }
+      int order[] =
+          sortIndexes(indexBuffer, sortBuffer, size, sourceIntensities, sourceMZs, true);
+      for (int i = 0; i < size; i++) {
+        sourceIndexes[i] = order[i];
+        mzValues[i] = sourceMZs[order[i]];
+        intensityValues[i] = sourceIntensities[order[i]];
+      }
+
+      for (int i = 0; i < size; i++)
+        indexBuffer[i] = i;
+      order = sortIndexes(indexBuffer, sortBuffer, size, mzValues, null, false);
+      for (int i = 0; i < size; i++) {
+        mzOrder[i] = order[i];
+        sortedMZs[i] = mzValues[order[i]];
+      }
+
+    }
+
+    /**
+     * @return true if the given array was prepared last and its data points still have the same
+     *         values
+     */
+    private boolean isPrepared(DataPoint dps[]) {
+      if ((dps != source.get()) || (dps.length != size))
+        return false;
+      for (int i = 0; i < size; i++) {
+        if ((dps[i].getMZ() != sourceMZs[i]) || (dps[i].getIntensity() != sourceIntensities[i]))
+          return false;
+      }
+      return true;
+    }
+
+    /**
+     * Returns the data point at given index (by descending intensity) of the prepared array dps
+     */
+    private DataPoint getDataPoint(DataPoint dps[], int index) {
+      return dps[sourceIndexes[index]];
+    }
+
+    /**
+     * Returns the first index of sortedMZs whose m/z is not below given m/z
+     */
+    private int findFirstMZ(double mz) {
+      int low = 0, high = size;
+      while (low < high) {
+        final int middle = (low + high) >>> 1;
+        if (sortedMZs[middle] < mz)
+          low = middle + 1;
+        else
+          high = middle;
+      }
+      return low;
+    }
+
+    private double[] getWeighted(Weights weights) {
+      if (this.weights != weights) {
+        norm = 0;
+        for (int i = 0; i < size; i++) {
+          weighted[i] = Math.pow(intensityValues[i], weights.getIntensity())
+              * Math.pow(mzValues[i], weights.getMz());
+          norm += weighted[i] * weighted[i];
+        }
+        this.weights = weights;
+      }
+      return weighted;
+    }
+
+    private double getNorm(Weights weights) {
+      getWeighted(weights);
+      return norm;
+    }
+
+  }
+
+}
@@ -18,14 +18,12 @@
 
 package net.sf.mzmine.util.scans.similarity.impl.cosine;
 
-import java.util.List;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
-import net.sf.mzmine.util.maths.similarity.Similarity;
-import net.sf.mzmine.util.scans.ScanAlignment;
+import net.sf.mzmine.util.scans.similarity.CosineSimilarityKernel;
 import net.sf.mzmine.util.scans.similarity.SpectralSimilarity;
 import net.sf.mzmine.util.scans.similarity.SpectralSimilarityFunction;
 import net.sf.mzmine.util.scans.similarity.Weights;
@@ -52,20 +50,17 @@ public class WeightedCosineSpectralSimilarity extends SpectralSimilarityFunction
         .getParameter(WeightedCosineSpectralSimilarityParameters.removeUnmatched).getValue();
 
     // align
-    List<DataPoint[]> aligned = alignDataPoints(mzTol, library, query);
-    // removes all signals which were not found in both masslists
-    if (removeUnmatched)
-      aligned = removeUnaligned(aligned);
+    CosineSimilarityKernel kernel = CosineSimilarityKernel.get();
     // overlapping within mass tolerance
-    int overlap = calcOverlap(aligned);
+    int overlap = kernel.match(mzTol, library, query);
 
     if (overlap >= minMatch) {
       // weighted cosine
-      double[][] diffArray =
-          ScanAlignment.toIntensityMatrixWeighted(aligned, weights.getIntensity(), weights.getMz());
-      double diffCosine = Similarity.COSINE.calc(diffArray);
+      // removes all signals which were not found in both masslists
+      double diffCosine = kernel.getCosine(weights, removeUnmatched);
       if (diffCosine >= minCos)
-        return new SpectralSimilarity(getName(), diffCosine, overlap, library, query, aligned);
+        return new SpectralSimilarity(getName(), diffCosine, overlap, library, query,
+            kernel.getMatchedDataPoints(library, query));
       else
         return null;
     }
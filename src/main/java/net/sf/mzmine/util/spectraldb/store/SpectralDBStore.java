@@ -0,0 +1,375 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.util.spectraldb.store;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import com.google.common.collect.Range;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.util.spectraldb.entry.DBEntryField;
+import net.sf.mzmine.util.spectraldb.entry.SpectralDBEntry;
+import net.sf.mzmine.util.spectraldb.parser.UnsupportedFormatException;
+
+/**
+ * Binary store of a spectral library. A library is converted once by SpectralDBStoreWriter, the
+ * store file is kept next to the library (or in the temporary folder, if the folder of the library
+ * is not writable) and converted again when the library is modified.
+ *
+ * The entries are sorted by precursor m/z. The store file is memory-mapped, and entries are only
+ * decoded when requested, so searches can fetch the candidates within a precursor m/z range
+ * without reading the whole library. The peaks of each entry are stored as arrays of m/z values
+ * and intensities, the other fields separately. The store can be read from any thread.
+ */
+public class SpectralDBStore {
+
+  public static final String FILE_EXTENSION = "mzspectra";
+
+  static final int MAGIC = 0x4d5a5342;
+  static final int VERSION = 1;
+
+  static final byte TYPE_STRING = 0, TYPE_DOUBLE = 1, TYPE_FLOAT = 2, TYPE_INTEGER = 3,
+      TYPE_LONG = 4;
+
+  // Sections larger than this are mapped in several overlapping segments
+  private static final long SEGMENT_SIZE = 1L << 30;
+
+  // Stores are converted one at a time per store file
+  private static final Map<File, Object> conversionLocks = new ConcurrentHashMap<>();
+
+  private static Logger logger = Logger.getLogger(SpectralDBStore.class.getName());
+
+  private final File storeFile;
+  private final int numOfEntries;
+
+  // Fields of the store, by their index in the store file. Fields which no longer exist are null.
+  private final DBEntryField fields[];
+
+  // Precursor m/z (sorted, NaN at the end), offsets of the peaks and offsets of the other fields
+  private final ByteBuffer index;
+  private final int peakOffsetsPosition, metadataOffsetsPosition;
+
+  private final Section peaks, metadata;
+
+  private SpectralDBStore(File storeFile) throws IOException {
+
+    this.storeFile = storeFile;
+
+    final int maxPeakBlock, maxMetadataBlock, headerLength;
+    try (DataInputStream is =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(storeFile)))) {
+      is.readInt();
+      is.readInt();
+      is.readLong();
+      is.readLong();
+      numOfEntries = is.readInt();
+      maxPeakBlock = is.readInt();
+      maxMetadataBlock = is.readInt();
+      int length = 4 + 4 + 8 + 8 + 4 + 4 + 4 + 2;
+      fields = new DBEntryField[is.readUnsignedShort()];
+      for (int f = 0; f < fields.length; f++) {
+        final String name = is.readUTF();
+        length += 2 + name.getBytes(StandardCharsets.UTF_8).length;
+        try {
+          fields[f] = DBEntryField.valueOf(name);
+        } catch (IllegalArgumentException e) {
+          fields[f] = null;
+        }
+      }
+      headerLength = length;
+    }
+
+    if ((long) numOfEntries * 24 + 16 > Integer.MAX_VALUE)
+      throw new IOException("Too many entries in spectral library store " + storeFile);
+
+    try (RandomAccessFile file = new RandomAccessFile(storeFile, "r")) {
+      final FileChannel channel = file.getChannel();
+      final int indexLength = numOfEntries * 24 + 16;
+      index = channel.map(FileChannel.MapMode.READ_ONLY, headerLength, indexLength);
+      peakOffsetsPosition = numOfEntries * 8;
+      metadataOffsetsPosition = peakOffsetsPosition + (numOfEntries + 1) * 8;
+
+      final long peaksLength = index.getLong(peakOffsetsPosition + numOfEntries * 8);
+      final long metadataLength = index.getLong(metadataOffsetsPosition + numOfEntries * 8);
+      final long peaksStart = headerLength + indexLength;
+      if (peaksStart + peaksLength + metadataLength != channel.size())
+        throw new EOFException("Spectral library store " + storeFile + " is truncated");
+
+      peaks = new Section(channel, peaksStart, peaksLength, maxPeakBlock);
+      metadata = new Section(channel, peaksStart + peaksLength, metadataLength, maxMetadataBlock);
+    }
+
+  }
+
+  /**
+   * Opens the store of given library. The library is converted if it has no store yet, or if it
+   * was modified after its store was written.
+   *
+   * @return the store, or null if the task was canceled during the conversion
+   */
+  public static @Nullable SpectralDBStore open(@Nonnull AbstractTask mainTask,
+      @Nonnull File library) throws UnsupportedFormatException, IOException {
+
+    final File storeFile = getStoreFile(library);
+    synchronized (conversionLocks.computeIfAbsent(storeFile, f -> new Object())) {
+
+      File upToDateFile = null;
+      for (File file : getStoreVersions(storeFile)) {
+        if (isUpToDate(file, library)) {
+          upToDateFile = file;
+          break;
+        }
+      }
+
+      if (upToDateFile == null) {
+        SpectralDBStoreWriter writer =
+            new SpectralDBStoreWriter(storeFile.getAbsoluteFile().getParentFile());
+        upToDateFile = writer.convert(mainTask, library, storeFile);
+        if (upToDateFile == null)
+          return null;
+      }
+
+      return new SpectralDBStore(upToDateFile);
+    }
+
+  }
+
+  /**
+   * Returns the file of the store of given library
+   */
+  public static @Nonnull File getStoreFile(@Nonnull File library) {
+    final File libraryDir = library.getAbsoluteFile().getParentFile();
+    if ((libraryDir != null) && libraryDir.canWrite())
+      return new File(libraryDir, library.getName() + "." + FILE_EXTENSION);
+    final String name = library.getName() + "-"
+        + Integer.toHexString(library.getAbsolutePath().hashCode()) + "." + FILE_EXTENSION;
+    return new File(System.getProperty("java.io.tmpdir"), name);
+  }
+
+  /**
+   * Returns the existing files of given store file, the latest version first. On Windows a store
+   * file cannot be replaced while it is mapped, so SpectralDBStoreWriter then writes the new store
+   * to the store file name followed by a version number.
+   */
+  static @Nonnull List<File> getStoreVersions(@Nonnull File storeFile) {
+    final List<File> versions = new ArrayList<>();
+    final File files[] = storeFile.getAbsoluteFile().getParentFile().listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (getVersion(storeFile, file) >= 0)
+          versions.add(file);
+      }
+    }
+    versions.sort(Comparator.comparingInt((File file) -> getVersion(storeFile, file)).reversed());
+    return versions;
+  }
+
+  /**
+   * @return the version of given file of given store file, 0 for the store file itself and -1 if
+   *         the file is no version of the store file
+   */
+  static int getVersion(@Nonnull File storeFile, @Nonnull File file) {
+    final String name = file.getName(), prefix = storeFile.getName();
+    if (name.equals(prefix))
+      return 0;
+    if (!name.startsWith(prefix + ".") || !name.substring(prefix.length() + 1).matches("\\d{1,9}"))
+      return -1;
+    return Integer.parseInt(name.substring(prefix.length() + 1));
+  }
+
+  private static boolean isUpToDate(File storeFile, File library) {
+    if (!storeFile.isFile())
+      return false;
+    try (DataInputStream is = new DataInputStream(new FileInputStream(storeFile))) {
+      return (is.readInt() == MAGIC) && (is.readInt() == VERSION)
+          && (is.readLong() == library.length()) && (is.readLong() == library.lastModified());
+    } catch (IOException e) {
+      logger.info("Spectral library store " + storeFile + " cannot be read: " + e);
+      return false;
+    }
+  }
+
+  public File getStoreFile() {
+    return storeFile;
+  }
+
+  public int getNumberOfEntries() {
+    return numOfEntries;
+  }
+
+  /**
+   * @return the precursor m/z of the entry with given index, or NaN if it has none
+   */
+  public double getPrecursorMZ(int entry) {
+    return index.getDouble(entry * 8);
+  }
+
+  /**
+   * Returns the index of the first entry whose precursor m/z is not below given m/z
+   */
+  public int findFirstEntry(double mz) {
+    int low = 0, high = numOfEntries;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (getPrecursorMZ(middle) < mz)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  /**
+   * Returns all entries whose precursor m/z is within given range, sorted by precursor m/z
+   */
+  public @Nonnull List<SpectralDBEntry> getEntries(@Nonnull Range<Double> precursorMZRange) {
+    final List<SpectralDBEntry> entries = new ArrayList<>();
+    for (int i = findFirstEntry(precursorMZRange.lowerEndpoint()); (i < numOfEntries)
+        && (getPrecursorMZ(i) <= precursorMZRange.upperEndpoint()); i++) {
+      entries.add(getEntry(i));
+    }
+    return entries;
+  }
+
+  /**
+   * Returns the entries from index start (inclusive) to end (exclusive)
+   */
+  public @Nonnull List<SpectralDBEntry> getEntries(int start, int end) {
+    final List<SpectralDBEntry> entries = new ArrayList<>(end - start);
+    for (int i = start; i < end; i++)
+      entries.add(getEntry(i));
+    return entries;
+  }
+
+  /**
+   * Decodes the entry with given index
+   */
+  public @Nonnull SpectralDBEntry getEntry(int entry) {
+
+    final long peakStart = index.getLong(peakOffsetsPosition + entry * 8);
+    final long peakEnd = index.getLong(peakOffsetsPosition + (entry + 1) * 8);
+    final int numOfPeaks = (int) ((peakEnd - peakStart) / 16);
+    final ByteBuffer peakBuffer = peaks.getSegment(peakStart);
+    final int mzPosition = peaks.getPosition(peakStart);
+    final int intensityPosition = mzPosition + numOfPeaks * 8;
+    final DataPoint dataPoints[] = new DataPoint[numOfPeaks];
+    for (int i = 0; i < numOfPeaks; i++) {
+      dataPoints[i] = new SimpleDataPoint(peakBuffer.getDouble(mzPosition + i * 8),
+          peakBuffer.getDouble(intensityPosition + i * 8));
+    }
+
+    final long metadataStart = index.getLong(metadataOffsetsPosition + entry * 8);
+    final ByteBuffer metadataBuffer = metadata.getSegment(metadataStart);
+    int position = metadata.getPosition(metadataStart);
+    final int numOfFields = metadataBuffer.getShort(position) & 0xffff;
+    position += 2;
+
+    final Map<DBEntryField, Object> entryFields = new EnumMap<>(DBEntryField.class);
+    for (int f = 0; f < numOfFields; f++) {
+      final DBEntryField field = fields[metadataBuffer.getShort(position) & 0xffff];
+      final byte type = metadataBuffer.get(position + 2);
+      position += 3;
+      final Object value;
+      switch (type) {
+        case TYPE_DOUBLE:
+          value = metadataBuffer.getDouble(position);
+          position += 8;
+          break;
+        case TYPE_FLOAT:
+          value = metadataBuffer.getFloat(position);
+          position += 4;
+          break;
+        case TYPE_INTEGER:
+          value = metadataBuffer.getInt(position);
+          position += 4;
+          break;
+        case TYPE_LONG:
+          value = metadataBuffer.getLong(position);
+          position += 8;
+          break;
+        default:
+          final byte bytes[] = new byte[metadataBuffer.getInt(position)];
+          for (int i = 0; i < bytes.length; i++)
+            bytes[i] = metadataBuffer.get(position + 4 + i);
+          value = new String(bytes, StandardCharsets.UTF_8);
+          position += 4 + bytes.length;
+          break;
+      }
+      if (field != null)
+        entryFields.put(field, value);
+    }
+
+    return new SpectralDBEntry(entryFields, dataPoints);
+
+  }
+
+  /**
+   * A section of the store file, mapped in segments. Each segment also maps the largest block
+   * beyond its end, so every block of the section is contained in the segment it starts in.
+   */
+  private static class Section {
+
+    private final MappedByteBuffer segments[];
+
+    private Section(FileChannel channel, long start, long length, int maxBlock)
+        throws IOException {
+      segments = new MappedByteBuffer[(int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+      for (int i = 0; i < segments.length; i++) {
+        final long segmentStart = i * SEGMENT_SIZE;
+        final long segmentLength = Math.min(length - segmentStart, SEGMENT_SIZE + maxBlock);
+        segments[i] =
+            channel.map(FileChannel.MapMode.READ_ONLY, start + segmentStart, segmentLength);
+      }
+    }
+
+    private ByteBuffer getSegment(long offset) {
+      // Empty blocks may start at the end of the section
+      if (offset / SEGMENT_SIZE >= segments.length)
+        return ByteBuffer.allocate(0);
+      return segments[(int) (offset / SEGMENT_SIZE)];
+    }
+
+    private int getPosition(long offset) {
+      if (offset / SEGMENT_SIZE >= segments.length)
+        return 0;
+      return (int) (offset % SEGMENT_SIZE);
+    }
+
+  }
+
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.util.spectraldb.store;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Logger;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.util.spectraldb.entry.DBEntryField;
+import net.sf.mzmine.util.spectraldb.entry.SpectralDBEntry;
+import net.sf.mzmine.util.spectraldb.parser.AutoLibraryParser;
+import net.sf.mzmine.util.spectraldb.parser.UnsupportedFormatException;
+
+/**
+ * Converts a spectral library into the binary format of SpectralDBStore. The entries are written
+ * to a temporary file in the order of the library, as they are parsed. Then they are copied to the
+ * store file, sorted by precursor m/z. Only the precursor m/z and the positions of the entries are
+ * kept on the heap.
+ */
+class SpectralDBStoreWriter {
+
+  private Logger logger = Logger.getLogger(this.getClass().getName());
+
+  // Parsed entries, in the order of the library
+  private int numOfEntries = 0;
+  private double precursorMZs[] = new double[1024];
+  private long positions[] = new long[1024];
+  private int numOfPeaks[] = new int[1024];
+  private int metadataLengths[] = new int[1024];
+  private int maxPeakBlock = 0, maxMetadataBlock = 0;
+
+  private final File tempFile;
+  private final DataOutputStream tempStream;
+  private long tempLength = 0;
+
+  private final ByteArrayOutputStream metadataBytes = new ByteArrayOutputStream();
+  private final DataOutputStream metadataStream = new DataOutputStream(metadataBytes);
+
+  SpectralDBStoreWriter(File storeDir) throws IOException {
+    tempFile = File.createTempFile("mzmine", ".spectra", storeDir);
+    tempFile.deleteOnExit();
+    tempStream =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16));
+  }
+
+  /**
+   * Parses given library and writes the store file
+   *
+   * @return the written store file, or null if the task was canceled, in which case no store file
+   *         is written
+   */
+  File convert(AbstractTask mainTask, File library, File storeFile)
+      throws UnsupportedFormatException, IOException {
+
+    try {
+      logger.info("Converting spectral library " + library + " to " + storeFile);
+
+      final long libraryLength = library.length(), libraryLastModified = library.lastModified();
+
+      // The parser calls the processor while holding its lock, one list after another
+      final IOException error[] = new IOException[1];
+      AutoLibraryParser parser = new AutoLibraryParser(1000, (list, alreadyProcessed) -> {
+        if (error[0] != null)
+          return;
+        try {
+          addEntries(list);
+        } catch (IOException e) {
+          error[0] = e;
+        }
+      });
+      parser.parse(mainTask, library);
+      if (error[0] != null)
+        throw error[0];
+      if (mainTask.isCanceled())
+        return null;
+
+      tempStream.close();
+      final File writtenFile = writeStore(storeFile, libraryLength, libraryLastModified);
+
+      logger.info("Converted " + numOfEntries + " entries of spectral library " + library);
+      return writtenFile;
+
+    } finally {
+      tempStream.close();
+      tempFile.delete();
+    }
+
+  }
+
+  private void addEntries(List<SpectralDBEntry> list) throws IOException {
+
+    for (SpectralDBEntry entry : list) {
+
+      if (numOfEntries == positions.length) {
+        final int newCapacity = numOfEntries * 2;
+        precursorMZs = Arrays.copyOf(precursorMZs, newCapacity);
+        positions = Arrays.copyOf(positions, newCapacity);
+        numOfPeaks = Arrays.copyOf(numOfPeaks, newCapacity);
+        metadataLengths = Arrays.copyOf(metadataLengths, newCapacity);
+      }
+
+      final Double precursorMZ = entry.getPrecursorMZ();
+      final DataPoint dataPoints[] = entry.getDataPoints();
+      precursorMZs[numOfEntries] = (precursorMZ == null) ? Double.NaN : precursorMZ;
+      positions[numOfEntries] = tempLength;
+      numOfPeaks[numOfEntries] = dataPoints.length;
+
+      // Peaks: all m/z values followed by all intensities
+      for (DataPoint dp : dataPoints)
+        tempStream.writeDouble(dp.getMZ());
+      for (DataPoint dp : dataPoints)
+        tempStream.writeDouble(dp.getIntensity());
+      final int peakBlock = dataPoints.length * 16;
+
+      metadataBytes.reset();
+      writeMetadata(entry);
+      metadataBytes.writeTo(tempStream);
+      final int metadataBlock = metadataBytes.size();
+
+      metadataLengths[numOfEntries] = metadataBlock;
+      maxPeakBlock = Math.max(maxPeakBlock, peakBlock);
+      maxMetadataBlock = Math.max(maxMetadataBlock, metadataBlock);
+      tempLength += peakBlock + metadataBlock;
+      numOfEntries++;
+    }
+
+  }
+
+  /**
+   * Writes the number of fields, followed by the field index, the value type and the value of each
+   * field. Values of other types than those of SpectralDBStore.TYPE_* are stored as strings.
+   */
+  private void writeMetadata(SpectralDBEntry entry) throws IOException {
+
+    final DBEntryField fields[] = DBEntryField.values();
+    int numOfFields = 0;
+    for (DBEntryField field : fields) {
+      if (entry.getField(field).isPresent())
+        numOfFields++;
+    }
+    metadataStream.writeShort(numOfFields);
+
+    for (int f = 0; f < fields.length; f++) {
+      final Object value = entry.getField(fields[f]).orElse(null);
+      if (value == null)
+        continue;
+      metadataStream.writeShort(f);
+      if (value instanceof Double) {
+        metadataStream.writeByte(SpectralDBStore.TYPE_DOUBLE);
+        metadataStream.writeDouble((Double) value);
+      } else if (value instanceof Float) {
+        metadataStream.writeByte(SpectralDBStore.TYPE_FLOAT);
+        metadataStream.writeFloat((Float) value);
+      } else if (value instanceof Integer) {
+        metadataStream.writeByte(SpectralDBStore.TYPE_INTEGER);
+        metadataStream.writeInt((Integer) value);
+      } else if (value instanceof Long) {
+        metadataStream.writeByte(SpectralDBStore.TYPE_LONG);
+        metadataStream.writeLong((Long) value);
+      } else {
+        final byte bytes[] = value.toString().getBytes(StandardCharsets.UTF_8);
+        metadataStream.writeByte(SpectralDBStore.TYPE_STRING);
+        metadataStream.writeInt(bytes.length);
+        metadataStream.write(bytes);
+      }
+    }
+
+  }
+
+  /**
+   * Writes the header, the index sections and the entries sorted by precursor m/z. Entries without
+   * a precursor m/z are sorted to the end. The file is written next to the store file and moved,
+   * so a store file is always complete.
+   *
+   * @return the store file, or a new version of it if the store file could not be replaced
+   */
+  private File writeStore(File storeFile, long libraryLength, long libraryLastModified)
+      throws IOException {
+
+    // Stable sort, entries with the same precursor m/z keep the order of the library
+    Integer order[] = new Integer[numOfEntries];
+    for (int i = 0; i < numOfEntries; i++)
+      order[i] = i;
+    Arrays.sort(order, Comparator.comparingDouble(i -> precursorMZs[i]));
+
+    final File newStoreFile =
+        File.createTempFile("mzmine", ".spectra", storeFile.getAbsoluteFile().getParentFile());
+    newStoreFile.deleteOnExit();
+
+    try (RandomAccessFile temp = new RandomAccessFile(tempFile, "r");
+        DataOutputStream os = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(newStoreFile), 1 << 16))) {
+
+      os.writeInt(SpectralDBStore.MAGIC);
+      os.writeInt(SpectralDBStore.VERSION);
+      os.writeLong(libraryLength);
+      os.writeLong(libraryLastModified);
+      os.writeInt(numOfEntries);
+      os.writeInt(maxPeakBlock);
+      os.writeInt(maxMetadataBlock);
+      final DBEntryField fields[] = DBEntryField.values();
+      os.writeShort(fields.length);
+      for (DBEntryField field : fields)
+        os.writeUTF(field.name());
+
+      for (int i : order)
+        os.writeDouble(precursorMZs[i]);
+
+      long peakOffset = 0;
+      for (int i : order) {
+        os.writeLong(peakOffset);
+        peakOffset += numOfPeaks[i] * 16L;
+      }
+      os.writeLong(peakOffset);
+
+      long metadataOffset = 0;
+      for (int i : order) {
+        os.writeLong(metadataOffset);
+        metadataOffset += metadataLengths[i];
+      }
+      os.writeLong(metadataOffset);
+
+      final FileChannel tempChannel = temp.getChannel();
+      final ByteBuffer buffer = ByteBuffer.allocate(Math.max(maxPeakBlock, maxMetadataBlock));
+      for (int i : order)
+        copyBlock(tempChannel, positions[i], numOfPeaks[i] * 16, buffer, os);
+      for (int i : order)
+        copyBlock(tempChannel, positions[i] + numOfPeaks[i] * 16L, metadataLengths[i], buffer, os);
+
+    } catch (IOException e) {
+      newStoreFile.delete();
+      throw e;
+    }
+
+    final List<File> oldFiles = SpectralDBStore.getStoreVersions(storeFile);
+    File writtenFile = storeFile;
+    try {
+      try {
+        Files.move(newStoreFile.toPath(), storeFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        throw e;
+      } catch (FileSystemException e) {
+        // On Windows a file cannot be replaced while an open SpectralDBStore maps it
+        final int version = oldFiles.isEmpty() ? 1
+            : SpectralDBStore.getVersion(storeFile, oldFiles.get(0)) + 1;
+        writtenFile = new File(storeFile.getPath() + "." + version);
+        logger.info("Spectral library store " + storeFile + " cannot be replaced (" + e
+            + "), writing " + writtenFile);
+        Files.move(newStoreFile.toPath(), writtenFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      }
+    } catch (IOException e) {
+      newStoreFile.delete();
+      throw e;
+    }
+
+    // Old versions which are still mapped are deleted by a later conversion
+    for (File oldFile : oldFiles) {
+      if (!oldFile.equals(writtenFile))
+        oldFile.delete();
+    }
+
+    return writtenFile;
+
+  }
+
+  private static void copyBlock(FileChannel source, long position, int length, ByteBuffer buffer,
+      DataOutputStream os) throws IOException {
+    buffer.clear();
+    buffer.limit(length);
+    while (buffer.hasRemaining()) {
+      if (source.read(buffer, position + buffer.position()) < 0)
+        throw new IOException("Unexpected end of temporary spectral library file");
+    }
+    os.write(buffer.array(), 0, length);
+  }
+
+}